@@ -0,0 +1,191 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.io.IOException;
+
+import java.time.Duration;
+
+import java.util.Iterator;
+import java.util.UUID;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.protobuf.ByteString;
+
+import hapi.chart.ChartOuterClass.Chart;
+import hapi.chart.TemplateOuterClass.Template;
+
+import hapi.services.tiller.Tiller.GetReleaseContentRequest;
+import hapi.services.tiller.Tiller.GetReleaseContentResponse;
+import hapi.services.tiller.Tiller.InstallReleaseRequest;
+import hapi.services.tiller.Tiller.InstallReleaseResponse;
+import hapi.services.tiller.Tiller.ListReleasesRequest;
+import hapi.services.tiller.Tiller.ListReleasesResponse;
+import hapi.services.tiller.Tiller.UpdateReleaseRequest;
+import hapi.services.tiller.Tiller.UpdateReleaseResponse;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmarks that drive a {@link ReleaseManager}, through {@link
+ * Tiller#Tiller(ManagedChannel)} and gRPC's in-process transport,
+ * against a {@link FakeReleaseService}, so that client-side overhead
+ * can be measured, and regressions caught, without a Kubernetes
+ * cluster.
+ *
+ * <p>Run them with {@code mvn -P benchmarks verify}.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+public class ReleaseManagerBenchmark {
+
+  /**
+   * The number of templates in the benchmarked chart.
+   */
+  @Param({ "1", "100" })
+  public int templateCount;
+
+  /**
+   * The number of releases present before each trial.
+   */
+  @Param({ "100" })
+  public int releaseCount;
+
+  /**
+   * The latency, in microseconds, of every call to the {@link
+   * FakeReleaseService}.
+   */
+  @Param({ "0" })
+  public long latencyMicros;
+
+  private FakeReleaseService service;
+
+  private Server server;
+
+  private ManagedChannel channel;
+
+  private ReleaseManager releaseManager;
+
+  private Chart chart;
+
+  public ReleaseManagerBenchmark() {
+    super();
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws ExecutionException, InterruptedException, IOException {
+    final Chart.Builder chartBuilder = Chart.newBuilder();
+    chartBuilder.getMetadataBuilder().setName("benchmark").setVersion("1.0.0");
+    for (int i = 0; i < this.templateCount; i++) {
+      chartBuilder.addTemplates(Template.newBuilder()
+                                .setName("templates/configmap-" + i + ".yaml")
+                                .setData(ByteString.copyFromUtf8("apiVersion: v1\nkind: ConfigMap\nmetadata:\n  name: {{ .Release.Name }}-" + i + "\n")));
+    }
+    this.chart = chartBuilder.build();
+
+    this.service = new FakeReleaseService();
+    // Keep repeated updates from growing the store without bound.
+    this.service.setMaximumHistory(10);
+    final String name = UUID.randomUUID().toString();
+    this.server = InProcessServerBuilder.forName(name).addService(this.service).build().start();
+    this.channel = InProcessChannelBuilder.forName(name).build();
+    this.releaseManager = new ReleaseManager(new Tiller(this.channel));
+    for (int i = 0; i < this.releaseCount; i++) {
+      this.releaseManager.install(InstallReleaseRequest.newBuilder().setName(releaseName(i)), this.chart.toBuilder()).get();
+    }
+    this.service.setLatency(Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(this.latencyMicros)));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws InterruptedException, IOException {
+    if (this.releaseManager != null) {
+      this.releaseManager.close();
+    }
+    if (this.channel != null) {
+      this.channel.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+    if (this.server != null) {
+      this.server.shutdownNow();
+      this.server.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+    if (this.service != null) {
+      this.service.close();
+    }
+  }
+
+  /**
+   * Installs a release as a dry run, which Tiller, and so the {@link
+   * FakeReleaseService}, does not store; the client does all the
+   * work of a real installation.
+   */
+  @Benchmark
+  public InstallReleaseResponse install() throws ExecutionException, InterruptedException, IOException {
+    return this.releaseManager.install(InstallReleaseRequest.newBuilder().setName("benchmark-install").setDryRun(true), this.chart.toBuilder()).get();
+  }
+
+  @Benchmark
+  public UpdateReleaseResponse update() throws ExecutionException, InterruptedException, IOException {
+    return this.releaseManager.update(UpdateReleaseRequest.newBuilder().setName(releaseName(0)), this.chart.toBuilder()).get();
+  }
+
+  @Benchmark
+  public void list(final Blackhole blackhole) {
+    final Iterator<ListReleasesResponse> responses = this.releaseManager.list(ListReleasesRequest.getDefaultInstance());
+    while (responses.hasNext()) {
+      blackhole.consume(responses.next());
+    }
+  }
+
+  @Benchmark
+  public GetReleaseContentResponse getContent() throws ExecutionException, InterruptedException, IOException {
+    return this.releaseManager.getContent(GetReleaseContentRequest.newBuilder().setName(releaseName(0)).build()).get();
+  }
+
+  private static final String releaseName(final int i) {
+    return String.format("release-%04d", i);
+  }
+
+}
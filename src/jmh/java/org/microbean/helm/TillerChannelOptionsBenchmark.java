@@ -0,0 +1,194 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.io.IOException;
+
+import java.util.Random;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.protobuf.ByteString;
+
+import hapi.chart.ChartOuterClass.Chart;
+import hapi.chart.MetadataOuterClass.Metadata;
+import hapi.chart.TemplateOuterClass.Template;
+
+import hapi.release.ReleaseOuterClass.Release;
+
+import hapi.services.tiller.ReleaseServiceGrpc;
+import hapi.services.tiller.ReleaseServiceGrpc.ReleaseServiceBlockingStub;
+import hapi.services.tiller.ReleaseServiceGrpc.ReleaseServiceImplBase;
+import hapi.services.tiller.Tiller.InstallReleaseRequest;
+import hapi.services.tiller.Tiller.InstallReleaseResponse;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+
+import io.grpc.netty.NettyServerBuilder;
+
+import io.grpc.stub.StreamObserver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks that compare {@link TillerChannelOptions} transport
+ * profiles by sending large {@link InstallReleaseRequest}s over a
+ * real HTTP/2 connection to a local gRPC server.
+ *
+ * <p>Run them with {@code mvn -P benchmarks verify
+ * -Dbenchmarks=TillerChannelOptionsBenchmark}.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+public class TillerChannelOptionsBenchmark {
+
+  /**
+   * The transport profile under test.
+   *
+   * @see #options(String)
+   */
+  @Param({ "default", "large-window", "gzip", "large-window-gzip-direct" })
+  public String profile;
+
+  /**
+   * The number of templates in the chart sent with each request.
+   */
+  @Param({ "200" })
+  public int templateCount;
+
+  /**
+   * The size, in characters, of each template in the chart sent with
+   * each request.
+   */
+  @Param({ "16384" })
+  public int templateSize;
+
+  private Server server;
+
+  private ManagedChannel channel;
+
+  private ReleaseServiceBlockingStub stub;
+
+  private InstallReleaseRequest request;
+
+  public TillerChannelOptionsBenchmark() {
+    super();
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    this.request = InstallReleaseRequest.newBuilder()
+      .setName("benchmark")
+      .setNamespace("default")
+      .setChart(newLargeChart(this.templateCount, this.templateSize))
+      .build();
+    this.server = NettyServerBuilder.forPort(0)
+      .maxInboundMessageSize(Tiller.MAX_MESSAGE_SIZE)
+      .addService(new ReleaseServiceImplBase() {
+          @Override
+          public final void installRelease(final InstallReleaseRequest request, final StreamObserver<InstallReleaseResponse> responseObserver) {
+            responseObserver.onNext(InstallReleaseResponse.newBuilder().setRelease(Release.newBuilder().setName(request.getName())).build());
+            responseObserver.onCompleted();
+          }
+        })
+      .build()
+      .start();
+    this.channel = options(this.profile).buildChannel("localhost", this.server.getPort());
+    this.stub = ReleaseServiceGrpc.newBlockingStub(this.channel);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws InterruptedException {
+    if (this.channel != null) {
+      this.channel.shutdownNow();
+      this.channel.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+    if (this.server != null) {
+      this.server.shutdownNow();
+      this.server.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+  }
+
+  @Benchmark
+  public InstallReleaseResponse install() {
+    return this.stub.installRelease(this.request);
+  }
+
+  private static final TillerChannelOptions options(final String profile) {
+    final TillerChannelOptions returnValue;
+    switch (profile) {
+    case "default":
+      returnValue = TillerChannelOptions.DEFAULT;
+      break;
+    case "large-window":
+      returnValue = TillerChannelOptions.builder().flowControlWindow(8 * 1024 * 1024).build();
+      break;
+    case "gzip":
+      returnValue = TillerChannelOptions.builder().compression("gzip", 64 * 1024).build();
+      break;
+    case "large-window-gzip-direct":
+      returnValue = TillerChannelOptions.builder()
+        .flowControlWindow(8 * 1024 * 1024)
+        .compression("gzip", 64 * 1024)
+        .directExecutor()
+        .build();
+      break;
+    default:
+      throw new IllegalArgumentException("Unknown profile: " + profile);
+    }
+    return returnValue;
+  }
+
+  private static final Chart newLargeChart(final int templateCount, final int templateSize) {
+    final Chart.Builder builder = Chart.newBuilder();
+    builder.setMetadata(Metadata.newBuilder().setName("benchmark").setVersion("0.1.0"));
+    final Random random = new Random(42L);
+    final String alphabet = "abcdefghijklmnopqrstuvwxyz{}.: \n";
+    for (int i = 0; i < templateCount; i++) {
+      // Text that is somewhat, but not trivially, compressible, like
+      // real templates.
+      final StringBuilder sb = new StringBuilder(templateSize);
+      while (sb.length() < templateSize) {
+        sb.append("  {{ .Values.key").append(random.nextInt(64)).append(" }}")
+          .append(alphabet.charAt(random.nextInt(alphabet.length())));
+      }
+      builder.addTemplates(Template.newBuilder().setName("templates/t" + i + ".yaml").setData(ByteString.copyFromUtf8(sb.toString())));
+    }
+    return builder.build();
+  }
+
+}
@@ -0,0 +1,844 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.Queue;
+
+import java.util.concurrent.CompletableFuture;
+
+import java.util.function.BiConsumer;
+
+import hapi.chart.ChartOuterClass.Chart;
+
+import hapi.services.tiller.ReleaseServiceGrpc;
+import hapi.services.tiller.ReleaseServiceGrpc.ReleaseServiceStub;
+import hapi.services.tiller.Tiller.GetHistoryRequest;
+import hapi.services.tiller.Tiller.GetHistoryResponse;
+import hapi.services.tiller.Tiller.GetReleaseContentRequest;
+import hapi.services.tiller.Tiller.GetReleaseContentResponse;
+import hapi.services.tiller.Tiller.GetReleaseStatusRequest;
+import hapi.services.tiller.Tiller.GetReleaseStatusResponse;
+import hapi.services.tiller.Tiller.InstallReleaseRequest;
+import hapi.services.tiller.Tiller.InstallReleaseResponse;
+import hapi.services.tiller.Tiller.ListReleasesRequest;
+import hapi.services.tiller.Tiller.ListReleasesResponse;
+import hapi.services.tiller.Tiller.RollbackReleaseRequest;
+import hapi.services.tiller.Tiller.RollbackReleaseResponse;
+import hapi.services.tiller.Tiller.TestReleaseRequest;
+import hapi.services.tiller.Tiller.TestReleaseResponse;
+import hapi.services.tiller.Tiller.UninstallReleaseRequest;
+import hapi.services.tiller.Tiller.UninstallReleaseResponse;
+import hapi.services.tiller.Tiller.UpdateReleaseRequest;
+import hapi.services.tiller.Tiller.UpdateReleaseResponse;
+
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+
+import org.microbean.development.annotation.Experimental;
+
+import org.microbean.helm.chart.MissingDependenciesException; // for javadoc only
+
+/**
+ * A non-blocking facade over a {@link ReleaseManager} whose unary
+ * operations return {@link CompletableFuture}s and whose streaming
+ * operations return {@link Publisher}s.
+ *
+ * <p>All operations use the {@linkplain
+ * Tiller#getReleaseServiceStub() asynchronous stub} of the {@link
+ * Tiller} of the {@link ReleaseManager} {@linkplain
+ * #AsyncReleaseManager(ReleaseManager) supplied at construction
+ * time}, and requests are validated by that {@link ReleaseManager}
+ * exactly as they would be by its own methods.</p>
+ *
+ * <p>{@linkplain CompletableFuture#cancel(boolean) Cancelling} a
+ * {@link CompletableFuture} returned by this class cancels the
+ * underlying gRPC call.  The {@link Publisher}s returned by the
+ * {@link #list(ListReleasesRequest)} and {@link
+ * #test(TestReleaseRequest)} methods only ask Tiller for as many
+ * responses as their {@link Subscriber}s have {@linkplain
+ * Subscription#request(long) requested}, using gRPC's manual inbound
+ * flow control, so no thread is parked and no more than one response
+ * is buffered per subscription.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are safe for concurrent use by multiple
+ * threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ReleaseManager
+ *
+ * @see ClientCallStreamObserver
+ */
+@Experimental
+public class AsyncReleaseManager implements Closeable {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link ReleaseManager} used to validate and prepare requests.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #getReleaseManager()
+   */
+  private final ReleaseManager releaseManager;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link AsyncReleaseManager}.
+   *
+   * @param releaseManager the {@link ReleaseManager} whose {@link
+   * Tiller} will be used and that will validate requests; must not
+   * be {@code null}
+   *
+   * @exception NullPointerException if {@code releaseManager} is
+   * {@code null}
+   */
+  public AsyncReleaseManager(final ReleaseManager releaseManager) {
+    super();
+    this.releaseManager = Objects.requireNonNull(releaseManager);
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the {@link ReleaseManager} {@linkplain
+   * #AsyncReleaseManager(ReleaseManager) supplied at construction
+   * time}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link ReleaseManager}
+   */
+  public final ReleaseManager getReleaseManager() {
+    return this.releaseManager;
+  }
+
+  /**
+   * Returns the {@link ReleaseServiceStub} to use for all calls.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link ReleaseServiceStub}
+   */
+  private final ReleaseServiceStub getStub() {
+    final ReleaseServiceStub returnValue = this.releaseManager.getTiller().getReleaseServiceStub();
+    assert returnValue != null;
+    return returnValue;
+  }
+
+  /**
+   * {@linkplain ReleaseManager#close() Closes} the {@link
+   * ReleaseManager} {@linkplain #AsyncReleaseManager(ReleaseManager)
+   * supplied at construction time}.
+   *
+   * @exception IOException if an error occurs
+   */
+  @Override
+  public void close() throws IOException {
+    this.releaseManager.close();
+  }
+
+  /**
+   * Returns the content that made up a given Helm release.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param request the {@link GetReleaseContentRequest} describing
+   * the release; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link CompletableFuture} that will be
+   * completed with the {@link GetReleaseContentResponse}
+   *
+   * @exception NullPointerException if {@code request} is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code request} is invalid
+   *
+   * @see ReleaseManager#getContent(GetReleaseContentRequest)
+   */
+  public CompletableFuture<GetReleaseContentResponse> getContent(final GetReleaseContentRequest request) {
+    Objects.requireNonNull(request);
+    this.releaseManager.validate(request);
+    return this.releaseManager.read(ReleaseServiceGrpc.getGetReleaseContentMethod(), request.getName(), request);
+  }
+
+  /**
+   * Returns the history of a given Helm release.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param request the {@link GetHistoryRequest} describing the
+   * release; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link CompletableFuture} that will be
+   * completed with the {@link GetHistoryResponse}
+   *
+   * @exception NullPointerException if {@code request} is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code request} is invalid
+   *
+   * @see ReleaseManager#getHistory(GetHistoryRequest)
+   */
+  public CompletableFuture<GetHistoryResponse> getHistory(final GetHistoryRequest request) {
+    Objects.requireNonNull(request);
+    this.releaseManager.validate(request);
+    return this.releaseManager.read(ReleaseServiceGrpc.getGetHistoryMethod(), request.getName(), request);
+  }
+
+  /**
+   * Returns the status of a given Helm release.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param request the {@link GetReleaseStatusRequest} describing the
+   * release; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link CompletableFuture} that will be
+   * completed with the {@link GetReleaseStatusResponse}
+   *
+   * @exception NullPointerException if {@code request} is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code request} is invalid
+   *
+   * @see ReleaseManager#getStatus(GetReleaseStatusRequest)
+   */
+  public CompletableFuture<GetReleaseStatusResponse> getStatus(final GetReleaseStatusRequest request) {
+    Objects.requireNonNull(request);
+    this.releaseManager.validate(request);
+    return this.releaseManager.read(ReleaseServiceGrpc.getGetReleaseStatusMethod(), request.getName(), request);
+  }
+
+  /**
+   * Installs a release.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param requestBuilder the {@link
+   * hapi.services.tiller.Tiller.InstallReleaseRequest.Builder}
+   * representing the installation request; must not be {@code null}
+   *
+   * @param chartBuilder a {@link
+   * hapi.chart.ChartOuterClass.Chart.Builder} representing the Helm
+   * chart to install; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link CompletableFuture} that will be
+   * completed with the {@link InstallReleaseResponse}
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code requestBuilder} is
+   * invalid
+   *
+   * @exception MissingDependenciesException if the supplied {@code
+   * chartBuilder} has a {@code requirements.yaml} resource in it that
+   * mentions subcharts that it does not contain
+   *
+   * @see ReleaseManager#install(InstallReleaseRequest.Builder,
+   * Chart.Builder)
+   */
+  public CompletableFuture<InstallReleaseResponse> install(final InstallReleaseRequest.Builder requestBuilder,
+                                                           final Chart.Builder chartBuilder) {
+    final InstallReleaseRequest request = this.releaseManager.prepare(requestBuilder, chartBuilder);
+    this.releaseManager.invalidate(request.getName());
+    final UnaryCall<InstallReleaseRequest, InstallReleaseResponse> returnValue = new UnaryCall<>();
+    returnValue.whenComplete((response, throwable) -> this.releaseManager.invalidate(request.getName()));
+    this.getStub().installRelease(request, returnValue);
+    return returnValue;
+  }
+
+  /**
+   * Rolls back a previously installed release.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param request the {@link RollbackReleaseRequest} describing the
+   * release; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link CompletableFuture} that will be
+   * completed with the {@link RollbackReleaseResponse}
+   *
+   * @exception NullPointerException if {@code request} is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code request} is invalid
+   *
+   * @see ReleaseManager#rollback(RollbackReleaseRequest)
+   */
+  public CompletableFuture<RollbackReleaseResponse> rollback(final RollbackReleaseRequest request) {
+    Objects.requireNonNull(request);
+    this.releaseManager.validate(request);
+    this.releaseManager.invalidate(request.getName());
+    final UnaryCall<RollbackReleaseRequest, RollbackReleaseResponse> returnValue = new UnaryCall<>();
+    returnValue.whenComplete((response, throwable) -> this.releaseManager.invalidate(request.getName()));
+    this.getStub().rollbackRelease(request, returnValue);
+    return returnValue;
+  }
+
+  /**
+   * Uninstalls (deletes) a previously installed release.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param request the {@link UninstallReleaseRequest} describing the
+   * release; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link CompletableFuture} that will be
+   * completed with the {@link UninstallReleaseResponse}
+   *
+   * @exception NullPointerException if {@code request} is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code request} is invalid
+   *
+   * @see ReleaseManager#uninstall(UninstallReleaseRequest)
+   */
+  public CompletableFuture<UninstallReleaseResponse> uninstall(final UninstallReleaseRequest request) {
+    Objects.requireNonNull(request);
+    this.releaseManager.validate(request);
+    this.releaseManager.invalidate(request.getName());
+    final UnaryCall<UninstallReleaseRequest, UninstallReleaseResponse> returnValue = new UnaryCall<>();
+    returnValue.whenComplete((response, throwable) -> this.releaseManager.invalidate(request.getName()));
+    this.getStub().uninstallRelease(request, returnValue);
+    return returnValue;
+  }
+
+  /**
+   * Updates a release.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param requestBuilder the {@link
+   * hapi.services.tiller.Tiller.UpdateReleaseRequest.Builder}
+   * representing the update request; must not be {@code null}
+   *
+   * @param chartBuilder a {@link
+   * hapi.chart.ChartOuterClass.Chart.Builder} representing the Helm
+   * chart with which to update the release; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link CompletableFuture} that will be
+   * completed with the {@link UpdateReleaseResponse}
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code requestBuilder} is
+   * invalid
+   *
+   * @see ReleaseManager#update(UpdateReleaseRequest.Builder,
+   * Chart.Builder)
+   */
+  public CompletableFuture<UpdateReleaseResponse> update(final UpdateReleaseRequest.Builder requestBuilder,
+                                                         final Chart.Builder chartBuilder) {
+    final UpdateReleaseRequest request = this.releaseManager.prepare(requestBuilder, chartBuilder);
+    this.releaseManager.invalidate(request.getName());
+    final UnaryCall<UpdateReleaseRequest, UpdateReleaseResponse> returnValue = new UnaryCall<>();
+    returnValue.whenComplete((response, throwable) -> this.releaseManager.invalidate(request.getName()));
+    this.getStub().updateRelease(request, returnValue);
+    return returnValue;
+  }
+
+  /**
+   * Returns a {@link Publisher} of the {@link ListReleasesResponse}s
+   * describing the Helm releases selected by the supplied {@link
+   * ListReleasesRequest}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>Each {@linkplain Publisher#subscribe(Subscriber)
+   * subscription} to the returned {@link Publisher} performs a new
+   * call to Tiller.</p>
+   *
+   * @param request the {@link ListReleasesRequest} describing the
+   * releases to be returned; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link Publisher}
+   *
+   * @exception NullPointerException if {@code request} is {@code
+   * null}
+   *
+   * @exception java.util.regex.PatternSyntaxException if the
+   * request's filter is not a valid regular expression
+   *
+   * @see ReleaseManager#list(ListReleasesRequest)
+   */
+  public Publisher<ListReleasesResponse> list(final ListReleasesRequest request) {
+    Objects.requireNonNull(request);
+    this.releaseManager.validate(request);
+    return subscriber -> StreamingCall.<ListReleasesRequest, ListReleasesResponse>start(subscriber, request, this.getStub()::listReleases);
+  }
+
+  /**
+   * Returns a {@link Publisher} of the {@link TestReleaseResponse}s
+   * produced by running the tests of the Helm release identified by
+   * the supplied {@link TestReleaseRequest}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>Each {@linkplain Publisher#subscribe(Subscriber)
+   * subscription} to the returned {@link Publisher} performs a new
+   * call to Tiller, and hence runs the tests again.</p>
+   *
+   * @param request the {@link TestReleaseRequest} describing the
+   * release to be tested; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link Publisher}
+   *
+   * @exception NullPointerException if {@code request} is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code request} is invalid
+   *
+   * @see ReleaseManager#test(TestReleaseRequest)
+   */
+  public Publisher<TestReleaseResponse> test(final TestReleaseRequest request) {
+    Objects.requireNonNull(request);
+    this.releaseManager.validate(request);
+    return subscriber -> StreamingCall.<TestReleaseRequest, TestReleaseResponse>start(subscriber, request, this.getStub()::runReleaseTest);
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A producer of items that are delivered to {@link Subscriber}s
+   * on demand.
+   *
+   * <p>This interface has the same shape and contract as {@code
+   * java.util.concurrent.Flow.Publisher} and {@code
+   * org.reactivestreams.Publisher}, neither of which is available on
+   * all platforms this project supports, so that adapting to either
+   * is a matter of a method reference.</p>
+   *
+   * @param <T> the type of item published
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  @FunctionalInterface
+  public static interface Publisher<T> {
+
+    /**
+     * Adds the supplied {@link Subscriber}, which will then receive
+     * a call to its {@link Subscriber#onSubscribe(Subscription)}
+     * method.
+     *
+     * @param subscriber the {@link Subscriber} to add; must not be
+     * {@code null}
+     *
+     * @exception NullPointerException if {@code subscriber} is
+     * {@code null}
+     */
+    public void subscribe(final Subscriber<? super T> subscriber);
+
+  }
+
+  /**
+   * A receiver of items published by a {@link Publisher}.
+   *
+   * <p>This interface has the same shape and contract as {@code
+   * java.util.concurrent.Flow.Subscriber}.</p>
+   *
+   * @param <T> the type of item received
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  public static interface Subscriber<T> {
+
+    /**
+     * Called before any other method of this {@link Subscriber} with
+     * the {@link Subscription} through which items may be requested.
+     *
+     * @param subscription the {@link Subscription}; will not be
+     * {@code null}
+     */
+    public void onSubscribe(final Subscription subscription);
+
+    /**
+     * Called with the next item, never more often than items have
+     * been {@linkplain Subscription#request(long) requested}.
+     *
+     * @param item the item; will not be {@code null}
+     */
+    public void onNext(final T item);
+
+    /**
+     * Called at most once, when no further items will be delivered
+     * because of an error.
+     *
+     * @param throwable the error; will not be {@code null}
+     */
+    public void onError(final Throwable throwable);
+
+    /**
+     * Called at most once, when all items have been delivered.
+     */
+    public void onComplete();
+
+  }
+
+  /**
+   * A link between a {@link Publisher} and a {@link Subscriber}.
+   *
+   * <p>This interface has the same shape and contract as {@code
+   * java.util.concurrent.Flow.Subscription}.</p>
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  public static interface Subscription {
+
+    /**
+     * Adds the supplied number of items to the number of items the
+     * {@link Subscriber} is prepared to receive.
+     *
+     * @param n the number of additional items; if less than or equal
+     * to {@code 0} the {@link Subscriber} will receive an {@link
+     * IllegalArgumentException} via its {@link
+     * Subscriber#onError(Throwable)} method
+     */
+    public void request(final long n);
+
+    /**
+     * Causes the {@link Subscriber} to (eventually) stop receiving
+     * items.
+     */
+    public void cancel();
+
+  }
+
+  /**
+   * A {@link CompletableFuture} that is completed by the single
+   * response of a unary gRPC call and that cancels the call when it
+   * is itself {@linkplain #cancel(boolean) cancelled}.
+   *
+   * @param <ReqT> the type of the request
+   *
+   * @param <RespT> the type of the response
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class UnaryCall<ReqT, RespT> extends CompletableFuture<RespT> implements ClientResponseObserver<ReqT, RespT> {
+
+    private volatile ClientCallStreamObserver<ReqT> requestStream;
+
+    private UnaryCall() {
+      super();
+    }
+
+    @Override
+    public final void beforeStart(final ClientCallStreamObserver<ReqT> requestStream) {
+      this.requestStream = requestStream;
+    }
+
+    @Override
+    public final void onNext(final RespT response) {
+      this.complete(response);
+    }
+
+    @Override
+    public final void onError(final Throwable throwable) {
+      this.completeExceptionally(throwable);
+    }
+
+    @Override
+    public final void onCompleted() {
+      if (!this.isDone()) {
+        this.completeExceptionally(new IllegalStateException("No response received"));
+      }
+    }
+
+    @Override
+    public final boolean cancel(final boolean mayInterruptIfRunning) {
+      final boolean returnValue = super.cancel(mayInterruptIfRunning);
+      if (returnValue) {
+        final ClientCallStreamObserver<ReqT> requestStream = this.requestStream;
+        if (requestStream != null) {
+          requestStream.cancel("CompletableFuture cancelled", null);
+        }
+      }
+      return returnValue;
+    }
+
+  }
+
+  /**
+   * A {@link Subscription} that relays the responses of a
+   * server-streaming gRPC call to a {@link Subscriber}, requesting
+   * responses from the server only as the {@link Subscriber}
+   * requests them.
+   *
+   * <p>gRPC may deliver one response before any has been requested,
+   * so at most one response is ever buffered.</p>
+   *
+   * @param <ReqT> the type of the request
+   *
+   * @param <RespT> the type of the responses
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class StreamingCall<ReqT, RespT> implements ClientResponseObserver<ReqT, RespT>, Subscription {
+
+    private final Subscriber<? super RespT> subscriber;
+
+    /**
+     * The call, available once {@link #started} is {@code true}.
+     *
+     * <p>All access to this field must be synchronized on {@code
+     * this}.</p>
+     */
+    private ClientCallStreamObserver<ReqT> requestStream;
+
+    // All access to the following fields must be synchronized on
+    // this.
+
+    private boolean started;
+
+    private long demand;
+
+    private long outstanding;
+
+    private final Queue<RespT> queue;
+
+    private boolean terminated;
+
+    private Throwable error;
+
+    private boolean terminalSignalled;
+
+    private boolean cancelled;
+
+    private boolean draining;
+
+    private boolean missed;
+
+    private StreamingCall(final Subscriber<? super RespT> subscriber) {
+      super();
+      this.subscriber = Objects.requireNonNull(subscriber);
+      this.queue = new ArrayDeque<>(2);
+    }
+
+    /**
+     * Creates a new {@link StreamingCall}, hands it to the supplied
+     * {@link Subscriber} and then starts the call.
+     *
+     * @param subscriber the {@link Subscriber}; must not be {@code
+     * null}
+     *
+     * @param request the request; must not be {@code null}
+     *
+     * @param call a {@link BiConsumer} that starts a gRPC call given
+     * a request and a {@link StreamObserver}, such as a method
+     * reference to a method of a {@link ReleaseServiceStub}; must not
+     * be {@code null}
+     */
+    private static final <ReqT, RespT> void start(final Subscriber<? super RespT> subscriber,
+                                                  final ReqT request,
+                                                  final BiConsumer<? super ReqT, ? super StreamObserver<RespT>> call) {
+      final StreamingCall<ReqT, RespT> streamingCall = new StreamingCall<>(subscriber);
+      subscriber.onSubscribe(streamingCall);
+      synchronized (streamingCall) {
+        if (streamingCall.cancelled) {
+          return;
+        }
+      }
+      try {
+        call.accept(request, streamingCall);
+      } catch (final RuntimeException runtimeException) {
+        streamingCall.onError(runtimeException);
+        return;
+      }
+      synchronized (streamingCall) {
+        streamingCall.started = true;
+      }
+      streamingCall.drain();
+    }
+
+    @Override
+    public final void beforeStart(final ClientCallStreamObserver<ReqT> requestStream) {
+      requestStream.disableAutoInboundFlowControl();
+      synchronized (this) {
+        this.requestStream = requestStream;
+      }
+    }
+
+    @Override
+    public final void onNext(final RespT response) {
+      synchronized (this) {
+        if (this.outstanding > 0L) {
+          this.outstanding--;
+        }
+        this.queue.add(response);
+      }
+      this.drain();
+    }
+
+    @Override
+    public final void onError(final Throwable throwable) {
+      synchronized (this) {
+        this.terminated = true;
+        this.error = throwable;
+      }
+      this.drain();
+    }
+
+    @Override
+    public final void onCompleted() {
+      synchronized (this) {
+        this.terminated = true;
+      }
+      this.drain();
+    }
+
+    @Override
+    public final void request(final long n) {
+      if (n <= 0L) {
+        this.cancel();
+        synchronized (this) {
+          if (this.terminalSignalled) {
+            return;
+          }
+          this.terminalSignalled = true;
+        }
+        this.subscriber.onError(new IllegalArgumentException("n <= 0: " + n));
+      } else {
+        synchronized (this) {
+          this.demand += n;
+          if (this.demand < 0L) {
+            this.demand = Long.MAX_VALUE;
+          }
+        }
+        this.drain();
+      }
+    }
+
+    @Override
+    public final void cancel() {
+      final ClientCallStreamObserver<ReqT> requestStream;
+      synchronized (this) {
+        if (this.cancelled) {
+          return;
+        }
+        this.cancelled = true;
+        this.queue.clear();
+        requestStream = this.terminated ? null : this.requestStream;
+      }
+      if (requestStream != null) {
+        requestStream.cancel("Subscription cancelled", null);
+      }
+    }
+
+    /**
+     * Delivers buffered responses and terminal signals to the {@link
+     * Subscriber} as demand permits, and requests more responses
+     * from the server when demand exceeds what has already been
+     * requested.
+     *
+     * <p>Only one thread at a time delivers signals; a thread that
+     * finds another already doing so leaves the work to it.</p>
+     */
+    private final void drain() {
+      synchronized (this) {
+        if (this.draining) {
+          this.missed = true;
+          return;
+        }
+        this.draining = true;
+      }
+      while (true) {
+        RespT item = null;
+        boolean complete = false;
+        Throwable error = null;
+        ClientCallStreamObserver<ReqT> requestStream = null;
+        int toRequest = 0;
+        synchronized (this) {
+          if (this.cancelled || this.terminalSignalled) {
+            this.draining = false;
+            return;
+          } else if (this.demand > 0L && !this.queue.isEmpty()) {
+            item = this.queue.remove();
+            if (this.demand != Long.MAX_VALUE) {
+              this.demand--;
+            }
+          } else if (this.terminated && this.queue.isEmpty()) {
+            this.terminalSignalled = true;
+            error = this.error;
+            complete = error == null;
+          } else {
+            if (this.started && !this.terminated) {
+              final long wanted = this.demand - this.outstanding - this.queue.size();
+              if (wanted > 0L) {
+                toRequest = (int)Math.min(wanted, (long)Integer.MAX_VALUE);
+                this.outstanding += toRequest;
+                requestStream = this.requestStream;
+              }
+            }
+            if (toRequest == 0) {
+              if (!this.missed) {
+                this.draining = false;
+                return;
+              }
+              this.missed = false;
+            }
+          }
+        }
+        if (requestStream != null) {
+          requestStream.request(toRequest);
+        } else if (item != null) {
+          this.subscriber.onNext(item);
+        } else if (complete) {
+          this.subscriber.onComplete();
+        } else if (error != null) {
+          this.subscriber.onError(error);
+        }
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,465 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.time.Duration;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.microbean.development.annotation.Experimental;
+
+/**
+ * An {@link RpcMetrics} that accumulates per-method call counts,
+ * in-flight counts, status code counts, message byte counts and
+ * latency histograms in memory, and that can report them as
+ * {@linkplain #getSnapshot() snapshots}.
+ *
+ * <p>All counters are {@link LongAdder}s, so recording scales with
+ * the number of threads making calls and never blocks.  Latencies
+ * are kept in a log-linear histogram with four buckets per power of
+ * two, so {@linkplain Snapshot#getLatencyPercentile(double)
+ * percentiles} are accurate to within 25 percent while each method
+ * costs a fixed amount of memory no matter how many calls are
+ * made.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are safe for concurrent use by multiple
+ * threads.  Snapshots are not atomic across counters.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see RpcMetrics
+ */
+@Experimental
+public final class InMemoryRpcMetrics implements RpcMetrics {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The number of latency histogram buckets: four for each possible
+   * power of two of a non-negative {@code long}.
+   */
+  private static final int BUCKET_COUNT = 64 * 4;
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link MethodMetrics} for each method, indexed by full method
+   * name.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ConcurrentMap<String, MethodMetrics> methods;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link InMemoryRpcMetrics}.
+   */
+  public InMemoryRpcMetrics() {
+    super();
+    this.methods = new ConcurrentHashMap<>();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public final void callStarted(final String methodName) {
+    final MethodMetrics methodMetrics = this.getMethodMetrics(methodName);
+    methodMetrics.started.increment();
+    methodMetrics.inFlight.increment();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public final void callCompleted(final String methodName,
+                                  final String statusCode,
+                                  final long latencyInNanos,
+                                  final long requestBytes,
+                                  final long responseBytes) {
+    final MethodMetrics methodMetrics = this.getMethodMetrics(methodName);
+    methodMetrics.inFlight.decrement();
+    methodMetrics.statusCodes.computeIfAbsent(Objects.requireNonNull(statusCode), c -> new LongAdder()).increment();
+    methodMetrics.requestBytes.add(requestBytes);
+    methodMetrics.responseBytes.add(responseBytes);
+    methodMetrics.latencies[bucketIndex(latencyInNanos)].increment();
+    methodMetrics.latencySum.add(Math.max(0L, latencyInNanos));
+  }
+
+  /**
+   * Returns a {@link Snapshot} of the measurements of each method
+   * that has been called, indexed by full method name.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, immutable {@link Map} of {@link
+   * Snapshot}s, sorted by method name
+   */
+  public final Map<String, Snapshot> getSnapshot() {
+    final Map<String, Snapshot> returnValue = new TreeMap<>();
+    for (final Map.Entry<String, MethodMetrics> entry : this.methods.entrySet()) {
+      returnValue.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+    }
+    return Collections.unmodifiableMap(returnValue);
+  }
+
+  /**
+   * Discards all measurements.
+   */
+  public final void clear() {
+    this.methods.clear();
+  }
+
+  private final MethodMetrics getMethodMetrics(final String methodName) {
+    Objects.requireNonNull(methodName);
+    MethodMetrics returnValue = this.methods.get(methodName);
+    if (returnValue == null) {
+      returnValue = this.methods.computeIfAbsent(methodName, n -> new MethodMetrics());
+    }
+    return returnValue;
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns the index of the latency histogram bucket that holds the
+   * supplied value.
+   *
+   * <p>Values below {@code 4} each have their own bucket; every
+   * larger power of two is divided into four buckets of equal
+   * width.</p>
+   *
+   * @param value the value; negative values are treated as {@code 0}
+   *
+   * @return a bucket index between {@code 0} and {@code
+   * BUCKET_COUNT - 1}, inclusive
+   */
+  static final int bucketIndex(final long value) {
+    final int returnValue;
+    if (value < 4L) {
+      returnValue = (int)Math.max(0L, value);
+    } else {
+      final int exponent = 63 - Long.numberOfLeadingZeros(value);
+      final int subBucket = (int)((value >>> (exponent - 2)) & 3L);
+      returnValue = exponent * 4 + subBucket;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the smallest value that is greater than every value held
+   * by the latency histogram bucket with the supplied index.
+   *
+   * @param index the bucket index
+   *
+   * @return the exclusive upper bound of the bucket, saturated at
+   * {@link Long#MAX_VALUE}
+   */
+  static final long bucketUpperBound(final int index) {
+    final long returnValue;
+    if (index < 4) {
+      returnValue = index + 1L;
+    } else {
+      final int exponent = index / 4;
+      final long upper = (5L + (index % 4)) << (exponent - 2);
+      returnValue = upper <= 0L ? Long.MAX_VALUE : upper;
+    }
+    return returnValue;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The live measurements of one method.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class MethodMetrics {
+
+    private final LongAdder started;
+
+    private final LongAdder inFlight;
+
+    private final ConcurrentMap<String, LongAdder> statusCodes;
+
+    private final LongAdder requestBytes;
+
+    private final LongAdder responseBytes;
+
+    private final LongAdder[] latencies;
+
+    private final LongAdder latencySum;
+
+    private MethodMetrics() {
+      super();
+      this.started = new LongAdder();
+      this.inFlight = new LongAdder();
+      this.statusCodes = new ConcurrentHashMap<>();
+      this.requestBytes = new LongAdder();
+      this.responseBytes = new LongAdder();
+      this.latencies = new LongAdder[BUCKET_COUNT];
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        this.latencies[i] = new LongAdder();
+      }
+      this.latencySum = new LongAdder();
+    }
+
+    private final Snapshot snapshot(final String methodName) {
+      final Map<String, Long> statusCodes = new TreeMap<>();
+      for (final Map.Entry<String, LongAdder> entry : this.statusCodes.entrySet()) {
+        statusCodes.put(entry.getKey(), Long.valueOf(entry.getValue().sum()));
+      }
+      final long[] latencies = new long[BUCKET_COUNT];
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        latencies[i] = this.latencies[i].sum();
+      }
+      return new Snapshot(methodName,
+                          this.started.sum(),
+                          this.inFlight.sum(),
+                          statusCodes,
+                          this.requestBytes.sum(),
+                          this.responseBytes.sum(),
+                          latencies,
+                          this.latencySum.sum());
+    }
+
+  }
+
+  /**
+   * An immutable snapshot of the measurements of one method.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  public static final class Snapshot {
+
+    private final String methodName;
+
+    private final long callsStarted;
+
+    private final long callsInFlight;
+
+    private final Map<String, Long> statusCodes;
+
+    private final long callsCompleted;
+
+    private final long requestBytes;
+
+    private final long responseBytes;
+
+    private final long[] latencies;
+
+    private final long latencySum;
+
+    private Snapshot(final String methodName,
+                     final long callsStarted,
+                     final long callsInFlight,
+                     final Map<String, Long> statusCodes,
+                     final long requestBytes,
+                     final long responseBytes,
+                     final long[] latencies,
+                     final long latencySum) {
+      super();
+      this.methodName = methodName;
+      this.callsStarted = callsStarted;
+      this.callsInFlight = Math.max(0L, callsInFlight);
+      this.statusCodes = Collections.unmodifiableMap(statusCodes);
+      long callsCompleted = 0L;
+      for (final long count : latencies) {
+        callsCompleted += count;
+      }
+      this.callsCompleted = callsCompleted;
+      this.requestBytes = requestBytes;
+      this.responseBytes = responseBytes;
+      this.latencies = latencies;
+      this.latencySum = latencySum;
+    }
+
+    /**
+     * Returns the full gRPC method name.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return the non-{@code null} full gRPC method name
+     */
+    public final String getMethodName() {
+      return this.methodName;
+    }
+
+    /**
+     * Returns the number of calls started.
+     *
+     * @return the number of calls started
+     */
+    public final long getCallsStarted() {
+      return this.callsStarted;
+    }
+
+    /**
+     * Returns the number of calls started but not yet completed.
+     *
+     * @return the number of calls in flight; never less than {@code 0}
+     */
+    public final long getCallsInFlight() {
+      return this.callsInFlight;
+    }
+
+    /**
+     * Returns the number of calls completed.
+     *
+     * @return the number of calls completed
+     */
+    public final long getCallsCompleted() {
+      return this.callsCompleted;
+    }
+
+    /**
+     * Returns the number of completed calls for each gRPC status
+     * code name, such as {@code OK}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null}, immutable {@link Map} of counts,
+     * sorted by status code name
+     */
+    public final Map<String, Long> getStatusCodes() {
+      return this.statusCodes;
+    }
+
+    /**
+     * Returns the total serialized, uncompressed size of all
+     * messages sent by completed calls.
+     *
+     * @return the number of request bytes
+     */
+    public final long getRequestBytes() {
+      return this.requestBytes;
+    }
+
+    /**
+     * Returns the total serialized, uncompressed size of all
+     * messages received by completed calls.
+     *
+     * @return the number of response bytes
+     */
+    public final long getResponseBytes() {
+      return this.responseBytes;
+    }
+
+    /**
+     * Returns the mean latency of completed calls.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return the non-{@code null} mean latency, or {@link
+     * Duration#ZERO} if no calls have completed
+     */
+    public final Duration getMeanLatency() {
+      return this.callsCompleted <= 0L ? Duration.ZERO : Duration.ofNanos(this.latencySum / this.callsCompleted);
+    }
+
+    /**
+     * Returns an upper bound, accurate to within 25 percent, on the
+     * latency below which the supplied fraction of completed calls
+     * fell.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @param quantile the fraction, between {@code 0.0} and {@code
+     * 1.0}, inclusive; {@code 0.99} requests the 99th percentile
+     *
+     * @return the non-{@code null} latency, or {@link Duration#ZERO}
+     * if no calls have completed
+     *
+     * @exception IllegalArgumentException if {@code quantile} is not
+     * between {@code 0.0} and {@code 1.0}, inclusive
+     */
+    public final Duration getLatencyPercentile(final double quantile) {
+      if (!(quantile >= 0.0 && quantile <= 1.0)) {
+        throw new IllegalArgumentException("quantile: " + quantile);
+      }
+      Duration returnValue = Duration.ZERO;
+      if (this.callsCompleted > 0L) {
+        final long rank = Math.max(1L, (long)Math.ceil(quantile * this.callsCompleted));
+        long cumulative = 0L;
+        for (int i = 0; i < this.latencies.length; i++) {
+          cumulative += this.latencies[i];
+          if (cumulative >= rank) {
+            returnValue = Duration.ofNanos(bucketUpperBound(i));
+            break;
+          }
+        }
+      }
+      return returnValue;
+    }
+
+    @Override
+    public final String toString() {
+      return this.methodName +
+        ": started=" + this.callsStarted +
+        ", inFlight=" + this.callsInFlight +
+        ", statusCodes=" + this.statusCodes +
+        ", requestBytes=" + this.requestBytes +
+        ", responseBytes=" + this.responseBytes +
+        ", mean=" + this.getMeanLatency() +
+        ", p50=" + this.getLatencyPercentile(0.5) +
+        ", p99=" + this.getLatencyPercentile(0.99);
+    }
+
+  }
+
+}
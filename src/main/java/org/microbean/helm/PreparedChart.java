@@ -0,0 +1,585 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import com.google.protobuf.WireFormat;
+
+import hapi.chart.ChartOuterClass.Chart;
+import hapi.chart.ChartOuterClass.ChartOrBuilder;
+import hapi.chart.ConfigOuterClass.Config;
+import hapi.chart.ConfigOuterClass.ConfigOrBuilder;
+
+import hapi.services.tiller.ReleaseServiceGrpc;
+import hapi.services.tiller.Tiller.InstallReleaseRequest;
+import hapi.services.tiller.Tiller.InstallReleaseResponse;
+import hapi.services.tiller.Tiller.UpdateReleaseRequest;
+import hapi.services.tiller.Tiller.UpdateReleaseResponse;
+
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.Marshaller;
+
+import org.microbean.development.annotation.Experimental;
+
+import org.microbean.helm.chart.Requirements;
+
+/**
+ * A Helm chart whose {@linkplain Requirements#apply(Chart.Builder,
+ * ConfigOrBuilder) requirements-applied} form and Protocol Buffers
+ * serialization are computed once per distinct set of values and
+ * then reused across many {@linkplain
+ * ReleaseManager#install(InstallReleaseRequest.Builder,
+ * PreparedChart) installations} and {@linkplain
+ * ReleaseManager#update(UpdateReleaseRequest.Builder, PreparedChart)
+ * updates}.
+ *
+ * <p>Installing the same chart with the same values into many
+ * namespaces would otherwise apply its requirements and serialize
+ * the entire chart, which may be megabytes of templates, once per
+ * request.  Requests made with a {@link PreparedChart} instead
+ * serialize only their own small fields and have the memoized chart
+ * bytes spliced in after them, which the Protocol Buffers wire format
+ * permits.</p>
+ *
+ * <p>Variants are keyed by a SHA-256 digest of the deterministic
+ * serialization of the values in effect.  At most {@linkplain
+ * #getMaximumVariants() a bounded number} of variants are retained;
+ * the least recently used is discarded first.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are safe for concurrent use by multiple
+ * threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ReleaseManager#install(InstallReleaseRequest.Builder,
+ * PreparedChart)
+ *
+ * @see ReleaseManager#update(UpdateReleaseRequest.Builder,
+ * PreparedChart)
+ */
+@Experimental
+public final class PreparedChart {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The default maximum number of variants retained by a {@link
+   * PreparedChart} ({@value}).
+   *
+   * @see #PreparedChart(ChartOrBuilder)
+   */
+  public static final int DEFAULT_MAXIMUM_VARIANTS = 8;
+
+  /**
+   * A {@link MethodDescriptor} for Tiller's {@code InstallRelease}
+   * method whose request marshaller splices in prepared chart bytes.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  static final MethodDescriptor<Payload<InstallReleaseRequest>, InstallReleaseResponse> INSTALL_RELEASE_METHOD =
+    ReleaseServiceGrpc.getInstallReleaseMethod().toBuilder(new PayloadMarshaller<>(InstallReleaseRequest.parser()),
+                                                           ReleaseServiceGrpc.getInstallReleaseMethod().getResponseMarshaller())
+    .build();
+
+  /**
+   * A {@link MethodDescriptor} for Tiller's {@code UpdateRelease}
+   * method whose request marshaller splices in prepared chart bytes.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  static final MethodDescriptor<Payload<UpdateReleaseRequest>, UpdateReleaseResponse> UPDATE_RELEASE_METHOD =
+    ReleaseServiceGrpc.getUpdateReleaseMethod().toBuilder(new PayloadMarshaller<>(UpdateReleaseRequest.parser()),
+                                                          ReleaseServiceGrpc.getUpdateReleaseMethod().getResponseMarshaller())
+    .build();
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link Chart} as supplied, before any requirements have been
+   * applied.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #getChart()
+   */
+  private final Chart chart;
+
+  /**
+   * The maximum number of variants to retain.
+   *
+   * @see #getMaximumVariants()
+   */
+  private final int maximumVariants;
+
+  /**
+   * The {@link Variant}s computed so far, indexed by values digest
+   * and kept in access order.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private final Map<ByteString, Variant> variants;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link PreparedChart} that retains at most {@link
+   * #DEFAULT_MAXIMUM_VARIANTS} variants.
+   *
+   * @param chart the chart to prepare; must not be {@code null}; it
+   * is {@linkplain Chart.Builder#build() built} or copied so later
+   * changes to it are not reflected
+   *
+   * @exception NullPointerException if {@code chart} is {@code null}
+   *
+   * @see #PreparedChart(ChartOrBuilder, int)
+   */
+  public PreparedChart(final ChartOrBuilder chart) {
+    this(chart, DEFAULT_MAXIMUM_VARIANTS);
+  }
+
+  /**
+   * Creates a new {@link PreparedChart}.
+   *
+   * @param chart the chart to prepare; must not be {@code null}; it
+   * is {@linkplain Chart.Builder#build() built} or copied so later
+   * changes to it are not reflected
+   *
+   * @param maximumVariants the maximum number of distinct values
+   * digests for which prepared variants are retained; must be greater
+   * than {@code 0}
+   *
+   * @exception NullPointerException if {@code chart} is {@code null}
+   *
+   * @exception IllegalArgumentException if {@code maximumVariants} is
+   * less than {@code 1}
+   */
+  public PreparedChart(final ChartOrBuilder chart, final int maximumVariants) {
+    super();
+    Objects.requireNonNull(chart);
+    if (maximumVariants < 1) {
+      throw new IllegalArgumentException("maximumVariants < 1: " + maximumVariants);
+    }
+    if (chart instanceof Chart) {
+      this.chart = (Chart)chart;
+    } else if (chart instanceof Chart.Builder) {
+      this.chart = ((Chart.Builder)chart).build();
+    } else {
+      throw new IllegalArgumentException("Unexpected ChartOrBuilder implementation: " + chart.getClass().getName());
+    }
+    this.maximumVariants = maximumVariants;
+    this.variants = new LinkedHashMap<ByteString, Variant>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected final boolean removeEldestEntry(final Map.Entry<ByteString, Variant> eldest) {
+          return this.size() > PreparedChart.this.maximumVariants;
+        }
+      };
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the {@link Chart} this {@link PreparedChart} was created
+   * with, before any requirements have been applied.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link Chart}
+   */
+  public final Chart getChart() {
+    return this.chart;
+  }
+
+  /**
+   * Returns the maximum number of variants this {@link PreparedChart}
+   * retains.
+   *
+   * @return the maximum number of variants; always greater than
+   * {@code 0}
+   */
+  public final int getMaximumVariants() {
+    return this.maximumVariants;
+  }
+
+  /**
+   * Returns the {@link Chart} that results from {@linkplain
+   * Requirements#apply(Chart.Builder, ConfigOrBuilder) applying
+   * requirements} to this {@link PreparedChart}'s {@linkplain
+   * #getChart() chart} with the supplied values, computing it only
+   * if it has not already been computed for equal values.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param values the values in effect; may be {@code null}
+   *
+   * @return a non-{@code null} {@link Chart}
+   *
+   * @exception org.microbean.helm.chart.MissingDependenciesException
+   * if the chart has a {@code requirements.yaml} resource in it that
+   * mentions subcharts that it does not contain
+   */
+  public final Chart getAppliedChart(final ConfigOrBuilder values) {
+    return this.getVariant(values).chart;
+  }
+
+  /**
+   * Returns the {@link Variant} of this {@link PreparedChart} for the
+   * supplied values, computing it if necessary.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param values the values in effect; may be {@code null}
+   *
+   * @return a non-{@code null} {@link Variant}
+   */
+  final Variant getVariant(final ConfigOrBuilder values) {
+    final ByteString digest = digest(values);
+    Variant returnValue;
+    synchronized (this) {
+      returnValue = this.variants.get(digest);
+    }
+    if (returnValue == null) {
+      // Applying requirements may be expensive, so do it outside the
+      // lock; a racing thread may compute an identical Variant, in
+      // which case the first one stored wins.
+      final Chart appliedChart = Requirements.apply(this.chart.toBuilder(), values).build();
+      final Variant variant = new Variant(appliedChart);
+      synchronized (this) {
+        returnValue = this.variants.putIfAbsent(digest, variant);
+      }
+      if (returnValue == null) {
+        returnValue = variant;
+      }
+    }
+    return returnValue;
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns the SHA-256 digest of the deterministic serialization of
+   * the supplied values.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param values the values; may be {@code null}
+   *
+   * @return a non-{@code null} {@link ByteString}
+   */
+  static final ByteString digest(final ConfigOrBuilder values) {
+    final Config config;
+    if (values == null) {
+      config = Config.getDefaultInstance();
+    } else if (values instanceof Config) {
+      config = (Config)values;
+    } else {
+      config = Config.newBuilder().setRaw(values.getRaw()).putAllValues(values.getValuesMap()).build();
+    }
+    final MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-256");
+    } catch (final NoSuchAlgorithmException noSuchAlgorithmException) {
+      // SHA-256 is guaranteed to exist.
+      throw new InternalError(noSuchAlgorithmException);
+    }
+    final byte[] bytes = new byte[config.getSerializedSize()];
+    final CodedOutputStream cos = CodedOutputStream.newInstance(bytes);
+    cos.useDeterministicSerialization();
+    try {
+      config.writeTo(cos);
+    } catch (final IOException ioException) {
+      // Writing to a byte array cannot fail this way.
+      throw new UncheckedIOException(ioException);
+    }
+    cos.checkNoSpaceLeft();
+    return ByteString.copyFrom(md.digest(bytes));
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A {@link Chart} with its requirements applied for a particular
+   * set of values, together with its serialized form.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  static final class Variant {
+
+    private final Chart chart;
+
+    private final ByteString serializedChart;
+
+    private Variant(final Chart chart) {
+      super();
+      this.chart = Objects.requireNonNull(chart);
+      this.serializedChart = chart.toByteString();
+    }
+
+    /**
+     * Returns a {@link Payload} consisting of the supplied request,
+     * which must not itself contain a chart, followed by this {@link
+     * Variant}'s serialized chart as the value of the field with the
+     * supplied number.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @param <T> the type of the request
+     *
+     * @param head the request; must not be {@code null}
+     *
+     * @param chartFieldNumber the number of the request's chart field
+     *
+     * @return a non-{@code null} {@link Payload}
+     */
+    final <T extends MessageLite> Payload<T> splice(final T head, final int chartFieldNumber) {
+      return new Payload<>(head, chartFieldNumber, this.serializedChart);
+    }
+
+  }
+
+  /**
+   * A request whose serialized form is its own small fields followed
+   * by a previously serialized chart.
+   *
+   * @param <T> the type of the request
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  static final class Payload<T extends MessageLite> {
+
+    private final T head;
+
+    private final int chartFieldNumber;
+
+    private final ByteString serializedChart;
+
+    Payload(final T head, final int chartFieldNumber, final ByteString serializedChart) {
+      super();
+      this.head = Objects.requireNonNull(head);
+      this.chartFieldNumber = chartFieldNumber;
+      this.serializedChart = serializedChart;
+    }
+
+    /**
+     * Returns the request, without its chart.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return the non-{@code null} request
+     */
+    final T getHead() {
+      return this.head;
+    }
+
+    /**
+     * Returns the number of bytes in the {@linkplain #toByteString()
+     * wire-format representation} of this {@link Payload}.
+     *
+     * @return the serialized size of this {@link Payload}
+     */
+    final int getSerializedSize() {
+      int returnValue = this.head.getSerializedSize();
+      if (this.serializedChart != null) {
+        final int size = this.serializedChart.size();
+        returnValue += CodedOutputStream.computeTagSize(this.chartFieldNumber) + CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+      }
+      return returnValue;
+    }
+
+    /**
+     * Returns the wire-format bytes of this {@link Payload}.
+     *
+     * <p>The returned {@link ByteString} is a concatenation of
+     * existing {@link ByteString}s; the chart bytes are not
+     * copied.</p>
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link ByteString}
+     */
+    final ByteString toByteString() {
+      final ByteString returnValue;
+      if (this.serializedChart == null) {
+        returnValue = this.head.toByteString();
+      } else {
+        final int size = this.serializedChart.size();
+        final byte[] prefix = new byte[CodedOutputStream.computeTagSize(this.chartFieldNumber) + CodedOutputStream.computeUInt32SizeNoTag(size)];
+        final CodedOutputStream cos = CodedOutputStream.newInstance(prefix);
+        try {
+          cos.writeTag(this.chartFieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+          cos.writeUInt32NoTag(size);
+        } catch (final IOException ioException) {
+          // Writing to a byte array cannot fail this way.
+          throw new UncheckedIOException(ioException);
+        }
+        returnValue = this.head.toByteString().concat(ByteString.copyFrom(prefix)).concat(this.serializedChart);
+      }
+      return returnValue;
+    }
+
+  }
+
+  /**
+   * A {@link Marshaller} of {@link Payload}s.
+   *
+   * @param <T> the type of the request
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class PayloadMarshaller<T extends MessageLite> implements Marshaller<Payload<T>> {
+
+    private final Parser<T> parser;
+
+    private PayloadMarshaller(final Parser<T> parser) {
+      super();
+      this.parser = Objects.requireNonNull(parser);
+    }
+
+    @Override
+    public final InputStream stream(final Payload<T> payload) {
+      return new DrainableInputStream(payload.toByteString());
+    }
+
+    @Override
+    public final Payload<T> parse(final InputStream stream) {
+      try {
+        return new Payload<>(this.parser.parseFrom(stream), 0, null);
+      } catch (final InvalidProtocolBufferException invalidProtocolBufferException) {
+        throw new IllegalArgumentException(invalidProtocolBufferException.getMessage(), invalidProtocolBufferException);
+      }
+    }
+
+  }
+
+  /**
+   * An {@link InputStream} over a {@link ByteString} that gRPC can
+   * {@linkplain Drainable drain} directly into its transport buffers.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class DrainableInputStream extends FilterInputStream implements Drainable, KnownLength {
+
+    private final ByteString byteString;
+
+    private boolean read;
+
+    private DrainableInputStream(final ByteString byteString) {
+      super(byteString.newInput());
+      this.byteString = byteString;
+    }
+
+    @Override
+    public final int read() throws IOException {
+      this.read = true;
+      return super.read();
+    }
+
+    @Override
+    public final int read(final byte[] bytes, final int offset, final int length) throws IOException {
+      this.read = true;
+      return super.read(bytes, offset, length);
+    }
+
+    @Override
+    public final long skip(final long n) throws IOException {
+      this.read = true;
+      return super.skip(n);
+    }
+
+    @Override
+    public final int drainTo(final OutputStream target) throws IOException {
+      final int returnValue;
+      if (this.read) {
+        int total = 0;
+        final byte[] buffer = new byte[8192];
+        int bytesRead;
+        while ((bytesRead = this.read(buffer, 0, buffer.length)) != -1) {
+          target.write(buffer, 0, bytesRead);
+          total += bytesRead;
+        }
+        returnValue = total;
+      } else {
+        this.read = true;
+        this.byteString.writeTo(target);
+        this.in.skip(this.byteString.size());
+        returnValue = this.byteString.size();
+      }
+      return returnValue;
+    }
+
+    @Override
+    public final boolean markSupported() {
+      return false;
+    }
+
+  }
+
+}
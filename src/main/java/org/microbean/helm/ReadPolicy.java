@@ -0,0 +1,649 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.time.Duration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Objects;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import hapi.services.tiller.ReleaseServiceGrpc;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Deadline;
+import io.grpc.MethodDescriptor;
+
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.StreamObserver;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import org.microbean.development.annotation.Experimental;
+
+/**
+ * A policy governing the deadlines and hedging of the read-only
+ * release queries made by a {@link ReleaseManager}, suitable for
+ * supplying to the {@link ReleaseManager#ReleaseManager(Tiller,
+ * ReleaseCache, ReadPolicy)} constructor.
+ *
+ * <p>Each of the {@link
+ * ReleaseManager#getStatus(hapi.services.tiller.Tiller.GetReleaseStatusRequest)
+ * getStatus(GetReleaseStatusRequest)}, {@link
+ * ReleaseManager#getContent(hapi.services.tiller.Tiller.GetReleaseContentRequest)
+ * getContent(GetReleaseContentRequest)} and {@link
+ * ReleaseManager#getHistory(hapi.services.tiller.Tiller.GetHistoryRequest)
+ * getHistory(GetHistoryRequest)} methods (and those of any {@link
+ * AsyncReleaseManager} wrapping the {@link ReleaseManager}) is given
+ * a default deadline, so that a stalled port forward fails the call
+ * with {@link io.grpc.Status.Code#DEADLINE_EXCEEDED
+ * DEADLINE_EXCEEDED} instead of hanging its caller forever.  A
+ * deadline already present on the {@link Tiller}'s stubs is honored
+ * if it is earlier.</p>
+ *
+ * <p>If a {@linkplain #getHedgingDelay() hedging delay} is set, then
+ * once a call has been outstanding for that long a second, identical
+ * call is made and whichever answers first wins; the other is
+ * cancelled.  Both calls share the same deadline.  The second call is
+ * made through the same {@link Channel}, so when the {@link Tiller}
+ * is backed by a {@link TillerChannelPool} it is routed to another
+ * Tiller pod wherever the {@linkplain
+ * TillerChannelPool.Balancing balancing} permits.  A call that fails
+ * before its hedging delay elapses is not retried.</p>
+ *
+ * <p>Calls are only hedged when the {@link Tiller} they are made
+ * through has more than one path to Tiller: a {@link
+ * TillerChannelPool} currently routing to more than one Tiller pod,
+ * or a {@link io.grpc.ManagedChannel} {@linkplain
+ * Tiller#Tiller(io.grpc.ManagedChannel, boolean) declared} to balance
+ * across several replicas.  Otherwise the hedge would travel down the
+ * same path as the stalled call, and add to the load on the Tiller
+ * pod it was waiting on.  A {@link ReleaseManager} created with a
+ * hedging {@link ReadPolicy} and a {@link Tiller} that has only one
+ * path to Tiller at the time logs a warning.</p>
+ *
+ * <p>Hedging is bounded by a {@linkplain #getHedgingBudget() budget}
+ * so that it cannot multiply the load on Tiller when Tiller itself is
+ * slow: every call deposits that fraction of a token into a bucket
+ * holding at most {@code 10} tokens, and every hedge must withdraw a
+ * whole token.  A {@link ReadPolicy} shared by several {@link
+ * ReleaseManager}s shares its budget with them all.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are safe for concurrent use by multiple
+ * threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ReleaseManager#ReleaseManager(Tiller, ReleaseCache,
+ * ReadPolicy)
+ */
+@Experimental
+public final class ReadPolicy {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The {@link ReadPolicy} used by {@link ReleaseManager}s that were
+   * not supplied with one: it applies a deadline of thirty seconds to
+   * {@code GetReleaseStatus} and {@code GetHistory} calls and of one
+   * minute to {@code GetReleaseContent} calls, and does not hedge.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  public static final ReadPolicy DEFAULT = new ReadPolicy(Duration.ofSeconds(30L),
+                                                          Duration.ofMinutes(1L),
+                                                          Duration.ofSeconds(30L),
+                                                          null,
+                                                          0.0);
+
+  /**
+   * The maximum number of hedging tokens a {@link ReadPolicy} can
+   * accumulate.
+   */
+  private static final double MAXIMUM_TOKENS = 10.0;
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The default deadline, in nanoseconds, of {@code
+   * GetReleaseStatus} calls, or {@code null} if there is none.
+   */
+  private final Long statusDeadlineInNanos;
+
+  /**
+   * The default deadline, in nanoseconds, of {@code
+   * GetReleaseContent} calls, or {@code null} if there is none.
+   */
+  private final Long contentDeadlineInNanos;
+
+  /**
+   * The default deadline, in nanoseconds, of {@code GetHistory}
+   * calls, or {@code null} if there is none.
+   */
+  private final Long historyDeadlineInNanos;
+
+  /**
+   * The number of nanoseconds after which an outstanding call is
+   * hedged, or {@code null} if calls are never hedged.
+   */
+  private final Long hedgingDelayInNanos;
+
+  /**
+   * The fraction of a hedging token deposited by every call.
+   */
+  private final double hedgingBudget;
+
+  /**
+   * The number of hedging tokens currently available.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private double tokens;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ReadPolicy} that applies the supplied
+   * deadline to every read-only release query and does not hedge.
+   *
+   * @param deadline the deadline; may be {@code null} in which case
+   * no deadline will be applied; must not be zero or negative
+   *
+   * @exception IllegalArgumentException if {@code deadline} is zero
+   * or negative
+   *
+   * @see #ReadPolicy(Duration, Duration, Duration, Duration, double)
+   */
+  public ReadPolicy(final Duration deadline) {
+    this(deadline, deadline, deadline, null, 0.0);
+  }
+
+  /**
+   * Creates a new {@link ReadPolicy}.
+   *
+   * @param statusDeadline the deadline of {@code GetReleaseStatus}
+   * calls; may be {@code null} in which case no deadline will be
+   * applied; must not be zero or negative
+   *
+   * @param contentDeadline the deadline of {@code GetReleaseContent}
+   * calls; may be {@code null} in which case no deadline will be
+   * applied; must not be zero or negative
+   *
+   * @param historyDeadline the deadline of {@code GetHistory} calls;
+   * may be {@code null} in which case no deadline will be applied;
+   * must not be zero or negative
+   *
+   * @param hedgingDelay the length of time after which an
+   * outstanding call will be hedged; may be {@code null} in which
+   * case calls will never be hedged; must not be negative
+   *
+   * @param hedgingBudget the number of hedges permitted per call,
+   * averaged over time; must be between {@code 0.0} and {@code 1.0},
+   * inclusive; {@code 0.1}, for example, permits at most one hedge
+   * for every ten calls once the initial allowance of {@code 10}
+   * hedges has been spent
+   *
+   * @exception IllegalArgumentException if any {@link Duration} is
+   * invalid, or if {@code hedgingBudget} is not between {@code 0.0}
+   * and {@code 1.0}, inclusive
+   */
+  public ReadPolicy(final Duration statusDeadline,
+                    final Duration contentDeadline,
+                    final Duration historyDeadline,
+                    final Duration hedgingDelay,
+                    final double hedgingBudget) {
+    super();
+    this.statusDeadlineInNanos = toDeadlineInNanos("statusDeadline", statusDeadline);
+    this.contentDeadlineInNanos = toDeadlineInNanos("contentDeadline", contentDeadline);
+    this.historyDeadlineInNanos = toDeadlineInNanos("historyDeadline", historyDeadline);
+    if (hedgingDelay == null) {
+      this.hedgingDelayInNanos = null;
+    } else if (hedgingDelay.isNegative()) {
+      throw new IllegalArgumentException("hedgingDelay: " + hedgingDelay);
+    } else {
+      this.hedgingDelayInNanos = Long.valueOf(hedgingDelay.toNanos());
+    }
+    if (!(hedgingBudget >= 0.0 && hedgingBudget <= 1.0)) {
+      throw new IllegalArgumentException("hedgingBudget: " + hedgingBudget);
+    }
+    this.hedgingBudget = hedgingBudget;
+    this.tokens = MAXIMUM_TOKENS;
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the deadline of {@code GetReleaseStatus} calls.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return a {@link Duration}, or {@code null} if no deadline is
+   * applied
+   */
+  public final Duration getStatusDeadline() {
+    return toDuration(this.statusDeadlineInNanos);
+  }
+
+  /**
+   * Returns the deadline of {@code GetReleaseContent} calls.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return a {@link Duration}, or {@code null} if no deadline is
+   * applied
+   */
+  public final Duration getContentDeadline() {
+    return toDuration(this.contentDeadlineInNanos);
+  }
+
+  /**
+   * Returns the deadline of {@code GetHistory} calls.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return a {@link Duration}, or {@code null} if no deadline is
+   * applied
+   */
+  public final Duration getHistoryDeadline() {
+    return toDuration(this.historyDeadlineInNanos);
+  }
+
+  /**
+   * Returns the length of time after which an outstanding call is
+   * hedged.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return a {@link Duration}, or {@code null} if calls are never
+   * hedged
+   */
+  public final Duration getHedgingDelay() {
+    return toDuration(this.hedgingDelayInNanos);
+  }
+
+  /**
+   * Returns the number of hedges permitted per call, averaged over
+   * time.
+   *
+   * @return a {@code double} between {@code 0.0} and {@code 1.0},
+   * inclusive
+   */
+  public final double getHedgingBudget() {
+    return this.hedgingBudget;
+  }
+
+  /**
+   * Makes a unary call to the supplied {@link MethodDescriptor}
+   * through the supplied {@link Channel} according to this {@link
+   * ReadPolicy} and returns a {@link CompletableFuture} representing
+   * its response.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>{@linkplain CompletableFuture#cancel(boolean) Cancelling} the
+   * returned {@link CompletableFuture} cancels every outstanding
+   * attempt.</p>
+   *
+   * @param <ReqT> the type of the request
+   *
+   * @param <RespT> the type of the response
+   *
+   * @param channel the {@link Channel} to call through; must not be
+   * {@code null}
+   *
+   * @param hedge whether the call may be hedged, which it may only if
+   * {@code channel} has more than one path to Tiller
+   *
+   * @param callOptions the {@link CallOptions} to start from; must
+   * not be {@code null}
+   *
+   * @param method the {@link MethodDescriptor} describing the call;
+   * must not be {@code null}
+   *
+   * @param request the request; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link CompletableFuture}
+   *
+   * @exception NullPointerException if any parameter is {@code null}
+   */
+  final <ReqT, RespT> CompletableFuture<RespT> call(final Channel channel,
+                                                    final boolean hedge,
+                                                    final CallOptions callOptions,
+                                                    final MethodDescriptor<ReqT, RespT> method,
+                                                    final ReqT request) {
+    Objects.requireNonNull(channel);
+    Objects.requireNonNull(method);
+    Objects.requireNonNull(request);
+    CallOptions options = Objects.requireNonNull(callOptions);
+    final Long deadlineInNanos = this.getDeadlineInNanos(method);
+    if (deadlineInNanos != null) {
+      final Deadline deadline = Deadline.after(deadlineInNanos.longValue(), TimeUnit.NANOSECONDS);
+      final Deadline existingDeadline = options.getDeadline();
+      if (existingDeadline == null || deadline.isBefore(existingDeadline)) {
+        options = options.withDeadline(deadline);
+      }
+    }
+    final HedgedCall<ReqT, RespT> returnValue = new HedgedCall<>(channel, options, method, request);
+    returnValue.attempt();
+    if (hedge && this.isHedging()) {
+      synchronized (this) {
+        this.tokens = Math.min(MAXIMUM_TOKENS, this.tokens + this.hedgingBudget);
+      }
+      returnValue.scheduleHedge(this.hedgingDelayInNanos.longValue());
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns {@code true} if this {@link ReadPolicy} hedges calls at
+   * all, that is, if it has a {@linkplain #getHedgingDelay() hedging
+   * delay} and a non-zero {@linkplain #getHedgingBudget() hedging
+   * budget}.
+   *
+   * @return {@code true} if this {@link ReadPolicy} hedges calls;
+   * {@code false} otherwise
+   */
+  final boolean isHedging() {
+    return this.hedgingDelayInNanos != null && this.hedgingBudget > 0.0;
+  }
+
+  /**
+   * Withdraws a hedging token, if one is available.
+   *
+   * @return {@code true} if a token was withdrawn and a hedge may
+   * therefore be made; {@code false} otherwise
+   */
+  private final boolean tryAcquireHedge() {
+    synchronized (this) {
+      if (this.tokens >= 1.0) {
+        this.tokens -= 1.0;
+        return true;
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Returns the deadline, in nanoseconds, of calls to the supplied
+   * {@link MethodDescriptor}.
+   *
+   * @param method the {@link MethodDescriptor}; must not be {@code
+   * null}
+   *
+   * @return the deadline in nanoseconds, or {@code null} if there is
+   * none
+   */
+  private final Long getDeadlineInNanos(final MethodDescriptor<?, ?> method) {
+    final String name = method.getFullMethodName();
+    final Long returnValue;
+    if (ReleaseServiceGrpc.getGetReleaseStatusMethod().getFullMethodName().equals(name)) {
+      returnValue = this.statusDeadlineInNanos;
+    } else if (ReleaseServiceGrpc.getGetReleaseContentMethod().getFullMethodName().equals(name)) {
+      returnValue = this.contentDeadlineInNanos;
+    } else if (ReleaseServiceGrpc.getGetHistoryMethod().getFullMethodName().equals(name)) {
+      returnValue = this.historyDeadlineInNanos;
+    } else {
+      returnValue = null;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * ReadPolicy}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public final String toString() {
+    return new StringBuilder(this.getClass().getSimpleName())
+      .append(" [statusDeadline=").append(this.getStatusDeadline())
+      .append(", contentDeadline=").append(this.getContentDeadline())
+      .append(", historyDeadline=").append(this.getHistoryDeadline())
+      .append(", hedgingDelay=").append(this.getHedgingDelay())
+      .append(", hedgingBudget=").append(this.hedgingBudget)
+      .append("]")
+      .toString();
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  private static final Long toDeadlineInNanos(final String name, final Duration deadline) {
+    final Long returnValue;
+    if (deadline == null) {
+      returnValue = null;
+    } else if (deadline.isZero() || deadline.isNegative()) {
+      throw new IllegalArgumentException(name + ": " + deadline);
+    } else {
+      returnValue = Long.valueOf(deadline.toNanos());
+    }
+    return returnValue;
+  }
+
+  private static final Duration toDuration(final Long nanos) {
+    return nanos == null ? null : Duration.ofNanos(nanos.longValue());
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * Holds the {@link ScheduledExecutorService} that hedges calls,
+   * so that its thread is only created if hedging is used.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Scheduler {
+
+    private static final ScheduledExecutorService INSTANCE = create();
+
+    private Scheduler() {
+      super();
+    }
+
+    private static final ScheduledExecutorService create() {
+      final ScheduledThreadPoolExecutor returnValue = new ScheduledThreadPoolExecutor(1, new DefaultThreadFactory("tiller-hedging", true));
+      returnValue.setRemoveOnCancelPolicy(true);
+      return Executors.unconfigurableScheduledExecutorService(returnValue);
+    }
+
+  }
+
+  /**
+   * A {@link CompletableFuture} completed by the first of one or more
+   * identical unary calls to answer, that cancels the others when it
+   * completes.
+   *
+   * @param <ReqT> the type of the request
+   *
+   * @param <RespT> the type of the response
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private final class HedgedCall<ReqT, RespT> extends CompletableFuture<RespT> {
+
+    private final Channel channel;
+
+    private final CallOptions callOptions;
+
+    private final MethodDescriptor<ReqT, RespT> method;
+
+    private final ReqT request;
+
+    /**
+     * The attempts made so far.
+     *
+     * <p>All access to this field must be synchronized on {@code
+     * this}.</p>
+     */
+    private final Collection<ClientCall<ReqT, RespT>> calls;
+
+    /**
+     * The number of attempts that have not yet failed.
+     *
+     * <p>All access to this field must be synchronized on {@code
+     * this}.</p>
+     */
+    private int outstanding;
+
+    /**
+     * The pending hedge, if any.
+     *
+     * <p>All access to this field must be synchronized on {@code
+     * this}.</p>
+     */
+    private ScheduledFuture<?> hedge;
+
+    private HedgedCall(final Channel channel,
+                       final CallOptions callOptions,
+                       final MethodDescriptor<ReqT, RespT> method,
+                       final ReqT request) {
+      super();
+      this.channel = channel;
+      this.callOptions = callOptions;
+      this.method = method;
+      this.request = request;
+      this.calls = new ArrayList<>(2);
+      this.whenComplete((response, throwable) -> this.cancelAll());
+    }
+
+    private final void scheduleHedge(final long delayInNanos) {
+      final ScheduledFuture<?> hedge = Scheduler.INSTANCE.schedule(this::hedge, delayInNanos, TimeUnit.NANOSECONDS);
+      synchronized (this) {
+        if (this.isDone()) {
+          hedge.cancel(false);
+        } else {
+          this.hedge = hedge;
+        }
+      }
+    }
+
+    private final void hedge() {
+      synchronized (this) {
+        if (this.isDone() || this.outstanding <= 0) {
+          return;
+        }
+      }
+      if (tryAcquireHedge()) {
+        this.attempt();
+      }
+    }
+
+    private final void attempt() {
+      final ClientCall<ReqT, RespT> call;
+      synchronized (this) {
+        if (this.isDone()) {
+          return;
+        }
+        call = this.channel.newCall(this.method, this.callOptions);
+        this.calls.add(call);
+        this.outstanding++;
+      }
+      try {
+        ClientCalls.asyncUnaryCall(call, this.request, new StreamObserver<RespT>() {
+            @Override
+            public final void onNext(final RespT response) {
+              complete(response);
+            }
+
+            @Override
+            public final void onError(final Throwable throwable) {
+              failed(throwable);
+            }
+
+            @Override
+            public final void onCompleted() {
+              // Nothing to do: the response has already completed
+              // this HedgedCall in onNext(), and a unary call that
+              // ends without one is reported to onError() instead.
+            }
+          });
+      } catch (final RuntimeException runtimeException) {
+        this.failed(runtimeException);
+      }
+    }
+
+    private final void failed(final Throwable throwable) {
+      final boolean lastAttempt;
+      synchronized (this) {
+        this.outstanding--;
+        lastAttempt = this.outstanding <= 0;
+      }
+      if (lastAttempt) {
+        // A failure before the hedging delay has elapsed is not a
+        // reason to hedge; only an attempt that is merely slow is.
+        this.completeExceptionally(throwable);
+      }
+    }
+
+    private final void cancelAll() {
+      final Collection<ClientCall<ReqT, RespT>> calls;
+      synchronized (this) {
+        if (this.hedge != null) {
+          this.hedge.cancel(false);
+          this.hedge = null;
+        }
+        calls = new ArrayList<>(this.calls);
+      }
+      for (final ClientCall<ReqT, RespT> call : calls) {
+        call.cancel("Hedged call completed", null);
+      }
+    }
+
+  }
+
+}
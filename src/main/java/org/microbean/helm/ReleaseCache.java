@@ -0,0 +1,444 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.time.Duration;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import java.util.concurrent.CompletableFuture;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import io.grpc.stub.StreamObserver;
+
+import org.microbean.development.annotation.Experimental;
+
+/**
+ * A time- and size-bounded cache of the responses to read-only
+ * release queries, suitable for supplying to the {@link
+ * ReleaseManager#ReleaseManager(Tiller, ReleaseCache)} constructor.
+ *
+ * <p>When a {@link ReleaseManager} has a {@link ReleaseCache}, its
+ * {@link ReleaseManager#getStatus(hapi.services.tiller.Tiller.GetReleaseStatusRequest)
+ * getStatus(GetReleaseStatusRequest)}, {@link
+ * ReleaseManager#getContent(hapi.services.tiller.Tiller.GetReleaseContentRequest)
+ * getContent(GetReleaseContentRequest)} and {@link
+ * ReleaseManager#getHistory(hapi.services.tiller.Tiller.GetHistoryRequest)
+ * getHistory(GetHistoryRequest)} methods (and those of any {@link
+ * AsyncReleaseManager} wrapping it) consult it first.  Concurrent
+ * identical requests share a single call to Tiller, and a successful
+ * response is reused for the {@linkplain #getTimeToLive() time to
+ * live} of this {@link ReleaseCache}.  Failed responses are never
+ * cached.</p>
+ *
+ * <p>A {@link ReleaseCache} may be shared by several {@link
+ * ReleaseManager}s.  Responses are cached separately for each {@link
+ * Tiller} on whose behalf they were fetched, so that releases in one
+ * cluster or Tiller namespace are never served to a {@link
+ * ReleaseManager} talking to another, even when their requests are
+ * identical.  {@link ReleaseManager}s sharing a {@link Tiller} share
+ * its responses.</p>
+ *
+ * <p>All entries pertaining to a release are invalidated when that
+ * release is installed, updated, rolled back or uninstalled through
+ * a {@link ReleaseManager} using the same {@link Tiller}.  Changes
+ * made by other clients are only observed once the relevant entries
+ * expire, or once they are {@linkplain #invalidate(String)
+ * invalidated explicitly}.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are safe for concurrent use by multiple
+ * threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ReleaseManager#ReleaseManager(Tiller, ReleaseCache)
+ */
+@Experimental
+public final class ReleaseCache {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The number of nanoseconds for which a successful response
+   * remains valid.
+   */
+  private final long timeToLiveInNanos;
+
+  /**
+   * The maximum number of entries this {@link ReleaseCache} holds.
+   */
+  private final int maximumSize;
+
+  /**
+   * The entries of this {@link ReleaseCache}, indexed by {@link Key}
+   * and kept in access order.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private final Map<Key, Entry> entries;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ReleaseCache}.
+   *
+   * @param timeToLive the length of time for which a successful
+   * response remains valid; must not be {@code null} and must be
+   * positive
+   *
+   * @param maximumSize the maximum number of responses to hold; when
+   * it is exceeded the least recently used response is evicted; must
+   * be greater than {@code 0}
+   *
+   * @exception NullPointerException if {@code timeToLive} is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code timeToLive} is zero
+   * or negative, or if {@code maximumSize} is less than {@code 1}
+   */
+  public ReleaseCache(final Duration timeToLive, final int maximumSize) {
+    super();
+    Objects.requireNonNull(timeToLive);
+    if (timeToLive.isZero() || timeToLive.isNegative()) {
+      throw new IllegalArgumentException("timeToLive: " + timeToLive);
+    }
+    if (maximumSize < 1) {
+      throw new IllegalArgumentException("maximumSize < 1: " + maximumSize);
+    }
+    this.timeToLiveInNanos = timeToLive.toNanos();
+    this.maximumSize = maximumSize;
+    this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected final boolean removeEldestEntry(final Map.Entry<Key, Entry> eldest) {
+          return this.size() > ReleaseCache.this.maximumSize;
+        }
+      };
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the length of time for which a successful response
+   * remains valid.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link Duration}
+   */
+  public final Duration getTimeToLive() {
+    return Duration.ofNanos(this.timeToLiveInNanos);
+  }
+
+  /**
+   * Returns the maximum number of responses this {@link ReleaseCache}
+   * holds.
+   *
+   * @return the maximum number of responses; always greater than
+   * {@code 0}
+   */
+  public final int getMaximumSize() {
+    return this.maximumSize;
+  }
+
+  /**
+   * Returns the number of responses, complete or in flight, that this
+   * {@link ReleaseCache} currently holds, including any that have
+   * expired but have not yet been removed.
+   *
+   * @return the number of responses held; never less than {@code 0}
+   */
+  public final synchronized int size() {
+    return this.entries.size();
+  }
+
+  /**
+   * Removes every response pertaining to a release with the supplied
+   * name, whichever {@link Tiller} it was fetched from.
+   *
+   * <p>Callers already waiting on a response that is in flight will
+   * still receive it, but it will not be cached.</p>
+   *
+   * @param releaseName the name of the release; may be {@code null}
+   * or empty, in which case no action is taken
+   */
+  public final void invalidate(final String releaseName) {
+    this.invalidate(null, releaseName);
+  }
+
+  /**
+   * Removes every response pertaining to the release with the
+   * supplied name that was fetched on behalf of the supplied scope.
+   *
+   * <p>Callers already waiting on a response that is in flight will
+   * still receive it, but it will not be cached.</p>
+   *
+   * @param scope the scope, normally a {@link Tiller}, whose
+   * responses should be removed; may be {@code null} in which case
+   * responses are removed whatever their scope
+   *
+   * @param releaseName the name of the release; may be {@code null}
+   * or empty, in which case no action is taken
+   */
+  final void invalidate(final Object scope, final String releaseName) {
+    if (releaseName != null && !releaseName.isEmpty()) {
+      synchronized (this) {
+        final Iterator<Map.Entry<Key, Entry>> iterator = this.entries.entrySet().iterator();
+        assert iterator != null;
+        while (iterator.hasNext()) {
+          final Map.Entry<Key, Entry> entry = iterator.next();
+          if (releaseName.equals(entry.getValue().releaseName) && (scope == null || scope == entry.getKey().scope)) {
+            iterator.remove();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes every response from this {@link ReleaseCache}.
+   */
+  public final synchronized void clear() {
+    this.entries.clear();
+  }
+
+  /**
+   * Returns a {@link CompletableFuture} that will be completed with
+   * the response to the supplied request, performing the supplied
+   * call only if there is no valid response, and no identical call in
+   * flight, already, for the supplied scope.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>{@linkplain CompletableFuture#cancel(boolean) Cancelling} the
+   * returned {@link CompletableFuture} does not affect other callers
+   * waiting on the same response.</p>
+   *
+   * @param <T> the type of the response
+   *
+   * @param scope the object, normally the {@link Tiller} the call
+   * will be made through, that identifies the cluster and Tiller
+   * namespace to which the request is addressed; responses are only
+   * shared between identical requests with the identical scope; must
+   * not be {@code null}
+   *
+   * @param releaseName the name of the release the request pertains
+   * to; must not be {@code null}
+   *
+   * @param request the request; must not be {@code null} and must
+   * implement {@link Object#equals(Object)} and {@link
+   * Object#hashCode()} in terms of its contents, as all Protocol
+   * Buffers messages do
+   *
+   * @param call a {@link Consumer} that performs the call to Tiller,
+   * delivering its response to the {@link StreamObserver} it is
+   * supplied with; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link CompletableFuture}
+   *
+   * @exception NullPointerException if any parameter is {@code null}
+   */
+  final <T> CompletableFuture<T> get(final Object scope, final String releaseName, final Object request, final Consumer<? super StreamObserver<T>> call) {
+    Objects.requireNonNull(releaseName);
+    Objects.requireNonNull(call);
+    final Key key = new Key(scope, request);
+    final long now = System.nanoTime();
+    final Entry entry;
+    final boolean load;
+    synchronized (this) {
+      final Entry existing = this.entries.get(key);
+      if (existing == null || existing.isExpired(now)) {
+        entry = new Entry(releaseName, new Load<T>());
+        this.entries.put(key, entry);
+        load = true;
+      } else {
+        entry = existing;
+        load = false;
+      }
+    }
+    @SuppressWarnings("unchecked")
+    final Load<T> future = (Load<T>)entry.future;
+    if (load) {
+      future.whenComplete((response, throwable) -> this.loaded(key, entry, throwable));
+      try {
+        call.accept(future);
+      } catch (final RuntimeException runtimeException) {
+        future.completeExceptionally(runtimeException);
+      }
+    }
+    return future.thenApply(Function.identity());
+  }
+
+  /**
+   * Records the completion of the load of the supplied {@link Entry}.
+   *
+   * @param key the {@link Key} the {@link Entry} is indexed under;
+   * must not be {@code null}
+   *
+   * @param entry the {@link Entry}; must not be {@code null}
+   *
+   * @param throwable the {@link Throwable} with which the load
+   * failed, or {@code null} if it succeeded
+   */
+  private final void loaded(final Key key, final Entry entry, final Throwable throwable) {
+    synchronized (this) {
+      if (throwable == null) {
+        entry.expiresAt = System.nanoTime() + this.timeToLiveInNanos;
+      } else {
+        this.entries.remove(key, entry);
+      }
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The key under which an {@link Entry} is indexed: a request
+   * together with the scope, compared by identity, on whose behalf it
+   * was made.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Key {
+
+    private final Object scope;
+
+    private final Object request;
+
+    private Key(final Object scope, final Object request) {
+      super();
+      this.scope = Objects.requireNonNull(scope);
+      this.request = Objects.requireNonNull(request);
+    }
+
+    @Override
+    public final int hashCode() {
+      return 31 * System.identityHashCode(this.scope) + this.request.hashCode();
+    }
+
+    @Override
+    public final boolean equals(final Object other) {
+      if (other == this) {
+        return true;
+      } else if (other instanceof Key) {
+        final Key her = (Key)other;
+        return this.scope == her.scope && this.request.equals(her.request);
+      } else {
+        return false;
+      }
+    }
+
+  }
+
+  /**
+   * A cached response, complete or in flight.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Entry {
+
+    private final String releaseName;
+
+    private final CompletableFuture<?> future;
+
+    /**
+     * The {@link System#nanoTime()} value after which this {@link
+     * Entry} is no longer valid, or {@code null} if its response is
+     * still in flight.
+     *
+     * <p>All access to this field must be synchronized on the
+     * enclosing {@link ReleaseCache}.</p>
+     */
+    private Long expiresAt;
+
+    private Entry(final String releaseName, final CompletableFuture<?> future) {
+      super();
+      this.releaseName = Objects.requireNonNull(releaseName);
+      this.future = Objects.requireNonNull(future);
+    }
+
+    private final boolean isExpired(final long now) {
+      return this.expiresAt != null && now - this.expiresAt.longValue() >= 0L;
+    }
+
+  }
+
+  /**
+   * A {@link CompletableFuture} that is also a {@link StreamObserver}
+   * of a single response.
+   *
+   * @param <T> the type of the response
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Load<T> extends CompletableFuture<T> implements StreamObserver<T> {
+
+    private Load() {
+      super();
+    }
+
+    @Override
+    public final void onNext(final T response) {
+      this.complete(response);
+    }
+
+    @Override
+    public final void onError(final Throwable throwable) {
+      this.completeExceptionally(throwable);
+    }
+
+    @Override
+    public final void onCompleted() {
+      if (!this.isDone()) {
+        this.completeExceptionally(new IllegalStateException("No response received"));
+      }
+    }
+
+  }
+
+}
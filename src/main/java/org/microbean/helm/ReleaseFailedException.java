@@ -0,0 +1,95 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.io.Serializable; // for javadoc only
+
+import hapi.release.ReleaseOuterClass.Release;
+
+/**
+ * A {@link HelmException} indicating that a release reached a status
+ * that was designated as a failure while it was being waited for.
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ReleaseStatusWaiter
+ */
+public class ReleaseFailedException extends HelmException {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The version of this class for {@linkplain Serializable
+   * serialization purposes}.
+   */
+  private static final long serialVersionUID = 1L;
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link Release} that failed.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private final Release release;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ReleaseFailedException}.
+   *
+   * @param message a descriptive message; may be {@code null}
+   *
+   * @param release the {@link Release} that failed; may be {@code
+   * null}
+   */
+  protected ReleaseFailedException(final String message, final Release release) {
+    super(message);
+    this.release = release;
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the {@link Release} that failed, as last observed.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return the {@link Release} that failed, or {@code null}
+   */
+  public final Release getRelease() {
+    return this.release;
+  }
+
+}
@@ -22,19 +22,33 @@ import java.io.IOException;
 import java.util.Iterator;
 import java.util.Objects;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import java.util.function.Supplier;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
 import hapi.chart.ChartOuterClass.Chart;
 
 import hapi.release.ReleaseOuterClass.Release;
 
+import hapi.services.tiller.ReleaseServiceGrpc;
 import hapi.services.tiller.ReleaseServiceGrpc.ReleaseServiceBlockingStub;
 import hapi.services.tiller.ReleaseServiceGrpc.ReleaseServiceFutureStub;
+import hapi.services.tiller.ReleaseServiceGrpc.ReleaseServiceStub;
 import hapi.services.tiller.Tiller.GetHistoryRequest;
 import hapi.services.tiller.Tiller.GetHistoryRequestOrBuilder;
 import hapi.services.tiller.Tiller.GetHistoryResponse;
@@ -63,6 +77,14 @@ import hapi.services.tiller.Tiller.UpdateReleaseRequest;
 import hapi.services.tiller.Tiller.UpdateReleaseRequestOrBuilder;
 import hapi.services.tiller.Tiller.UpdateReleaseResponse;
 
+import io.grpc.MethodDescriptor;
+
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.StreamObserver;
+
+import org.microbean.development.annotation.Experimental;
+
+import org.microbean.helm.chart.ChartMinimizer;
 import org.microbean.helm.chart.MissingDependenciesException;
 import org.microbean.helm.chart.Requirements;
 
@@ -172,6 +194,40 @@ public class ReleaseManager implements Closeable {
    */
   private final Tiller tiller;
 
+  /**
+   * The {@link ReleaseCache} consulted by the {@link
+   * #getContent(GetReleaseContentRequest)}, {@link
+   * #getHistory(GetHistoryRequest)} and {@link
+   * #getStatus(GetReleaseStatusRequest)} methods.
+   *
+   * <p>This field may be {@code null}.</p>
+   *
+   * @see #getReleaseCache()
+   */
+  private final ReleaseCache releaseCache;
+
+  /**
+   * The {@link ReadPolicy} governing the deadlines and hedging of the
+   * calls made by the {@link #getContent(GetReleaseContentRequest)},
+   * {@link #getHistory(GetHistoryRequest)} and {@link
+   * #getStatus(GetReleaseStatusRequest)} methods.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #getReadPolicy()
+   */
+  private final ReadPolicy readPolicy;
+
+  /**
+   * The {@link ChartMinimizer} applied to charts before they are
+   * installed or updated.
+   *
+   * <p>This field may be {@code null}.</p>
+   *
+   * @see #getChartMinimizer()
+   */
+  private final ChartMinimizer chartMinimizer;
+
 
   /*
    * Constructors.
@@ -188,12 +244,137 @@ public class ReleaseManager implements Closeable {
    *
    * @exception NullPointerException if {@code tiller} is {@code null}
    *
+   * @see #ReleaseManager(Tiller, ReleaseCache, ReadPolicy)
+   *
    * @see Tiller
    */
   public ReleaseManager(final Tiller tiller) {
+    this(tiller, null);
+  }
+
+  /**
+   * Creates a new {@link ReleaseManager}.
+   *
+   * @param tiller the {@link Tiller} instance representing a
+   * connection to the <a
+   * href="https://docs.helm.sh/architecture/#components">Tiller
+   * server</a>; must not be {@code null}
+   *
+   * @param releaseCache a {@link ReleaseCache} that the {@link
+   * #getContent(GetReleaseContentRequest)}, {@link
+   * #getHistory(GetHistoryRequest)} and {@link
+   * #getStatus(GetReleaseStatusRequest)} methods will consult before
+   * calling Tiller; may be {@code null} in which case no caching will
+   * occur
+   *
+   * @exception NullPointerException if {@code tiller} is {@code null}
+   *
+   * @see #ReleaseManager(Tiller, ReleaseCache, ReadPolicy)
+   *
+   * @see ReleaseCache
+   *
+   * @see Tiller
+   */
+  @Experimental
+  public ReleaseManager(final Tiller tiller, final ReleaseCache releaseCache) {
+    this(tiller, releaseCache, null);
+  }
+
+  /**
+   * Creates a new {@link ReleaseManager}.
+   *
+   * @param tiller the {@link Tiller} instance representing a
+   * connection to the <a
+   * href="https://docs.helm.sh/architecture/#components">Tiller
+   * server</a>; must not be {@code null}
+   *
+   * @param releaseCache a {@link ReleaseCache} that the {@link
+   * #getContent(GetReleaseContentRequest)}, {@link
+   * #getHistory(GetHistoryRequest)} and {@link
+   * #getStatus(GetReleaseStatusRequest)} methods will consult before
+   * calling Tiller; may be {@code null} in which case no caching will
+   * occur
+   *
+   * @param readPolicy a {@link ReadPolicy} governing the deadlines
+   * and hedging of the calls the {@link
+   * #getContent(GetReleaseContentRequest)}, {@link
+   * #getHistory(GetHistoryRequest)} and {@link
+   * #getStatus(GetReleaseStatusRequest)} methods make to Tiller; may
+   * be {@code null} in which case {@link ReadPolicy#DEFAULT} will be
+   * used
+   *
+   * @exception NullPointerException if {@code tiller} is {@code null}
+   *
+   * @see ReadPolicy
+   *
+   * @see ReleaseCache
+   *
+   * @see Tiller
+   */
+  @Experimental
+  public ReleaseManager(final Tiller tiller, final ReleaseCache releaseCache, final ReadPolicy readPolicy) {
+    this(tiller, releaseCache, readPolicy, null);
+  }
+
+  /**
+   * Creates a new {@link ReleaseManager}.
+   *
+   * @param tiller the {@link Tiller} instance representing a
+   * connection to the <a
+   * href="https://docs.helm.sh/architecture/#components">Tiller
+   * server</a>; must not be {@code null}
+   *
+   * @param releaseCache a {@link ReleaseCache} that the {@link
+   * #getContent(GetReleaseContentRequest)}, {@link
+   * #getHistory(GetHistoryRequest)} and {@link
+   * #getStatus(GetReleaseStatusRequest)} methods will consult before
+   * calling Tiller; may be {@code null} in which case no caching will
+   * occur
+   *
+   * @param readPolicy a {@link ReadPolicy} governing the deadlines
+   * and hedging of the calls the {@link
+   * #getContent(GetReleaseContentRequest)}, {@link
+   * #getHistory(GetHistoryRequest)} and {@link
+   * #getStatus(GetReleaseStatusRequest)} methods make to Tiller; may
+   * be {@code null} in which case {@link ReadPolicy#DEFAULT} will be
+   * used
+   *
+   * @param chartMinimizer a {@link ChartMinimizer} that will
+   * {@linkplain ChartMinimizer#minimize(Chart.Builder) minimize}
+   * every {@link Chart.Builder} supplied to the {@link
+   * #install(InstallReleaseRequest.Builder, Chart.Builder)} and
+   * {@link #update(UpdateReleaseRequest.Builder, Chart.Builder)}
+   * methods before it is sent to Tiller; may be {@code null} in which
+   * case charts will be sent as they are
+   *
+   * @exception NullPointerException if {@code tiller} is {@code null}
+   *
+   * @see ChartMinimizer
+   *
+   * @see ReadPolicy
+   *
+   * @see ReleaseCache
+   *
+   * @see Tiller
+   */
+  @Experimental
+  public ReleaseManager(final Tiller tiller,
+                        final ReleaseCache releaseCache,
+                        final ReadPolicy readPolicy,
+                        final ChartMinimizer chartMinimizer) {
     super();
     Objects.requireNonNull(tiller);
     this.tiller = tiller;
+    this.releaseCache = releaseCache;
+    this.readPolicy = readPolicy == null ? ReadPolicy.DEFAULT : readPolicy;
+    this.chartMinimizer = chartMinimizer;
+    if (this.readPolicy.isHedging() && !tiller.isMultiPath()) {
+      final Logger logger = Logger.getLogger(this.getClass().getName());
+      assert logger != null;
+      if (logger.isLoggable(Level.WARNING)) {
+        logger.log(Level.WARNING, "Calls will not be hedged despite " + this.readPolicy + " while the Tiller has a single path to Tiller; supply a TillerChannelPool over several Tiller pods to hedge");
+      }
+    }
   }
 
 
@@ -217,6 +398,155 @@ public class ReleaseManager implements Closeable {
   protected final Tiller getTiller() {
     return this.tiller;
   }
+
+  /**
+   * Returns the {@link ReleaseCache} {@linkplain
+   * #ReleaseManager(Tiller, ReleaseCache) supplied at construction
+   * time}, if any.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return a {@link ReleaseCache}, or {@code null}
+   *
+   * @see #ReleaseManager(Tiller, ReleaseCache)
+   */
+  @Experimental
+  public final ReleaseCache getReleaseCache() {
+    return this.releaseCache;
+  }
+
+  /**
+   * Returns the {@link ReadPolicy} governing the deadlines and
+   * hedging of the calls made by the {@link
+   * #getContent(GetReleaseContentRequest)}, {@link
+   * #getHistory(GetHistoryRequest)} and {@link
+   * #getStatus(GetReleaseStatusRequest)} methods.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link ReadPolicy}
+   *
+   * @see #ReleaseManager(Tiller, ReleaseCache, ReadPolicy)
+   */
+  @Experimental
+  public final ReadPolicy getReadPolicy() {
+    return this.readPolicy;
+  }
+
+  /**
+   * Returns the {@link ChartMinimizer} {@linkplain
+   * #ReleaseManager(Tiller, ReleaseCache, ReadPolicy, ChartMinimizer)
+   * supplied at construction time}, if any.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return a {@link ChartMinimizer}, or {@code null}
+   *
+   * @see #ReleaseManager(Tiller, ReleaseCache, ReadPolicy,
+   * ChartMinimizer)
+   */
+  @Experimental
+  public final ChartMinimizer getChartMinimizer() {
+    return this.chartMinimizer;
+  }
+
+  /**
+   * Makes a read-only unary call pertaining to the release with the
+   * supplied name according to the {@linkplain #getReadPolicy()
+   * <code>ReadPolicy</code>}, consulting the {@linkplain
+   * #getReleaseCache() <code>ReleaseCache</code>} first if there is
+   * one.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param <ReqT> the type of the request
+   *
+   * @param <RespT> the type of the response
+   *
+   * @param method the {@link MethodDescriptor} describing the call;
+   * must not be {@code null}
+   *
+   * @param releaseName the name of the release; must not be {@code
+   * null}
+   *
+   * @param request the request; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link CompletableFuture}
+   *
+   * @exception NullPointerException if any parameter is {@code null}
+   */
+  final <ReqT, RespT> CompletableFuture<RespT> read(final MethodDescriptor<ReqT, RespT> method,
+                                                    final String releaseName,
+                                                    final ReqT request) {
+    Objects.requireNonNull(method);
+    Objects.requireNonNull(releaseName);
+    Objects.requireNonNull(request);
+    final ReleaseServiceStub stub = this.getTiller().getReleaseServiceStub();
+    assert stub != null;
+    final CompletableFuture<RespT> returnValue;
+    if (this.releaseCache == null) {
+      returnValue = this.readPolicy.call(stub.getChannel(), this.getTiller().isMultiPath(), stub.getCallOptions(), method, request);
+    } else {
+      returnValue = this.releaseCache.get(this.getTiller(), releaseName, request, (StreamObserver<RespT> observer) -> {
+          this.readPolicy.call(stub.getChannel(), this.getTiller().isMultiPath(), stub.getCallOptions(), method, request)
+            .whenComplete((response, throwable) -> {
+                if (throwable == null) {
+                  observer.onNext(response);
+                  observer.onCompleted();
+                } else {
+                  observer.onError(throwable);
+                }
+              });
+        });
+    }
+    return returnValue;
+  }
+
+  /**
+   * Invalidates all responses cached on behalf of this {@link
+   * ReleaseManager}'s {@link Tiller} that pertain to the release with
+   * the supplied name, if there is a {@link ReleaseCache}.
+   *
+   * @param releaseName the name of the release; may be {@code null}
+   */
+  final void invalidate(final String releaseName) {
+    if (this.releaseCache != null) {
+      this.releaseCache.invalidate(this.getTiller(), releaseName);
+    }
+  }
+
+  /**
+   * {@linkplain #invalidate(String) Invalidates} all cached responses
+   * pertaining to the release with the supplied name, starts the call
+   * represented by the supplied {@link Supplier}, invalidates them
+   * again when that call completes, and returns the {@link
+   * ListenableFuture} representing it.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param <T> the type of the response
+   *
+   * @param releaseName the name of the release; may be {@code null}
+   *
+   * @param call a {@link Supplier} that starts a call that changes
+   * the release and returns a {@link ListenableFuture} representing
+   * it; must not be {@code null} and must not return {@code null}
+   *
+   * @return the {@link ListenableFuture} returned by {@code call};
+   * never {@code null}
+   *
+   * @exception NullPointerException if {@code call} is {@code null}
+   * or returns {@code null}
+   */
+  private final <T> ListenableFuture<T> invalidateOnCompletion(final String releaseName, final Supplier<? extends ListenableFuture<T>> call) {
+    Objects.requireNonNull(call);
+    this.invalidate(releaseName);
+    final ListenableFuture<T> returnValue = Objects.requireNonNull(call.get());
+    if (this.releaseCache != null && releaseName != null && !releaseName.isEmpty()) {
+      returnValue.addListener(() -> this.releaseCache.invalidate(this.getTiller(), releaseName), Runnable::run);
+    }
+    return returnValue;
+  }
   
   /**
    * Calls {@link Tiller#close() close()} on the {@link Tiller}
@@ -251,9 +581,7 @@ public class ReleaseManager implements Closeable {
     Objects.requireNonNull(request);
     validate(request);
 
-    final ReleaseServiceFutureStub stub = this.getTiller().getReleaseServiceFutureStub();
-    assert stub != null;
-    return stub.getReleaseContent(request);
+    return this.read(ReleaseServiceGrpc.getGetReleaseContentMethod(), request.getName(), request);
   }
 
   /**
@@ -277,9 +605,7 @@ public class ReleaseManager implements Closeable {
     Objects.requireNonNull(request);
     validate(request);
 
-    final ReleaseServiceFutureStub stub = this.getTiller().getReleaseServiceFutureStub();
-    assert stub != null;
-    return stub.getHistory(request);
+    return this.read(ReleaseServiceGrpc.getGetHistoryMethod(), request.getName(), request);
   }
 
   /**
@@ -303,9 +629,7 @@ public class ReleaseManager implements Closeable {
     Objects.requireNonNull(request);
     validate(request);
 
-    final ReleaseServiceFutureStub stub = this.getTiller().getReleaseServiceFutureStub();
-    assert stub != null;
-    return stub.getReleaseStatus(request);
+    return this.read(ReleaseServiceGrpc.getGetReleaseStatusMethod(), request.getName(), request);
   }   
   
   /**
@@ -344,6 +668,91 @@ public class ReleaseManager implements Closeable {
   public Future<InstallReleaseResponse> install(final InstallReleaseRequest.Builder requestBuilder,
                                                 final Chart.Builder chartBuilder)
     throws IOException {
+    final InstallReleaseRequest request = this.prepare(requestBuilder, chartBuilder);
+    final ReleaseServiceFutureStub stub = this.getTiller().getReleaseServiceFutureStub();
+    assert stub != null;
+    return this.invalidateOnCompletion(request.getName(), () -> stub.installRelease(request));
+  }
+
+  /**
+   * Installs a release using a {@link PreparedChart}, whose
+   * requirements-applied form and serialized bytes are computed at
+   * most once for any given values and then reused.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>Overrides of this method must not return {@code null}.</p>
+   *
+   * @param requestBuilder the {@link
+   * hapi.services.tiller.Tiller.InstallReleaseRequest.Builder}
+   * representing the installation request; must not be {@code null}
+   * and must {@linkplain
+   * #validate(Tiller.InstallReleaseRequestOrBuilder) pass
+   * validation}; any chart it contains will be cleared
+   *
+   * @param preparedChart the {@link PreparedChart} representing the
+   * Helm chart to install; must not be {@code null}
+   *
+   * @return a {@link Future} containing a {@link
+   * InstallReleaseResponse} that has the information requested; never
+   * {@code null}
+   *
+   * @exception MissingDependenciesException if the supplied {@code
+   * preparedChart} has a {@code requirements.yaml} resource in it
+   * that mentions subcharts that it does not contain
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   *
+   * @see PreparedChart
+   *
+   * @see #install(InstallReleaseRequest.Builder, Chart.Builder)
+   */
+  @Experimental
+  public Future<InstallReleaseResponse> install(final InstallReleaseRequest.Builder requestBuilder,
+                                                final PreparedChart preparedChart)
+    throws IOException {
+    final PreparedChart.Payload<InstallReleaseRequest> payload = this.prepare(requestBuilder, preparedChart);
+    final String name = payload.getHead().getName();
+    final ReleaseServiceFutureStub stub = this.getTiller().getReleaseServiceFutureStub();
+    assert stub != null;
+    return this.invalidateOnCompletion(name, () -> ClientCalls.futureUnaryCall(stub.getChannel().newCall(PreparedChart.INSTALL_RELEASE_METHOD, stub.getCallOptions()), payload));
+  }
+
+  /**
+   * {@linkplain #validate(Tiller.InstallReleaseRequestOrBuilder)
+   * Validates} the supplied {@link
+   * hapi.services.tiller.Tiller.InstallReleaseRequest.Builder},
+   * installs the supplied {@link
+   * hapi.chart.ChartOuterClass.Chart.Builder} into it, {@linkplain
+   * #getChartMinimizer() minimized} if there is a {@link
+   * ChartMinimizer} and with its requirements applied, defaults its
+   * namespace if necessary, and returns the resulting {@link
+   * InstallReleaseRequest}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param requestBuilder the {@link
+   * hapi.services.tiller.Tiller.InstallReleaseRequest.Builder} to
+   * prepare; must not be {@code null}
+   *
+   * @param chartBuilder the {@link
+   * hapi.chart.ChartOuterClass.Chart.Builder} to install; must not be
+   * {@code null}
+   *
+   * @return a non-{@code null} {@link InstallReleaseRequest}
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   *
+   * @exception MissingDependenciesException if the supplied {@code
+   * chartBuilder} has a {@code requirements.yaml} resource in it that
+   * mentions subcharts that it does not contain
+   *
+   * @see #install(InstallReleaseRequest.Builder, Chart.Builder)
+   */
+  final InstallReleaseRequest prepare(final InstallReleaseRequest.Builder requestBuilder,
+                                      final Chart.Builder chartBuilder) {
     Objects.requireNonNull(requestBuilder);
     Objects.requireNonNull(chartBuilder);
     validate(requestBuilder);
@@ -356,8 +765,75 @@ public class ReleaseManager implements Closeable {
     // here we called requestBuilder.getValues(), null *would* be
     // returned.  For *our* code, this is fine, but Tiller's code
     // crashes when there's a null in the values slot.
+    if (this.chartMinimizer != null) {
+      this.chartMinimizer.minimize(chartBuilder);
+    }
     requestBuilder.setChart(Requirements.apply(chartBuilder, requestBuilder.getValuesBuilder()));
-    
+    this.defaultNamespace(requestBuilder);
+    return requestBuilder.build();
+  }
+
+  /**
+   * {@linkplain #validate(Tiller.InstallReleaseRequestOrBuilder)
+   * Validates} the supplied {@link
+   * hapi.services.tiller.Tiller.InstallReleaseRequest.Builder},
+   * defaults its namespace if necessary, and returns a {@link
+   * PreparedChart.Payload} consisting of the resulting {@link
+   * InstallReleaseRequest}, without a chart, followed by the
+   * serialized form of the supplied {@link PreparedChart} with
+   * requirements applied for the request's values.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param requestBuilder the {@link
+   * hapi.services.tiller.Tiller.InstallReleaseRequest.Builder} to
+   * prepare; must not be {@code null}; its chart will be cleared
+   *
+   * @param preparedChart the {@link PreparedChart} to install; must
+   * not be {@code null}
+   *
+   * @return a non-{@code null} {@link PreparedChart.Payload}
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   *
+   * @exception MissingDependenciesException if the supplied {@code
+   * preparedChart} has a {@code requirements.yaml} resource in it
+   * that mentions subcharts that it does not contain
+   *
+   * @see #install(InstallReleaseRequest.Builder, PreparedChart)
+   */
+  final PreparedChart.Payload<InstallReleaseRequest> prepare(final InstallReleaseRequest.Builder requestBuilder,
+                                                             final PreparedChart preparedChart) {
+    Objects.requireNonNull(requestBuilder);
+    Objects.requireNonNull(preparedChart);
+    validate(requestBuilder);
+
+    // See the note in prepare(InstallReleaseRequest.Builder,
+    // Chart.Builder) regarding getValuesBuilder().
+    final PreparedChart.Variant variant = preparedChart.getVariant(requestBuilder.getValuesBuilder());
+    assert variant != null;
+    requestBuilder.clearChart();
+    this.defaultNamespace(requestBuilder);
+    return variant.splice(requestBuilder.build(), InstallReleaseRequest.CHART_FIELD_NUMBER);
+  }
+
+  /**
+   * Sets the namespace of the supplied {@link
+   * hapi.services.tiller.Tiller.InstallReleaseRequest.Builder} to the
+   * namespace of the {@link Tiller}'s configuration, or to {@code
+   * default}, if it has not been set, and validates it otherwise.
+   *
+   * @param requestBuilder the {@link
+   * hapi.services.tiller.Tiller.InstallReleaseRequest.Builder} whose
+   * namespace should be defaulted; must not be {@code null}
+   *
+   * @exception NullPointerException if {@code requestBuilder} is
+   * {@code null}
+   *
+   * @exception IllegalArgumentException if the namespace is invalid
+   */
+  private final void defaultNamespace(final InstallReleaseRequest.Builder requestBuilder) {
     String releaseNamespace = requestBuilder.getNamespace();
     if (releaseNamespace == null || releaseNamespace.isEmpty()) {
       final io.fabric8.kubernetes.client.Config configuration = this.getTiller().getConfiguration();
@@ -375,10 +851,6 @@ public class ReleaseManager implements Closeable {
     } else {
       this.validateNamespace(releaseNamespace);
     }
-    
-    final ReleaseServiceFutureStub stub = this.getTiller().getReleaseServiceFutureStub();
-    assert stub != null;
-    return stub.installRelease(requestBuilder.build());
   }
 
   /**
@@ -411,6 +883,137 @@ public class ReleaseManager implements Closeable {
     return stub.listReleases(request);
   }
 
+  /**
+   * Returns information about Helm releases, failing with {@link
+   * io.grpc.Status#DEADLINE_EXCEEDED} if the call has not completed
+   * within the supplied timeout.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param request the {@link ListReleasesRequest} describing the
+   * releases to be returned; must not be {@code null}
+   *
+   * @param timeoutInNanos the number of nanoseconds within which the
+   * call, including the delivery of every response, must complete
+   *
+   * @return an {@link Iterator} of {@link ListReleasesResponse}
+   * objects comprising the information requested; never {@code null}
+   *
+   * @exception NullPointerException if {@code request} is {@code
+   * null}
+   *
+   * @exception PatternSyntaxException if the {@link
+   * ListReleasesRequestOrBuilder#getFilter()} return value is
+   * non-{@code null}, non-{@linkplain String#isEmpty() empty} but not
+   * a {@linkplain Pattern#compile(String) valid regular expression}
+   *
+   * @see #list(ListReleasesRequest)
+   */
+  final Iterator<ListReleasesResponse> list(final ListReleasesRequest request, final long timeoutInNanos) {
+    Objects.requireNonNull(request);
+    validate(request);
+
+    final ReleaseServiceBlockingStub stub = this.getTiller().getReleaseServiceBlockingStub();
+    assert stub != null;
+    return stub.withDeadlineAfter(timeoutInNanos, TimeUnit.NANOSECONDS).listReleases(request);
+  }
+
+  /**
+   * Returns a lazily paged {@link Stream} of the {@link Release}s
+   * described by the supplied {@link ListReleasesRequest}, fetching
+   * pages of {@code 256} releases
+   * (or the request's {@code limit}, if positive) and prefetching up
+   * to two pages ahead of the consumer.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>Overrides of this method must not return {@code null}.</p>
+   *
+   * @param request the {@link ListReleasesRequest} describing the
+   * releases to be returned; must not be {@code null}
+   *
+   * @return a non-{@code null}, sequential {@link Stream} of {@link
+   * Release}s that should be {@linkplain Stream#close() closed} if it
+   * is not consumed to the end
+   *
+   * @exception NullPointerException if {@code request} is {@code
+   * null}
+   *
+   * @exception PatternSyntaxException if the {@link
+   * ListReleasesRequestOrBuilder#getFilter()} return value is
+   * non-{@code null}, non-{@linkplain String#isEmpty() empty} but not
+   * a {@linkplain Pattern#compile(String) valid regular expression}
+   *
+   * @see #stream(ListReleasesRequest, int, int)
+   */
+  @Experimental
+  public Stream<Release> stream(final ListReleasesRequest request) {
+    return this.stream(request, 0, 2);
+  }
+
+  /**
+   * Returns a lazily paged {@link Stream} of the {@link Release}s
+   * described by the supplied {@link ListReleasesRequest}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>Overrides of this method must not return {@code null}.</p>
+   *
+   * <p>Unlike {@link #list(ListReleasesRequest)}, which returns the
+   * raw responses to a single request, the returned {@link Stream}
+   * pages through all matching releases using the request's {@code
+   * limit} and {@code offset} fields.  Nothing is fetched until the
+   * {@link Stream} is first consumed.  While one page is being
+   * consumed, the next is fetched in the background, so that
+   * consumption does not stall for a round trip at each page
+   * boundary.  Fetching pauses while {@code maximumPrefetchedPages}
+   * pages are waiting to be consumed, so memory use is bounded by
+   * the page size rather than by the number of releases.</p>
+   *
+   * <p>The returned {@link Stream} throws {@link
+   * io.grpc.StatusRuntimeException} from its terminal operation if a
+   * page cannot be fetched.  {@linkplain Stream#close() Closing} it
+   * cancels any fetch in flight.</p>
+   *
+   * @param request the {@link ListReleasesRequest} describing the
+   * releases to be returned; must not be {@code null}; its {@code
+   * offset}, if any, is where the first page starts
+   *
+   * @param pageSize the number of releases to request per page; if
+   * less than or equal to {@code 0}, then the request's {@code limit}
+   * is used instead, or, if that is also not positive, {@code
+   * 256}
+   *
+   * @param maximumPrefetchedPages the maximum number of fetched pages
+   * that may be waiting to be consumed; must be greater than {@code
+   * 0}
+   *
+   * @return a non-{@code null}, sequential {@link Stream} of {@link
+   * Release}s that should be {@linkplain Stream#close() closed} if it
+   * is not consumed to the end
+   *
+   * @exception NullPointerException if {@code request} is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code
+   * maximumPrefetchedPages} is less than {@code 1}
+   *
+   * @exception PatternSyntaxException if the {@link
+   * ListReleasesRequestOrBuilder#getFilter()} return value is
+   * non-{@code null}, non-{@linkplain String#isEmpty() empty} but not
+   * a {@linkplain Pattern#compile(String) valid regular expression}
+   */
+  @Experimental
+  public Stream<Release> stream(final ListReleasesRequest request, final int pageSize, final int maximumPrefetchedPages) {
+    Objects.requireNonNull(request);
+    validate(request);
+
+    final ReleaseServiceStub stub = this.getTiller().getReleaseServiceStub();
+    assert stub != null;
+    final ReleaseSpliterator spliterator = new ReleaseSpliterator(stub, request, pageSize, maximumPrefetchedPages);
+    return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+  }
+
   /**
    * Rolls back a previously installed release.
    *
@@ -432,10 +1035,9 @@ public class ReleaseManager implements Closeable {
     throws IOException {
     Objects.requireNonNull(request);
     validate(request);
-
     final ReleaseServiceFutureStub stub = this.getTiller().getReleaseServiceFutureStub();
     assert stub != null;
-    return stub.rollbackRelease(request);
+    return this.invalidateOnCompletion(request.getName(), () -> stub.rollbackRelease(request));
   }
 
   /**
@@ -484,10 +1086,9 @@ public class ReleaseManager implements Closeable {
     throws IOException {
     Objects.requireNonNull(request);
     validate(request);
-
     final ReleaseServiceFutureStub stub = this.getTiller().getReleaseServiceFutureStub();
     assert stub != null;
-    return stub.uninstallRelease(request);
+    return this.invalidateOnCompletion(request.getName(), () -> stub.uninstallRelease(request));
   }
 
   /**
@@ -523,23 +1124,133 @@ public class ReleaseManager implements Closeable {
   public Future<UpdateReleaseResponse> update(final UpdateReleaseRequest.Builder requestBuilder,
                                               final Chart.Builder chartBuilder)
     throws IOException {
+    final UpdateReleaseRequest request = this.prepare(requestBuilder, chartBuilder);
+    final ReleaseServiceFutureStub stub = this.getTiller().getReleaseServiceFutureStub();
+    assert stub != null;
+    return this.invalidateOnCompletion(request.getName(), () -> stub.updateRelease(request));
+  }
+
+  /**
+   * Updates a release using a {@link PreparedChart}, whose
+   * requirements-applied form and serialized bytes are computed at
+   * most once for any given values and then reused.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>Overrides of this method must not return {@code null}.</p>
+   *
+   * @param requestBuilder the {@link
+   * hapi.services.tiller.Tiller.UpdateReleaseRequest.Builder}
+   * representing the update request; must not be {@code null} and
+   * must {@linkplain #validate(Tiller.UpdateReleaseRequestOrBuilder)
+   * pass validation}; any chart it contains will be cleared
+   *
+   * @param preparedChart the {@link PreparedChart} representing the
+   * Helm chart with which to update the release; must not be {@code
+   * null}
+   *
+   * @return a {@link Future} containing a {@link
+   * UpdateReleaseResponse} that has the information requested; never
+   * {@code null}
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   *
+   * @see PreparedChart
+   *
+   * @see #update(UpdateReleaseRequest.Builder, Chart.Builder)
+   */
+  @Experimental
+  public Future<UpdateReleaseResponse> update(final UpdateReleaseRequest.Builder requestBuilder,
+                                              final PreparedChart preparedChart)
+    throws IOException {
+    final PreparedChart.Payload<UpdateReleaseRequest> payload = this.prepare(requestBuilder, preparedChart);
+    final String name = payload.getHead().getName();
+    final ReleaseServiceFutureStub stub = this.getTiller().getReleaseServiceFutureStub();
+    assert stub != null;
+    return this.invalidateOnCompletion(name, () -> ClientCalls.futureUnaryCall(stub.getChannel().newCall(PreparedChart.UPDATE_RELEASE_METHOD, stub.getCallOptions()), payload));
+  }
+
+  /**
+   * {@linkplain #validate(Tiller.UpdateReleaseRequestOrBuilder)
+   * Validates} the supplied {@link
+   * hapi.services.tiller.Tiller.UpdateReleaseRequest.Builder},
+   * installs the supplied {@link
+   * hapi.chart.ChartOuterClass.Chart.Builder} into it, {@linkplain
+   * #getChartMinimizer() minimized} if there is a {@link
+   * ChartMinimizer} and with its requirements applied, and returns
+   * the resulting {@link UpdateReleaseRequest}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param requestBuilder the {@link
+   * hapi.services.tiller.Tiller.UpdateReleaseRequest.Builder} to
+   * prepare; must not be {@code null}
+   *
+   * @param chartBuilder the {@link
+   * hapi.chart.ChartOuterClass.Chart.Builder} with which to update
+   * the release; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link UpdateReleaseRequest}
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   *
+   * @see #update(UpdateReleaseRequest.Builder, Chart.Builder)
+   */
+  final UpdateReleaseRequest prepare(final UpdateReleaseRequest.Builder requestBuilder,
+                                     final Chart.Builder chartBuilder) {
     Objects.requireNonNull(requestBuilder);
     Objects.requireNonNull(chartBuilder);
     validate(requestBuilder);
     
-    // Note that the mere act of calling getValuesBuilder() has the
-    // convenient if surprising side effect of initializing the
-    // values-related innards of requestBuilder if they haven't yet
-    // been set such that, for example, requestBuilder.getValues()
-    // will no longer return null under any circumstances.  If instead
-    // here we called requestBuilder.getValues(), null *would* be
-    // returned.  For *our* code, this is fine, but Tiller's code
-    // crashes when there's a null in the values slot.
+    // See the note in prepare(InstallReleaseRequest.Builder,
+    // Chart.Builder) regarding getValuesBuilder().
+    if (this.chartMinimizer != null) {
+      this.chartMinimizer.minimize(chartBuilder);
+    }
     requestBuilder.setChart(Requirements.apply(chartBuilder, requestBuilder.getValuesBuilder()));
 
-    final ReleaseServiceFutureStub stub = this.getTiller().getReleaseServiceFutureStub();
-    assert stub != null;
-    return stub.updateRelease(requestBuilder.build());
+    return requestBuilder.build();
+  }
+
+  /**
+   * {@linkplain #validate(Tiller.UpdateReleaseRequestOrBuilder)
+   * Validates} the supplied {@link
+   * hapi.services.tiller.Tiller.UpdateReleaseRequest.Builder} and
+   * returns a {@link PreparedChart.Payload} consisting of the
+   * resulting {@link UpdateReleaseRequest}, without a chart, followed
+   * by the serialized form of the supplied {@link PreparedChart} with
+   * requirements applied for the request's values.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param requestBuilder the {@link
+   * hapi.services.tiller.Tiller.UpdateReleaseRequest.Builder} to
+   * prepare; must not be {@code null}; its chart will be cleared
+   *
+   * @param preparedChart the {@link PreparedChart} with which to
+   * update the release; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link PreparedChart.Payload}
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   *
+   * @see #update(UpdateReleaseRequest.Builder, PreparedChart)
+   */
+  final PreparedChart.Payload<UpdateReleaseRequest> prepare(final UpdateReleaseRequest.Builder requestBuilder,
+                                                            final PreparedChart preparedChart) {
+    Objects.requireNonNull(requestBuilder);
+    Objects.requireNonNull(preparedChart);
+    validate(requestBuilder);
+
+    // See the note in prepare(InstallReleaseRequest.Builder,
+    // Chart.Builder) regarding getValuesBuilder().
+    final PreparedChart.Variant variant = preparedChart.getVariant(requestBuilder.getValuesBuilder());
+    assert variant != null;
+    requestBuilder.clearChart();
+    return variant.splice(requestBuilder.build(), UpdateReleaseRequest.CHART_FIELD_NUMBER);
   }
 
   /**
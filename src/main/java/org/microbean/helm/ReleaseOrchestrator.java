@@ -0,0 +1,813 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import hapi.chart.ChartOuterClass.Chart;
+
+import hapi.release.ReleaseOuterClass.Release;
+
+import hapi.services.tiller.Tiller.InstallReleaseRequest;
+import hapi.services.tiller.Tiller.InstallReleaseResponse;
+import hapi.services.tiller.Tiller.UpdateReleaseRequest;
+import hapi.services.tiller.Tiller.UpdateReleaseResponse;
+
+import org.microbean.development.annotation.Experimental;
+
+/**
+ * Installs and updates many Helm releases at once, honoring
+ * ordering constraints between them and a cap on the number of
+ * operations in flight.
+ *
+ * <p>Each {@link ReleaseSpec} may name other {@link ReleaseSpec}s
+ * that it must run {@linkplain ReleaseSpec#getAfter() after}.  The
+ * resulting graph is run as soon as each {@link ReleaseSpec}'s
+ * predecessors have succeeded.  When an operation fails, every
+ * {@link ReleaseSpec} that depends on it, directly or indirectly, is
+ * {@linkplain Result.Status#SKIPPED skipped}; independent branches
+ * keep running.</p>
+ *
+ * <p>No thread is blocked while operations are in flight; the
+ * underlying calls are made through an {@link
+ * AsyncReleaseManager}.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are safe for concurrent use by multiple
+ * threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see #run(Collection)
+ *
+ * @see AsyncReleaseManager
+ */
+@Experimental
+public class ReleaseOrchestrator {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link AsyncReleaseManager} through which operations are
+   * performed.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final AsyncReleaseManager releaseManager;
+
+  /**
+   * The maximum number of operations that may be in flight at any
+   * one time during a single {@linkplain #run(Collection) run}.
+   */
+  private final int maxConcurrency;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ReleaseOrchestrator}.
+   *
+   * @param releaseManager the {@link ReleaseManager} through which
+   * operations will be performed; must not be {@code null}
+   *
+   * @param maxConcurrency the maximum number of operations that may
+   * be in flight at any one time during a single {@linkplain
+   * #run(Collection) run}; must be greater than {@code 0}
+   *
+   * @exception NullPointerException if {@code releaseManager} is
+   * {@code null}
+   *
+   * @exception IllegalArgumentException if {@code maxConcurrency} is
+   * less than {@code 1}
+   *
+   * @see #ReleaseOrchestrator(AsyncReleaseManager, int)
+   */
+  public ReleaseOrchestrator(final ReleaseManager releaseManager, final int maxConcurrency) {
+    this(new AsyncReleaseManager(releaseManager), maxConcurrency);
+  }
+
+  /**
+   * Creates a new {@link ReleaseOrchestrator}.
+   *
+   * @param releaseManager the {@link AsyncReleaseManager} through
+   * which operations will be performed; must not be {@code null}
+   *
+   * @param maxConcurrency the maximum number of operations that may
+   * be in flight at any one time during a single {@linkplain
+   * #run(Collection) run}; must be greater than {@code 0}
+   *
+   * @exception NullPointerException if {@code releaseManager} is
+   * {@code null}
+   *
+   * @exception IllegalArgumentException if {@code maxConcurrency} is
+   * less than {@code 1}
+   */
+  public ReleaseOrchestrator(final AsyncReleaseManager releaseManager, final int maxConcurrency) {
+    super();
+    this.releaseManager = Objects.requireNonNull(releaseManager);
+    if (maxConcurrency < 1) {
+      throw new IllegalArgumentException("maxConcurrency < 1: " + maxConcurrency);
+    }
+    this.maxConcurrency = maxConcurrency;
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the maximum number of operations that may be in flight
+   * at any one time during a single {@linkplain #run(Collection)
+   * run}.
+   *
+   * @return the maximum number of operations in flight; always
+   * greater than {@code 0}
+   */
+  public final int getMaxConcurrency() {
+    return this.maxConcurrency;
+  }
+
+  /**
+   * Runs the supplied {@link ReleaseSpec}s, respecting their
+   * {@linkplain ReleaseSpec#getAfter() ordering constraints} and this
+   * {@link ReleaseOrchestrator}'s {@linkplain #getMaxConcurrency()
+   * concurrency cap}, and returns a {@link CompletableFuture} that
+   * will be completed with a {@link Result} for every one of them.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>The returned {@link CompletableFuture} is never completed
+   * exceptionally because of a failed operation; failures are
+   * reported in the corresponding {@link Result}s.</p>
+   *
+   * @param specs the {@link ReleaseSpec}s to run; must not be {@code
+   * null}
+   *
+   * @return a non-{@code null} {@link CompletableFuture} that will be
+   * completed with an immutable {@link Map} of {@link Result}s
+   * indexed by {@linkplain ReleaseSpec#getId() identifier}, in the
+   * iteration order of the supplied {@link Collection}
+   *
+   * @exception NullPointerException if {@code specs} is {@code null}
+   * or contains {@code null}
+   *
+   * @exception IllegalArgumentException if two {@link ReleaseSpec}s
+   * share an {@linkplain ReleaseSpec#getId() identifier}, if a {@link
+   * ReleaseSpec} must run after an identifier that does not belong to
+   * any supplied {@link ReleaseSpec}, or if the ordering constraints
+   * contain a cycle
+   */
+  public CompletableFuture<Map<String, Result>> run(final Collection<? extends ReleaseSpec> specs) {
+    Objects.requireNonNull(specs);
+    return new Run(specs).start();
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A single {@linkplain #run(Collection) run} of a graph of {@link
+   * ReleaseSpec}s.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private final class Run {
+
+    private final Map<String, ReleaseSpec> specs;
+
+    // All access to the following fields must be synchronized on
+    // this.
+
+    private final Map<String, Integer> unfinishedPredecessorCounts;
+
+    private final Map<String, Collection<String>> dependents;
+
+    private final Queue<ReleaseSpec> ready;
+
+    private final Map<String, Result> results;
+
+    private int running;
+
+    private boolean pumping;
+
+    private final CompletableFuture<Map<String, Result>> done;
+
+    private Run(final Collection<? extends ReleaseSpec> specs) {
+      super();
+      this.specs = new LinkedHashMap<>();
+      for (final ReleaseSpec spec : specs) {
+        Objects.requireNonNull(spec);
+        if (this.specs.put(spec.getId(), spec) != null) {
+          throw new IllegalArgumentException("Duplicate ReleaseSpec id: " + spec.getId());
+        }
+      }
+      this.unfinishedPredecessorCounts = new HashMap<>();
+      this.dependents = new HashMap<>();
+      this.ready = new ArrayDeque<>();
+      this.results = new HashMap<>();
+      this.done = new CompletableFuture<>();
+      for (final ReleaseSpec spec : this.specs.values()) {
+        final Set<String> after = spec.getAfter();
+        for (final String predecessor : after) {
+          if (!this.specs.containsKey(predecessor)) {
+            throw new IllegalArgumentException("ReleaseSpec " + spec.getId() + " must run after unknown ReleaseSpec " + predecessor);
+          }
+          this.dependents.computeIfAbsent(predecessor, k -> new ArrayList<>()).add(spec.getId());
+        }
+        this.unfinishedPredecessorCounts.put(spec.getId(), Integer.valueOf(after.size()));
+        if (after.isEmpty()) {
+          this.ready.add(spec);
+        }
+      }
+      this.checkForCycles();
+    }
+
+    /**
+     * Throws an {@link IllegalArgumentException} if the ordering
+     * constraints contain a cycle, using Kahn's algorithm.
+     */
+    private final void checkForCycles() {
+      final Map<String, Integer> counts = new HashMap<>(this.unfinishedPredecessorCounts);
+      final Queue<String> queue = new ArrayDeque<>();
+      for (final ReleaseSpec spec : this.ready) {
+        queue.add(spec.getId());
+      }
+      int visited = 0;
+      while (!queue.isEmpty()) {
+        final String id = queue.remove();
+        visited++;
+        final Collection<String> dependents = this.dependents.get(id);
+        if (dependents != null) {
+          for (final String dependent : dependents) {
+            final int count = counts.get(dependent).intValue() - 1;
+            counts.put(dependent, Integer.valueOf(count));
+            if (count == 0) {
+              queue.add(dependent);
+            }
+          }
+        }
+      }
+      if (visited != this.specs.size()) {
+        final Collection<String> cyclic = new ArrayList<>();
+        for (final Map.Entry<String, Integer> entry : counts.entrySet()) {
+          if (entry.getValue().intValue() > 0) {
+            cyclic.add(entry.getKey());
+          }
+        }
+        throw new IllegalArgumentException("ReleaseSpec ordering constraints contain a cycle involving: " + cyclic);
+      }
+    }
+
+    private final CompletableFuture<Map<String, Result>> start() {
+      this.pump();
+      return this.done;
+    }
+
+    /**
+     * Starts ready {@link ReleaseSpec}s while there is room, and
+     * completes {@link #done} once every {@link ReleaseSpec} has a
+     * {@link Result}.
+     *
+     * <p>Only one invocation of this method does any work at a time;
+     * it loops until nothing more can be started, so operations that
+     * complete synchronously, and so re-enter this method from {@link
+     * #finish(ReleaseSpec, Instant, Release, Throwable)}, do not
+     * deepen the stack.</p>
+     */
+    private final void pump() {
+      synchronized (this) {
+        if (this.pumping) {
+          // Another invocation, perhaps further up this very thread's
+          // stack because an operation completed synchronously, is
+          // already looping below and will see whatever state changes
+          // preceded this invocation.
+          return;
+        }
+        this.pumping = true;
+      }
+      final boolean finished;
+      while (true) {
+        final List<ReleaseSpec> toStart = new ArrayList<>();
+        synchronized (this) {
+          while (this.running < maxConcurrency && !this.ready.isEmpty()) {
+            toStart.add(this.ready.remove());
+            this.running++;
+          }
+          if (toStart.isEmpty()) {
+            this.pumping = false;
+            finished = this.results.size() == this.specs.size();
+            break;
+          }
+        }
+        for (final ReleaseSpec spec : toStart) {
+          this.start(spec);
+        }
+      }
+      if (finished) {
+        final Map<String, Result> results = new LinkedHashMap<>();
+        synchronized (this) {
+          for (final String id : this.specs.keySet()) {
+            results.put(id, this.results.get(id));
+          }
+        }
+        this.done.complete(Collections.unmodifiableMap(results));
+      }
+    }
+
+    private final void start(final ReleaseSpec spec) {
+      final Instant startTime = Instant.now();
+      CompletableFuture<Release> future;
+      try {
+        future = spec.apply(releaseManager);
+      } catch (final RuntimeException runtimeException) {
+        future = new CompletableFuture<>();
+        future.completeExceptionally(runtimeException);
+      }
+      future.whenComplete((release, throwable) -> this.finish(spec, startTime, release, throwable));
+    }
+
+    private final void finish(final ReleaseSpec spec, final Instant startTime, final Release release, Throwable throwable) {
+      if (throwable instanceof CompletionException && throwable.getCause() != null) {
+        throwable = throwable.getCause();
+      }
+      final Instant endTime = Instant.now();
+      synchronized (this) {
+        this.running--;
+        if (throwable == null) {
+          this.results.put(spec.getId(), new Result(spec.getId(), Result.Status.SUCCEEDED, release, null, null, startTime, endTime));
+          final Collection<String> dependents = this.dependents.get(spec.getId());
+          if (dependents != null) {
+            for (final String dependent : dependents) {
+              final int count = this.unfinishedPredecessorCounts.get(dependent).intValue() - 1;
+              this.unfinishedPredecessorCounts.put(dependent, Integer.valueOf(count));
+              if (count == 0 && !this.results.containsKey(dependent)) {
+                this.ready.add(this.specs.get(dependent));
+              }
+            }
+          }
+        } else {
+          this.results.put(spec.getId(), new Result(spec.getId(), Result.Status.FAILED, null, throwable, null, startTime, endTime));
+          this.skipDependents(spec.getId(), endTime);
+        }
+      }
+      this.pump();
+    }
+
+    /**
+     * Records a {@link Result.Status#SKIPPED} {@link Result} for
+     * every transitive dependent of the {@link ReleaseSpec} with the
+     * supplied identifier that does not yet have a {@link Result}.
+     *
+     * <p>This method must be called while synchronized on {@code
+     * this}.</p>
+     */
+    private final void skipDependents(final String failedId, final Instant now) {
+      assert Thread.holdsLock(this);
+      final Queue<String> queue = new ArrayDeque<>();
+      queue.add(failedId);
+      while (!queue.isEmpty()) {
+        final String id = queue.remove();
+        final Collection<String> dependents = this.dependents.get(id);
+        if (dependents != null) {
+          for (final String dependent : dependents) {
+            if (!this.results.containsKey(dependent)) {
+              this.results.put(dependent, new Result(dependent, Result.Status.SKIPPED, null, null, failedId, now, now));
+              queue.add(dependent);
+            }
+          }
+        }
+      }
+    }
+
+  }
+
+  /**
+   * A description of a single install or update operation, and of the
+   * operations that must succeed before it may run.
+   *
+   * <p>A {@link ReleaseSpec} holds immutable snapshots of the request
+   * and chart it was created with, and hands each run fresh builders
+   * made from them, so the caller's builders are never modified and
+   * {@link ReleaseSpec}s created from the same builders may safely run
+   * concurrently.</p>
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see #install(String, InstallReleaseRequest.Builder,
+   * Chart.Builder, Collection)
+   *
+   * @see #update(String, UpdateReleaseRequest.Builder, Chart.Builder,
+   * Collection)
+   */
+  public static final class ReleaseSpec {
+
+    private final String id;
+
+    private final InstallReleaseRequest installRequest;
+
+    private final UpdateReleaseRequest updateRequest;
+
+    private final Chart chart;
+
+    private final Set<String> after;
+
+    private ReleaseSpec(final String id,
+                        final InstallReleaseRequest installRequest,
+                        final UpdateReleaseRequest updateRequest,
+                        final Chart chart,
+                        final Collection<? extends String> after) {
+      super();
+      this.id = Objects.requireNonNull(id);
+      this.installRequest = installRequest;
+      this.updateRequest = updateRequest;
+      this.chart = Objects.requireNonNull(chart);
+      if (after == null || after.isEmpty()) {
+        this.after = Collections.emptySet();
+      } else {
+        final Set<String> afterCopy = new LinkedHashSet<>(after);
+        if (afterCopy.contains(id)) {
+          throw new IllegalArgumentException("ReleaseSpec " + id + " cannot run after itself");
+        }
+        this.after = Collections.unmodifiableSet(afterCopy);
+      }
+    }
+
+    /**
+     * Returns the identifier of this {@link ReleaseSpec}, which is
+     * typically the name of the release.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return the non-{@code null} identifier of this {@link
+     * ReleaseSpec}
+     */
+    public final String getId() {
+      return this.id;
+    }
+
+    /**
+     * Returns the immutable {@link Set} of {@linkplain #getId()
+     * identifiers} of the {@link ReleaseSpec}s that must succeed
+     * before this {@link ReleaseSpec} runs.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null}, immutable {@link Set} of
+     * identifiers
+     */
+    public final Set<String> getAfter() {
+      return this.after;
+    }
+
+    /**
+     * Starts the operation this {@link ReleaseSpec} describes using
+     * the supplied {@link AsyncReleaseManager}.
+     *
+     * <p>The {@link AsyncReleaseManager} is given new builders made
+     * from this {@link ReleaseSpec}'s snapshots, since it modifies the
+     * builders it is given.</p>
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @param releaseManager the {@link AsyncReleaseManager} to use;
+     * must not be {@code null}
+     *
+     * @return a non-{@code null} {@link CompletableFuture} that will
+     * be completed with the resulting {@link Release}
+     */
+    private final CompletableFuture<Release> apply(final AsyncReleaseManager releaseManager) {
+      final CompletableFuture<Release> returnValue;
+      if (this.installRequest != null) {
+        returnValue = releaseManager.install(this.installRequest.toBuilder(), this.chart.toBuilder()).thenApply(InstallReleaseResponse::getRelease);
+      } else {
+        assert this.updateRequest != null;
+        returnValue = releaseManager.update(this.updateRequest.toBuilder(), this.chart.toBuilder()).thenApply(UpdateReleaseResponse::getRelease);
+      }
+      return returnValue;
+    }
+
+    /**
+     * Returns a {@link String} representation of this {@link
+     * ReleaseSpec}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link String} representation of
+     * this {@link ReleaseSpec}
+     */
+    @Override
+    public final String toString() {
+      return new StringBuilder(this.installRequest != null ? "install " : "update ").append(this.id).append(" after ").append(this.after).toString();
+    }
+
+    /**
+     * Returns a new {@link ReleaseSpec} describing an installation.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @param id the identifier of the new {@link ReleaseSpec},
+     * typically the release name; must not be {@code null}
+     *
+     * @param requestBuilder the {@link
+     * hapi.services.tiller.Tiller.InstallReleaseRequest.Builder}
+     * representing the installation request; must not be {@code
+     * null}
+     *
+     * @param chartBuilder the {@link
+     * hapi.chart.ChartOuterClass.Chart.Builder} to install; must not
+     * be {@code null}; its current state is copied, and it is not
+     * modified
+     *
+     * @param after the identifiers of the {@link ReleaseSpec}s that
+     * must succeed first; may be {@code null}
+     *
+     * @return a new, non-{@code null} {@link ReleaseSpec}
+     *
+     * @exception NullPointerException if {@code id}, {@code
+     * requestBuilder} or {@code chartBuilder} is {@code null}
+     *
+     * @see AsyncReleaseManager#install(InstallReleaseRequest.Builder,
+     * Chart.Builder)
+     */
+    public static final ReleaseSpec install(final String id,
+                                            final InstallReleaseRequest.Builder requestBuilder,
+                                            final Chart.Builder chartBuilder,
+                                            final Collection<? extends String> after) {
+      return new ReleaseSpec(id, requestBuilder.build(), null, chartBuilder.build(), after);
+    }
+
+    /**
+     * Returns a new {@link ReleaseSpec} describing an update.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @param id the identifier of the new {@link ReleaseSpec},
+     * typically the release name; must not be {@code null}
+     *
+     * @param requestBuilder the {@link
+     * hapi.services.tiller.Tiller.UpdateReleaseRequest.Builder}
+     * representing the update request; must not be {@code null}
+     *
+     * @param chartBuilder the {@link
+     * hapi.chart.ChartOuterClass.Chart.Builder} with which to update
+     * the release; must not be {@code null}; its current state is
+     * copied, and it is not modified
+     *
+     * @param after the identifiers of the {@link ReleaseSpec}s that
+     * must succeed first; may be {@code null}
+     *
+     * @return a new, non-{@code null} {@link ReleaseSpec}
+     *
+     * @exception NullPointerException if {@code id}, {@code
+     * requestBuilder} or {@code chartBuilder} is {@code null}
+     *
+     * @see AsyncReleaseManager#update(UpdateReleaseRequest.Builder,
+     * Chart.Builder)
+     */
+    public static final ReleaseSpec update(final String id,
+                                           final UpdateReleaseRequest.Builder requestBuilder,
+                                           final Chart.Builder chartBuilder,
+                                           final Collection<? extends String> after) {
+      return new ReleaseSpec(id, null, requestBuilder.build(), chartBuilder.build(), after);
+    }
+
+  }
+
+  /**
+   * The outcome of running a single {@link ReleaseSpec}.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  public static final class Result {
+
+    private final String id;
+
+    private final Status status;
+
+    private final Release release;
+
+    private final Throwable failure;
+
+    private final String skippedBecauseOf;
+
+    private final Instant startTime;
+
+    private final Instant endTime;
+
+    private Result(final String id,
+                   final Status status,
+                   final Release release,
+                   final Throwable failure,
+                   final String skippedBecauseOf,
+                   final Instant startTime,
+                   final Instant endTime) {
+      super();
+      this.id = Objects.requireNonNull(id);
+      this.status = Objects.requireNonNull(status);
+      this.release = release;
+      this.failure = failure;
+      this.skippedBecauseOf = skippedBecauseOf;
+      this.startTime = Objects.requireNonNull(startTime);
+      this.endTime = Objects.requireNonNull(endTime);
+    }
+
+    /**
+     * Returns the {@linkplain ReleaseSpec#getId() identifier} of the
+     * {@link ReleaseSpec} this {@link Result} describes.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} identifier
+     */
+    public final String getId() {
+      return this.id;
+    }
+
+    /**
+     * Returns the {@link Status} of this {@link Result}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link Status}
+     */
+    public final Status getStatus() {
+      return this.status;
+    }
+
+    /**
+     * Returns the {@link Release} that resulted from a successful
+     * operation, or {@code null} if the operation did not succeed.
+     *
+     * <p>This method may return {@code null}.</p>
+     *
+     * @return a {@link Release}, or {@code null}
+     */
+    public final Release getRelease() {
+      return this.release;
+    }
+
+    /**
+     * Returns the {@link Throwable} that caused a failed operation to
+     * fail, or {@code null} if the operation did not fail.
+     *
+     * <p>This method may return {@code null}.</p>
+     *
+     * @return a {@link Throwable}, or {@code null}
+     */
+    public final Throwable getFailure() {
+      return this.failure;
+    }
+
+    /**
+     * Returns the {@linkplain ReleaseSpec#getId() identifier} of the
+     * failed {@link ReleaseSpec} because of which this {@link
+     * Result}'s {@link ReleaseSpec} was skipped, or {@code null} if it
+     * was not skipped.
+     *
+     * <p>This method may return {@code null}.</p>
+     *
+     * @return an identifier, or {@code null}
+     */
+    public final String getSkippedBecauseOf() {
+      return this.skippedBecauseOf;
+    }
+
+    /**
+     * Returns the {@link Instant} at which the operation started, or
+     * at which it was skipped.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link Instant}
+     */
+    public final Instant getStartTime() {
+      return this.startTime;
+    }
+
+    /**
+     * Returns the {@link Instant} at which the operation finished, or
+     * at which it was skipped.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link Instant}
+     */
+    public final Instant getEndTime() {
+      return this.endTime;
+    }
+
+    /**
+     * Returns the time the operation took.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link Duration}
+     */
+    public final Duration getElapsedTime() {
+      return Duration.between(this.startTime, this.endTime);
+    }
+
+    /**
+     * Returns a {@link String} representation of this {@link Result}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link String} representation of
+     * this {@link Result}
+     */
+    @Override
+    public final String toString() {
+      final StringBuilder sb = new StringBuilder(this.id).append(": ").append(this.status);
+      switch (this.status) {
+      case SUCCEEDED:
+        sb.append(" in ").append(this.getElapsedTime());
+        break;
+      case FAILED:
+        sb.append(" after ").append(this.getElapsedTime()).append(": ").append(this.failure);
+        break;
+      case SKIPPED:
+        sb.append(" because ").append(this.skippedBecauseOf).append(" failed");
+        break;
+      default:
+        break;
+      }
+      return sb.toString();
+    }
+
+    /**
+     * The possible outcomes of running a {@link ReleaseSpec}.
+     *
+     * @author <a href="https://about.me/lairdnelson"
+     * target="_parent">Laird Nelson</a>
+     */
+    public static enum Status {
+
+      /**
+       * The operation succeeded.
+       */
+      SUCCEEDED,
+
+      /**
+       * The operation failed.
+       */
+      FAILED,
+
+      /**
+       * The operation was not attempted because an operation it
+       * depends on failed or was itself skipped.
+       */
+      SKIPPED
+
+    }
+
+  }
+
+}
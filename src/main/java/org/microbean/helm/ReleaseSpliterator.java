@@ -0,0 +1,448 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Spliterator;
+
+import java.util.function.Consumer;
+
+import hapi.release.ReleaseOuterClass.Release;
+
+import hapi.services.tiller.ReleaseServiceGrpc.ReleaseServiceStub;
+import hapi.services.tiller.Tiller.ListReleasesRequest;
+import hapi.services.tiller.Tiller.ListReleasesResponse;
+
+import io.grpc.Status;
+
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+
+/**
+ * A {@link Spliterator} of {@link Release}s that pages through the
+ * results of a {@link ListReleasesRequest} using its {@code limit}
+ * and {@code offset} fields, fetching the next page in the
+ * background while the current one is consumed.
+ *
+ * <p>Pages are fetched one after another, because each page's
+ * offset is supplied by the previous page's {@code next} field.
+ * Fetching stops while the number of fetched but unconsumed pages
+ * has reached the maximum, so at most that many pages, plus the page
+ * being consumed and the page being fetched, are held in memory no
+ * matter how many releases there are.</p>
+ *
+ * <p>Nothing is fetched until the first {@link
+ * #tryAdvance(Consumer)} call.  {@linkplain #close() Closing} an
+ * instance of this class cancels any fetch in flight.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>As with any {@link Spliterator}, an instance of this class must
+ * be traversed by only one thread at a time.  It may be {@linkplain
+ * #close() closed} from any thread.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ReleaseManager#stream(ListReleasesRequest, int, int)
+ */
+final class ReleaseSpliterator implements Spliterator<Release> {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The number of releases requested per page when neither a page
+   * size nor a {@code limit} is supplied.
+   */
+  static final int DEFAULT_PAGE_SIZE = 256;
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link ReleaseServiceStub} used to fetch pages.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ReleaseServiceStub stub;
+
+  /**
+   * The {@link ListReleasesRequest} from which the request for each
+   * page is derived; its {@code limit} is the page size.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ListReleasesRequest request;
+
+  /**
+   * The maximum number of fetched pages that may be waiting to be
+   * consumed.
+   */
+  private final int maximumPrefetchedPages;
+
+  /**
+   * The pages that have been fetched but not yet consumed.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private final Deque<List<Release>> pages;
+
+  /**
+   * The offset of the next page to fetch, or {@code null} if there
+   * are no more pages.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private String nextOffset;
+
+  /**
+   * The call fetching a page, if there is one in flight.
+   *
+   * <p>This field may be {@code null}.</p>
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private ClientCallStreamObserver<ListReleasesRequest> call;
+
+  /**
+   * Whether a page is being fetched.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private boolean fetching;
+
+  /**
+   * The failure of the most recent fetch, if any.
+   *
+   * <p>This field may be {@code null}.</p>
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private Throwable failure;
+
+  /**
+   * Whether this {@link ReleaseSpliterator} has been {@linkplain
+   * #close() closed}.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private boolean closed;
+
+  /**
+   * An {@link Iterator} over the page being consumed.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * <p>This field is only accessed by the traversing thread.</p>
+   */
+  private Iterator<Release> current;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ReleaseSpliterator}.
+   *
+   * @param stub the {@link ReleaseServiceStub} used to fetch pages;
+   * must not be {@code null}
+   *
+   * @param request the {@link ListReleasesRequest} describing the
+   * releases to be returned; must not be {@code null}; its {@code
+   * offset}, if any, is where the first page starts
+   *
+   * @param pageSize the number of releases to request per page; if
+   * less than or equal to {@code 0}, then the request's {@code limit}
+   * is used instead, or, if that is also not positive, {@link
+   * #DEFAULT_PAGE_SIZE}
+   *
+   * @param maximumPrefetchedPages the maximum number of fetched
+   * pages that may be waiting to be consumed; must be greater than
+   * {@code 0}
+   *
+   * @exception NullPointerException if {@code stub} or {@code
+   * request} is {@code null}
+   *
+   * @exception IllegalArgumentException if {@code
+   * maximumPrefetchedPages} is less than {@code 1}
+   */
+  ReleaseSpliterator(final ReleaseServiceStub stub,
+                     final ListReleasesRequest request,
+                     final int pageSize,
+                     final int maximumPrefetchedPages) {
+    super();
+    this.stub = Objects.requireNonNull(stub);
+    Objects.requireNonNull(request);
+    if (maximumPrefetchedPages < 1) {
+      throw new IllegalArgumentException("maximumPrefetchedPages < 1: " + maximumPrefetchedPages);
+    }
+    final long limit;
+    if (pageSize > 0) {
+      limit = pageSize;
+    } else if (request.getLimit() > 0L) {
+      limit = request.getLimit();
+    } else {
+      limit = DEFAULT_PAGE_SIZE;
+    }
+    this.request = request.toBuilder().setLimit(limit).build();
+    this.maximumPrefetchedPages = maximumPrefetchedPages;
+    this.pages = new ArrayDeque<>();
+    this.nextOffset = request.getOffset();
+    this.current = Collections.emptyIterator();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This implementation blocks if the next page has not yet been
+   * fetched.</p>
+   *
+   * @exception io.grpc.StatusRuntimeException if a page could not be
+   * fetched, or if the traversing thread was interrupted while
+   * waiting for one
+   */
+  @Override
+  public final boolean tryAdvance(final Consumer<? super Release> action) {
+    Objects.requireNonNull(action);
+    Iterator<Release> current = this.current;
+    while (!current.hasNext()) {
+      final List<Release> page = this.take();
+      if (page == null) {
+        return false;
+      }
+      current = page.iterator();
+      this.current = current;
+    }
+    action.accept(current.next());
+    return true;
+  }
+
+  /**
+   * Returns {@code null}, since pages must be fetched in order.
+   *
+   * @return {@code null} in all cases
+   */
+  @Override
+  public final Spliterator<Release> trySplit() {
+    return null;
+  }
+
+  /**
+   * Returns {@link Long#MAX_VALUE}, since the number of releases is
+   * not known in advance.
+   *
+   * @return {@link Long#MAX_VALUE} in all cases
+   */
+  @Override
+  public final long estimateSize() {
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * Returns {@link Spliterator#ORDERED} and {@link
+   * Spliterator#NONNULL}.
+   *
+   * @return the characteristics of this {@link ReleaseSpliterator}
+   */
+  @Override
+  public final int characteristics() {
+    return ORDERED | NONNULL;
+  }
+
+  /**
+   * Cancels any fetch in flight and discards any fetched pages.
+   *
+   * <p>Calling this method more than once has no further
+   * effect.</p>
+   */
+  final void close() {
+    synchronized (this) {
+      if (!this.closed) {
+        this.closed = true;
+        this.pages.clear();
+        if (this.call != null) {
+          this.call.cancel("closed", null);
+          this.call = null;
+        }
+        this.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Removes and returns the next fetched page, blocking until it has
+   * been fetched, or returns {@code null} if there are no more pages.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return the next page, or {@code null}
+   *
+   * @exception io.grpc.StatusRuntimeException if the page could not
+   * be fetched, or if the current thread was interrupted
+   */
+  private final List<Release> take() {
+    synchronized (this) {
+      this.fetchIfNeeded();
+      while (this.pages.isEmpty()) {
+        if (this.failure != null) {
+          if (this.failure instanceof RuntimeException) {
+            throw (RuntimeException)this.failure;
+          }
+          throw Status.fromThrowable(this.failure).asRuntimeException();
+        } else if (!this.fetching) {
+          return null;
+        }
+        try {
+          this.wait();
+        } catch (final InterruptedException interruptedException) {
+          Thread.currentThread().interrupt();
+          this.close();
+          throw Status.CANCELLED.withDescription("interrupted").withCause(interruptedException).asRuntimeException();
+        }
+      }
+      final List<Release> returnValue = this.pages.removeFirst();
+      this.fetchIfNeeded();
+      return returnValue;
+    }
+  }
+
+  /**
+   * Starts fetching the next page if there is one, none is already
+   * being fetched, and there is room for it.
+   *
+   * <p>This method must be called while synchronized on {@code
+   * this}.</p>
+   */
+  private final void fetchIfNeeded() {
+    assert Thread.holdsLock(this);
+    if (!this.closed &&
+        !this.fetching &&
+        this.failure == null &&
+        this.nextOffset != null &&
+        this.pages.size() < this.maximumPrefetchedPages) {
+      this.fetching = true;
+      final String offset = this.nextOffset;
+      this.stub.listReleases(this.request.toBuilder().setOffset(offset).build(), new PageObserver(offset));
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A {@link ClientResponseObserver} that accumulates the (possibly
+   * several) {@link ListReleasesResponse}s making up one page.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private final class PageObserver implements ClientResponseObserver<ListReleasesRequest, ListReleasesResponse> {
+
+    private final String offset;
+
+    private final List<Release> releases;
+
+    private String next;
+
+    private PageObserver(final String offset) {
+      super();
+      this.offset = Objects.requireNonNull(offset);
+      this.releases = new ArrayList<>();
+    }
+
+    @Override
+    public final void beforeStart(final ClientCallStreamObserver<ListReleasesRequest> call) {
+      synchronized (ReleaseSpliterator.this) {
+        ReleaseSpliterator.this.call = call;
+      }
+    }
+
+    @Override
+    public final void onNext(final ListReleasesResponse response) {
+      if (response != null) {
+        this.releases.addAll(response.getReleasesList());
+        this.next = response.getNext();
+      }
+    }
+
+    @Override
+    public final void onError(final Throwable throwable) {
+      synchronized (ReleaseSpliterator.this) {
+        call = null;
+        fetching = false;
+        if (!closed) {
+          failure = throwable;
+        }
+        ReleaseSpliterator.this.notifyAll();
+      }
+    }
+
+    @Override
+    public final void onCompleted() {
+      synchronized (ReleaseSpliterator.this) {
+        call = null;
+        fetching = false;
+        if (!closed) {
+          if (this.releases.isEmpty() || this.next == null || this.next.isEmpty() || this.next.equals(this.offset)) {
+            nextOffset = null;
+          } else {
+            nextOffset = this.next;
+          }
+          if (!this.releases.isEmpty()) {
+            pages.addLast(Collections.unmodifiableList(this.releases));
+          }
+          fetchIfNeeded();
+        }
+        ReleaseSpliterator.this.notifyAll();
+      }
+    }
+
+  }
+
+}
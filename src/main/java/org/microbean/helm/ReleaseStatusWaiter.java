@@ -0,0 +1,710 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.io.Closeable;
+
+import java.time.Duration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import hapi.release.ReleaseOuterClass.Release;
+import hapi.release.StatusOuterClass.Status;
+
+import hapi.services.tiller.Tiller.ListReleasesRequest;
+import hapi.services.tiller.Tiller.ListReleasesResponse;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import org.microbean.development.annotation.Experimental;
+
+/**
+ * A waiter that completes a {@link CompletableFuture} for each of
+ * many releases as each reaches a target {@linkplain Status.Code
+ * status}, using a single {@link ListReleasesRequest} per polling
+ * round no matter how many releases are being waited for.
+ *
+ * <p>Each round lists the revisions of just the releases being
+ * waited for, by name, whatever their status codes, and considers
+ * only the latest revision of each.  A release whose latest revision has a
+ * target status code completes its futures normally with that
+ * revision; one whose latest revision has a failure status code
+ * completes them exceptionally with a {@link
+ * ReleaseFailedException}; any other release is polled again in the
+ * next round.  Each wait has its own timeout, after which its future
+ * completes exceptionally with a {@link TimeoutException}.</p>
+ *
+ * <p>Rounds are spaced adaptively: after a round in which no wait
+ * completed, the interval doubles, up to the {@linkplain
+ * #getMaximumInterval() maximum interval}; after a round in which
+ * some wait completed, or when a new wait is added, it returns to
+ * the {@linkplain #getMinimumInterval() minimum interval}.  No rounds
+ * are run while nothing is being waited for.  A round that fails,
+ * for example because Tiller is briefly unreachable, is treated as a
+ * round without progress.  A round that does not complete within the
+ * current interval is abandoned and treated the same way, so that a
+ * stalled Tiller or port forward never holds up timeouts for
+ * longer than the {@linkplain #getMaximumInterval() maximum
+ * interval}.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are safe for concurrent use by multiple
+ * threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ReleaseManager#list(ListReleasesRequest)
+ */
+@Experimental
+public class ReleaseStatusWaiter implements Closeable {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The {@link Status.Code}s requested in each round: all of them,
+   * so that the latest revision of a release is always among those
+   * listed, whatever its status.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Set<Status.Code> REQUESTED_CODES = createRequestedCodes();
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link ReleaseManager} used to list releases.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ReleaseManager releaseManager;
+
+  /**
+   * The {@link Status.Code}s that complete a wait normally.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Set<Status.Code> targetCodes;
+
+  /**
+   * The {@link Status.Code}s that complete a wait exceptionally.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Set<Status.Code> failureCodes;
+
+  /**
+   * The shortest interval between rounds.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Duration minimumInterval;
+
+  /**
+   * The longest interval between rounds.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Duration maximumInterval;
+
+  /**
+   * The {@link ScheduledExecutorService} that runs rounds and
+   * timeouts.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * The outstanding {@link Wait}s, indexed by release name.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private final Map<String, Collection<Wait>> waits;
+
+  /**
+   * The current interval between rounds, in nanoseconds.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private long intervalInNanos;
+
+  /**
+   * The next scheduled round, if any.
+   *
+   * <p>This field may be {@code null}.</p>
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private ScheduledFuture<?> nextRound;
+
+  /**
+   * The {@link System#nanoTime()} at which the {@linkplain
+   * #nextRound next round} is scheduled to run.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private long nextRoundTime;
+
+  /**
+   * Whether this {@link ReleaseStatusWaiter} has been {@linkplain
+   * #close() closed}.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private boolean closed;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ReleaseStatusWaiter} that waits for
+   * releases to become {@link Status.Code#DEPLOYED DEPLOYED}, treats
+   * {@link Status.Code#FAILED FAILED} as a failure, and polls at
+   * intervals between half a second and ten seconds.
+   *
+   * @param releaseManager the {@link ReleaseManager} used to list
+   * releases; must not be {@code null}
+   *
+   * @exception NullPointerException if {@code releaseManager} is
+   * {@code null}
+   *
+   * @see #ReleaseStatusWaiter(ReleaseManager, Set, Set, Duration,
+   * Duration)
+   */
+  public ReleaseStatusWaiter(final ReleaseManager releaseManager) {
+    this(releaseManager,
+         EnumSet.of(Status.Code.DEPLOYED),
+         EnumSet.of(Status.Code.FAILED),
+         Duration.ofMillis(500L),
+         Duration.ofSeconds(10L));
+  }
+
+  /**
+   * Creates a new {@link ReleaseStatusWaiter}.
+   *
+   * @param releaseManager the {@link ReleaseManager} used to list
+   * releases; must not be {@code null}
+   *
+   * @param targetCodes the {@link Status.Code}s that complete a wait
+   * normally; must not be {@code null} or empty
+   *
+   * @param failureCodes the {@link Status.Code}s that complete a
+   * wait exceptionally; may be {@code null}; must not intersect
+   * {@code targetCodes}
+   *
+   * @param minimumInterval the shortest interval between rounds;
+   * must not be {@code null}, zero or negative
+   *
+   * @param maximumInterval the longest interval between rounds; must
+   * not be {@code null} or shorter than {@code minimumInterval}
+   *
+   * @exception NullPointerException if {@code releaseManager}, {@code
+   * targetCodes}, {@code minimumInterval} or {@code maximumInterval}
+   * is {@code null}
+   *
+   * @exception IllegalArgumentException if any argument is otherwise
+   * invalid
+   */
+  public ReleaseStatusWaiter(final ReleaseManager releaseManager,
+                             final Set<Status.Code> targetCodes,
+                             final Set<Status.Code> failureCodes,
+                             final Duration minimumInterval,
+                             final Duration maximumInterval) {
+    super();
+    this.releaseManager = Objects.requireNonNull(releaseManager);
+    Objects.requireNonNull(targetCodes);
+    Objects.requireNonNull(minimumInterval);
+    Objects.requireNonNull(maximumInterval);
+    if (targetCodes.isEmpty()) {
+      throw new IllegalArgumentException("targetCodes.isEmpty()");
+    }
+    if (minimumInterval.isZero() || minimumInterval.isNegative()) {
+      throw new IllegalArgumentException("minimumInterval: " + minimumInterval);
+    }
+    if (maximumInterval.compareTo(minimumInterval) < 0) {
+      throw new IllegalArgumentException("maximumInterval < minimumInterval: " + maximumInterval);
+    }
+    this.targetCodes = Collections.unmodifiableSet(EnumSet.copyOf(targetCodes));
+    if (failureCodes == null || failureCodes.isEmpty()) {
+      this.failureCodes = Collections.emptySet();
+    } else {
+      final Set<Status.Code> intersection = EnumSet.copyOf(failureCodes);
+      intersection.retainAll(this.targetCodes);
+      if (!intersection.isEmpty()) {
+        throw new IllegalArgumentException("failureCodes and targetCodes share " + intersection);
+      }
+      this.failureCodes = Collections.unmodifiableSet(EnumSet.copyOf(failureCodes));
+    }
+    this.minimumInterval = minimumInterval;
+    this.maximumInterval = maximumInterval;
+    this.intervalInNanos = minimumInterval.toNanos();
+    this.waits = new HashMap<>();
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("release-status-waiter", true));
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the {@link Status.Code}s that complete a wait normally.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, immutable, non-empty {@link Set}
+   */
+  public final Set<Status.Code> getTargetCodes() {
+    return this.targetCodes;
+  }
+
+  /**
+   * Returns the {@link Status.Code}s that complete a wait
+   * exceptionally.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, immutable {@link Set}
+   */
+  public final Set<Status.Code> getFailureCodes() {
+    return this.failureCodes;
+  }
+
+  /**
+   * Returns the shortest interval between rounds.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link Duration}
+   */
+  public final Duration getMinimumInterval() {
+    return this.minimumInterval;
+  }
+
+  /**
+   * Returns the longest interval between rounds.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link Duration}
+   */
+  public final Duration getMaximumInterval() {
+    return this.maximumInterval;
+  }
+
+  /**
+   * Waits for any revision of the release with the supplied name to
+   * reach a {@linkplain #getTargetCodes() target status}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param releaseName the name of the release; must not be {@code
+   * null}
+   *
+   * @param timeout how long to wait; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link CompletableFuture} that
+   * completes with the latest revision of the release once it has
+   * reached a target status
+   *
+   * @exception NullPointerException if {@code releaseName} or {@code
+   * timeout} is {@code null}
+   *
+   * @exception IllegalStateException if this {@link
+   * ReleaseStatusWaiter} has been {@linkplain #close() closed}
+   *
+   * @see #await(String, int, Duration)
+   */
+  public CompletableFuture<Release> await(final String releaseName, final Duration timeout) {
+    return this.await(releaseName, 0, timeout);
+  }
+
+  /**
+   * Waits for a revision of the release with the supplied name whose
+   * version is at least {@code minimumVersion} to reach a {@linkplain
+   * #getTargetCodes() target status}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>Supplying the version returned by an install, update or
+   * rollback ensures that an earlier revision that already had a
+   * target status does not satisfy the wait.</p>
+   *
+   * <p>The returned {@link CompletableFuture} completes exceptionally
+   * with a {@link ReleaseFailedException} if the latest such revision
+   * reaches a {@linkplain #getFailureCodes() failure status}, or with
+   * a {@link TimeoutException} if {@code timeout} elapses first.
+   * Cancelling it abandons the wait.</p>
+   *
+   * @param releaseName the name of the release; must not be {@code
+   * null}
+   *
+   * @param minimumVersion the minimum release version that can
+   * satisfy the wait; values less than or equal to {@code 0} mean any
+   * version
+   *
+   * @param timeout how long to wait; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link CompletableFuture} that
+   * completes with the latest revision of the release once it has
+   * reached a target status
+   *
+   * @exception NullPointerException if {@code releaseName} or {@code
+   * timeout} is {@code null}
+   *
+   * @exception IllegalStateException if this {@link
+   * ReleaseStatusWaiter} has been {@linkplain #close() closed}
+   */
+  public CompletableFuture<Release> await(final String releaseName, final int minimumVersion, final Duration timeout) {
+    Objects.requireNonNull(releaseName);
+    Objects.requireNonNull(timeout);
+    final Wait wait = new Wait(releaseName, minimumVersion);
+    final ScheduledFuture<?> timeoutTask;
+    synchronized (this) {
+      if (this.closed) {
+        throw new IllegalStateException("closed");
+      }
+      this.waits.computeIfAbsent(releaseName, n -> new ArrayList<>()).add(wait);
+      // A new wait resets the backoff so that it is looked at
+      // promptly.
+      this.intervalInNanos = this.minimumInterval.toNanos();
+      this.scheduleRound(this.intervalInNanos);
+      timeoutTask =
+        this.scheduler.schedule(() -> wait.future.completeExceptionally(new TimeoutException(releaseName + " did not reach " + this.targetCodes + " within " + timeout)),
+                                Math.max(0L, timeout.toNanos()),
+                                TimeUnit.NANOSECONDS);
+    }
+    wait.future.whenComplete((release, throwable) -> {
+        timeoutTask.cancel(false);
+        this.remove(wait);
+      });
+    return wait.future;
+  }
+
+  /**
+   * Waits for each of the releases with the supplied names to reach a
+   * {@linkplain #getTargetCodes() target status}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param releaseNames the names of the releases; must not be {@code
+   * null}
+   *
+   * @param timeout how long to wait for each release; must not be
+   * {@code null}
+   *
+   * @return a non-{@code null}, immutable {@link Map} of {@link
+   * CompletableFuture}s as returned by {@link #await(String,
+   * Duration)}, indexed by release name, in iteration order
+   *
+   * @exception NullPointerException if {@code releaseNames} or {@code
+   * timeout} is {@code null}
+   *
+   * @exception IllegalStateException if this {@link
+   * ReleaseStatusWaiter} has been {@linkplain #close() closed}
+   */
+  public Map<String, CompletableFuture<Release>> awaitAll(final Collection<? extends String> releaseNames, final Duration timeout) {
+    Objects.requireNonNull(releaseNames);
+    final Map<String, CompletableFuture<Release>> returnValue = new LinkedHashMap<>();
+    for (final String releaseName : releaseNames) {
+      if (!returnValue.containsKey(releaseName)) {
+        returnValue.put(releaseName, this.await(releaseName, timeout));
+      }
+    }
+    return Collections.unmodifiableMap(returnValue);
+  }
+
+  /**
+   * Cancels every outstanding wait and stops polling.
+   *
+   * <p>Calling this method more than once has no further
+   * effect.</p>
+   */
+  @Override
+  public void close() {
+    final Collection<Wait> waits = new ArrayList<>();
+    synchronized (this) {
+      if (this.closed) {
+        return;
+      }
+      this.closed = true;
+      for (final Collection<Wait> w : this.waits.values()) {
+        waits.addAll(w);
+      }
+      this.waits.clear();
+    }
+    this.scheduler.shutdownNow();
+    for (final Wait wait : waits) {
+      wait.future.completeExceptionally(new CancellationException("closed"));
+    }
+  }
+
+  /**
+   * Forgets the supplied {@link Wait}.
+   *
+   * @param wait the {@link Wait} to forget; must not be {@code null}
+   */
+  private final void remove(final Wait wait) {
+    synchronized (this) {
+      final Collection<Wait> waits = this.waits.get(wait.releaseName);
+      if (waits != null) {
+        waits.remove(wait);
+        if (waits.isEmpty()) {
+          this.waits.remove(wait.releaseName);
+        }
+      }
+    }
+  }
+
+  /**
+   * Ensures that a round is scheduled to run within the supplied
+   * delay.
+   *
+   * <p>This method must be called while synchronized on {@code
+   * this}.</p>
+   *
+   * @param delayInNanos the delay in nanoseconds
+   */
+  private final void scheduleRound(final long delayInNanos) {
+    assert Thread.holdsLock(this);
+    if (!this.closed) {
+      final long time = System.nanoTime() + delayInNanos;
+      if (this.nextRound == null || time - this.nextRoundTime < 0L) {
+        if (this.nextRound != null) {
+          this.nextRound.cancel(false);
+        }
+        this.nextRoundTime = time;
+        this.nextRound = this.scheduler.schedule(this::round, delayInNanos, TimeUnit.NANOSECONDS);
+      }
+    }
+  }
+
+  /**
+   * Lists the latest revisions of all releases being waited for with
+   * one {@link ListReleasesRequest}, completes the {@link Wait}s that
+   * are satisfied, adjusts the interval and schedules the next round
+   * if any {@link Wait}s remain.
+   */
+  private final void round() {
+    final Collection<String> releaseNames;
+    final long timeoutInNanos;
+    synchronized (this) {
+      this.nextRound = null;
+      if (this.closed || this.waits.isEmpty()) {
+        return;
+      }
+      releaseNames = new TreeSet<>(this.waits.keySet());
+      timeoutInNanos = this.intervalInNanos;
+    }
+
+    Map<String, Release> latest = null;
+    try {
+      // Timeouts run on the same thread as rounds, so a round must
+      // not be allowed to outlast the interval.
+      latest = this.list(releaseNames, timeoutInNanos);
+    } catch (final RuntimeException runtimeException) {
+      // Treat as a round without progress; the interval, and with it
+      // the next round's deadline, grows.
+    }
+
+    boolean progress = false;
+    if (latest != null) {
+      final Collection<Wait> waits = new ArrayList<>();
+      synchronized (this) {
+        for (final Collection<Wait> w : this.waits.values()) {
+          waits.addAll(w);
+        }
+      }
+      for (final Wait wait : waits) {
+        final Release release = latest.get(wait.releaseName);
+        if (release != null && release.getVersion() >= wait.minimumVersion) {
+          final Status.Code code = release.getInfo().getStatus().getCode();
+          if (this.targetCodes.contains(code)) {
+            progress = wait.future.complete(release) || progress;
+          } else if (this.failureCodes.contains(code)) {
+            progress = wait.future.completeExceptionally(new ReleaseFailedException(wait.releaseName + " reached " + code, release)) || progress;
+          }
+        }
+      }
+    }
+
+    synchronized (this) {
+      if (progress) {
+        this.intervalInNanos = this.minimumInterval.toNanos();
+      } else {
+        this.intervalInNanos = Math.min(this.maximumInterval.toNanos(), this.intervalInNanos * 2L);
+      }
+      if (!this.waits.isEmpty()) {
+        this.scheduleRound(this.intervalInNanos);
+      }
+    }
+  }
+
+  /**
+   * Lists, with one {@link ListReleasesRequest}, every revision of
+   * the releases with the supplied names, and returns the latest
+   * revision of each, indexed by name.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param releaseNames the names of the releases to list; must not
+   * be {@code null} or empty
+   *
+   * @param timeoutInNanos the number of nanoseconds within which
+   * listing must complete
+   *
+   * @return a non-{@code null} {@link Map} of {@link Release}s
+   * indexed by name
+   *
+   * @exception io.grpc.StatusRuntimeException if Tiller could not be
+   * reached or did not answer in time
+   */
+  private final Map<String, Release> list(final Collection<? extends String> releaseNames, final long timeoutInNanos) {
+    final StringBuilder filter = new StringBuilder("^(");
+    final Iterator<? extends String> nameIterator = releaseNames.iterator();
+    while (nameIterator.hasNext()) {
+      appendQuoted(filter, nameIterator.next());
+      if (nameIterator.hasNext()) {
+        filter.append('|');
+      }
+    }
+    filter.append(")$");
+    final ListReleasesRequest request = ListReleasesRequest.newBuilder()
+      .setFilter(filter.toString())
+      .addAllStatusCodes(REQUESTED_CODES)
+      // Ask for everything at once; Tiller otherwise returns at most
+      // 512 releases.
+      .setLimit(Integer.MAX_VALUE)
+      .build();
+    final Map<String, Release> returnValue = new HashMap<>();
+    final Iterator<ListReleasesResponse> responses = this.releaseManager.list(request, timeoutInNanos);
+    while (responses.hasNext()) {
+      final ListReleasesResponse response = responses.next();
+      if (response != null) {
+        for (final Release release : response.getReleasesList()) {
+          final Release existing = returnValue.get(release.getName());
+          if (existing == null || release.getVersion() > existing.getVersion()) {
+            returnValue.put(release.getName(), release);
+          }
+        }
+      }
+    }
+    return returnValue;
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  private static final Set<Status.Code> createRequestedCodes() {
+    final Set<Status.Code> returnValue = EnumSet.allOf(Status.Code.class);
+    returnValue.remove(Status.Code.UNRECOGNIZED);
+    return Collections.unmodifiableSet(returnValue);
+  }
+
+  /**
+   * Appends the supplied release name to the supplied {@link
+   * StringBuilder}, escaping it so that both Tiller's and Java's
+   * regular expression syntaxes match it literally.
+   *
+   * @param sb the {@link StringBuilder} to append to; must not be
+   * {@code null}
+   *
+   * @param releaseName the release name; must not be {@code null}
+   */
+  private static final void appendQuoted(final StringBuilder sb, final String releaseName) {
+    final int length = releaseName.length();
+    for (int i = 0; i < length; i++) {
+      final char c = releaseName.charAt(i);
+      if (c < 128 && !Character.isLetterOrDigit(c) && c != '_' && !Character.isWhitespace(c)) {
+        sb.append('\\');
+      }
+      sb.append(c);
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A request to wait for a release to reach a target status.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Wait {
+
+    private final String releaseName;
+
+    private final int minimumVersion;
+
+    private final CompletableFuture<Release> future;
+
+    private Wait(final String releaseName, final int minimumVersion) {
+      super();
+      this.releaseName = Objects.requireNonNull(releaseName);
+      this.minimumVersion = minimumVersion;
+      this.future = new CompletableFuture<>();
+    }
+
+  }
+
+}
@@ -0,0 +1,756 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.time.Duration;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import java.util.concurrent.CompletableFuture;
+
+import java.util.function.BiConsumer;
+
+import hapi.release.TestRunOuterClass.TestRun;
+
+import hapi.services.tiller.Tiller.TestReleaseRequest;
+import hapi.services.tiller.Tiller.TestReleaseResponse;
+
+import org.microbean.development.annotation.Experimental;
+
+import org.microbean.helm.AsyncReleaseManager.Publisher;
+import org.microbean.helm.AsyncReleaseManager.Subscriber;
+import org.microbean.helm.AsyncReleaseManager.Subscription;
+
+/**
+ * A runner of the tests of many releases at once, with a cap on how
+ * many run concurrently.
+ *
+ * <p>{@link ReleaseManager#test(TestReleaseRequest)} blocks a thread
+ * for the duration of one release's tests.  A {@link
+ * ReleaseTestRunner} instead {@linkplain
+ * AsyncReleaseManager#test(TestReleaseRequest) streams} the {@link
+ * TestReleaseResponse}s of up to {@linkplain
+ * #getMaximumConcurrency() a fixed number} of releases at a time
+ * without blocking any thread, starting the next release's tests as
+ * soon as any release's tests finish, so that the time taken to test
+ * many releases approaches that taken by the slowest rather than the
+ * sum of them all.</p>
+ *
+ * <p>A release's tests pass if its stream of {@link
+ * TestReleaseResponse}s completes normally and none of them has a
+ * {@linkplain TestReleaseResponse#getStatus() status} of {@link
+ * TestRun.Status#FAILURE FAILURE}, which is how the {@code helm test}
+ * command decides.  The outcome, responses and duration of each
+ * release's tests are gathered into a {@link Result}, and all of
+ * them into a {@link Summary}.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are safe for concurrent use by multiple
+ * threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see #run(Collection)
+ *
+ * @see AsyncReleaseManager#test(TestReleaseRequest)
+ */
+@Experimental
+public class ReleaseTestRunner {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The default maximum number of releases whose tests run
+   * concurrently ({@value}).
+   *
+   * @see #ReleaseTestRunner(ReleaseManager)
+   */
+  public static final int DEFAULT_MAXIMUM_CONCURRENCY = 8;
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link AsyncReleaseManager} used to stream test results.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final AsyncReleaseManager asyncReleaseManager;
+
+  /**
+   * The maximum number of releases whose tests run concurrently in
+   * any one {@linkplain #run(Collection) run}.
+   */
+  private final int maximumConcurrency;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ReleaseTestRunner} that runs the tests of
+   * at most {@value #DEFAULT_MAXIMUM_CONCURRENCY} releases
+   * concurrently.
+   *
+   * @param releaseManager the {@link ReleaseManager} whose {@link
+   * Tiller} will be used and that will validate requests; must not
+   * be {@code null}
+   *
+   * @exception NullPointerException if {@code releaseManager} is
+   * {@code null}
+   *
+   * @see #ReleaseTestRunner(ReleaseManager, int)
+   */
+  public ReleaseTestRunner(final ReleaseManager releaseManager) {
+    this(releaseManager, DEFAULT_MAXIMUM_CONCURRENCY);
+  }
+
+  /**
+   * Creates a new {@link ReleaseTestRunner}.
+   *
+   * @param releaseManager the {@link ReleaseManager} whose {@link
+   * Tiller} will be used and that will validate requests; must not
+   * be {@code null}
+   *
+   * @param maximumConcurrency the maximum number of releases whose
+   * tests will run concurrently in any one {@linkplain
+   * #run(Collection) run}; must be greater than {@code 0}
+   *
+   * @exception NullPointerException if {@code releaseManager} is
+   * {@code null}
+   *
+   * @exception IllegalArgumentException if {@code maximumConcurrency}
+   * is less than {@code 1}
+   */
+  public ReleaseTestRunner(final ReleaseManager releaseManager, final int maximumConcurrency) {
+    super();
+    if (maximumConcurrency < 1) {
+      throw new IllegalArgumentException("maximumConcurrency < 1: " + maximumConcurrency);
+    }
+    this.asyncReleaseManager = new AsyncReleaseManager(Objects.requireNonNull(releaseManager));
+    this.maximumConcurrency = maximumConcurrency;
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the maximum number of releases whose tests run
+   * concurrently in any one {@linkplain #run(Collection) run}.
+   *
+   * @return a number greater than {@code 0}
+   */
+  public final int getMaximumConcurrency() {
+    return this.maximumConcurrency;
+  }
+
+  /**
+   * Runs the tests of the releases described by the supplied {@link
+   * TestReleaseRequest}s and returns a {@link CompletableFuture} that
+   * is completed with a {@link Summary} of their results once all of
+   * them have finished.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param requests the {@link TestReleaseRequest}s, each naming a
+   * different release; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link CompletableFuture}
+   *
+   * @exception NullPointerException if {@code requests} is {@code
+   * null} or contains {@code null}
+   *
+   * @exception IllegalArgumentException if any request is invalid,
+   * or if two requests name the same release
+   *
+   * @see #run(Collection, BiConsumer)
+   */
+  public CompletableFuture<Summary> run(final Collection<? extends TestReleaseRequest> requests) {
+    return this.run(requests, null);
+  }
+
+  /**
+   * Runs the tests of the releases described by the supplied {@link
+   * TestReleaseRequest}s, relaying each {@link TestReleaseResponse}
+   * to the supplied {@link BiConsumer} as it arrives, and returns a
+   * {@link CompletableFuture} that is completed with a {@link
+   * Summary} of their results once all of them have finished.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>The returned {@link CompletableFuture} completes normally
+   * whether or not the tests pass; consult {@link
+   * Summary#isPassed()}.  {@linkplain
+   * CompletableFuture#cancel(boolean) Cancelling} it cancels the
+   * tests that are running and prevents the rest from starting.</p>
+   *
+   * @param requests the {@link TestReleaseRequest}s, each naming a
+   * different release; must not be {@code null}
+   *
+   * @param listener a {@link BiConsumer} that will be called with
+   * the name of a release and each {@link TestReleaseResponse}
+   * pertaining to it, possibly by several threads at once; may be
+   * {@code null}; if it throws a {@link RuntimeException} the
+   * release's tests are cancelled and fail with it
+   *
+   * @return a non-{@code null} {@link CompletableFuture}
+   *
+   * @exception NullPointerException if {@code requests} is {@code
+   * null} or contains {@code null}
+   *
+   * @exception IllegalArgumentException if any request is invalid,
+   * or if two requests name the same release
+   */
+  public CompletableFuture<Summary> run(final Collection<? extends TestReleaseRequest> requests,
+                                        final BiConsumer<? super String, ? super TestReleaseResponse> listener) {
+    Objects.requireNonNull(requests);
+    final Map<String, Publisher<TestReleaseResponse>> publishers = new LinkedHashMap<>();
+    for (final TestReleaseRequest request : requests) {
+      final String name = Objects.requireNonNull(request).getName();
+      // AsyncReleaseManager#test(TestReleaseRequest) validates the
+      // request but does not start anything until subscribed to.
+      if (publishers.put(name, this.asyncReleaseManager.test(request)) != null) {
+        throw new IllegalArgumentException("Duplicate release name: " + name);
+      }
+    }
+    final Run returnValue = new Run(publishers, listener, this.maximumConcurrency);
+    returnValue.startNext();
+    return returnValue;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A single {@linkplain ReleaseTestRunner#run(Collection,
+   * BiConsumer) run} of the tests of many releases, completed with
+   * their {@link Summary}.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Run extends CompletableFuture<Summary> {
+
+    private final long startTime;
+
+    private final BiConsumer<? super String, ? super TestReleaseResponse> listener;
+
+    private final int maximumConcurrency;
+
+    /**
+     * The tests of every release, in the order they were requested.
+     */
+    private final List<Test> tests;
+
+    /**
+     * The tests that have not yet started.
+     *
+     * <p>All access to this field must be synchronized on {@code
+     * this}.</p>
+     */
+    private final Deque<Test> pending;
+
+    /**
+     * The tests that have started but not yet finished.
+     *
+     * <p>All access to this field must be synchronized on {@code
+     * this}.</p>
+     */
+    private final Collection<Test> running;
+
+    /**
+     * The number of tests that have finished.
+     *
+     * <p>All access to this field must be synchronized on {@code
+     * this}.</p>
+     */
+    private int finished;
+
+    /**
+     * Whether an invocation of {@link #startNext()} is already
+     * starting tests.
+     *
+     * <p>All access to this field must be synchronized on {@code
+     * this}.</p>
+     */
+    private boolean pumping;
+
+    private Run(final Map<? extends String, ? extends Publisher<TestReleaseResponse>> publishers,
+                final BiConsumer<? super String, ? super TestReleaseResponse> listener,
+                final int maximumConcurrency) {
+      super();
+      this.startTime = System.nanoTime();
+      this.listener = listener;
+      this.maximumConcurrency = maximumConcurrency;
+      final List<Test> tests = new ArrayList<>(publishers.size());
+      for (final Map.Entry<? extends String, ? extends Publisher<TestReleaseResponse>> entry : publishers.entrySet()) {
+        tests.add(new Test(this, entry.getKey(), entry.getValue()));
+      }
+      this.tests = Collections.unmodifiableList(tests);
+      this.pending = new ArrayDeque<>(tests);
+      this.running = new ArrayList<>(maximumConcurrency);
+    }
+
+    /**
+     * Starts as many pending tests as the concurrency cap permits, or
+     * completes this {@link Run} if every test has finished.
+     */
+    private final void startNext() {
+      synchronized (this) {
+        if (this.pumping) {
+          // Another invocation, perhaps further up this very thread's
+          // stack because a test finished synchronously, is already
+          // looping below and will see whatever state changes
+          // preceded this invocation.
+          return;
+        }
+        this.pumping = true;
+      }
+      final boolean complete;
+      while (true) {
+        final List<Test> toStart = new ArrayList<>();
+        synchronized (this) {
+          if (!this.isDone()) {
+            while (this.running.size() < this.maximumConcurrency && !this.pending.isEmpty()) {
+              final Test test = this.pending.remove();
+              this.running.add(test);
+              toStart.add(test);
+            }
+          }
+          if (toStart.isEmpty()) {
+            this.pumping = false;
+            complete = !this.isDone() && this.finished == this.tests.size();
+            break;
+          }
+        }
+        for (final Test test : toStart) {
+          test.start();
+        }
+      }
+      if (complete) {
+        final Map<String, Result> results = new LinkedHashMap<>();
+        for (final Test finishedTest : this.tests) {
+          results.put(finishedTest.name, finishedTest.result);
+        }
+        this.complete(new Summary(results, Duration.ofNanos(System.nanoTime() - this.startTime)));
+      }
+    }
+
+    private final void finished(final Test test) {
+      synchronized (this) {
+        this.running.remove(test);
+        this.finished++;
+      }
+      this.startNext();
+    }
+
+    @Override
+    public final boolean cancel(final boolean mayInterruptIfRunning) {
+      final boolean returnValue = super.cancel(mayInterruptIfRunning);
+      if (returnValue) {
+        final Collection<Test> running;
+        synchronized (this) {
+          this.pending.clear();
+          running = new ArrayList<>(this.running);
+        }
+        for (final Test test : running) {
+          test.cancel();
+        }
+      }
+      return returnValue;
+    }
+
+  }
+
+  /**
+   * A {@link Subscriber} that gathers the {@link TestReleaseResponse}s
+   * of one release's tests into a {@link Result}.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Test implements Subscriber<TestReleaseResponse> {
+
+    private final Run run;
+
+    private final String name;
+
+    private final Publisher<TestReleaseResponse> publisher;
+
+    /**
+     * The responses received so far.
+     *
+     * <p>All access to this field must be synchronized on {@code
+     * this}.</p>
+     */
+    private final List<TestReleaseResponse> responses;
+
+    // All access to the following fields must be synchronized on
+    // this.
+
+    private long startTime;
+
+    private Subscription subscription;
+
+    private boolean cancelled;
+
+    private int failures;
+
+    private Result result;
+
+    private Test(final Run run, final String name, final Publisher<TestReleaseResponse> publisher) {
+      super();
+      this.run = run;
+      this.name = name;
+      this.publisher = publisher;
+      this.responses = new ArrayList<>();
+    }
+
+    private final void start() {
+      synchronized (this) {
+        this.startTime = System.nanoTime();
+      }
+      try {
+        this.publisher.subscribe(this);
+      } catch (final RuntimeException runtimeException) {
+        this.finish(runtimeException);
+      }
+    }
+
+    private final void cancel() {
+      final Subscription subscription;
+      synchronized (this) {
+        this.cancelled = true;
+        subscription = this.subscription;
+      }
+      if (subscription != null) {
+        subscription.cancel();
+      }
+    }
+
+    @Override
+    public final void onSubscribe(final Subscription subscription) {
+      final boolean cancelled;
+      synchronized (this) {
+        this.subscription = subscription;
+        cancelled = this.cancelled;
+      }
+      if (cancelled) {
+        subscription.cancel();
+      } else {
+        subscription.request(Long.MAX_VALUE);
+      }
+    }
+
+    @Override
+    public final void onNext(final TestReleaseResponse response) {
+      synchronized (this) {
+        if (this.result != null) {
+          return;
+        }
+        this.responses.add(response);
+        if (response.getStatus() == TestRun.Status.FAILURE) {
+          this.failures++;
+        }
+      }
+      final BiConsumer<? super String, ? super TestReleaseResponse> listener = this.run.listener;
+      if (listener != null) {
+        try {
+          listener.accept(this.name, response);
+        } catch (final RuntimeException runtimeException) {
+          this.cancel();
+          this.finish(runtimeException);
+        }
+      }
+    }
+
+    @Override
+    public final void onError(final Throwable throwable) {
+      this.finish(throwable);
+    }
+
+    @Override
+    public final void onComplete() {
+      this.finish(null);
+    }
+
+    private final void finish(final Throwable throwable) {
+      synchronized (this) {
+        if (this.result != null) {
+          return;
+        }
+        this.result = new Result(this.name,
+                                 this.responses,
+                                 this.failures,
+                                 throwable,
+                                 Duration.ofNanos(System.nanoTime() - this.startTime));
+      }
+      this.run.finished(this);
+    }
+
+  }
+
+  /**
+   * The outcome of one release's tests.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see Summary#getResults()
+   */
+  @Experimental
+  public static final class Result {
+
+    private final String releaseName;
+
+    private final List<TestReleaseResponse> responses;
+
+    private final int failureCount;
+
+    private final Throwable error;
+
+    private final Duration duration;
+
+    private Result(final String releaseName,
+                   final List<TestReleaseResponse> responses,
+                   final int failureCount,
+                   final Throwable error,
+                   final Duration duration) {
+      super();
+      this.releaseName = releaseName;
+      this.responses = Collections.unmodifiableList(new ArrayList<>(responses));
+      this.failureCount = failureCount;
+      this.error = error;
+      this.duration = duration;
+    }
+
+    /**
+     * Returns the name of the release that was tested.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} release name
+     */
+    public final String getReleaseName() {
+      return this.releaseName;
+    }
+
+    /**
+     * Returns {@code true} if the release's tests completed and none
+     * of them failed.
+     *
+     * @return {@code true} if the release's tests passed
+     */
+    public final boolean isPassed() {
+      return this.error == null && this.failureCount == 0;
+    }
+
+    /**
+     * Returns the {@link TestReleaseResponse}s received, in order.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null}, unmodifiable {@link List}
+     */
+    public final List<TestReleaseResponse> getResponses() {
+      return this.responses;
+    }
+
+    /**
+     * Returns the number of {@link TestReleaseResponse}s received
+     * with a {@linkplain TestReleaseResponse#getStatus() status} of
+     * {@link TestRun.Status#FAILURE FAILURE}.
+     *
+     * @return the number of failed tests
+     */
+    public final int getFailureCount() {
+      return this.failureCount;
+    }
+
+    /**
+     * Returns the {@link Throwable} with which the release's stream
+     * of {@link TestReleaseResponse}s ended, if it did not complete
+     * normally.
+     *
+     * <p>This method may return {@code null}.</p>
+     *
+     * @return a {@link Throwable}, or {@code null}
+     */
+    public final Throwable getError() {
+      return this.error;
+    }
+
+    /**
+     * Returns the time the release's tests took, not counting any
+     * time spent waiting to start.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link Duration}
+     */
+    public final Duration getDuration() {
+      return this.duration;
+    }
+
+    /**
+     * Returns a {@link String} representation of this {@link
+     * Result}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link String}
+     */
+    @Override
+    public final String toString() {
+      final StringBuilder sb = new StringBuilder(this.releaseName)
+        .append(this.isPassed() ? ": PASSED" : ": FAILED")
+        .append(" in ").append(this.duration);
+      if (this.failureCount > 0) {
+        sb.append(" (").append(this.failureCount).append(" failed)");
+      }
+      if (this.error != null) {
+        sb.append(" (").append(this.error).append(")");
+      }
+      return sb.toString();
+    }
+
+  }
+
+  /**
+   * The aggregated outcome of the tests of many releases.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see ReleaseTestRunner#run(Collection, BiConsumer)
+   */
+  @Experimental
+  public static final class Summary {
+
+    private final Map<String, Result> results;
+
+    private final Duration duration;
+
+    private Summary(final Map<String, Result> results, final Duration duration) {
+      super();
+      this.results = Collections.unmodifiableMap(results);
+      this.duration = duration;
+    }
+
+    /**
+     * Returns the {@link Result} of each release's tests, indexed by
+     * release name, in the order in which they were requested.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null}, unmodifiable {@link Map}
+     */
+    public final Map<String, Result> getResults() {
+      return this.results;
+    }
+
+    /**
+     * Returns {@code true} if the tests of every release passed.
+     *
+     * @return {@code true} if every release's tests passed
+     */
+    public final boolean isPassed() {
+      for (final Result result : this.results.values()) {
+        if (!result.isPassed()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Returns the {@link Result}s of the releases whose tests did not
+     * pass, in the order in which they were requested.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link List}
+     */
+    public final List<Result> getFailures() {
+      final List<Result> returnValue = new ArrayList<>();
+      for (final Result result : this.results.values()) {
+        if (!result.isPassed()) {
+          returnValue.add(result);
+        }
+      }
+      return returnValue;
+    }
+
+    /**
+     * Returns the time taken to run the tests of every release.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link Duration}
+     */
+    public final Duration getDuration() {
+      return this.duration;
+    }
+
+    /**
+     * Returns a {@link String} representation of this {@link
+     * Summary}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link String}
+     */
+    @Override
+    public final String toString() {
+      final List<Result> failures = this.getFailures();
+      final StringBuilder sb = new StringBuilder()
+        .append(this.results.size() - failures.size()).append(" passed, ")
+        .append(failures.size()).append(" failed in ").append(this.duration);
+      for (final Result failure : failures) {
+        sb.append(System.lineSeparator()).append("  ").append(failure);
+      }
+      return sb.toString();
+    }
+
+  }
+
+}
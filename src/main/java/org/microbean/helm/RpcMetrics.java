@@ -0,0 +1,92 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.util.ServiceLoader; // for javadoc only
+
+import org.microbean.development.annotation.Experimental;
+
+/**
+ * A receiver of measurements of the gRPC calls made to Tiller,
+ * suitable for bridging to a metrics registry.
+ *
+ * <p>This interface deliberately depends on nothing but the JDK so
+ * that it can be implemented in terms of any metrics library.  Every
+ * call made through a stub obtained from a {@link Tiller} is reported
+ * to the {@link RpcMetrics} returned by its {@link
+ * Tiller#getRpcMetrics()} method: {@link #callStarted(String)} when
+ * the call starts, and {@link #callCompleted(String, String, long,
+ * long, long)} exactly once when it ends.  By default that is the
+ * first implementation of this interface found by the {@link
+ * ServiceLoader} mechanism or, if there is none, a shared {@link
+ * InMemoryRpcMetrics}.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Implementations of this interface must be safe for concurrent
+ * use by multiple threads, and should return quickly without
+ * blocking, since they are invoked on gRPC's threads for every
+ * call.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see InMemoryRpcMetrics
+ *
+ * @see Tiller#getRpcMetrics()
+ */
+@Experimental
+public interface RpcMetrics {
+
+  /**
+   * Records that a call to the method with the supplied name has
+   * started.
+   *
+   * @param methodName the full gRPC method name, such as {@code
+   * hapi.services.tiller.ReleaseService/InstallRelease}; never
+   * {@code null}
+   */
+  public void callStarted(final String methodName);
+
+  /**
+   * Records that a call to the method with the supplied name has
+   * completed, successfully or not.
+   *
+   * @param methodName the full gRPC method name, such as {@code
+   * hapi.services.tiller.ReleaseService/InstallRelease}; never
+   * {@code null}
+   *
+   * @param statusCode the name of the gRPC status code with which the
+   * call completed, such as {@code OK} or {@code UNAVAILABLE}; never
+   * {@code null}
+   *
+   * @param latencyInNanos the time between the call's start and its
+   * completion, in nanoseconds
+   *
+   * @param requestBytes the total serialized, uncompressed size of
+   * the messages sent
+   *
+   * @param responseBytes the total serialized, uncompressed size of
+   * the messages received
+   */
+  public void callCompleted(final String methodName,
+                            final String statusCode,
+                            final long latencyInNanos,
+                            final long requestBytes,
+                            final long responseBytes);
+
+}
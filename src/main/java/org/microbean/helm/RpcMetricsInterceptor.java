@@ -0,0 +1,164 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.util.Objects;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+/**
+ * A {@link ClientInterceptor} that reports the latency, message
+ * sizes and outcome of every call to an {@link RpcMetrics}.
+ *
+ * <p>Message sizes are taken from the messages' (memoized)
+ * serialized sizes, so measuring them does not serialize anything
+ * twice.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see RpcMetrics
+ */
+final class RpcMetricsInterceptor implements ClientInterceptor {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link RpcMetrics} to report to.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final RpcMetrics rpcMetrics;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link RpcMetricsInterceptor}.
+   *
+   * @param rpcMetrics the {@link RpcMetrics} to report to; must not
+   * be {@code null}
+   *
+   * @exception NullPointerException if {@code rpcMetrics} is {@code
+   * null}
+   */
+  RpcMetricsInterceptor(final RpcMetrics rpcMetrics) {
+    super();
+    this.rpcMetrics = Objects.requireNonNull(rpcMetrics);
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  @Override
+  public final <RequestT, ResponseT> ClientCall<RequestT, ResponseT> interceptCall(final MethodDescriptor<RequestT, ResponseT> method,
+                                                                                 final CallOptions callOptions,
+                                                                                 final Channel next) {
+    final String methodName = method.getFullMethodName();
+    return new SimpleForwardingClientCall<RequestT, ResponseT>(next.newCall(method, callOptions)) {
+
+      private final AtomicBoolean completed = new AtomicBoolean();
+
+      private volatile long startTime;
+
+      private volatile long requestBytes;
+
+      private volatile long responseBytes;
+
+      @Override
+      public final void start(final ClientCall.Listener<ResponseT> listener, final Metadata headers) {
+        this.startTime = System.nanoTime();
+        rpcMetrics.callStarted(methodName);
+        try {
+          super.start(new SimpleForwardingClientCallListener<ResponseT>(listener) {
+              @Override
+              public final void onMessage(final ResponseT message) {
+                responseBytes += size(message);
+                super.onMessage(message);
+              }
+
+              @Override
+              public final void onClose(final Status status, final Metadata trailers) {
+                complete(status);
+                super.onClose(status, trailers);
+              }
+            }, headers);
+        } catch (final RuntimeException | Error throwable) {
+          this.complete(Status.fromThrowable(throwable));
+          throw throwable;
+        }
+      }
+
+      @Override
+      public final void sendMessage(final RequestT message) {
+        this.requestBytes += size(message);
+        super.sendMessage(message);
+      }
+
+      private final void complete(final Status status) {
+        if (this.completed.compareAndSet(false, true)) {
+          rpcMetrics.callCompleted(methodName,
+                                   status.getCode().name(),
+                                   System.nanoTime() - this.startTime,
+                                   this.requestBytes,
+                                   this.responseBytes);
+        }
+      }
+
+    };
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns the serialized size of the supplied message, or {@code 0}
+   * if it cannot be determined cheaply.
+   *
+   * @param message the message; may be {@code null}
+   *
+   * @return the serialized size of {@code message}, or {@code 0}
+   */
+  private static final long size(final Object message) {
+    final int size = TillerChannelOptions.getSerializedSize(message);
+    return size == Integer.MAX_VALUE ? 0L : size;
+  }
+
+}
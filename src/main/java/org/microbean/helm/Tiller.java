@@ -19,15 +19,15 @@ package org.microbean.helm;
 import java.io.Closeable;
 import java.io.IOException;
 
-import java.net.InetAddress;
 import java.net.MalformedURLException;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
-
-import java.util.concurrent.TimeUnit;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
 
 import java.util.function.Function;
 
@@ -48,7 +48,6 @@ import io.fabric8.kubernetes.client.KubernetesClientException; // for javadoc on
 import io.fabric8.kubernetes.client.LocalPortForward;
 
 import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
 import io.grpc.Metadata;
 
 import io.grpc.health.v1.HealthGrpc;
@@ -56,10 +55,12 @@ import io.grpc.health.v1.HealthGrpc.HealthBlockingStub;
 import io.grpc.health.v1.HealthGrpc.HealthFutureStub;
 import io.grpc.health.v1.HealthGrpc.HealthStub;
 
+import io.grpc.stub.AbstractStub;
 import io.grpc.stub.MetadataUtils;
 
 import okhttp3.OkHttpClient;
 
+import org.microbean.development.annotation.Experimental;
 import org.microbean.development.annotation.Issue;
 
 import org.microbean.kubernetes.Pods;
@@ -124,6 +125,14 @@ public class Tiller implements ConfigAware<Config>, Closeable {
    */
   private static final Metadata metadata = new Metadata();
 
+  /**
+   * The {@link RpcMetrics} returned by default from {@link
+   * #getRpcMetrics()}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final RpcMetrics defaultRpcMetrics = loadDefaultRpcMetrics();
+
 
   /*
    * Static initializer.
@@ -175,6 +184,16 @@ public class Tiller implements ConfigAware<Config>, Closeable {
    */
   private final ManagedChannel channel;
 
+  /**
+   * Whether the {@link #channel} was declared at construction time
+   * to have several independent paths to Tiller.
+   *
+   * @see #Tiller(ManagedChannel, boolean)
+   *
+   * @see #isMultiPath()
+   */
+  private final boolean multiPath;
+
 
   /*
    * Constructors.
@@ -185,18 +204,52 @@ public class Tiller implements ConfigAware<Config>, Closeable {
    * Creates a new {@link Tiller} that will use the supplied {@link
    * ManagedChannel} for communication.
    *
+   * <p>To spread calls across several Tiller replicas, supply a
+   * {@link TillerChannelPool}.</p>
+   *
    * @param channel the {@link ManagedChannel} over which
    * communications will be conducted; must not be {@code null}
    *
    * @exception NullPointerException if {@code channel} is {@code
    * null}
+   *
+   * @see #Tiller(ManagedChannel, boolean)
    */
   public Tiller(final ManagedChannel channel) {
+    this(channel, false);
+  }
+
+  /**
+   * Creates a new {@link Tiller} that will use the supplied {@link
+   * ManagedChannel} for communication.
+   *
+   * <p>A {@link ReadPolicy} only {@linkplain
+   * ReadPolicy#getHedgingDelay() hedges} calls made through a {@link
+   * Tiller} with more than one path to Tiller.  A {@link
+   * TillerChannelPool} routing to more than one Tiller pod is
+   * recognized as such without help; any other {@link
+   * ManagedChannel} that balances calls across several Tiller
+   * replicas may be declared to do so here.</p>
+   *
+   * @param channel the {@link ManagedChannel} over which
+   * communications will be conducted; must not be {@code null}
+   *
+   * @param multiPath whether {@code channel} routes calls to several
+   * Tiller replicas over independent paths
+   *
+   * @exception NullPointerException if {@code channel} is {@code
+   * null}
+   *
+   * @see #isMultiPath()
+   */
+  @Experimental
+  public Tiller(final ManagedChannel channel, final boolean multiPath) {
     super();
     Objects.requireNonNull(channel);
     this.config = null;
     this.portForward = null;
     this.channel = channel;
+    this.multiPath = multiPath;
   }
 
   /**
@@ -229,7 +282,8 @@ public class Tiller implements ConfigAware<Config>, Closeable {
    * ManagedChannel}; if {@code null} the {@link
    * #buildChannel(LocalPortForward)} method will be used instead; if
    * non-{@code null} then the {@link #buildChannel(LocalPortForward)}
-   * method will never be called
+   * method will never be called; a {@link TillerChannelOptions} may
+   * be supplied to configure the transport
    *
    * @exception NullPointerException if {@code portForward} is {@code
    * null}
@@ -246,6 +300,7 @@ public class Tiller implements ConfigAware<Config>, Closeable {
     } else {
       this.channel = channelBuilder.apply(portForward);
     }
+    this.multiPath = false;
   }
 
   /**
@@ -414,7 +469,8 @@ public class Tiller implements ConfigAware<Config>, Closeable {
    * ManagedChannel}; if {@code null} the {@link
    * #buildChannel(LocalPortForward)} method will be used instead; if
    * non-{@code null} then the {@link #buildChannel(LocalPortForward)}
-   * method will never be called
+   * method will never be called; a {@link TillerChannelOptions} may
+   * be supplied to configure the transport
    *
    * @exception MalformedURLException if there was a problem
    * identifying a Pod within the cluster that houses a Tiller instance
@@ -459,6 +515,7 @@ public class Tiller implements ConfigAware<Config>, Closeable {
     } else {
       this.channel = channelBuilder.apply(this.portForward);
     }
+    this.multiPath = false;
   }
 
 
@@ -506,22 +563,35 @@ public class Tiller implements ConfigAware<Config>, Closeable {
    */
   @Issue(id = "42", uri = "https://github.com/microbean/microbean-helm/issues/42")
   protected ManagedChannel buildChannel(final LocalPortForward portForward) {
-    Objects.requireNonNull(portForward);
-    @Issue(id = "43", uri = "https://github.com/microbean/microbean-helm/issues/43")
-    final InetAddress localAddress = portForward.getLocalAddress();
-    if (localAddress == null) {
-      throw new IllegalArgumentException("portForward", new IllegalStateException("portForward.getLocalAddress() == null"));
-    }
-    final String hostAddress = localAddress.getHostAddress();
-    if (hostAddress == null) {
-      throw new IllegalArgumentException("portForward", new IllegalStateException("portForward.getLocalAddress().getHostAddress() == null"));
-    }
-    return ManagedChannelBuilder.forAddress(hostAddress, portForward.getLocalPort())
-      .idleTimeout(5L, TimeUnit.SECONDS)
-      .keepAliveTime(30L, TimeUnit.SECONDS)
-      .maxInboundMessageSize(MAX_MESSAGE_SIZE)
-      .usePlaintext(true)
-      .build();
+    return buildDefaultChannel(portForward);
+  }
+
+  /**
+   * Creates a {@link ManagedChannel} for communication with Tiller
+   * from the information contained in the supplied {@link
+   * LocalPortForward} using the {@linkplain
+   * TillerChannelOptions#DEFAULT default transport settings}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param portForward a {@link LocalPortForward}; must not be {@code
+   * null}
+   *
+   * @return a non-{@code null} {@link ManagedChannel}
+   *
+   * @exception NullPointerException if {@code portForward} is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code portForward}'s
+   * {@link LocalPortForward#getLocalAddress()} method returns {@code
+   * null}
+   *
+   * @see #buildChannel(LocalPortForward)
+   *
+   * @see TillerChannelOptions#DEFAULT
+   */
+  static final ManagedChannel buildDefaultChannel(final LocalPortForward portForward) {
+    return TillerChannelOptions.DEFAULT.apply(portForward);
   }
 
   /**
@@ -548,6 +618,26 @@ public class Tiller implements ConfigAware<Config>, Closeable {
     }
   }
 
+  /**
+   * Returns {@code true} if this {@link Tiller} currently has more
+   * than one path to Tiller, so that a {@linkplain
+   * ReadPolicy#getHedgingDelay() hedge} need not travel the same path
+   * to the same Tiller pod as the call it hedges.
+   *
+   * <p>This is the case if this {@link Tiller} was {@linkplain
+   * #Tiller(ManagedChannel, boolean) declared} to have several paths,
+   * or if its {@link ManagedChannel} is a {@link TillerChannelPool}
+   * that is currently routing to more than one Tiller pod.  Since a
+   * {@link TillerChannelPool} grows and shrinks with the set of ready
+   * Tiller pods, the answer may change from call to call.</p>
+   *
+   * @return {@code true} if this {@link Tiller} has more than one
+   * path to Tiller; {@code false} otherwise
+   */
+  final boolean isMultiPath() {
+    return this.multiPath || (this.channel instanceof TillerChannelPool && ((TillerChannelPool)this.channel).size() > 1);
+  }
+
   /**
    * Returns the gRPC-generated {@link ReleaseServiceBlockingStub}
    * object that represents the capabilities of the Tiller server.
@@ -563,7 +653,7 @@ public class Tiller implements ConfigAware<Config>, Closeable {
   public ReleaseServiceBlockingStub getReleaseServiceBlockingStub() {
     ReleaseServiceBlockingStub returnValue = null;
     if (this.channel != null) {
-      returnValue = MetadataUtils.attachHeaders(ReleaseServiceGrpc.newBlockingStub(this.channel), metadata);
+      returnValue = this.configure(ReleaseServiceGrpc.newBlockingStub(this.channel));
     }
     return returnValue;
   }
@@ -583,7 +673,7 @@ public class Tiller implements ConfigAware<Config>, Closeable {
   public ReleaseServiceFutureStub getReleaseServiceFutureStub() {
     ReleaseServiceFutureStub returnValue = null;
     if (this.channel != null) {
-      returnValue = MetadataUtils.attachHeaders(ReleaseServiceGrpc.newFutureStub(this.channel), metadata);
+      returnValue = this.configure(ReleaseServiceGrpc.newFutureStub(this.channel));
     }
     return returnValue;
   }
@@ -603,7 +693,7 @@ public class Tiller implements ConfigAware<Config>, Closeable {
   public ReleaseServiceStub getReleaseServiceStub() {
     ReleaseServiceStub returnValue = null;
     if (this.channel != null) {
-      returnValue = MetadataUtils.attachHeaders(ReleaseServiceGrpc.newStub(this.channel), metadata);
+      returnValue = this.configure(ReleaseServiceGrpc.newStub(this.channel));
     }
     return returnValue;
   }
@@ -611,7 +701,7 @@ public class Tiller implements ConfigAware<Config>, Closeable {
   public HealthBlockingStub getHealthBlockingStub() {
     HealthBlockingStub returnValue = null;
     if (this.channel != null) {
-      returnValue = MetadataUtils.attachHeaders(HealthGrpc.newBlockingStub(this.channel), metadata);
+      returnValue = this.configure(HealthGrpc.newBlockingStub(this.channel));
     }
     return returnValue;
   }
@@ -619,7 +709,7 @@ public class Tiller implements ConfigAware<Config>, Closeable {
   public HealthFutureStub getHealthFutureStub() {
     HealthFutureStub returnValue = null;
     if (this.channel != null) {
-      returnValue = MetadataUtils.attachHeaders(HealthGrpc.newFutureStub(this.channel), metadata);
+      returnValue = this.configure(HealthGrpc.newFutureStub(this.channel));
     }
     return returnValue;
   }
@@ -627,7 +717,50 @@ public class Tiller implements ConfigAware<Config>, Closeable {
   public HealthStub getHealthStub() {
     HealthStub returnValue = null;
     if (this.channel != null) {
-      returnValue = MetadataUtils.attachHeaders(HealthGrpc.newStub(this.channel), metadata);
+      returnValue = this.configure(HealthGrpc.newStub(this.channel));
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the {@link RpcMetrics} to which every call made through a
+   * stub returned by this {@link Tiller} is reported.
+   *
+   * <p>This method may return {@code null}, in which case calls are
+   * not measured.</p>
+   *
+   * <p>The default implementation returns the first {@link
+   * RpcMetrics} implementation found by the {@link ServiceLoader}
+   * mechanism or, if there is none, an {@link InMemoryRpcMetrics}
+   * shared by all {@link Tiller} instances.  Override this method to
+   * bridge the calls of a particular {@link Tiller} to a different
+   * metrics registry.</p>
+   *
+   * @return an {@link RpcMetrics}, or {@code null}
+   *
+   * @see RpcMetrics
+   */
+  @Experimental
+  public RpcMetrics getRpcMetrics() {
+    return defaultRpcMetrics;
+  }
+
+  /**
+   * Attaches the Tiller-related headers and, if there is an
+   * {@linkplain #getRpcMetrics() <code>RpcMetrics</code>}, a metrics
+   * interceptor to the supplied stub and returns the result.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param stub the stub to configure; must not be {@code null}
+   *
+   * @return a non-{@code null} configured stub
+   */
+  private final <S extends AbstractStub<S>> S configure(final S stub) {
+    S returnValue = MetadataUtils.attachHeaders(stub, metadata);
+    final RpcMetrics rpcMetrics = this.getRpcMetrics();
+    if (rpcMetrics != null) {
+      returnValue = returnValue.withInterceptors(new RpcMetricsInterceptor(rpcMetrics));
     }
     return returnValue;
   }
@@ -639,5 +772,36 @@ public class Tiller implements ConfigAware<Config>, Closeable {
     assert response != null;
     return response.getVersion();
   }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns the first {@link RpcMetrics} implementation found by the
+   * {@link ServiceLoader} mechanism or, if there is none, a new
+   * {@link InMemoryRpcMetrics}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link RpcMetrics}
+   */
+  private static final RpcMetrics loadDefaultRpcMetrics() {
+    RpcMetrics returnValue = null;
+    try {
+      final Iterator<RpcMetrics> iterator = ServiceLoader.load(RpcMetrics.class).iterator();
+      if (iterator.hasNext()) {
+        returnValue = iterator.next();
+      }
+    } catch (final ServiceConfigurationError serviceConfigurationError) {
+      returnValue = null;
+    }
+    if (returnValue == null) {
+      returnValue = new InMemoryRpcMetrics();
+    }
+    return returnValue;
+  }
   
 }
@@ -0,0 +1,868 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.net.InetAddress;
+
+import java.time.Duration;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import java.util.function.Function;
+
+import com.google.protobuf.MessageLite;
+
+import io.fabric8.kubernetes.client.LocalPortForward;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+
+import io.grpc.netty.NettyChannelBuilder;
+
+import io.netty.channel.EventLoopGroup;
+
+import org.microbean.development.annotation.Experimental;
+import org.microbean.development.annotation.Issue;
+
+/**
+ * An immutable transport profile for {@link ManagedChannel}s that
+ * communicate with Tiller, usable anywhere a {@link Function}
+ * building a {@link ManagedChannel} from a {@link LocalPortForward}
+ * is accepted, such as the {@link Tiller#Tiller(LocalPortForward,
+ * Function)} and {@link Tiller#Tiller(io.fabric8.kubernetes.client.HttpClientAware,
+ * String, int, java.util.Map, Function)} constructors and the {@link
+ * TillerChannelPool} constructor.
+ *
+ * <p>The {@linkplain #DEFAULT default profile} reproduces the
+ * settings {@link Tiller} has always used: a five second idle
+ * timeout, a thirty second keepalive, plaintext, a maximum inbound
+ * message size of {@link Tiller#MAX_MESSAGE_SIZE} bytes, no
+ * compression and gRPC's default executor.  Other profiles are
+ * created with a {@link Builder}:</p>
+ *
+ * <blockquote><pre>final TillerChannelOptions options = TillerChannelOptions.builder()
+ *   .compression("gzip", 64 * 1024)
+ *   .flowControlWindow(4 * 1024 * 1024)
+ *   .directExecutor()
+ *   .build();
+ *try (final Tiller tiller = new Tiller(client, null, -1, null, options)) {
+ *  // ...
+ *}</pre></blockquote>
+ *
+ * <p>When {@linkplain Builder#compression(String, int) compression}
+ * is configured, only request messages whose serialized size is at
+ * least the configured threshold are compressed; small requests are
+ * sent as is, since compressing them costs more than it saves.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are immutable and safe for concurrent
+ * use by multiple threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see #builder()
+ *
+ * @see Tiller#Tiller(LocalPortForward, Function)
+ */
+@Experimental
+public final class TillerChannelOptions implements Function<LocalPortForward, ManagedChannel> {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The default {@link TillerChannelOptions}, which reproduce the
+   * settings {@link Tiller} has always used.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  public static final TillerChannelOptions DEFAULT = builder().build();
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final Duration idleTimeout;
+
+  private final Duration keepAliveTime;
+
+  private final Duration keepAliveTimeout;
+
+  private final boolean keepAliveWithoutCalls;
+
+  private final int maxInboundMessageSize;
+
+  private final int maxOutboundMessageSize;
+
+  private final int flowControlWindow;
+
+  private final String compressorName;
+
+  private final int compressionThreshold;
+
+  private final Executor executor;
+
+  private final boolean directExecutor;
+
+  private final EventLoopGroup eventLoopGroup;
+
+  private final Class<? extends io.netty.channel.Channel> channelType;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  private TillerChannelOptions(final Builder builder) {
+    super();
+    this.idleTimeout = builder.idleTimeout;
+    this.keepAliveTime = builder.keepAliveTime;
+    this.keepAliveTimeout = builder.keepAliveTimeout;
+    this.keepAliveWithoutCalls = builder.keepAliveWithoutCalls;
+    this.maxInboundMessageSize = builder.maxInboundMessageSize;
+    this.maxOutboundMessageSize = builder.maxOutboundMessageSize;
+    this.flowControlWindow = builder.flowControlWindow;
+    this.compressorName = builder.compressorName;
+    this.compressionThreshold = builder.compressionThreshold;
+    this.executor = builder.executor;
+    this.directExecutor = builder.directExecutor;
+    this.eventLoopGroup = builder.eventLoopGroup;
+    this.channelType = builder.channelType;
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the length of time a channel may be idle before it
+   * enters idle mode.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link Duration}
+   */
+  public final Duration getIdleTimeout() {
+    return this.idleTimeout;
+  }
+
+  /**
+   * Returns the interval at which keepalive pings are sent.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link Duration}
+   */
+  public final Duration getKeepAliveTime() {
+    return this.keepAliveTime;
+  }
+
+  /**
+   * Returns the length of time to wait for a keepalive ping to be
+   * acknowledged, or {@code null} if gRPC's default applies.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return a {@link Duration}, or {@code null}
+   */
+  public final Duration getKeepAliveTimeout() {
+    return this.keepAliveTimeout;
+  }
+
+  /**
+   * Returns {@code true} if keepalive pings are sent even when there
+   * are no calls in flight.
+   *
+   * @return {@code true} if keepalive pings are sent without calls
+   */
+  public final boolean isKeepAliveWithoutCalls() {
+    return this.keepAliveWithoutCalls;
+  }
+
+  /**
+   * Returns the maximum size, in bytes, of a message received from
+   * Tiller.
+   *
+   * @return the maximum inbound message size; always positive
+   */
+  public final int getMaxInboundMessageSize() {
+    return this.maxInboundMessageSize;
+  }
+
+  /**
+   * Returns the maximum size, in bytes, of a message sent to Tiller,
+   * or {@code 0} if there is no limit.
+   *
+   * @return the maximum outbound message size, or {@code 0}
+   */
+  public final int getMaxOutboundMessageSize() {
+    return this.maxOutboundMessageSize;
+  }
+
+  /**
+   * Returns the HTTP/2 flow control window size, in bytes, or {@code
+   * 0} if gRPC's default applies.
+   *
+   * @return the flow control window, or {@code 0}
+   */
+  public final int getFlowControlWindow() {
+    return this.flowControlWindow;
+  }
+
+  /**
+   * Returns the name of the compressor used for large requests, or
+   * {@code null} if requests are never compressed.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return a compressor name, or {@code null}
+   */
+  public final String getCompressorName() {
+    return this.compressorName;
+  }
+
+  /**
+   * Returns the serialized size, in bytes, at or above which requests
+   * are compressed.
+   *
+   * @return the compression threshold; never negative
+   */
+  public final int getCompressionThreshold() {
+    return this.compressionThreshold;
+  }
+
+  /**
+   * Returns the {@link Executor} on which application callbacks run,
+   * or {@code null} if gRPC's default executor, or a {@linkplain
+   * #isDirectExecutor() direct executor}, is used.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return an {@link Executor}, or {@code null}
+   */
+  public final Executor getExecutor() {
+    return this.executor;
+  }
+
+  /**
+   * Returns {@code true} if application callbacks run directly on
+   * transport threads.
+   *
+   * @return {@code true} if a direct executor is used
+   */
+  public final boolean isDirectExecutor() {
+    return this.directExecutor;
+  }
+
+  /**
+   * Returns the Netty {@link EventLoopGroup} shared by channels built
+   * with these options, or {@code null} if each channel uses gRPC's
+   * default.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return an {@link EventLoopGroup}, or {@code null}
+   *
+   * @see #getChannelType()
+   */
+  public final EventLoopGroup getEventLoopGroup() {
+    return this.eventLoopGroup;
+  }
+
+  /**
+   * Returns the Netty channel type used with the {@linkplain
+   * #getEventLoopGroup() shared <code>EventLoopGroup</code>}, or
+   * {@code null} if gRPC's default applies.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return a Netty channel type, or {@code null}
+   */
+  public final Class<? extends io.netty.channel.Channel> getChannelType() {
+    return this.channelType;
+  }
+
+  /**
+   * Returns a new {@link Builder} initialized with the settings of
+   * this {@link TillerChannelOptions}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new, non-{@code null} {@link Builder}
+   */
+  public final Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  /**
+   * Creates a {@link ManagedChannel} configured according to this
+   * {@link TillerChannelOptions} for communication with Tiller from
+   * the information contained in the supplied {@link
+   * LocalPortForward}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param portForward a {@link LocalPortForward}; must not be {@code
+   * null}
+   *
+   * @return a new, non-{@code null} {@link ManagedChannel}
+   *
+   * @exception NullPointerException if {@code portForward} is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code portForward}'s
+   * {@link LocalPortForward#getLocalAddress()} method returns {@code
+   * null}
+   */
+  @Override
+  public final ManagedChannel apply(final LocalPortForward portForward) {
+    return this.apply(portForward, Collections.emptyList());
+  }
+
+  /**
+   * Creates a {@link ManagedChannel} configured according to this
+   * {@link TillerChannelOptions}, with the supplied additional {@link
+   * ClientInterceptor}s, for communication with Tiller from the
+   * information contained in the supplied {@link LocalPortForward}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param portForward a {@link LocalPortForward}; must not be {@code
+   * null}
+   *
+   * @param interceptors additional {@link ClientInterceptor}s; must
+   * not be {@code null}
+   *
+   * @return a new, non-{@code null} {@link ManagedChannel}
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code portForward}'s
+   * {@link LocalPortForward#getLocalAddress()} method returns {@code
+   * null}
+   *
+   * @see #apply(LocalPortForward)
+   */
+  final ManagedChannel apply(final LocalPortForward portForward, final List<? extends ClientInterceptor> interceptors) {
+    Objects.requireNonNull(portForward);
+    Objects.requireNonNull(interceptors);
+    @Issue(id = "43", uri = "https://github.com/microbean/microbean-helm/issues/43")
+    final InetAddress localAddress = portForward.getLocalAddress();
+    if (localAddress == null) {
+      throw new IllegalArgumentException("portForward", new IllegalStateException("portForward.getLocalAddress() == null"));
+    }
+    final String hostAddress = localAddress.getHostAddress();
+    if (hostAddress == null) {
+      throw new IllegalArgumentException("portForward", new IllegalStateException("portForward.getLocalAddress().getHostAddress() == null"));
+    }
+    return this.buildChannel(hostAddress, portForward.getLocalPort(), interceptors);
+  }
+
+  /**
+   * Creates a {@link ManagedChannel} configured according to this
+   * {@link TillerChannelOptions} that connects to the supplied host
+   * and port.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param host the host to connect to; must not be {@code null}
+   *
+   * @param port the port to connect to
+   *
+   * @return a new, non-{@code null} {@link ManagedChannel}
+   *
+   * @exception NullPointerException if {@code host} is {@code null}
+   */
+  final ManagedChannel buildChannel(final String host, final int port) {
+    return this.buildChannel(host, port, Collections.emptyList());
+  }
+
+  /**
+   * Creates a {@link ManagedChannel} configured according to this
+   * {@link TillerChannelOptions}, with the supplied additional {@link
+   * ClientInterceptor}s, that connects to the supplied host and port.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param host the host to connect to; must not be {@code null}
+   *
+   * @param port the port to connect to
+   *
+   * @param interceptors additional {@link ClientInterceptor}s, run
+   * before any installed by this {@link TillerChannelOptions}; must
+   * not be {@code null}
+   *
+   * @return a new, non-{@code null} {@link ManagedChannel}
+   *
+   * @exception NullPointerException if {@code host} or {@code
+   * interceptors} is {@code null}
+   */
+  final ManagedChannel buildChannel(final String host, final int port, final List<? extends ClientInterceptor> interceptors) {
+    Objects.requireNonNull(host);
+    Objects.requireNonNull(interceptors);
+    final NettyChannelBuilder builder = NettyChannelBuilder.forAddress(host, port)
+      .idleTimeout(this.idleTimeout.toNanos(), TimeUnit.NANOSECONDS)
+      .keepAliveTime(this.keepAliveTime.toNanos(), TimeUnit.NANOSECONDS)
+      .keepAliveWithoutCalls(this.keepAliveWithoutCalls)
+      .maxInboundMessageSize(this.maxInboundMessageSize)
+      .usePlaintext();
+    if (this.keepAliveTimeout != null) {
+      builder.keepAliveTimeout(this.keepAliveTimeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+    if (this.flowControlWindow > 0) {
+      builder.flowControlWindow(this.flowControlWindow);
+    }
+    if (this.eventLoopGroup != null) {
+      builder.eventLoopGroup(this.eventLoopGroup);
+    }
+    if (this.channelType != null) {
+      builder.channelType(this.channelType);
+    }
+    if (this.directExecutor) {
+      builder.directExecutor();
+    } else if (this.executor != null) {
+      builder.executor(this.executor);
+    }
+    if (this.compressorName != null || this.maxOutboundMessageSize > 0) {
+      builder.intercept(new CallOptionsInterceptor(this.compressorName, this.compressionThreshold, this.maxOutboundMessageSize));
+    }
+    if (!interceptors.isEmpty()) {
+      // Interceptors installed later run first.
+      builder.intercept(Collections.<ClientInterceptor>unmodifiableList(interceptors));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * TillerChannelOptions}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String} representation of this
+   * {@link TillerChannelOptions}
+   */
+  @Override
+  public final String toString() {
+    return new StringBuilder("TillerChannelOptions[idleTimeout=").append(this.idleTimeout)
+      .append(", keepAliveTime=").append(this.keepAliveTime)
+      .append(", keepAliveTimeout=").append(this.keepAliveTimeout)
+      .append(", keepAliveWithoutCalls=").append(this.keepAliveWithoutCalls)
+      .append(", maxInboundMessageSize=").append(this.maxInboundMessageSize)
+      .append(", maxOutboundMessageSize=").append(this.maxOutboundMessageSize)
+      .append(", flowControlWindow=").append(this.flowControlWindow)
+      .append(", compressorName=").append(this.compressorName)
+      .append(", compressionThreshold=").append(this.compressionThreshold)
+      .append(", executor=").append(this.directExecutor ? "direct" : this.executor)
+      .append(", eventLoopGroup=").append(this.eventLoopGroup)
+      .append(", channelType=").append(this.channelType == null ? null : this.channelType.getName())
+      .append("]")
+      .toString();
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns a new {@link Builder} initialized with the settings of
+   * the {@linkplain #DEFAULT default profile}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new, non-{@code null} {@link Builder}
+   */
+  public static final Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns the serialized size of the supplied request message, or
+   * {@link Integer#MAX_VALUE} if it cannot be determined cheaply.
+   *
+   * @param message the message; may be {@code null}
+   *
+   * @return the serialized size of {@code message}, or {@link
+   * Integer#MAX_VALUE}
+   */
+  static final int getSerializedSize(final Object message) {
+    final int returnValue;
+    if (message instanceof MessageLite) {
+      returnValue = ((MessageLite)message).getSerializedSize();
+    } else if (message instanceof PreparedChart.Payload) {
+      returnValue = ((PreparedChart.Payload<?>)message).getSerializedSize();
+    } else {
+      returnValue = Integer.MAX_VALUE;
+    }
+    return returnValue;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A builder of {@link TillerChannelOptions}.
+   *
+   * <p>Instances of this class are <strong>not</strong> safe for
+   * concurrent use by multiple threads.</p>
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see TillerChannelOptions#builder()
+   */
+  public static final class Builder {
+
+    private Duration idleTimeout;
+
+    private Duration keepAliveTime;
+
+    private Duration keepAliveTimeout;
+
+    private boolean keepAliveWithoutCalls;
+
+    private int maxInboundMessageSize;
+
+    private int maxOutboundMessageSize;
+
+    private int flowControlWindow;
+
+    private String compressorName;
+
+    private int compressionThreshold;
+
+    private Executor executor;
+
+    private boolean directExecutor;
+
+    private EventLoopGroup eventLoopGroup;
+
+    private Class<? extends io.netty.channel.Channel> channelType;
+
+    private Builder() {
+      super();
+      this.idleTimeout = Duration.ofSeconds(5L);
+      this.keepAliveTime = Duration.ofSeconds(30L);
+      this.maxInboundMessageSize = Tiller.MAX_MESSAGE_SIZE;
+    }
+
+    private Builder(final TillerChannelOptions options) {
+      super();
+      this.idleTimeout = options.idleTimeout;
+      this.keepAliveTime = options.keepAliveTime;
+      this.keepAliveTimeout = options.keepAliveTimeout;
+      this.keepAliveWithoutCalls = options.keepAliveWithoutCalls;
+      this.maxInboundMessageSize = options.maxInboundMessageSize;
+      this.maxOutboundMessageSize = options.maxOutboundMessageSize;
+      this.flowControlWindow = options.flowControlWindow;
+      this.compressorName = options.compressorName;
+      this.compressionThreshold = options.compressionThreshold;
+      this.executor = options.executor;
+      this.directExecutor = options.directExecutor;
+      this.eventLoopGroup = options.eventLoopGroup;
+      this.channelType = options.channelType;
+    }
+
+    /**
+     * Sets the length of time a channel may be idle before it enters
+     * idle mode and releases its connection.
+     *
+     * @param idleTimeout the idle timeout; must not be {@code null}
+     * and must be positive
+     *
+     * @return this {@link Builder}
+     *
+     * @exception NullPointerException if {@code idleTimeout} is
+     * {@code null}
+     *
+     * @exception IllegalArgumentException if {@code idleTimeout} is
+     * not positive
+     */
+    public final Builder idleTimeout(final Duration idleTimeout) {
+      this.idleTimeout = requirePositive(idleTimeout, "idleTimeout");
+      return this;
+    }
+
+    /**
+     * Configures keepalive pings.
+     *
+     * @param keepAliveTime the interval at which keepalive pings are
+     * sent; must not be {@code null} and must be positive
+     *
+     * @param keepAliveTimeout the length of time to wait for a ping
+     * to be acknowledged; may be {@code null} in which case gRPC's
+     * default applies
+     *
+     * @param keepAliveWithoutCalls whether pings are sent even when
+     * no calls are in flight
+     *
+     * @return this {@link Builder}
+     *
+     * @exception NullPointerException if {@code keepAliveTime} is
+     * {@code null}
+     *
+     * @exception IllegalArgumentException if {@code keepAliveTime},
+     * or a non-{@code null} {@code keepAliveTimeout}, is not positive
+     */
+    public final Builder keepAlive(final Duration keepAliveTime, final Duration keepAliveTimeout, final boolean keepAliveWithoutCalls) {
+      this.keepAliveTime = requirePositive(keepAliveTime, "keepAliveTime");
+      this.keepAliveTimeout = keepAliveTimeout == null ? null : requirePositive(keepAliveTimeout, "keepAliveTimeout");
+      this.keepAliveWithoutCalls = keepAliveWithoutCalls;
+      return this;
+    }
+
+    /**
+     * Sets the maximum sizes of messages received from and sent to
+     * Tiller.
+     *
+     * @param maxInboundMessageSize the maximum size, in bytes, of a
+     * received message; must be positive
+     *
+     * @param maxOutboundMessageSize the maximum size, in bytes, of a
+     * sent message, or {@code 0} for no limit; must not be negative
+     *
+     * @return this {@link Builder}
+     *
+     * @exception IllegalArgumentException if either parameter is out
+     * of range
+     */
+    public final Builder maxMessageSize(final int maxInboundMessageSize, final int maxOutboundMessageSize) {
+      if (maxInboundMessageSize <= 0) {
+        throw new IllegalArgumentException("maxInboundMessageSize <= 0: " + maxInboundMessageSize);
+      }
+      if (maxOutboundMessageSize < 0) {
+        throw new IllegalArgumentException("maxOutboundMessageSize < 0: " + maxOutboundMessageSize);
+      }
+      this.maxInboundMessageSize = maxInboundMessageSize;
+      this.maxOutboundMessageSize = maxOutboundMessageSize;
+      return this;
+    }
+
+    /**
+     * Sets the HTTP/2 flow control window.
+     *
+     * <p>Larger windows let large requests and responses, such as
+     * installations of big charts, be transferred in fewer round
+     * trips.</p>
+     *
+     * @param flowControlWindow the window size in bytes, or {@code 0}
+     * for gRPC's default; must not be negative
+     *
+     * @return this {@link Builder}
+     *
+     * @exception IllegalArgumentException if {@code
+     * flowControlWindow} is negative
+     */
+    public final Builder flowControlWindow(final int flowControlWindow) {
+      if (flowControlWindow < 0) {
+        throw new IllegalArgumentException("flowControlWindow < 0: " + flowControlWindow);
+      }
+      this.flowControlWindow = flowControlWindow;
+      return this;
+    }
+
+    /**
+     * Enables compression of requests whose serialized size is at
+     * least the supplied threshold.
+     *
+     * @param compressorName the name of a compressor registered with
+     * gRPC's {@link io.grpc.CompressorRegistry}, such as {@code gzip};
+     * may be {@code null} to disable compression
+     *
+     * @param compressionThreshold the serialized size, in bytes, at
+     * or above which requests are compressed; must not be negative
+     *
+     * @return this {@link Builder}
+     *
+     * @exception IllegalArgumentException if {@code
+     * compressionThreshold} is negative
+     */
+    public final Builder compression(final String compressorName, final int compressionThreshold) {
+      if (compressionThreshold < 0) {
+        throw new IllegalArgumentException("compressionThreshold < 0: " + compressionThreshold);
+      }
+      this.compressorName = compressorName;
+      this.compressionThreshold = compressionThreshold;
+      return this;
+    }
+
+    /**
+     * Sets the {@link Executor} on which application callbacks run.
+     *
+     * <p>Any {@link Executor} may be supplied, including one that
+     * starts a virtual thread per task on platforms that offer
+     * them.</p>
+     *
+     * @param executor the {@link Executor}; may be {@code null} in
+     * which case gRPC's default executor is used
+     *
+     * @return this {@link Builder}
+     *
+     * @see #directExecutor()
+     */
+    public final Builder executor(final Executor executor) {
+      this.executor = executor;
+      this.directExecutor = false;
+      return this;
+    }
+
+    /**
+     * Arranges for application callbacks to run directly on transport
+     * threads, which avoids a thread hop per callback but requires
+     * that callbacks never block.
+     *
+     * @return this {@link Builder}
+     *
+     * @see #executor(Executor)
+     */
+    public final Builder directExecutor() {
+      this.executor = null;
+      this.directExecutor = true;
+      return this;
+    }
+
+    /**
+     * Arranges for channels to share the supplied Netty {@link
+     * EventLoopGroup} and channel type instead of each using gRPC's
+     * default, which keeps thread counts flat when many channels are
+     * open at once.
+     *
+     * <p>The caller remains responsible for {@linkplain
+     * EventLoopGroup#shutdownGracefully() shutting down} the supplied
+     * {@link EventLoopGroup}.</p>
+     *
+     * @param eventLoopGroup the {@link EventLoopGroup}; may be {@code
+     * null} in which case gRPC's default is used and {@code
+     * channelType} is ignored
+     *
+     * @param channelType the Netty channel type compatible with
+     * {@code eventLoopGroup}, such as {@code
+     * io.netty.channel.socket.nio.NioSocketChannel}; must not be
+     * {@code null} if {@code eventLoopGroup} is not {@code null}
+     *
+     * @return this {@link Builder}
+     *
+     * @exception NullPointerException if {@code eventLoopGroup} is
+     * non-{@code null} and {@code channelType} is {@code null}
+     */
+    public final Builder eventLoopGroup(final EventLoopGroup eventLoopGroup, final Class<? extends io.netty.channel.Channel> channelType) {
+      if (eventLoopGroup == null) {
+        this.eventLoopGroup = null;
+        this.channelType = null;
+      } else {
+        this.eventLoopGroup = eventLoopGroup;
+        this.channelType = Objects.requireNonNull(channelType);
+      }
+      return this;
+    }
+
+    /**
+     * Returns a new {@link TillerChannelOptions} with the settings of
+     * this {@link Builder}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a new, non-{@code null} {@link TillerChannelOptions}
+     */
+    public final TillerChannelOptions build() {
+      return new TillerChannelOptions(this);
+    }
+
+    private static final Duration requirePositive(final Duration duration, final String name) {
+      Objects.requireNonNull(duration, name);
+      if (duration.isZero() || duration.isNegative()) {
+        throw new IllegalArgumentException(name + ": " + duration);
+      }
+      return duration;
+    }
+
+  }
+
+  /**
+   * A {@link ClientInterceptor} that applies per-call compression and
+   * message size settings, and compresses only those requests that
+   * are large enough to benefit.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class CallOptionsInterceptor implements ClientInterceptor {
+
+    private final String compressorName;
+
+    private final int compressionThreshold;
+
+    private final int maxOutboundMessageSize;
+
+    private CallOptionsInterceptor(final String compressorName, final int compressionThreshold, final int maxOutboundMessageSize) {
+      super();
+      this.compressorName = compressorName;
+      this.compressionThreshold = compressionThreshold;
+      this.maxOutboundMessageSize = maxOutboundMessageSize;
+    }
+
+    @Override
+    public final <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(final MethodDescriptor<ReqT, RespT> method,
+                                                                     CallOptions callOptions,
+                                                                     final Channel next) {
+      if (this.maxOutboundMessageSize > 0) {
+        callOptions = callOptions.withMaxOutboundMessageSize(this.maxOutboundMessageSize);
+      }
+      final ClientCall<ReqT, RespT> returnValue;
+      if (this.compressorName == null) {
+        returnValue = next.newCall(method, callOptions);
+      } else {
+        returnValue = new SimpleForwardingClientCall<ReqT, RespT>(next.newCall(method, callOptions.withCompression(this.compressorName))) {
+            @Override
+            public final void sendMessage(final ReqT message) {
+              this.setMessageCompression(getSerializedSize(message) >= compressionThreshold);
+              super.sendMessage(message);
+            }
+          };
+      }
+      return returnValue;
+    }
+
+  }
+
+}
@@ -0,0 +1,1316 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.util.function.Function;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.fabric8.kubernetes.api.model.ObjectMeta;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodCondition;
+import io.fabric8.kubernetes.api.model.PodList;
+import io.fabric8.kubernetes.api.model.PodStatus;
+
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.LocalPortForward;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ConnectivityState;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import org.microbean.development.annotation.Experimental;
+
+/**
+ * A {@link ManagedChannel} that maintains one {@link
+ * LocalPortForward} and one {@link ManagedChannel} per ready Tiller
+ * pod, keeps that set current by watching the Tiller pods, and
+ * spreads calls across them according to a {@link Balancing}
+ * policy.
+ *
+ * <p>Supply an instance of this class to the {@link
+ * Tiller#Tiller(ManagedChannel)} constructor so that the stubs
+ * returned by that {@link Tiller} distribute their calls across all
+ * Tiller replicas, such as those created when a {@link
+ * TillerInstaller} installs Tiller with more than one replica:</p>
+ *
+ * <blockquote><pre>try (final Tiller tiller = new Tiller(new TillerChannelPool(client))) {
+ *   // use tiller as usual
+ *}</pre></blockquote>
+ *
+ * <p>Calls that are in flight when a pod stops being ready are
+ * allowed to complete; new calls are no longer routed to it, and its
+ * {@link LocalPortForward} is closed once its {@link
+ * ManagedChannel} has terminated.  Port forwards to newly ready pods
+ * are established in the background, so pod events are never held
+ * up by a slow port forward.</p>
+ *
+ * <p>Every thirty seconds, and shortly after its pod watch ends
+ * abnormally, a {@link TillerChannelPool} {@linkplain #refresh()
+ * refreshes} itself in the background: it replaces port forwards
+ * that have broken while their pods stayed ready, catches up with
+ * the ready Tiller pods, and restarts its pod watch if need be.  An
+ * owner may also call {@link #refresh()} whenever it likes.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are safe for concurrent use by multiple
+ * threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see Tiller#Tiller(ManagedChannel)
+ */
+@Experimental
+public class TillerChannelPool extends ManagedChannel {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The number of milliseconds between checks for retired {@link
+   * ManagedChannel}s that have terminated and whose {@link
+   * LocalPortForward}s may therefore be closed.
+   */
+  private static final long REAPING_INTERVAL_MILLIS = 250L;
+
+  /**
+   * The number of milliseconds between background {@linkplain
+   * #refresh() refreshes}.
+   */
+  private static final long REFRESH_INTERVAL_MILLIS = 30000L;
+
+  /**
+   * The number of milliseconds to wait after a pod watch has ended
+   * abnormally and could not be restarted before trying again.
+   */
+  private static final long WATCH_RESTART_DELAY_MILLIS = 1000L;
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link KubernetesClient} used to watch Tiller pods and to
+   * forward ports to them.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final KubernetesClient client;
+
+  /**
+   * The namespace housing Tiller.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final String namespace;
+
+  /**
+   * The remote port on which Tiller listens.
+   */
+  private final int tillerPort;
+
+  /**
+   * The labels identifying Tiller pods.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Map<String, String> tillerLabels;
+
+  /**
+   * A {@link Function} that creates a {@link ManagedChannel} from a
+   * {@link LocalPortForward}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Function<? super LocalPortForward, ? extends ManagedChannel> channelBuilder;
+
+  /**
+   * The {@link Balancing} policy in effect.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Balancing balancing;
+
+  /**
+   * An immutable snapshot of the current {@link Member}s, read
+   * without locking when selecting a channel.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * <p>This field is only written while synchronized on {@code
+   * this}.</p>
+   */
+  private volatile List<Member> members;
+
+  /**
+   * The current {@link Member}s indexed by pod name.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private final Map<String, Member> membersByPodName;
+
+  /**
+   * {@link Member}s that are no longer receiving new calls but whose
+   * {@link LocalPortForward}s have not yet been closed because their
+   * {@link ManagedChannel}s may still be completing calls.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private final Collection<Member> retiredMembers;
+
+  /**
+   * The names of ready Tiller pods to which a {@link
+   * LocalPortForward} is being established in the background.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private final Set<String> pendingPodNames;
+
+  /**
+   * Whether a check for retired {@link Member}s that may be
+   * {@linkplain #reapRetiredMembers(boolean) reaped} is scheduled.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private boolean reaping;
+
+  /**
+   * The most recent failure to forward a port to, or to build a
+   * {@link ManagedChannel} for, a Tiller pod.
+   *
+   * <p>This field may be {@code null}.</p>
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private RuntimeException connectionFailure;
+
+  /**
+   * The {@link Watch} keeping the set of {@link Member}s current.
+   *
+   * <p>This field may be {@code null}.</p>
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private Watch watch;
+
+  /**
+   * Whether this {@link TillerChannelPool} has been {@linkplain
+   * #shutdown() shut down}.
+   */
+  private volatile boolean shutdown;
+
+  /**
+   * A counter used to rotate through {@link Member}s.
+   */
+  private final AtomicInteger counter;
+
+  /**
+   * The periodic background {@linkplain #refresh() refresh}.
+   *
+   * <p>This field may be {@code null}.</p>
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private ScheduledFuture<?> refreshing;
+
+  /**
+   * The {@link Logger} to which failed background {@linkplain
+   * #refresh() refreshes} and watch restarts are logged.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Logger logger;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link TillerChannelPool} that will connect to
+   * every ready pod labeled with {@link Tiller#DEFAULT_LABELS} in the
+   * {@link Tiller#DEFAULT_NAMESPACE} namespace, and that will route
+   * each call to the pod with the {@linkplain
+   * Balancing#LEAST_OUTSTANDING_REQUESTS fewest outstanding calls}.
+   *
+   * @param client the {@link KubernetesClient} to use; must not be
+   * {@code null}; a reference to it is retained and used for the
+   * lifetime of this {@link TillerChannelPool}
+   *
+   * @exception NullPointerException if {@code client} is {@code
+   * null}
+   *
+   * @exception KubernetesClientException if there was a problem
+   * connecting to Kubernetes
+   *
+   * @exception TillerException if no ready Tiller pod could be found
+   *
+   * @see #TillerChannelPool(KubernetesClient, String, int, Map,
+   * Function, Balancing)
+   */
+  public TillerChannelPool(final KubernetesClient client) {
+    this(client, null, -1, null, null, null);
+  }
+
+  /**
+   * Creates a new {@link TillerChannelPool}.
+   *
+   * @param client the {@link KubernetesClient} to use; must not be
+   * {@code null}; a reference to it is retained and used for the
+   * lifetime of this {@link TillerChannelPool}
+   *
+   * @param namespaceHousingTiller the namespace within which Tiller
+   * pods are running; if {@code null}, then the value of {@link
+   * Tiller#DEFAULT_NAMESPACE} will be used instead
+   *
+   * @param tillerPort the remote port to forward local ports to;
+   * normally {@code 44134}; if less than or equal to {@code 0}, then
+   * the value of {@link Tiller#DEFAULT_PORT} will be used instead
+   *
+   * @param tillerLabels a {@link Map} representing the Kubernetes
+   * labels (and their values) identifying pods housing Tiller
+   * instances; if {@code null} then the value of {@link
+   * Tiller#DEFAULT_LABELS} will be used instead
+   *
+   * @param channelBuilder a {@link Function} capable of accepting a
+   * {@link LocalPortForward} and returning a new {@link
+   * ManagedChannel}; if {@code null} then channels will be built the
+   * same way as by {@link Tiller#buildChannel(LocalPortForward)}
+   *
+   * @param balancing the {@link Balancing} policy to use; if {@code
+   * null} then {@link Balancing#LEAST_OUTSTANDING_REQUESTS} will be
+   * used instead
+   *
+   * @exception NullPointerException if {@code client} is {@code
+   * null}
+   *
+   * @exception KubernetesClientException if there was a problem
+   * connecting to Kubernetes
+   *
+   * @exception TillerException if no ready Tiller pod could be found
+   */
+  public TillerChannelPool(final KubernetesClient client,
+                           final String namespaceHousingTiller,
+                           final int tillerPort,
+                           final Map<String, String> tillerLabels,
+                           final Function<? super LocalPortForward, ? extends ManagedChannel> channelBuilder,
+                           final Balancing balancing) {
+    super();
+    this.client = Objects.requireNonNull(client);
+    if (namespaceHousingTiller == null || namespaceHousingTiller.isEmpty()) {
+      this.namespace = Tiller.DEFAULT_NAMESPACE;
+    } else {
+      this.namespace = namespaceHousingTiller;
+    }
+    if (tillerPort <= 0) {
+      this.tillerPort = Tiller.DEFAULT_PORT;
+    } else {
+      this.tillerPort = tillerPort;
+    }
+    if (tillerLabels == null) {
+      this.tillerLabels = Tiller.DEFAULT_LABELS;
+    } else {
+      this.tillerLabels = Collections.unmodifiableMap(new HashMap<>(tillerLabels));
+    }
+    if (channelBuilder == null) {
+      this.channelBuilder = Tiller::buildDefaultChannel;
+    } else {
+      this.channelBuilder = channelBuilder;
+    }
+    if (balancing == null) {
+      this.balancing = Balancing.LEAST_OUTSTANDING_REQUESTS;
+    } else {
+      this.balancing = balancing;
+    }
+    this.members = Collections.emptyList();
+    this.membersByPodName = new HashMap<>();
+    this.retiredMembers = new ArrayList<>();
+    this.pendingPodNames = new HashSet<>();
+    this.counter = new AtomicInteger();
+    this.logger = Logger.getLogger(this.getClass().getName());
+    assert this.logger != null;
+    synchronized (this) {
+      this.resynchronize();
+      // Wait until at least one port forward has been established,
+      // or until they have all failed.
+      boolean interrupted = false;
+      while (this.membersByPodName.isEmpty() && !this.pendingPodNames.isEmpty()) {
+        try {
+          this.wait();
+        } catch (final InterruptedException interruptedException) {
+          interrupted = true;
+          break;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (this.membersByPodName.isEmpty()) {
+        this.shutdown = true;
+        this.closeAll(false);
+        throw new TillerException("Could not forward port to any Ready Tiller pod's port " + this.tillerPort + " in namespace " + this.namespace + " with labels " + this.tillerLabels, this.connectionFailure);
+      }
+      this.watch = this.startWatch();
+      try {
+        this.refreshing = Background.SCHEDULER.scheduleWithFixedDelay(() -> this.refreshInBackground(),
+                                                                      REFRESH_INTERVAL_MILLIS,
+                                                                      REFRESH_INTERVAL_MILLIS,
+                                                                      TimeUnit.MILLISECONDS);
+      } catch (final RejectedExecutionException rejectedExecutionException) {
+        this.refreshing = null;
+      }
+    }
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the {@link Balancing} policy in effect.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the non-{@code null} {@link Balancing} policy in effect
+   */
+  public final Balancing getBalancing() {
+    return this.balancing;
+  }
+
+  /**
+   * Returns the number of Tiller pods to which calls are currently
+   * being routed.
+   *
+   * @return the number of Tiller pods to which calls are currently
+   * being routed; never less than {@code 0}
+   */
+  public final int size() {
+    return this.members.size();
+  }
+
+  /**
+   * Returns an immutable {@link Set} of the names of the Tiller pods
+   * to which calls are currently being routed.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, immutable {@link Set} of pod names
+   */
+  public final Set<String> getPodNames() {
+    final Set<String> returnValue = new HashSet<>();
+    for (final Member member : this.members) {
+      returnValue.add(member.podName);
+    }
+    return Collections.unmodifiableSet(returnValue);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This implementation selects a Tiller pod according to this
+   * {@link TillerChannelPool}'s {@linkplain #getBalancing()
+   * <code>Balancing</code> policy} and returns a {@link ClientCall}
+   * from its {@link ManagedChannel}.  If there are no ready Tiller
+   * pods, the returned {@link ClientCall} fails with {@link
+   * Status#UNAVAILABLE}.</p>
+   */
+  @Override
+  public <RequestT, ResponseT> ClientCall<RequestT, ResponseT> newCall(final MethodDescriptor<RequestT, ResponseT> methodDescriptor, final CallOptions callOptions) {
+    final ClientCall<RequestT, ResponseT> returnValue;
+    final Member member = this.shutdown ? null : this.select();
+    if (member == null) {
+      final Status status;
+      if (this.shutdown) {
+        status = Status.UNAVAILABLE.withDescription("TillerChannelPool has been shut down");
+      } else {
+        status = Status.UNAVAILABLE.withDescription("No Ready Tiller pods in namespace " + this.namespace + " with labels " + this.tillerLabels);
+      }
+      returnValue = new FailingClientCall<>(status);
+    } else {
+      returnValue = new CountingClientCall<>(member.channel.newCall(methodDescriptor, callOptions), member.outstandingCalls);
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the {@link Member} that should receive the next call, or
+   * {@code null} if there are no {@link Member}s.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return a {@link Member}, or {@code null}
+   */
+  private final Member select() {
+    final List<Member> members = this.members;
+    final int size = members.size();
+    final Member returnValue;
+    if (size <= 0) {
+      returnValue = null;
+    } else if (size == 1) {
+      returnValue = members.get(0);
+    } else {
+      final int start = (this.counter.getAndIncrement() & Integer.MAX_VALUE) % size;
+      switch (this.balancing) {
+      case ROUND_ROBIN:
+        returnValue = members.get(start);
+        break;
+      case LEAST_OUTSTANDING_REQUESTS:
+        // Start at a rotating position so that ties are spread
+        // evenly rather than always favoring the first pod.
+        Member candidate = members.get(start);
+        int fewest = candidate.outstandingCalls.get();
+        for (int i = 1; i < size && fewest > 0; i++) {
+          final Member member = members.get((start + i) % size);
+          final int outstanding = member.outstandingCalls.get();
+          if (outstanding < fewest) {
+            candidate = member;
+            fewest = outstanding;
+          }
+        }
+        returnValue = candidate;
+        break;
+      default:
+        throw new IllegalStateException("Unexpected balancing: " + this.balancing);
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the authority of the {@link ManagedChannel} of the first
+   * current Tiller pod, or {@code "tiller"} if there is none.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} authority
+   */
+  @Override
+  public String authority() {
+    final List<Member> members = this.members;
+    final String returnValue;
+    if (members.isEmpty()) {
+      returnValue = "tiller";
+    } else {
+      returnValue = members.get(0).channel.authority();
+    }
+    return returnValue;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This implementation aggregates the states of the per-pod
+   * {@link ManagedChannel}s: it returns {@link
+   * ConnectivityState#READY} if any of them is ready, {@link
+   * ConnectivityState#CONNECTING} if any of them is connecting,
+   * {@link ConnectivityState#IDLE} if any of them is idle, and {@link
+   * ConnectivityState#TRANSIENT_FAILURE} otherwise, including when
+   * there are no ready Tiller pods.  If {@code requestConnection} is
+   * {@code true}, every idle per-pod {@link ManagedChannel} is asked
+   * to connect.</p>
+   */
+  @Override
+  public ConnectivityState getState(final boolean requestConnection) {
+    ConnectivityState returnValue = ConnectivityState.TRANSIENT_FAILURE;
+    if (this.shutdown) {
+      returnValue = ConnectivityState.SHUTDOWN;
+    } else {
+      boolean connecting = false;
+      boolean idle = false;
+      for (final Member member : this.members) {
+        final ConnectivityState state = getState(member.channel, requestConnection);
+        if (state != null) {
+          switch (state) {
+          case READY:
+            returnValue = ConnectivityState.READY;
+            break;
+          case CONNECTING:
+            connecting = true;
+            break;
+          case IDLE:
+            idle = true;
+            break;
+          default:
+            break;
+          }
+        }
+      }
+      if (returnValue != ConnectivityState.READY) {
+        if (connecting) {
+          returnValue = ConnectivityState.CONNECTING;
+        } else if (idle) {
+          returnValue = ConnectivityState.IDLE;
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Replaces every {@link Member} whose {@link ManagedChannel} is in
+   * {@link ConnectivityState#TRANSIENT_FAILURE} with a fresh {@link
+   * LocalPortForward} and {@link ManagedChannel}, catches up with the
+   * current set of ready Tiller pods, and restarts the {@link Watch}
+   * if it ended and could not be restarted earlier.
+   *
+   * <p>A port forward can break while its pod lives on, in which
+   * case no pod event arrives to replace it.  A {@link
+   * TillerChannelPool} calls this method itself every thirty seconds,
+   * and shortly after its pod watch fails to restart; owners such as
+   * a {@link TillerConnectionManager} may call it more often.</p>
+   *
+   * @exception KubernetesClientException if there was a problem
+   * connecting to Kubernetes
+   */
+  public final void refresh() {
+    synchronized (this) {
+      if (!this.shutdown) {
+        for (final Member member : new ArrayList<>(this.membersByPodName.values())) {
+          if (getState(member.channel, false) == ConnectivityState.TRANSIENT_FAILURE) {
+            this.remove(member.podName);
+          }
+        }
+        this.resynchronize();
+        if (this.watch == null) {
+          this.watch = this.startWatch();
+        }
+        this.reapRetiredMembers(false);
+      }
+    }
+  }
+
+  /**
+   * {@linkplain #refresh() Refreshes} this {@link TillerChannelPool}
+   * on a background thread, logging any failure.
+   */
+  private final void refreshInBackground() {
+    if (!this.shutdown) {
+      try {
+        Background.EXECUTOR.execute(() -> {
+            try {
+              this.refresh();
+            } catch (final RuntimeException runtimeException) {
+              // Kubernetes may be unreachable for now; the next
+              // refresh will try again.
+              if (this.logger.isLoggable(Level.WARNING)) {
+                this.logger.log(Level.WARNING, "Could not refresh Tiller pods in namespace " + this.namespace + " with labels " + this.tillerLabels, runtimeException);
+              }
+            }
+          });
+      } catch (final RejectedExecutionException rejectedExecutionException) {
+        // Shutting down.
+      }
+    }
+  }
+
+  /**
+   * Lists the Tiller pods and brings the set of {@link Member}s in
+   * line with the ready ones.
+   *
+   * <p>This method must be called while synchronized on {@code
+   * this}.</p>
+   *
+   * @exception KubernetesClientException if there was a problem
+   * connecting to Kubernetes
+   */
+  private final void resynchronize() {
+    assert Thread.holdsLock(this);
+    final PodList podList = this.client.pods().inNamespace(this.namespace).withLabels(this.tillerLabels).list();
+    final Set<String> readyPodNames = new HashSet<>();
+    if (podList != null) {
+      final Collection<? extends Pod> pods = podList.getItems();
+      if (pods != null) {
+        for (final Pod pod : pods) {
+          if (isReady(pod)) {
+            final String podName = getName(pod);
+            if (podName != null) {
+              readyPodNames.add(podName);
+              this.add(podName);
+            }
+          }
+        }
+      }
+    }
+    final Collection<String> staleNames = new ArrayList<>(this.membersByPodName.keySet());
+    staleNames.removeAll(readyPodNames);
+    for (final String podName : staleNames) {
+      this.remove(podName);
+    }
+  }
+
+  /**
+   * Starts a {@link Watch} on the Tiller pods that keeps the set of
+   * {@link Member}s current and returns it.
+   *
+   * <p>This method must be called while synchronized on {@code
+   * this}.</p>
+   *
+   * @return a non-{@code null} {@link Watch}
+   *
+   * @exception KubernetesClientException if there was a problem
+   * connecting to Kubernetes
+   */
+  private final Watch startWatch() {
+    assert Thread.holdsLock(this);
+    return this.client.pods().inNamespace(this.namespace).withLabels(this.tillerLabels).watch(new Watcher<Pod>() {
+        @Override
+        public final void eventReceived(final Watcher.Action action, final Pod pod) {
+          final String podName = getName(pod);
+          if (action != null && podName != null) {
+            synchronized (TillerChannelPool.this) {
+              if (!shutdown) {
+                switch (action) {
+                case ADDED:
+                case MODIFIED:
+                  if (isReady(pod)) {
+                    add(podName);
+                  } else {
+                    remove(podName);
+                  }
+                  break;
+                case DELETED:
+                  remove(podName);
+                  break;
+                default:
+                  break;
+                }
+                reapRetiredMembers(false);
+              }
+            }
+          }
+        }
+
+        @Override
+        public final void onClose(final KubernetesClientException cause) {
+          if (cause != null) {
+            // The watch ended abnormally (for example, because its
+            // resource version became too old); catch up and watch
+            // again.
+            synchronized (TillerChannelPool.this) {
+              if (!shutdown) {
+                try {
+                  resynchronize();
+                  watch = startWatch();
+                } catch (final RuntimeException runtimeException) {
+                  watch = null;
+                  if (logger.isLoggable(Level.WARNING)) {
+                    logger.log(Level.WARNING, "Could not restart the watch on Tiller pods in namespace " + namespace + " with labels " + tillerLabels + "; retrying in the background", runtimeException);
+                  }
+                  try {
+                    Background.SCHEDULER.schedule(() -> refreshInBackground(), WATCH_RESTART_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                  } catch (final RejectedExecutionException rejectedExecutionException) {
+                    // Shutting down.
+                  }
+                }
+              }
+            }
+          }
+        }
+      });
+  }
+
+  /**
+   * Arranges for a local port to be forwarded, in the background, to
+   * the Tiller pod with the supplied name, unless there is already a
+   * {@link Member} for that pod or such an arrangement is already
+   * pending.
+   *
+   * <p>This method must be called while synchronized on {@code
+   * this}.</p>
+   *
+   * @param podName the name of a ready Tiller pod; must not be {@code
+   * null}
+   *
+   * @see #connect(String)
+   */
+  private final void add(final String podName) {
+    assert Thread.holdsLock(this);
+    Objects.requireNonNull(podName);
+    if (!this.membersByPodName.containsKey(podName) && this.pendingPodNames.add(podName)) {
+      try {
+        Background.EXECUTOR.execute(() -> this.connect(podName));
+      } catch (final RejectedExecutionException rejectedExecutionException) {
+        this.pendingPodNames.remove(podName);
+      }
+    }
+  }
+
+  /**
+   * Forwards a local port to the Tiller pod with the supplied name,
+   * creates a {@link ManagedChannel} for it, and, if the pod is still
+   * {@linkplain #add(String) wanted}, adds the result to the set of
+   * {@link Member}s.
+   *
+   * <p>This method must not be called while synchronized on {@code
+   * this}, because forwarding a port may block.</p>
+   *
+   * @param podName the name of a ready Tiller pod; must not be {@code
+   * null}
+   */
+  private final void connect(final String podName) {
+    assert !Thread.holdsLock(this);
+    Objects.requireNonNull(podName);
+    LocalPortForward portForward = null;
+    ManagedChannel channel = null;
+    RuntimeException failure = null;
+    try {
+      portForward = this.client.pods().inNamespace(this.namespace).withName(podName).portForward(this.tillerPort);
+      if (portForward != null) {
+        channel = this.channelBuilder.apply(portForward);
+        if (channel == null) {
+          throw new IllegalStateException("channelBuilder.apply(portForward) == null");
+        }
+      }
+    } catch (final RuntimeException runtimeException) {
+      // The pod may have gone away already, in which case a later
+      // event will tell us.
+      failure = runtimeException;
+    }
+    synchronized (this) {
+      if (failure != null) {
+        this.connectionFailure = failure;
+      }
+      if (this.pendingPodNames.remove(podName) && !this.shutdown && channel != null) {
+        this.membersByPodName.put(podName, new Member(podName, portForward, channel));
+        this.publishMembers();
+        channel = null;
+        portForward = null;
+      }
+      this.notifyAll();
+    }
+    // Anything left over was either not established or is no longer
+    // wanted.
+    if (channel != null) {
+      channel.shutdownNow();
+    }
+    closeQuietly(portForward);
+  }
+
+  /**
+   * Stops routing new calls to the Tiller pod with the supplied name,
+   * {@linkplain ManagedChannel#shutdown() shuts down} its {@link
+   * ManagedChannel}, and {@linkplain #scheduleReaping() arranges} for
+   * its {@link LocalPortForward} to be closed once that {@link
+   * ManagedChannel} has terminated.
+   *
+   * <p>This method must be called while synchronized on {@code
+   * this}.</p>
+   *
+   * @param podName the name of a Tiller pod; must not be {@code null}
+   */
+  private final void remove(final String podName) {
+    assert Thread.holdsLock(this);
+    Objects.requireNonNull(podName);
+    this.pendingPodNames.remove(podName);
+    final Member member = this.membersByPodName.remove(podName);
+    if (member != null) {
+      this.publishMembers();
+      member.channel.shutdown();
+      this.retiredMembers.add(member);
+      this.scheduleReaping();
+    }
+  }
+
+  /**
+   * Replaces the {@link #members} snapshot.
+   *
+   * <p>This method must be called while synchronized on {@code
+   * this}.</p>
+   */
+  private final void publishMembers() {
+    assert Thread.holdsLock(this);
+    this.members = Collections.unmodifiableList(new ArrayList<>(this.membersByPodName.values()));
+  }
+
+  /**
+   * Closes the {@link LocalPortForward}s of retired {@link Member}s
+   * whose {@link ManagedChannel}s have terminated, or of all retired
+   * {@link Member}s if {@code force} is {@code true}.
+   *
+   * <p>This method must be called while synchronized on {@code
+   * this}.</p>
+   *
+   * @param force whether to close {@link LocalPortForward}s whether
+   * or not their {@link ManagedChannel}s have terminated
+   */
+  private final void reapRetiredMembers(final boolean force) {
+    assert Thread.holdsLock(this);
+    boolean reaped = false;
+    final Iterator<Member> iterator = this.retiredMembers.iterator();
+    while (iterator.hasNext()) {
+      final Member member = iterator.next();
+      if (force || member.channel.isTerminated()) {
+        if (force) {
+          member.channel.shutdownNow();
+        }
+        closeQuietly(member.portForward);
+        iterator.remove();
+        reaped = true;
+      }
+    }
+    if (reaped) {
+      this.notifyAll();
+    }
+  }
+
+  /**
+   * Schedules a {@linkplain #reap() check} for retired {@link
+   * Member}s whose {@link ManagedChannel}s have terminated, unless one
+   * is already scheduled or there are no retired {@link Member}s.
+   *
+   * <p>This method must be called while synchronized on {@code
+   * this}.</p>
+   */
+  private final void scheduleReaping() {
+    assert Thread.holdsLock(this);
+    if (!this.reaping && !this.retiredMembers.isEmpty()) {
+      try {
+        Background.SCHEDULER.schedule(this::reap, REAPING_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        this.reaping = true;
+      } catch (final RejectedExecutionException rejectedExecutionException) {
+        this.reaping = false;
+      }
+    }
+  }
+
+  /**
+   * {@linkplain #reapRetiredMembers(boolean) Reaps} retired {@link
+   * Member}s whose {@link ManagedChannel}s have terminated and, if
+   * any remain, {@linkplain #scheduleReaping() schedules} another
+   * check.
+   */
+  private final void reap() {
+    synchronized (this) {
+      this.reaping = false;
+      this.reapRetiredMembers(false);
+      this.scheduleReaping();
+    }
+  }
+
+  /**
+   * Closes the {@link Watch}, if any, and retires every {@link
+   * Member}.
+   *
+   * <p>This method must be called while synchronized on {@code
+   * this}.</p>
+   *
+   * @param now whether {@link ManagedChannel}s should be {@linkplain
+   * ManagedChannel#shutdownNow() shut down immediately}
+   */
+  private final void closeAll(final boolean now) {
+    assert Thread.holdsLock(this);
+    if (this.refreshing != null) {
+      this.refreshing.cancel(false);
+      this.refreshing = null;
+    }
+    if (this.watch != null) {
+      this.watch.close();
+      this.watch = null;
+    }
+    for (final String podName : new ArrayList<>(this.membersByPodName.keySet())) {
+      this.remove(podName);
+    }
+    this.reapRetiredMembers(now);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This implementation stops watching Tiller pods and {@linkplain
+   * ManagedChannel#shutdown() shuts down} every per-pod {@link
+   * ManagedChannel}; calls already in flight are allowed to complete,
+   * and each per-pod {@link LocalPortForward} is closed as soon as its
+   * {@link ManagedChannel} has terminated.</p>
+   */
+  @Override
+  public ManagedChannel shutdown() {
+    synchronized (this) {
+      this.shutdown = true;
+      this.closeAll(false);
+    }
+    return this;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This implementation stops watching Tiller pods, {@linkplain
+   * ManagedChannel#shutdownNow() shuts down} every per-pod {@link
+   * ManagedChannel} immediately, and closes every {@link
+   * LocalPortForward}.</p>
+   */
+  @Override
+  public ManagedChannel shutdownNow() {
+    synchronized (this) {
+      this.shutdown = true;
+      this.closeAll(true);
+    }
+    return this;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isShutdown() {
+    return this.shutdown;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This implementation returns {@code true} once this {@link
+   * TillerChannelPool} has been {@linkplain #shutdown() shut down},
+   * every per-pod {@link ManagedChannel} has terminated and every
+   * per-pod {@link LocalPortForward} has been closed.</p>
+   */
+  @Override
+  public boolean isTerminated() {
+    boolean returnValue = false;
+    if (this.shutdown) {
+      synchronized (this) {
+        this.reapRetiredMembers(false);
+        returnValue = this.retiredMembers.isEmpty() && this.pendingPodNames.isEmpty();
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+    Objects.requireNonNull(unit);
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    synchronized (this) {
+      while (!this.isTerminated()) {
+        final long remaining = deadline - System.nanoTime();
+        if (remaining <= 0L) {
+          return false;
+        }
+        // Woken as retired Members are reaped.
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+    }
+    return true;
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  private static final String getName(final Pod pod) {
+    String returnValue = null;
+    if (pod != null) {
+      final ObjectMeta metadata = pod.getMetadata();
+      if (metadata != null) {
+        returnValue = metadata.getName();
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Pod} is not being
+   * deleted and has a {@code Ready} condition whose status is {@code
+   * True}.
+   *
+   * @param pod the {@link Pod} to test; may be {@code null} in which
+   * case {@code false} will be returned
+   *
+   * @return {@code true} if the supplied {@link Pod} is ready
+   */
+  private static final boolean isReady(final Pod pod) {
+    boolean returnValue = false;
+    if (pod != null) {
+      final ObjectMeta metadata = pod.getMetadata();
+      final PodStatus status = pod.getStatus();
+      if (status != null && (metadata == null || metadata.getDeletionTimestamp() == null)) {
+        final Collection<? extends PodCondition> conditions = status.getConditions();
+        if (conditions != null) {
+          for (final PodCondition condition : conditions) {
+            if (condition != null && "Ready".equals(condition.getType())) {
+              returnValue = "True".equals(condition.getStatus());
+              break;
+            }
+          }
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the {@link ConnectivityState} of the supplied {@link
+   * ManagedChannel}, or {@code null} if it does not support reporting
+   * one.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param channel the {@link ManagedChannel} to interrogate; must
+   * not be {@code null}
+   *
+   * @param requestConnection whether an idle {@link ManagedChannel}
+   * should be asked to connect
+   *
+   * @return a {@link ConnectivityState}, or {@code null}
+   */
+  private static final ConnectivityState getState(final ManagedChannel channel, final boolean requestConnection) {
+    ConnectivityState returnValue = null;
+    try {
+      returnValue = channel.getState(requestConnection);
+    } catch (final UnsupportedOperationException unsupportedOperationException) {
+      returnValue = null;
+    }
+    return returnValue;
+  }
+
+  private static final void closeQuietly(final LocalPortForward portForward) {
+    if (portForward != null) {
+      try {
+        portForward.close();
+      } catch (final IOException ignore) {
+
+      }
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * Holds the {@link ExecutorService} that forwards ports to Tiller
+   * pods and refreshes {@link TillerChannelPool}s, and the {@link
+   * ScheduledExecutorService} that closes the port forwards of
+   * retired pods and schedules refreshes, so that their threads are
+   * only created if a {@link TillerChannelPool} is used.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Background {
+
+    private static final ExecutorService EXECUTOR =
+      Executors.unconfigurableExecutorService(Executors.newCachedThreadPool(new DefaultThreadFactory("tiller-channel-pool", true)));
+
+    private static final ScheduledExecutorService SCHEDULER = createScheduler();
+
+    private Background() {
+      super();
+    }
+
+    private static final ScheduledExecutorService createScheduler() {
+      final ScheduledThreadPoolExecutor returnValue = new ScheduledThreadPoolExecutor(1, new DefaultThreadFactory("tiller-channel-pool-reaper", true));
+      returnValue.setRemoveOnCancelPolicy(true);
+      return Executors.unconfigurableScheduledExecutorService(returnValue);
+    }
+
+  }
+
+  /**
+   * A policy governing how a {@link TillerChannelPool} chooses the
+   * Tiller pod that will receive a call.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  public static enum Balancing {
+
+    /**
+     * Calls are routed to each Tiller pod in turn.
+     */
+    ROUND_ROBIN,
+
+    /**
+     * Calls are routed to the Tiller pod with the fewest calls in
+     * flight.
+     */
+    LEAST_OUTSTANDING_REQUESTS
+
+  }
+
+  /**
+   * A Tiller pod to which calls may be routed, together with the
+   * {@link LocalPortForward} and {@link ManagedChannel} used to reach
+   * it and the number of calls currently in flight to it.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Member {
+
+    private final String podName;
+
+    private final LocalPortForward portForward;
+
+    private final ManagedChannel channel;
+
+    private final AtomicInteger outstandingCalls;
+
+    private Member(final String podName, final LocalPortForward portForward, final ManagedChannel channel) {
+      super();
+      this.podName = Objects.requireNonNull(podName);
+      this.portForward = Objects.requireNonNull(portForward);
+      this.channel = Objects.requireNonNull(channel);
+      this.outstandingCalls = new AtomicInteger();
+    }
+
+  }
+
+  /**
+   * A {@link ClientCall} that keeps an {@link AtomicInteger} current
+   * with the number of calls that have started but not yet closed.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class CountingClientCall<RequestT, ResponseT> extends SimpleForwardingClientCall<RequestT, ResponseT> {
+
+    private final AtomicInteger outstandingCalls;
+
+    private CountingClientCall(final ClientCall<RequestT, ResponseT> delegate, final AtomicInteger outstandingCalls) {
+      super(delegate);
+      this.outstandingCalls = Objects.requireNonNull(outstandingCalls);
+    }
+
+    @Override
+    public final void start(final ClientCall.Listener<ResponseT> listener, final Metadata headers) {
+      final AtomicBoolean closed = new AtomicBoolean();
+      this.outstandingCalls.incrementAndGet();
+      try {
+        super.start(new SimpleForwardingClientCallListener<ResponseT>(listener) {
+            @Override
+            public final void onClose(final Status status, final Metadata trailers) {
+              if (closed.compareAndSet(false, true)) {
+                outstandingCalls.decrementAndGet();
+              }
+              super.onClose(status, trailers);
+            }
+          }, headers);
+      } catch (final RuntimeException | Error throwable) {
+        if (closed.compareAndSet(false, true)) {
+          this.outstandingCalls.decrementAndGet();
+        }
+        throw throwable;
+      }
+    }
+
+  }
+
+  /**
+   * A {@link ClientCall} that fails with a given {@link Status} as
+   * soon as it is started.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class FailingClientCall<RequestT, ResponseT> extends ClientCall<RequestT, ResponseT> {
+
+    private final Status status;
+
+    private FailingClientCall(final Status status) {
+      super();
+      this.status = Objects.requireNonNull(status);
+    }
+
+    @Override
+    public final void start(final ClientCall.Listener<ResponseT> listener, final Metadata headers) {
+      listener.onClose(this.status, new Metadata());
+    }
+
+    @Override
+    public final void request(final int numMessages) {
+
+    }
+
+    @Override
+    public final void cancel(final String message, final Throwable cause) {
+
+    }
+
+    @Override
+    public final void halfClose() {
+
+    }
+
+    @Override
+    public final void sendMessage(final RequestT message) {
+
+    }
+
+  }
+
+}
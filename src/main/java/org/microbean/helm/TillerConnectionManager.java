@@ -0,0 +1,658 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.time.Duration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import java.util.function.Function;
+
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.LocalPortForward;
+
+import io.grpc.ManagedChannel;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import org.microbean.development.annotation.Experimental;
+
+/**
+ * A manager of reference-counted connections to Tiller that shares
+ * one {@link TillerChannelPool}, and therefore one {@link
+ * LocalPortForward} per ready Tiller pod, among all {@link Tiller}
+ * instances that talk to the same Tiller.
+ *
+ * <p>Connections are identified by the {@link KubernetesClient}
+ * instance in use, the namespace housing Tiller, Tiller's port and
+ * the labels identifying Tiller pods.  The {@link KubernetesClient}
+ * is compared by identity, not by master URL: it carries the
+ * credentials with which ports are forwarded, so acquisitions that
+ * supply different {@link KubernetesClient}s never share a
+ * connection, even if they talk to the same cluster, and no caller
+ * rides on another's identity.  To share connections, share the
+ * {@link KubernetesClient}.  The first {@linkplain
+ * #acquire(KubernetesClient, String, int, Map) acquisition} of a
+ * connection forwards ports to the Tiller pods and asks the
+ * resulting channels to connect, so that the first call does not pay
+ * for connection establishment.  Each acquisition returns a new
+ * {@link Tiller} that must be {@linkplain Tiller#close() closed} when
+ * it is no longer needed; closing it releases its reference rather
+ * than tearing down the shared connection.  A connection whose last
+ * reference has been released is kept for the {@linkplain
+ * #getLinger() linger} period so that short-lived users in quick
+ * succession reuse it, and is then closed.</p>
+ *
+ * <p>Because each connection is a {@link TillerChannelPool}, a
+ * Tiller pod that goes away is replaced by whichever Tiller pod
+ * becomes ready next.  In addition, every connection is {@linkplain
+ * #getHealthCheckInterval() periodically checked}, and port forwards
+ * whose channels have failed are re-established.  A long-running
+ * service therefore holds a fixed number of port forwards no matter
+ * how many {@link Tiller} instances it creates.</p>
+ *
+ * <p>A {@link KubernetesClient} supplied to an acquisition is used
+ * by the resulting connection for its lifetime and must remain open
+ * until every {@link Tiller} acquired with it has been {@linkplain
+ * Tiller#close() closed} and its {@linkplain #getLinger() linger}
+ * period has elapsed, or until this {@link TillerConnectionManager}
+ * is {@linkplain #close() closed}.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are safe for concurrent use by multiple
+ * threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see TillerChannelPool
+ */
+@Experimental
+public class TillerConnectionManager implements Closeable {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * A {@link Function} that creates a {@link ManagedChannel} from a
+   * {@link LocalPortForward}.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private final Function<? super LocalPortForward, ? extends ManagedChannel> channelBuilder;
+
+  /**
+   * The length of time a connection is kept after its last reference
+   * has been released.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Duration linger;
+
+  /**
+   * The interval at which connections are checked for failed port
+   * forwards.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private final Duration healthCheckInterval;
+
+  /**
+   * The {@link ScheduledExecutorService} that closes lingering
+   * connections and checks the health of open ones.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * The connections known to this {@link TillerConnectionManager}.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private final Map<Key, Connection> connections;
+
+  /**
+   * Whether this {@link TillerConnectionManager} has been
+   * {@linkplain #close() closed}.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private boolean closed;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link TillerConnectionManager} that builds
+   * channels the same way as {@link
+   * Tiller#buildChannel(LocalPortForward)}, keeps unreferenced
+   * connections for thirty seconds and checks connections every ten
+   * seconds.
+   *
+   * @see #TillerConnectionManager(Function, Duration, Duration)
+   */
+  public TillerConnectionManager() {
+    this(null, Duration.ofSeconds(30L), Duration.ofSeconds(10L));
+  }
+
+  /**
+   * Creates a new {@link TillerConnectionManager}.
+   *
+   * @param channelBuilder a {@link Function} capable of accepting a
+   * {@link LocalPortForward} and returning a new {@link
+   * ManagedChannel}, such as a {@link TillerChannelOptions}; may be
+   * {@code null} in which case channels will be built the same way as
+   * by {@link Tiller#buildChannel(LocalPortForward)}
+   *
+   * @param linger the length of time a connection is kept after its
+   * last reference has been released; may be {@code null} in which
+   * case such connections are closed immediately
+   *
+   * @param healthCheckInterval the interval at which connections are
+   * checked for failed port forwards; may be {@code null} in which
+   * case no checks are made and connections rely solely on Tiller pod
+   * events
+   *
+   * @exception IllegalArgumentException if {@code linger} is negative
+   * or if {@code healthCheckInterval} is zero or negative
+   */
+  public TillerConnectionManager(final Function<? super LocalPortForward, ? extends ManagedChannel> channelBuilder,
+                                 final Duration linger,
+                                 final Duration healthCheckInterval) {
+    super();
+    if (linger != null && linger.isNegative()) {
+      throw new IllegalArgumentException("linger: " + linger);
+    }
+    if (healthCheckInterval != null && (healthCheckInterval.isZero() || healthCheckInterval.isNegative())) {
+      throw new IllegalArgumentException("healthCheckInterval: " + healthCheckInterval);
+    }
+    this.channelBuilder = channelBuilder;
+    this.linger = linger == null ? Duration.ZERO : linger;
+    this.healthCheckInterval = healthCheckInterval;
+    this.connections = new HashMap<>();
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("tiller-connection-manager", true));
+    if (healthCheckInterval != null) {
+      final long periodInMillis = Math.max(1L, healthCheckInterval.toMillis());
+      this.scheduler.scheduleWithFixedDelay(this::checkHealth, periodInMillis, periodInMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the length of time a connection is kept after its last
+   * reference has been released.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link Duration}
+   */
+  public final Duration getLinger() {
+    return this.linger;
+  }
+
+  /**
+   * Returns the interval at which connections are checked for failed
+   * port forwards, or {@code null} if they are not checked.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return a {@link Duration}, or {@code null}
+   */
+  public final Duration getHealthCheckInterval() {
+    return this.healthCheckInterval;
+  }
+
+  /**
+   * Returns the number of connections currently held open, including
+   * those that are lingering.
+   *
+   * @return the number of open connections; never less than {@code
+   * 0}
+   */
+  public final int size() {
+    synchronized (this) {
+      return this.connections.size();
+    }
+  }
+
+  /**
+   * Acquires a reference to the connection to Tiller in the {@link
+   * Tiller#DEFAULT_NAMESPACE} namespace, on the {@link
+   * Tiller#DEFAULT_PORT} port, labeled with {@link
+   * Tiller#DEFAULT_LABELS}, creating it if necessary, and returns a
+   * new {@link Tiller} that uses it.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param client the {@link KubernetesClient} to use; must not be
+   * {@code null}
+   *
+   * @return a new, non-{@code null} {@link Tiller} that must be
+   * {@linkplain Tiller#close() closed} when it is no longer needed
+   *
+   * @exception NullPointerException if {@code client} is {@code
+   * null}
+   *
+   * @exception IOException if a connection to Tiller could not be
+   * established
+   *
+   * @exception IllegalStateException if this {@link
+   * TillerConnectionManager} has been {@linkplain #close() closed}
+   *
+   * @see #acquire(KubernetesClient, String, int, Map)
+   */
+  public Tiller acquire(final KubernetesClient client) throws IOException {
+    return this.acquire(client, null, -1, null);
+  }
+
+  /**
+   * Acquires a reference to the connection to the Tiller identified
+   * by the supplied arguments, creating and warming it up if
+   * necessary, and returns a new {@link Tiller} that uses it.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>{@linkplain Tiller#close() Closing} the returned {@link
+   * Tiller} releases the reference; it does not close the shared
+   * connection.  Closing it more than once has no further
+   * effect.</p>
+   *
+   * @param client the {@link KubernetesClient} to use; must not be
+   * {@code null}; only acquisitions that supply this very instance
+   * share a connection; if a connection is created, a reference to
+   * it is retained and used for the lifetime of that connection
+   *
+   * @param namespaceHousingTiller the namespace within which Tiller
+   * pods are running; if {@code null}, then the value of {@link
+   * Tiller#DEFAULT_NAMESPACE} will be used instead
+   *
+   * @param tillerPort the remote port to forward local ports to; if
+   * less than or equal to {@code 0}, then the value of {@link
+   * Tiller#DEFAULT_PORT} will be used instead
+   *
+   * @param tillerLabels a {@link Map} representing the Kubernetes
+   * labels (and their values) identifying pods housing Tiller
+   * instances; if {@code null} then the value of {@link
+   * Tiller#DEFAULT_LABELS} will be used instead
+   *
+   * @return a new, non-{@code null} {@link Tiller} that must be
+   * {@linkplain Tiller#close() closed} when it is no longer needed
+   *
+   * @exception NullPointerException if {@code client} is {@code
+   * null}
+   *
+   * @exception IOException if a connection to Tiller could not be
+   * established
+   *
+   * @exception IllegalStateException if this {@link
+   * TillerConnectionManager} has been {@linkplain #close() closed}
+   */
+  public Tiller acquire(final KubernetesClient client,
+                        final String namespaceHousingTiller,
+                        final int tillerPort,
+                        final Map<String, String> tillerLabels)
+    throws IOException {
+    Objects.requireNonNull(client);
+    final Key key = new Key(client, namespaceHousingTiller, tillerPort, tillerLabels);
+    final Connection connection;
+    final boolean create;
+    synchronized (this) {
+      if (this.closed) {
+        throw new IllegalStateException("closed");
+      }
+      final Connection existing = this.connections.get(key);
+      if (existing == null) {
+        connection = new Connection(key);
+        this.connections.put(key, connection);
+        create = true;
+      } else {
+        connection = existing;
+        create = false;
+      }
+      connection.references++;
+      if (connection.closeTask != null) {
+        connection.closeTask.cancel(false);
+        connection.closeTask = null;
+      }
+    }
+    if (create) {
+      // Connect outside of any lock so that connecting to one Tiller
+      // never delays acquisitions of another.
+      try {
+        final TillerChannelPool pool =
+          new TillerChannelPool(client, key.namespace, key.port, key.labels, this.channelBuilder, null);
+        pool.getState(true);
+        connection.pool.complete(pool);
+      } catch (final RuntimeException | Error throwable) {
+        synchronized (this) {
+          this.connections.remove(key, connection);
+        }
+        connection.pool.completeExceptionally(throwable);
+      }
+    }
+    final TillerChannelPool pool;
+    try {
+      pool = connection.pool.get();
+    } catch (final InterruptedException interruptedException) {
+      this.release(connection);
+      Thread.currentThread().interrupt();
+      throw new IOException(interruptedException.getMessage(), interruptedException);
+    } catch (final ExecutionException executionException) {
+      this.release(connection);
+      final Throwable cause = executionException.getCause();
+      if (cause instanceof KubernetesClientException || cause instanceof TillerException) {
+        throw new IOException(cause.getMessage(), cause);
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      } else if (cause instanceof Error) {
+        throw (Error)cause;
+      } else {
+        throw new IOException(cause);
+      }
+    }
+    final boolean closedInMeantime;
+    synchronized (this) {
+      closedInMeantime = this.closed;
+    }
+    if (closedInMeantime) {
+      pool.shutdown();
+      throw new IllegalStateException("closed");
+    }
+    return new LeasedTiller(pool, () -> this.release(connection));
+  }
+
+  /**
+   * Releases one reference to the supplied {@link Connection} and, if
+   * it was the last one, closes the {@link Connection} immediately or
+   * after the {@linkplain #getLinger() linger} period.
+   *
+   * @param connection the {@link Connection} to release; must not be
+   * {@code null}
+   */
+  private final void release(final Connection connection) {
+    boolean closeNow = false;
+    synchronized (this) {
+      assert connection.references > 0;
+      connection.references--;
+      if (connection.references == 0 && this.connections.get(connection.key) == connection) {
+        if (this.closed || this.linger.isZero()) {
+          this.connections.remove(connection.key);
+          closeNow = true;
+        } else {
+          try {
+            connection.closeTask = this.scheduler.schedule(() -> this.closeIfUnreferenced(connection),
+                                                           this.linger.toMillis(),
+                                                           TimeUnit.MILLISECONDS);
+          } catch (final RuntimeException runtimeException) {
+            this.connections.remove(connection.key);
+            closeNow = true;
+          }
+        }
+      }
+    }
+    if (closeNow) {
+      connection.close();
+    }
+  }
+
+  /**
+   * Closes the supplied {@link Connection} if it is still known to
+   * this {@link TillerConnectionManager} and still has no references.
+   *
+   * @param connection the {@link Connection} to close; must not be
+   * {@code null}
+   */
+  private final void closeIfUnreferenced(final Connection connection) {
+    boolean close = false;
+    synchronized (this) {
+      if (connection.references == 0 && this.connections.remove(connection.key, connection)) {
+        connection.closeTask = null;
+        close = true;
+      }
+    }
+    if (close) {
+      connection.close();
+    }
+  }
+
+  /**
+   * {@linkplain TillerChannelPool#refresh() Refreshes} every open
+   * connection, re-establishing port forwards whose channels have
+   * failed, more often than each {@link TillerChannelPool} does on
+   * its own.
+   */
+  private final void checkHealth() {
+    final Collection<Connection> connections;
+    synchronized (this) {
+      connections = new ArrayList<>(this.connections.values());
+    }
+    for (final Connection connection : connections) {
+      final CompletableFuture<TillerChannelPool> future = connection.pool;
+      if (future.isDone() && !future.isCompletedExceptionally()) {
+        try {
+          future.join().refresh();
+        } catch (final RuntimeException runtimeException) {
+          // Kubernetes may be unreachable for now; try again next
+          // time rather than cancelling all future checks.
+        }
+      }
+    }
+  }
+
+  /**
+   * Closes every connection, whether or not it is still referenced,
+   * and stops checking their health.
+   *
+   * <p>{@link Tiller} instances still referring to a closed
+   * connection will fail their calls with {@link
+   * io.grpc.Status#UNAVAILABLE}.</p>
+   *
+   * <p>Calling this method more than once has no further
+   * effect.</p>
+   */
+  @Override
+  public void close() {
+    final Collection<Connection> connections;
+    synchronized (this) {
+      if (this.closed) {
+        return;
+      }
+      this.closed = true;
+      connections = new ArrayList<>(this.connections.values());
+      this.connections.clear();
+    }
+    this.scheduler.shutdownNow();
+    for (final Connection connection : connections) {
+      connection.close();
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The identity of a connection to Tiller.
+   *
+   * <p>The {@link KubernetesClient} is compared by identity, because
+   * it determines the credentials with which ports are forwarded and
+   * its lifetime bounds that of the connection.</p>
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Key {
+
+    private final KubernetesClient client;
+
+    private final String namespace;
+
+    private final int port;
+
+    private final Map<String, String> labels;
+
+    private Key(final KubernetesClient client, final String namespace, final int port, final Map<String, String> labels) {
+      super();
+      this.client = Objects.requireNonNull(client);
+      this.namespace = namespace == null || namespace.isEmpty() ? Tiller.DEFAULT_NAMESPACE : namespace;
+      this.port = port <= 0 ? Tiller.DEFAULT_PORT : port;
+      this.labels = labels == null ? Tiller.DEFAULT_LABELS : Collections.unmodifiableMap(new HashMap<>(labels));
+    }
+
+    @Override
+    public final int hashCode() {
+      return Objects.hash(Integer.valueOf(System.identityHashCode(this.client)), this.namespace, Integer.valueOf(this.port), this.labels);
+    }
+
+    @Override
+    public final boolean equals(final Object other) {
+      if (other == this) {
+        return true;
+      } else if (other instanceof Key) {
+        final Key her = (Key)other;
+        return
+          this.port == her.port &&
+          this.client == her.client &&
+          this.namespace.equals(her.namespace) &&
+          this.labels.equals(her.labels);
+      } else {
+        return false;
+      }
+    }
+
+    @Override
+    public final String toString() {
+      return this.client.getMasterUrl() + " " + this.namespace + ":" + this.port + " " + this.labels;
+    }
+
+  }
+
+  /**
+   * A shared connection to Tiller together with the number of
+   * references to it.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Connection {
+
+    private final Key key;
+
+    private final CompletableFuture<TillerChannelPool> pool;
+
+    /**
+     * The number of unreleased references to this {@link
+     * Connection}.
+     *
+     * <p>All access to this field must be synchronized on the owning
+     * {@link TillerConnectionManager}.</p>
+     */
+    private int references;
+
+    /**
+     * The pending task that will close this {@link Connection} once
+     * it has lingered long enough.
+     *
+     * <p>All access to this field must be synchronized on the owning
+     * {@link TillerConnectionManager}.</p>
+     */
+    private ScheduledFuture<?> closeTask;
+
+    private Connection(final Key key) {
+      super();
+      this.key = Objects.requireNonNull(key);
+      this.pool = new CompletableFuture<>();
+    }
+
+    /**
+     * {@linkplain TillerChannelPool#shutdown() Shuts down} this
+     * {@link Connection}'s {@link TillerChannelPool}, if it was
+     * established, which closes each of its port forwards as soon as
+     * the calls using it have completed.
+     */
+    private final void close() {
+      this.pool.thenAccept(TillerChannelPool::shutdown);
+    }
+
+  }
+
+  /**
+   * A {@link Tiller} whose {@link #close()} method releases a
+   * reference to a shared connection instead of closing it.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class LeasedTiller extends Tiller {
+
+    private final Runnable release;
+
+    private final AtomicBoolean released;
+
+    private LeasedTiller(final TillerChannelPool pool, final Runnable release) {
+      super(pool);
+      this.release = Objects.requireNonNull(release);
+      this.released = new AtomicBoolean();
+    }
+
+    @Override
+    public final void close() {
+      if (this.released.compareAndSet(false, true)) {
+        this.release.run();
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,1114 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import java.util.function.Function;
+
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import io.fabric8.kubernetes.client.LocalPortForward;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ConnectivityState;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import io.netty.channel.EventLoopGroup;
+
+import io.netty.channel.nio.NioEventLoopGroup;
+
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import org.microbean.development.annotation.Experimental;
+
+/**
+ * A factory and cache of {@link Tiller} and {@link ReleaseManager}
+ * instances, one per Kubernetes cluster, whose channels all share
+ * one Netty {@link EventLoopGroup}, channel type and application
+ * executor.
+ *
+ * <p>Clusters are identified by the name of a {@code kubeconfig}
+ * context.  The first request for a given context creates a {@link
+ * DefaultKubernetesClient} for it, forwards a port to its Tiller and
+ * builds a channel; later requests reuse them.  A cluster that has
+ * had neither a request through this factory, nor a call in flight,
+ * nor an open {@linkplain Lease lease} for longer than the
+ * {@linkplain #getIdleTimeout() idle timeout} is closed and
+ * forgotten, and will be recreated on demand.</p>
+ *
+ * <h2>Ownership</h2>
+ *
+ * <p>{@link Tiller} and {@link ReleaseManager} instances obtained
+ * from a {@link TillerFactory} belong to it and must not be closed by
+ * callers; they are closed when their cluster goes idle, when it is
+ * {@linkplain #closeCluster(String) closed explicitly}, or when the
+ * {@link TillerFactory} is {@linkplain #close() closed}.</p>
+ *
+ * <p><strong>In particular, a {@link Tiller} or {@link
+ * ReleaseManager} returned by {@link #getTiller(String)} or {@link
+ * #getReleaseManager(String)} may be closed, by the idle reaper, at
+ * any point after it was last used.</strong> Callers of those methods
+ * must not hold on to what they return, but should instead fetch it
+ * again for each unit of work.  Callers that need to hold on to a
+ * cluster for longer should {@linkplain #acquire(String) acquire} a
+ * {@link Lease} instead, and close it when they are done; a cluster
+ * with an open {@link Lease} is never considered idle.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are safe for concurrent use by multiple
+ * threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see #getReleaseManager(String)
+ *
+ * @see #getMetrics()
+ */
+@Experimental
+public class TillerFactory implements Closeable {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The number of seconds {@link #close()} waits for each cluster's
+   * channel to terminate before releasing the resources it shares.
+   */
+  private static final long TERMINATION_TIMEOUT_IN_SECONDS = 10L;
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * A {@link Function} that creates a {@link DefaultKubernetesClient}
+   * for a {@code kubeconfig} context name.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Function<? super String, ? extends DefaultKubernetesClient> clientFactory;
+
+  /**
+   * The {@link TillerChannelOptions} with which all channels are
+   * built, including the shared {@link EventLoopGroup} and executor.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final TillerChannelOptions channelOptions;
+
+  /**
+   * The {@link EventLoopGroup} created by, and to be shut down by,
+   * this {@link TillerFactory}.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private final EventLoopGroup ownedEventLoopGroup;
+
+  /**
+   * The {@link ExecutorService} created by, and to be shut down by,
+   * this {@link TillerFactory}.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private final ExecutorService ownedExecutor;
+
+  /**
+   * The length of time after which an unused cluster is closed.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private final Duration idleTimeout;
+
+  /**
+   * The {@link ScheduledExecutorService} that closes idle clusters.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private final ScheduledExecutorService reaper;
+
+  /**
+   * The clusters known to this {@link TillerFactory}, indexed by
+   * context name.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private final Map<String, CompletableFuture<Cluster>> clusters;
+
+  /**
+   * Whether this {@link TillerFactory} has been {@linkplain #close()
+   * closed}.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private boolean closed;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link TillerFactory} that creates a {@link
+   * DefaultKubernetesClient} for each context from the local {@code
+   * kubeconfig}, uses the {@linkplain TillerChannelOptions#DEFAULT
+   * default channel options} and closes clusters that have been idle
+   * for five minutes.
+   *
+   * @see #TillerFactory(Function, TillerChannelOptions, Duration)
+   */
+  public TillerFactory() {
+    this(context -> new DefaultKubernetesClient(Config.autoConfigure(context)), null, Duration.ofMinutes(5L));
+  }
+
+  /**
+   * Creates a new {@link TillerFactory}.
+   *
+   * <p>If the supplied {@link TillerChannelOptions} do not specify an
+   * {@linkplain TillerChannelOptions#getEventLoopGroup()
+   * <code>EventLoopGroup</code>}, this {@link TillerFactory} creates
+   * a daemon {@link NioEventLoopGroup} shared by all of its channels
+   * and shuts it down when it is {@linkplain #close() closed}.
+   * Likewise, if they specify neither an {@linkplain
+   * TillerChannelOptions#getExecutor() executor} nor a {@linkplain
+   * TillerChannelOptions#isDirectExecutor() direct executor}, a
+   * shared daemon cached thread pool is created and owned.</p>
+   *
+   * @param clientFactory a {@link Function} that returns a new {@link
+   * DefaultKubernetesClient} for a {@code kubeconfig} context name
+   * (which may be {@code null} to indicate the current context); must
+   * not be {@code null}; the returned clients are closed by this
+   * {@link TillerFactory}
+   *
+   * @param channelOptions the {@link TillerChannelOptions} with which
+   * to build all channels; may be {@code null} in which case {@link
+   * TillerChannelOptions#DEFAULT} is used
+   *
+   * @param idleTimeout the length of time after which an unused
+   * cluster is closed; may be {@code null} in which case clusters are
+   * only closed when this {@link TillerFactory} is closed
+   *
+   * @exception NullPointerException if {@code clientFactory} is
+   * {@code null}
+   *
+   * @exception IllegalArgumentException if {@code idleTimeout} is
+   * zero or negative
+   */
+  public TillerFactory(final Function<? super String, ? extends DefaultKubernetesClient> clientFactory,
+                       TillerChannelOptions channelOptions,
+                       final Duration idleTimeout) {
+    super();
+    this.clientFactory = Objects.requireNonNull(clientFactory);
+    if (idleTimeout != null && (idleTimeout.isZero() || idleTimeout.isNegative())) {
+      throw new IllegalArgumentException("idleTimeout: " + idleTimeout);
+    }
+    if (channelOptions == null) {
+      channelOptions = TillerChannelOptions.DEFAULT;
+    }
+    final TillerChannelOptions.Builder builder = channelOptions.toBuilder();
+    if (channelOptions.getEventLoopGroup() == null) {
+      this.ownedEventLoopGroup = new NioEventLoopGroup(0, new DefaultThreadFactory("tiller-factory-event-loop", true));
+      builder.eventLoopGroup(this.ownedEventLoopGroup, NioSocketChannel.class);
+    } else {
+      this.ownedEventLoopGroup = null;
+    }
+    if (channelOptions.getExecutor() == null && !channelOptions.isDirectExecutor()) {
+      this.ownedExecutor = Executors.newCachedThreadPool(new DefaultThreadFactory("tiller-factory-executor", true));
+      builder.executor(this.ownedExecutor);
+    } else {
+      this.ownedExecutor = null;
+    }
+    this.channelOptions = builder.build();
+    this.idleTimeout = idleTimeout;
+    this.clusters = new HashMap<>();
+    if (idleTimeout == null) {
+      this.reaper = null;
+    } else {
+      this.reaper = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("tiller-factory-reaper", true));
+      final long periodInMillis = Math.max(1L, idleTimeout.toMillis() / 2L);
+      this.reaper.scheduleWithFixedDelay(this::closeIdleClusters, periodInMillis, periodInMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the {@link TillerChannelOptions} with which all channels
+   * are built, including the shared {@link EventLoopGroup} and
+   * executor.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return non-{@code null} {@link TillerChannelOptions}
+   */
+  public final TillerChannelOptions getChannelOptions() {
+    return this.channelOptions;
+  }
+
+  /**
+   * Returns the length of time after which an unused cluster is
+   * closed, or {@code null} if clusters are never closed for being
+   * idle.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return a {@link Duration}, or {@code null}
+   */
+  public final Duration getIdleTimeout() {
+    return this.idleTimeout;
+  }
+
+  /**
+   * Returns the {@link Tiller} for the cluster identified by the
+   * supplied {@code kubeconfig} context name, creating it if
+   * necessary.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>The returned {@link Tiller} belongs to this {@link
+   * TillerFactory} and must not be {@linkplain Tiller#close()
+   * closed} by the caller.  It may be closed once its cluster has
+   * gone {@linkplain #getIdleTimeout() idle}, so callers must not
+   * retain it; see {@link #acquire(String)}.</p>
+   *
+   * @param context the {@code kubeconfig} context name; may be
+   * {@code null} to indicate the current context
+   *
+   * @return a non-{@code null} {@link Tiller}
+   *
+   * @exception IOException if the cluster could not be connected to
+   *
+   * @exception IllegalStateException if this {@link TillerFactory}
+   * has been {@linkplain #close() closed}
+   */
+  public Tiller getTiller(final String context) throws IOException {
+    return this.getCluster(context).tiller;
+  }
+
+  /**
+   * Returns the {@link ReleaseManager} for the cluster identified by
+   * the supplied {@code kubeconfig} context name, creating it if
+   * necessary.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>The returned {@link ReleaseManager} belongs to this {@link
+   * TillerFactory} and must not be {@linkplain ReleaseManager#close()
+   * closed} by the caller.  It may be closed once its cluster has
+   * gone {@linkplain #getIdleTimeout() idle}, so callers must not
+   * retain it; see {@link #acquire(String)}.</p>
+   *
+   * @param context the {@code kubeconfig} context name; may be
+   * {@code null} to indicate the current context
+   *
+   * @return a non-{@code null} {@link ReleaseManager}
+   *
+   * @exception IOException if the cluster could not be connected to
+   *
+   * @exception IllegalStateException if this {@link TillerFactory}
+   * has been {@linkplain #close() closed}
+   */
+  public ReleaseManager getReleaseManager(final String context) throws IOException {
+    return this.getCluster(context).releaseManager;
+  }
+
+  /**
+   * Returns a new {@link Lease} on the cluster identified by the
+   * supplied {@code kubeconfig} context name, creating the cluster if
+   * necessary.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>Until the returned {@link Lease} is {@linkplain Lease#close()
+   * closed}, its cluster is not closed for being idle, so its {@link
+   * Lease#getTiller() Tiller} and {@link Lease#getReleaseManager()
+   * ReleaseManager} may be retained and used freely.  The cluster is
+   * still closed if it is {@linkplain #closeCluster(String) closed
+   * explicitly} or if this {@link TillerFactory} is {@linkplain
+   * #close() closed}.</p>
+   *
+   * @param context the {@code kubeconfig} context name; may be
+   * {@code null} to indicate the current context
+   *
+   * @return a new, non-{@code null} {@link Lease}
+   *
+   * @exception IOException if the cluster could not be connected to
+   *
+   * @exception IllegalStateException if this {@link TillerFactory}
+   * has been {@linkplain #close() closed}
+   */
+  public final Lease acquire(final String context) throws IOException {
+    final String key = key(context);
+    while (true) {
+      final Cluster cluster = this.getCluster(context);
+      synchronized (this) {
+        if (this.closed) {
+          throw new IllegalStateException("closed");
+        }
+        final CompletableFuture<Cluster> future = this.clusters.get(key);
+        if (future != null && future.isDone() && !future.isCompletedExceptionally() && future.join() == cluster) {
+          cluster.leases++;
+          return new Lease(cluster);
+        }
+      }
+      // The cluster was closed between our getting it and our
+      // leasing it; get it again.
+    }
+  }
+
+  /**
+   * Returns a snapshot of connection metrics for each cluster
+   * currently open, indexed by context name.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, immutable {@link Map} of {@link
+   * ClusterMetrics}; the current context, if open, is indexed under
+   * the empty string
+   */
+  public final Map<String, ClusterMetrics> getMetrics() {
+    final Collection<Cluster> clusters = this.getOpenClusters();
+    final Map<String, ClusterMetrics> returnValue = new LinkedHashMap<>();
+    for (final Cluster cluster : clusters) {
+      returnValue.put(cluster.context, cluster.getMetrics());
+    }
+    return Collections.unmodifiableMap(returnValue);
+  }
+
+  /**
+   * Closes and forgets the cluster identified by the supplied {@code
+   * kubeconfig} context name, if it is open.
+   *
+   * @param context the {@code kubeconfig} context name; may be
+   * {@code null} to indicate the current context
+   *
+   * @return {@code true} if a cluster was closed
+   */
+  public final boolean closeCluster(final String context) {
+    final CompletableFuture<Cluster> future;
+    synchronized (this) {
+      future = this.clusters.remove(key(context));
+    }
+    final boolean returnValue = future != null;
+    if (returnValue) {
+      future.thenAccept(Cluster::close);
+    }
+    return returnValue;
+  }
+
+  /**
+   * Closes every cluster that has been neither requested, nor had a
+   * call in flight, nor had an open {@link Lease} for longer than the
+   * {@linkplain #getIdleTimeout() idle timeout}.
+   */
+  private final void closeIdleClusters() {
+    if (this.idleTimeout != null) {
+      final long idleTimeoutInNanos = this.idleTimeout.toNanos();
+      final long now = System.nanoTime();
+      final Collection<Cluster> idleClusters = new ArrayList<>();
+      synchronized (this) {
+        final Iterator<CompletableFuture<Cluster>> iterator = this.clusters.values().iterator();
+        while (iterator.hasNext()) {
+          final CompletableFuture<Cluster> future = iterator.next();
+          if (future.isDone() && !future.isCompletedExceptionally()) {
+            final Cluster cluster = future.join();
+            if (cluster.isIdle(now, idleTimeoutInNanos)) {
+              iterator.remove();
+              idleClusters.add(cluster);
+            }
+          }
+        }
+      }
+      for (final Cluster cluster : idleClusters) {
+        cluster.close();
+      }
+    }
+  }
+
+  /**
+   * Closes every cluster and releases all shared resources.
+   *
+   * <p>Clusters still being connected to are waited for, and every
+   * cluster's channel is given up to ten seconds to terminate, before
+   * the {@link EventLoopGroup} and executor it uses are shut
+   * down.</p>
+   *
+   * <p>Calling this method more than once has no further
+   * effect.</p>
+   */
+  @Override
+  public void close() {
+    final Collection<CompletableFuture<Cluster>> futures;
+    synchronized (this) {
+      if (this.closed) {
+        return;
+      }
+      this.closed = true;
+      futures = new ArrayList<>(this.clusters.values());
+      this.clusters.clear();
+    }
+    if (this.reaper != null) {
+      this.reaper.shutdownNow();
+    }
+    final Collection<Cluster> clusters = new ArrayList<>();
+    for (final CompletableFuture<Cluster> future : futures) {
+      final Cluster cluster;
+      try {
+        cluster = future.join();
+      } catch (final CompletionException creationFailed) {
+        continue;
+      }
+      cluster.close();
+      clusters.add(cluster);
+    }
+    for (final Cluster cluster : clusters) {
+      if (!cluster.awaitTermination(TERMINATION_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS)) {
+        break;
+      }
+    }
+    if (this.ownedExecutor != null) {
+      this.ownedExecutor.shutdown();
+    }
+    if (this.ownedEventLoopGroup != null) {
+      this.ownedEventLoopGroup.shutdownGracefully();
+    }
+  }
+
+  /**
+   * Returns the open, fully created clusters.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link Collection} of {@link Cluster}s
+   */
+  private final Collection<Cluster> getOpenClusters() {
+    final Collection<Cluster> returnValue = new ArrayList<>();
+    synchronized (this) {
+      for (final CompletableFuture<Cluster> future : this.clusters.values()) {
+        if (future.isDone() && !future.isCompletedExceptionally()) {
+          returnValue.add(future.join());
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the {@link Cluster} for the supplied context name,
+   * creating it if necessary, and marks it as used.
+   *
+   * <p>Creation happens outside of any lock, so that connecting to
+   * one cluster never delays requests for another; concurrent
+   * requests for the same context wait for a single creation.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param context the context name; may be {@code null}
+   *
+   * @return a non-{@code null} {@link Cluster}
+   *
+   * @exception IOException if the cluster could not be connected to
+   */
+  private final Cluster getCluster(final String context) throws IOException {
+    final String key = key(context);
+    final CompletableFuture<Cluster> future;
+    final boolean create;
+    synchronized (this) {
+      if (this.closed) {
+        throw new IllegalStateException("closed");
+      }
+      final CompletableFuture<Cluster> existing = this.clusters.get(key);
+      if (existing == null) {
+        future = new CompletableFuture<>();
+        this.clusters.put(key, future);
+        create = true;
+      } else {
+        future = existing;
+        create = false;
+      }
+    }
+    if (create) {
+      try {
+        future.complete(this.createCluster(key));
+      } catch (final IOException | RuntimeException | Error throwable) {
+        synchronized (this) {
+          this.clusters.remove(key, future);
+        }
+        future.completeExceptionally(throwable);
+        throw throwable;
+      }
+      final boolean closedInMeantime;
+      synchronized (this) {
+        closedInMeantime = this.closed;
+      }
+      if (closedInMeantime) {
+        future.join().close();
+        throw new IllegalStateException("closed");
+      }
+    }
+    final Cluster returnValue;
+    try {
+      returnValue = future.get();
+    } catch (final InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      throw new IOException(interruptedException.getMessage(), interruptedException);
+    } catch (final ExecutionException executionException) {
+      final Throwable cause = executionException.getCause();
+      if (cause instanceof IOException) {
+        throw new IOException(cause.getMessage(), cause);
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      } else if (cause instanceof Error) {
+        throw (Error)cause;
+      } else {
+        throw new IOException(cause);
+      }
+    }
+    returnValue.touch();
+    return returnValue;
+  }
+
+  /**
+   * Creates a new {@link Cluster} for the supplied context name.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param key the context name, or the empty string for the current
+   * context; must not be {@code null}
+   *
+   * @return a new, non-{@code null} {@link Cluster}
+   *
+   * @exception IOException if the cluster could not be connected to
+   */
+  private final Cluster createCluster(final String key) throws IOException {
+    final DefaultKubernetesClient client = this.clientFactory.apply(key.isEmpty() ? null : key);
+    if (client == null) {
+      throw new IllegalStateException("clientFactory.apply(" + key + ") == null");
+    }
+    final CallCounter callCounter = new CallCounter();
+    final AtomicReference<ManagedChannel> channel = new AtomicReference<>();
+    final Tiller tiller;
+    try {
+      tiller = this.createTiller(client,
+                                 portForward -> {
+                                   final ManagedChannel managedChannel = this.channelOptions.apply(portForward, Collections.singletonList(callCounter));
+                                   channel.set(managedChannel);
+                                   return managedChannel;
+                                 });
+    } catch (final IOException | RuntimeException | Error throwable) {
+      client.close();
+      throw throwable;
+    }
+    assert channel.get() != null;
+    return new Cluster(key, client, tiller, channel.get(), callCounter);
+  }
+
+  /**
+   * Creates a new {@link Tiller} that forwards a port to the Tiller
+   * in the cluster with which the supplied {@link
+   * DefaultKubernetesClient} communicates, and builds its channel
+   * with the supplied {@code channelBuilder}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>This method exists so that tests can substitute their own
+   * port forwarding.</p>
+   *
+   * @param client the {@link DefaultKubernetesClient}; must not be
+   * {@code null}
+   *
+   * @param channelBuilder a {@link Function} that builds a {@link
+   * ManagedChannel} from a {@link LocalPortForward}; must not be
+   * {@code null}
+   *
+   * @return a new, non-{@code null} {@link Tiller}
+   *
+   * @exception IOException if the cluster could not be connected to
+   */
+  Tiller createTiller(final DefaultKubernetesClient client, final Function<? super LocalPortForward, ? extends ManagedChannel> channelBuilder) throws IOException {
+    return new Tiller(client, null, -1, null, channelBuilder);
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  private static final String key(final String context) {
+    return context == null ? "" : context;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The resources belonging to one cluster.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Cluster {
+
+    private final String context;
+
+    private final DefaultKubernetesClient client;
+
+    private final Tiller tiller;
+
+    private final ManagedChannel channel;
+
+    private final ReleaseManager releaseManager;
+
+    private final CallCounter callCounter;
+
+    private final Instant creationTime;
+
+    private final AtomicBoolean closed;
+
+    /**
+     * The number of open {@link Lease}s on this {@link Cluster}.
+     *
+     * <p>All access to this field must be synchronized on the owning
+     * {@link TillerFactory}.</p>
+     */
+    private int leases;
+
+    private Cluster(final String context,
+                    final DefaultKubernetesClient client,
+                    final Tiller tiller,
+                    final ManagedChannel channel,
+                    final CallCounter callCounter) {
+      super();
+      this.context = Objects.requireNonNull(context);
+      this.client = Objects.requireNonNull(client);
+      this.tiller = Objects.requireNonNull(tiller);
+      this.channel = Objects.requireNonNull(channel);
+      this.releaseManager = new ReleaseManager(tiller);
+      this.callCounter = Objects.requireNonNull(callCounter);
+      this.creationTime = Instant.now();
+      this.closed = new AtomicBoolean();
+    }
+
+    private final void touch() {
+      this.callCounter.touch();
+    }
+
+    private final boolean isIdle(final long now, final long idleTimeoutInNanos) {
+      return this.leases <= 0 && this.callCounter.inFlight.get() <= 0 && now - this.callCounter.lastUsed.get() > idleTimeoutInNanos;
+    }
+
+    private final ClusterMetrics getMetrics() {
+      return new ClusterMetrics(this.context,
+                                this.channel.getState(false),
+                                this.creationTime,
+                                this.callCounter.started.get(),
+                                this.callCounter.failed.get(),
+                                this.callCounter.inFlight.get(),
+                                Duration.ofNanos(System.nanoTime() - this.callCounter.lastUsed.get()));
+    }
+
+    private final void close() {
+      if (this.closed.compareAndSet(false, true)) {
+        try {
+          this.tiller.close();
+        } catch (final IOException ioException) {
+          // Nothing sensible to do; the port forward is going away
+          // with the client anyway.
+        } finally {
+          this.client.close();
+        }
+      }
+    }
+
+    /**
+     * Waits for this {@link Cluster}'s channel to terminate after it
+     * has been {@linkplain #close() closed}, forcing it to shut down
+     * if it does not do so in time.
+     *
+     * @param timeout the maximum time to wait
+     *
+     * @param unit the {@link TimeUnit} of {@code timeout}; must not
+     * be {@code null}
+     *
+     * @return {@code false} if the calling thread was interrupted
+     * while waiting; {@code true} otherwise
+     */
+    private final boolean awaitTermination(final long timeout, final TimeUnit unit) {
+      boolean returnValue = true;
+      try {
+        if (!this.channel.awaitTermination(timeout, unit)) {
+          this.channel.shutdownNow();
+        }
+      } catch (final InterruptedException interruptedException) {
+        Thread.currentThread().interrupt();
+        this.channel.shutdownNow();
+        returnValue = false;
+      }
+      return returnValue;
+    }
+
+  }
+
+  /**
+   * A lease on one cluster of a {@link TillerFactory} that keeps the
+   * cluster from being closed for being {@linkplain
+   * TillerFactory#getIdleTimeout() idle} until it is {@linkplain
+   * #close() closed}.
+   *
+   * <h2>Thread Safety</h2>
+   *
+   * <p>Instances of this class are safe for concurrent use by
+   * multiple threads.</p>
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see TillerFactory#acquire(String)
+   */
+  @Experimental
+  public final class Lease implements Closeable {
+
+    private final Cluster cluster;
+
+    private final AtomicBoolean released;
+
+    private Lease(final Cluster cluster) {
+      super();
+      this.cluster = Objects.requireNonNull(cluster);
+      this.released = new AtomicBoolean();
+    }
+
+    /**
+     * Returns the {@code kubeconfig} context name of the leased
+     * cluster, or the empty string for the current context.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} context name
+     */
+    public final String getContext() {
+      return this.cluster.context;
+    }
+
+    /**
+     * Returns the leased cluster's {@link Tiller}, which must not be
+     * {@linkplain Tiller#close() closed} by the caller.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link Tiller}
+     */
+    public final Tiller getTiller() {
+      return this.cluster.tiller;
+    }
+
+    /**
+     * Returns the leased cluster's {@link ReleaseManager}, which must
+     * not be {@linkplain ReleaseManager#close() closed} by the
+     * caller.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link ReleaseManager}
+     */
+    public final ReleaseManager getReleaseManager() {
+      return this.cluster.releaseManager;
+    }
+
+    /**
+     * Releases this {@link Lease}, after which its cluster may be
+     * closed once it has gone idle.
+     *
+     * <p>Calling this method more than once has no further
+     * effect.</p>
+     */
+    @Override
+    public final void close() {
+      if (this.released.compareAndSet(false, true)) {
+        synchronized (TillerFactory.this) {
+          this.cluster.leases--;
+        }
+        this.cluster.touch();
+      }
+    }
+
+  }
+
+  /**
+   * A {@link ClientInterceptor} that counts the calls made to one
+   * cluster and records when it was last used.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class CallCounter implements ClientInterceptor {
+
+    private final AtomicLong started;
+
+    private final AtomicLong failed;
+
+    private final AtomicInteger inFlight;
+
+    private final AtomicLong lastUsed;
+
+    private CallCounter() {
+      super();
+      this.started = new AtomicLong();
+      this.failed = new AtomicLong();
+      this.inFlight = new AtomicInteger();
+      this.lastUsed = new AtomicLong(System.nanoTime());
+    }
+
+    private final void touch() {
+      this.lastUsed.set(System.nanoTime());
+    }
+
+    @Override
+    public final <RequestT, ResponseT> ClientCall<RequestT, ResponseT> interceptCall(final MethodDescriptor<RequestT, ResponseT> method,
+                                                                                     final CallOptions callOptions,
+                                                                                     final Channel next) {
+      return new SimpleForwardingClientCall<RequestT, ResponseT>(next.newCall(method, callOptions)) {
+        @Override
+        public final void start(final ClientCall.Listener<ResponseT> listener, final Metadata headers) {
+          final AtomicBoolean closed = new AtomicBoolean();
+          started.incrementAndGet();
+          inFlight.incrementAndGet();
+          touch();
+          try {
+            super.start(new SimpleForwardingClientCallListener<ResponseT>(listener) {
+                @Override
+                public final void onClose(final Status status, final Metadata trailers) {
+                  if (closed.compareAndSet(false, true)) {
+                    if (!status.isOk()) {
+                      failed.incrementAndGet();
+                    }
+                    inFlight.decrementAndGet();
+                    touch();
+                  }
+                  super.onClose(status, trailers);
+                }
+              }, headers);
+          } catch (final RuntimeException | Error throwable) {
+            if (closed.compareAndSet(false, true)) {
+              failed.incrementAndGet();
+              inFlight.decrementAndGet();
+            }
+            throw throwable;
+          }
+        }
+      };
+    }
+
+  }
+
+  /**
+   * An immutable snapshot of the connection metrics of one cluster.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see TillerFactory#getMetrics()
+   */
+  public static final class ClusterMetrics {
+
+    private final String context;
+
+    private final ConnectivityState channelState;
+
+    private final Instant creationTime;
+
+    private final long callsStarted;
+
+    private final long callsFailed;
+
+    private final int callsInFlight;
+
+    private final Duration idleTime;
+
+    private ClusterMetrics(final String context,
+                           final ConnectivityState channelState,
+                           final Instant creationTime,
+                           final long callsStarted,
+                           final long callsFailed,
+                           final int callsInFlight,
+                           final Duration idleTime) {
+      super();
+      this.context = Objects.requireNonNull(context);
+      this.channelState = Objects.requireNonNull(channelState);
+      this.creationTime = Objects.requireNonNull(creationTime);
+      this.callsStarted = callsStarted;
+      this.callsFailed = callsFailed;
+      this.callsInFlight = callsInFlight;
+      this.idleTime = Objects.requireNonNull(idleTime);
+    }
+
+    /**
+     * Returns the {@code kubeconfig} context name of the cluster, or
+     * the empty string for the current context.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} context name
+     */
+    public final String getContext() {
+      return this.context;
+    }
+
+    /**
+     * Returns the {@link ConnectivityState} of the cluster's channel.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link ConnectivityState}
+     */
+    public final ConnectivityState getChannelState() {
+      return this.channelState;
+    }
+
+    /**
+     * Returns the {@link Instant} at which the cluster was connected
+     * to.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link Instant}
+     */
+    public final Instant getCreationTime() {
+      return this.creationTime;
+    }
+
+    /**
+     * Returns the number of calls started against the cluster.
+     *
+     * @return the number of calls started; never negative
+     */
+    public final long getCallsStarted() {
+      return this.callsStarted;
+    }
+
+    /**
+     * Returns the number of calls against the cluster that completed
+     * with a status other than {@link Status#OK OK}.
+     *
+     * @return the number of failed calls; never negative
+     */
+    public final long getCallsFailed() {
+      return this.callsFailed;
+    }
+
+    /**
+     * Returns the number of calls against the cluster that are in
+     * flight.
+     *
+     * @return the number of calls in flight; never negative
+     */
+    public final int getCallsInFlight() {
+      return this.callsInFlight;
+    }
+
+    /**
+     * Returns the length of time since the cluster was last requested
+     * from its {@link TillerFactory} or last had a call start or
+     * finish.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link Duration}
+     */
+    public final Duration getIdleTime() {
+      return this.idleTime;
+    }
+
+    /**
+     * Returns a {@link String} representation of this {@link
+     * ClusterMetrics}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link String} representation of
+     * this {@link ClusterMetrics}
+     */
+    @Override
+    public final String toString() {
+      return new StringBuilder(this.context.isEmpty() ? "(current context)" : this.context)
+        .append(": ").append(this.channelState)
+        .append(", started=").append(this.callsStarted)
+        .append(", failed=").append(this.callsFailed)
+        .append(", inFlight=").append(this.callsInFlight)
+        .append(", idle=").append(this.idleTime)
+        .toString();
+    }
+
+  }
+
+}
@@ -1266,12 +1266,23 @@ public class TillerInstaller {
       }
       @SuppressWarnings("unchecked")
       final Tiller tiller = new Tiller((T)this.kubernetesClient, namespace, -1 /* use default */, labels);
-      final HealthBlockingStub health = tiller.getHealthBlockingStub();
-      assert health != null;
-      final HealthCheckRequest.Builder builder = HealthCheckRequest.newBuilder();
-      assert builder != null;
-      builder.setService("Tiller");
-      final HealthCheckResponseOrBuilder response = health.check(builder.build());
+      final HealthCheckResponseOrBuilder response;
+      try {
+        final HealthBlockingStub health = tiller.getHealthBlockingStub();
+        assert health != null;
+        final HealthCheckRequest.Builder builder = HealthCheckRequest.newBuilder();
+        assert builder != null;
+        builder.setService("Tiller");
+        response = health.check(builder.build());
+      } finally {
+        // Each Tiller owns a port forward and a channel; don't leak
+        // them on every ping.
+        try {
+          tiller.close();
+        } catch (final IOException ignore) {
+
+        }
+      }
       assert response != null;
       final ServingStatus status = response.getStatus();
       assert status != null;
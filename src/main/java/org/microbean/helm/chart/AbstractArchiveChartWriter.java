@@ -155,7 +155,9 @@ public abstract class AbstractArchiveChartWriter extends AbstractChartWriter {
    * TemplateOrBuilder#getData() data} of the supplied {@link
    * TemplateOrBuilder} to an appropriate archive entry named in part
    * by the return value of the {@link TemplateOrBuilder#getName()}
-   * method within the current chart path.</p>
+   * method within the current chart path, using the {@link
+   * #writeEntry(AbstractChartWriter.Context, String, ByteString)}
+   * method.</p>
    *
    * @exception NullPointerException if {@code context} is {@code
    * null}
@@ -169,10 +171,7 @@ public abstract class AbstractArchiveChartWriter extends AbstractChartWriter {
       if (templateName != null && !templateName.isEmpty()) {
         final ByteString data = template.getData();
         if (data != null && data.size() > 0) {
-          final String dataString = data.toStringUtf8();
-          assert dataString != null;
-          assert !dataString.isEmpty();
-          this.writeEntry(context, templateName, dataString);
+          this.writeEntry(context, templateName, data);
         }
       }
     }
@@ -185,7 +184,10 @@ public abstract class AbstractArchiveChartWriter extends AbstractChartWriter {
    * AnyOrBuilder#getValue() contents} of the supplied {@link
    * AnyOrBuilder} to an appropriate archive entry named in part by
    * the return value of the {@link AnyOrBuilder#getTypeUrl()} method
-   * within the current chart path.</p>
+   * within the current chart path, using the {@link
+   * #writeEntry(AbstractChartWriter.Context, String, ByteString)}
+   * method.  The contents are written as-is, so files that are not
+   * encoded in UTF-8 are preserved.</p>
    *
    * @exception NullPointerException if {@code context} is {@code
    * null}
@@ -199,10 +201,7 @@ public abstract class AbstractArchiveChartWriter extends AbstractChartWriter {
       if (fileName != null && !fileName.isEmpty()) {
         final ByteString data = file.getValue();
         if (data != null && data.size() > 0) {
-          final String dataString = data.toStringUtf8();
-          assert dataString != null;
-          assert !dataString.isEmpty();
-          this.writeEntry(context, fileName, dataString);
+          this.writeEntry(context, fileName, data);
         }
       }
     }
@@ -263,4 +262,41 @@ public abstract class AbstractArchiveChartWriter extends AbstractChartWriter {
    */
   protected abstract void writeEntry(final Context context, final String path, final String contents) throws IOException;
 
+  /**
+   * Writes the supplied {@code contents}, unaltered, to an
+   * appropriate archive entry that is expected to be suffixed with
+   * the supplied {@code path} in the context of the write operation
+   * described by the supplied {@link Context}.
+   *
+   * <p>The default implementation of this method decodes the supplied
+   * {@code contents} as UTF-8 and passes the result to the {@link
+   * #writeEntry(AbstractChartWriter.Context, String, String)} method,
+   * which is correct only for textual contents.  Subclasses are
+   * strongly encouraged to override this method to write the bytes
+   * directly, for example by using the {@link
+   * ByteString#writeTo(java.io.OutputStream)} method.</p>
+   *
+   * @param context the {@link Context} describing the write operation
+   * in effect; must not be {@code null}
+   *
+   * @param path the path within an abstract archive to write;
+   * interpreted as being relative to the current notional chart path,
+   * whatever that might be; must not be {@code null} or {@linkplain
+   * String#isEmpty() empty}
+   *
+   * @param contents the contents to write; must not be {@code null}
+   *
+   * @exception IOException if a write error occurs
+   *
+   * @exception NullPointerException if {@code context}, {@code path}
+   * or {@code contents} is {@code null}
+   *
+   * @exception IllegalArgumentException if {@code path} {@linkplain
+   * String#isEmpty() is empty}
+   */
+  protected void writeEntry(final Context context, final String path, final ByteString contents) throws IOException {
+    Objects.requireNonNull(contents);
+    this.writeEntry(context, path, contents.toStringUtf8());
+  }
+
 }
@@ -0,0 +1,211 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+/**
+ * A special-purpose {@link ByteArrayInputStream} holding the
+ * complete contents of a single archive entry that can hand those
+ * contents to a {@link ByteString} {@linkplain #toByteString()
+ * without copying them}.
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see #readFrom(InputStream, long)
+ *
+ * @see UnsafeByteOperations#unsafeWrap(byte[], int, int)
+ */
+final class ByteStringInputStream extends ByteArrayInputStream {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The size of the buffer to start with when the size of the
+   * content to be read is not known in advance.
+   */
+  private static final int DEFAULT_BUFFER_SIZE = 4096;
+
+  /**
+   * The largest buffer to start with however large the content to be
+   * read is said to be, so that a size hint from a corrupt or hostile
+   * archive cannot by itself cause a huge allocation.
+   */
+  private static final int MAX_INITIAL_BUFFER_SIZE = 1024 * 1024;
+
+  /**
+   * The largest array size that may be safely allocated.
+   */
+  private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ByteStringInputStream}.
+   *
+   * @param bytes the buffer to read from; must not be {@code null};
+   * will not be copied and must not be modified afterwards
+   *
+   * @param length the number of valid bytes in {@code bytes}
+   *
+   * @exception NullPointerException if {@code bytes} is {@code null}
+   */
+  private ByteStringInputStream(final byte[] bytes, final int length) {
+    super(bytes, 0, length);
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns a {@link ByteString} that wraps, without copying, the
+   * bytes that have not yet been read from this {@link
+   * ByteStringInputStream}, and marks them as read.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link ByteString}
+   */
+  final synchronized ByteString toByteString() {
+    final ByteString returnValue = UnsafeByteOperations.unsafeWrap(this.buf, this.pos, this.count - this.pos);
+    this.pos = this.count;
+    return returnValue;
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Reads the supplied {@link InputStream} until its end into a
+   * single buffer sized according to the supplied {@code sizeHint},
+   * and returns a new {@link ByteStringInputStream} backed by it.
+   *
+   * <p>The buffer starts out no larger than one mebibyte, and grows,
+   * towards but never beyond the {@code sizeHint} while it is
+   * believable, only as data actually arrives.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>The supplied {@link InputStream} is not closed.</p>
+   *
+   * @param stream the {@link InputStream} to read; must not be {@code
+   * null}
+   *
+   * @param sizeHint the number of bytes the supplied {@link
+   * InputStream} is expected to yield, such as the size recorded in
+   * a tar header or zip entry; a value less than {@code 0} means the
+   * size is unknown; if the hint turns out to be wrong the buffer
+   * grows as needed
+   *
+   * @return a new, non-{@code null} {@link ByteStringInputStream}
+   *
+   * @exception NullPointerException if {@code stream} is {@code null}
+   *
+   * @exception IOException if an error occurs while reading
+   */
+  static final ByteStringInputStream readFrom(final InputStream stream, final long sizeHint) throws IOException {
+    Objects.requireNonNull(stream);
+    byte[] bytes;
+    if (sizeHint < 0L) {
+      bytes = new byte[DEFAULT_BUFFER_SIZE];
+    } else {
+      bytes = new byte[(int)Math.min(sizeHint, (long)MAX_INITIAL_BUFFER_SIZE)];
+    }
+    int length = 0;
+    while (true) {
+      if (length == bytes.length) {
+        // The buffer is full; see if there is anything left before
+        // growing it, so that an accurate size hint costs exactly
+        // one allocation.
+        final int nextByte = stream.read();
+        if (nextByte < 0) {
+          break;
+        }
+        if (length == MAX_BUFFER_SIZE) {
+          throw new IOException("Entry too large");
+        }
+        long newSize = Math.max(2L * length, (long)DEFAULT_BUFFER_SIZE);
+        if (sizeHint > length) {
+          // Don't overshoot a hint that has held up so far.
+          newSize = Math.min(newSize, sizeHint);
+        }
+        bytes = Arrays.copyOf(bytes, (int)Math.min(newSize, (long)MAX_BUFFER_SIZE));
+        bytes[length++] = (byte)nextByte;
+      }
+      final int bytesRead = stream.read(bytes, length, bytes.length - length);
+      if (bytesRead < 0) {
+        break;
+      }
+      length += bytesRead;
+    }
+    return new ByteStringInputStream(bytes, length);
+  }
+
+  /**
+   * Returns a {@link ByteString} representing the remaining contents
+   * of the supplied {@link InputStream}, wrapping rather than copying
+   * them if the supplied {@link InputStream} is a {@link
+   * ByteStringInputStream}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param stream the {@link InputStream} to read; must not be {@code
+   * null}
+   *
+   * @return a non-{@code null} {@link ByteString}
+   *
+   * @exception NullPointerException if {@code stream} is {@code null}
+   *
+   * @exception IOException if an error occurs while reading
+   *
+   * @see ByteString#readFrom(InputStream)
+   */
+  static final ByteString toByteString(final InputStream stream) throws IOException {
+    Objects.requireNonNull(stream);
+    final ByteString returnValue;
+    if (stream instanceof ByteStringInputStream) {
+      returnValue = ((ByteStringInputStream)stream).toByteString();
+    } else {
+      returnValue = ByteString.readFrom(stream);
+    }
+    return returnValue;
+  }
+
+}
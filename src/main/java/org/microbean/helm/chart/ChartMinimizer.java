@@ -0,0 +1,596 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+
+import hapi.chart.ChartOuterClass.Chart;
+import hapi.chart.ChartOuterClass.ChartOrBuilder;
+import hapi.chart.TemplateOuterClass.Template;
+
+import org.microbean.development.annotation.Experimental;
+
+import org.microbean.helm.Tiller;
+
+/**
+ * A reducer of the size of Helm charts that removes content Tiller
+ * will never use before the chart is sent to it.
+ *
+ * <p>Every byte of a chart is sent to Tiller in the installation or
+ * update request, and is then stored by Tiller in the release's
+ * {@code ConfigMap}.  Charts loaded from archives or URLs keep
+ * everything they were packaged with, so a {@link ChartMinimizer}
+ * can, for the chart and each of its subcharts:</p>
+ *
+ * <ol>
+ *
+ * <li>remove the templates and files matched by the chart's own
+ * {@code .helmignore} file, which only the {@link
+ * DirectoryChartLoader} otherwise honors;</li>
+ *
+ * <li>remove the files that Tiller never reads: every file other
+ * than {@code requirements.yaml} that none of the chart's templates
+ * can reach through {@code .Files}.  If any template uses {@code
+ * .Files} in a way other than {@code .Files.Get}, {@code
+ * .Files.GetBytes} or {@code .Files.Lines} with a literal file name,
+ * or uses the {@code tpl} function, which may render strings from
+ * the chart's values or the release's own values that themselves
+ * use {@code .Files}, the chart's files are all kept, since any of
+ * them might be read; and</li>
+ *
+ * <li>collapse byte-identical sibling subcharts into one, since
+ * Tiller would otherwise render each copy.</li>
+ *
+ * </ol>
+ *
+ * <p>A {@link ChartMinimizer} may be supplied to the {@link
+ * org.microbean.helm.ReleaseManager#ReleaseManager(Tiller,
+ * org.microbean.helm.ReleaseCache, org.microbean.helm.ReadPolicy,
+ * ChartMinimizer)} constructor, in which case every chart installed
+ * or updated through that {@link
+ * org.microbean.helm.ReleaseManager} is minimized first, or its
+ * {@link #minimize(Chart.Builder)} method may be called directly,
+ * for example before creating a {@link
+ * org.microbean.helm.PreparedChart}.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are safe for concurrent use by multiple
+ * threads, but the {@link Chart.Builder}s they minimize are not.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see #minimize(Chart.Builder)
+ *
+ * @see Tiller#MAX_MESSAGE_SIZE
+ */
+@Experimental
+public class ChartMinimizer {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The name of the file in a chart holding its ignore rules
+   * ({@value}).
+   */
+  private static final String HELMIGNORE = ".helmignore";
+
+  /**
+   * A {@link Pattern} matching every use of {@code .Files} in a
+   * template.
+   */
+  private static final Pattern filesPattern = Pattern.compile("\\.Files\\b");
+
+  /**
+   * A {@link Pattern} matching uses of {@code .Files} that read a
+   * single, literally named file, and capturing its name in either
+   * group {@code 1} or group {@code 2}.
+   */
+  private static final Pattern literalFilesPattern = Pattern.compile("\\.Files\\.(?:Get|GetBytes|Lines)\\s+(?:\"([^\"\\\\]*)\"|`([^`]*)`)");
+
+  /**
+   * A {@link Pattern} matching uses of the {@code tpl} function in a
+   * template.
+   */
+  private static final Pattern tplPattern = Pattern.compile("(?<![\\w.$])tpl\\b");
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * Whether each chart's {@code .helmignore} rules are applied.
+   */
+  private final boolean applyHelmIgnore;
+
+  /**
+   * Whether files that Tiller never reads are removed.
+   */
+  private final boolean removeUnreadFiles;
+
+  /**
+   * Whether byte-identical sibling subcharts are collapsed.
+   */
+  private final boolean collapseIdenticalSubcharts;
+
+  /**
+   * The {@link Logger} to which {@link Report}s are logged.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Logger logger;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ChartMinimizer} that performs all of the
+   * reductions it is capable of.
+   *
+   * @see #ChartMinimizer(boolean, boolean, boolean)
+   */
+  public ChartMinimizer() {
+    this(true, true, true);
+  }
+
+  /**
+   * Creates a new {@link ChartMinimizer}.
+   *
+   * @param applyHelmIgnore whether templates and files matched by
+   * each chart's {@code .helmignore} file will be removed
+   *
+   * @param removeUnreadFiles whether files that Tiller never reads
+   * will be removed
+   *
+   * @param collapseIdenticalSubcharts whether byte-identical sibling
+   * subcharts will be collapsed into one
+   */
+  public ChartMinimizer(final boolean applyHelmIgnore,
+                        final boolean removeUnreadFiles,
+                        final boolean collapseIdenticalSubcharts) {
+    super();
+    this.applyHelmIgnore = applyHelmIgnore;
+    this.removeUnreadFiles = removeUnreadFiles;
+    this.collapseIdenticalSubcharts = collapseIdenticalSubcharts;
+    this.logger = Logger.getLogger(this.getClass().getName());
+    assert this.logger != null;
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Minimizes the supplied {@link Chart.Builder} in place and
+   * returns a {@link Report} describing what was removed.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>The {@link Report} is also logged at {@link Level#FINE}, or at
+   * {@link Level#WARNING} if the minimized chart still occupies more
+   * than half of {@link Tiller#MAX_MESSAGE_SIZE}.</p>
+   *
+   * @param chartBuilder the {@link Chart.Builder} to minimize; must
+   * not be {@code null}
+   *
+   * @return a non-{@code null} {@link Report}
+   *
+   * @exception NullPointerException if {@code chartBuilder} is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if the chart's {@code
+   * .helmignore} file contains an invalid pattern
+   */
+  public Report minimize(final Chart.Builder chartBuilder) {
+    Objects.requireNonNull(chartBuilder);
+    final long originalSize = getSerializedSize(chartBuilder);
+    final List<String> removedPaths = new ArrayList<>();
+    final List<String> collapsedSubcharts = new ArrayList<>();
+    this.minimize(chartBuilder, "", removedPaths, collapsedSubcharts);
+    final Report returnValue = new Report(originalSize, getSerializedSize(chartBuilder), removedPaths, collapsedSubcharts);
+    if (returnValue.getMinimizedSize() > Tiller.MAX_MESSAGE_SIZE / 2) {
+      if (this.logger.isLoggable(Level.WARNING)) {
+        this.logger.log(Level.WARNING, "Chart " + chartBuilder.getMetadata().getName() + " is still large: " + returnValue);
+      }
+    } else if (this.logger.isLoggable(Level.FINE)) {
+      this.logger.log(Level.FINE, "Minimized chart " + chartBuilder.getMetadata().getName() + ": " + returnValue);
+    }
+    return returnValue;
+  }
+
+  private final void minimize(final Chart.Builder chartBuilder,
+                              final String prefix,
+                              final Collection<? super String> removedPaths,
+                              final Collection<? super String> collapsedSubcharts) {
+    assert chartBuilder != null;
+    assert prefix != null;
+
+    if (this.applyHelmIgnore) {
+      final Ignorer ignorer = Ignorer.of(chartBuilder);
+      if (ignorer != null) {
+        for (int i = chartBuilder.getTemplatesCount() - 1; i >= 0; i--) {
+          final String name = chartBuilder.getTemplates(i).getName();
+          if (ignorer.ignores(name)) {
+            chartBuilder.removeTemplates(i);
+            removedPaths.add(prefix + name);
+          }
+        }
+        for (int i = chartBuilder.getFilesCount() - 1; i >= 0; i--) {
+          final String name = chartBuilder.getFiles(i).getTypeUrl();
+          if (ignorer.ignores(name)) {
+            chartBuilder.removeFiles(i);
+            removedPaths.add(prefix + name);
+          }
+        }
+      }
+    }
+
+    if (this.removeUnreadFiles) {
+      final Set<String> readFiles = getReadFiles(chartBuilder);
+      if (readFiles != null) {
+        for (int i = chartBuilder.getFilesCount() - 1; i >= 0; i--) {
+          final String name = chartBuilder.getFiles(i).getTypeUrl();
+          if (!readFiles.contains(name)) {
+            chartBuilder.removeFiles(i);
+            removedPaths.add(prefix + name);
+          }
+        }
+      }
+    }
+
+    final List<Chart.Builder> subcharts = chartBuilder.getDependenciesBuilderList();
+    assert subcharts != null;
+    for (final Chart.Builder subchart : subcharts) {
+      this.minimize(subchart, prefix + "charts/" + subchart.getMetadata().getName() + "/", removedPaths, collapsedSubcharts);
+    }
+
+    if (this.collapseIdenticalSubcharts && chartBuilder.getDependenciesCount() > 1) {
+      final Set<Chart> distinctSubcharts = new HashSet<>();
+      for (int i = 0; i < chartBuilder.getDependenciesCount(); ) {
+        final Chart subchart = chartBuilder.getDependencies(i);
+        if (distinctSubcharts.add(subchart)) {
+          i++;
+        } else {
+          chartBuilder.removeDependencies(i);
+          collapsedSubcharts.add(prefix + "charts/" + subchart.getMetadata().getName());
+        }
+      }
+    }
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns the names of the files in the supplied {@link
+   * Chart.Builder} that Tiller may read, or {@code null} if it may
+   * read any of them.
+   *
+   * @param chartBuilder the {@link Chart.Builder} to inspect; must
+   * not be {@code null}
+   *
+   * @return a {@link Set} of file names, or {@code null}
+   */
+  private static final Set<String> getReadFiles(final Chart.Builder chartBuilder) {
+    assert chartBuilder != null;
+    final Set<String> returnValue = new HashSet<>();
+    // Tiller itself reads requirements.yaml to process conditions,
+    // tags and imported values.
+    returnValue.add("requirements.yaml");
+    for (final Template template : chartBuilder.getTemplatesList()) {
+      final String data = template.getData().toStringUtf8();
+      if (tplPattern.matcher(data).find()) {
+        // The rendered string may come from values this chart cannot
+        // see, such as the release's own, and may use .Files.
+        return null;
+      }
+      int uses = 0;
+      final Matcher filesMatcher = filesPattern.matcher(data);
+      while (filesMatcher.find()) {
+        uses++;
+      }
+      final Matcher literalFilesMatcher = literalFilesPattern.matcher(data);
+      while (literalFilesMatcher.find()) {
+        uses--;
+        final String name = literalFilesMatcher.group(1);
+        returnValue.add(name == null ? literalFilesMatcher.group(2) : name);
+      }
+      if (uses > 0) {
+        // .Files.Glob, .Files.AsConfig, a computed name, or .Files
+        // assigned to a variable: any file may be read.
+        return null;
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the number of bytes the supplied {@link ChartOrBuilder}
+   * would occupy if it were built and serialized, without building
+   * it.
+   *
+   * @param chart the {@link ChartOrBuilder} to measure; must not be
+   * {@code null}
+   *
+   * @return the serialized size of the supplied {@link
+   * ChartOrBuilder}
+   */
+  private static final long getSerializedSize(final ChartOrBuilder chart) {
+    assert chart != null;
+    long returnValue;
+    if (chart instanceof Chart) {
+      // Built messages memoize their size.
+      returnValue = ((Chart)chart).getSerializedSize();
+    } else {
+      returnValue = chart.getUnknownFields().getSerializedSize();
+      if (chart.hasMetadata()) {
+        returnValue += CodedOutputStream.computeMessageSize(Chart.METADATA_FIELD_NUMBER, chart.getMetadata());
+      }
+      for (final Template template : chart.getTemplatesList()) {
+        returnValue += CodedOutputStream.computeMessageSize(Chart.TEMPLATES_FIELD_NUMBER, template);
+      }
+      for (final ChartOrBuilder dependency : chart.getDependenciesOrBuilderList()) {
+        final long size = getSerializedSize(dependency);
+        returnValue += CodedOutputStream.computeTagSize(Chart.DEPENDENCIES_FIELD_NUMBER) + CodedOutputStream.computeUInt32SizeNoTag((int)size) + size;
+      }
+      if (chart.hasValues()) {
+        returnValue += CodedOutputStream.computeMessageSize(Chart.VALUES_FIELD_NUMBER, chart.getValues());
+      }
+      for (final Any file : chart.getFilesList()) {
+        returnValue += CodedOutputStream.computeMessageSize(Chart.FILES_FIELD_NUMBER, file);
+      }
+    }
+    return returnValue;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * Applies the rules of a chart's {@code .helmignore} file to the
+   * names of its templates and files.
+   *
+   * <p>As when Helm walks a chart directory, a name is ignored if it
+   * or any of its parent directories is matched.  Patterns ending
+   * with {@code /} are applied to parent directories only.</p>
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see HelmIgnorePathMatcher
+   */
+  private static final class Ignorer {
+
+    private final HelmIgnorePathMatcher matcher;
+
+    private final HelmIgnorePathMatcher directoryMatcher;
+
+    private Ignorer(final HelmIgnorePathMatcher matcher, final HelmIgnorePathMatcher directoryMatcher) {
+      super();
+      this.matcher = Objects.requireNonNull(matcher);
+      this.directoryMatcher = Objects.requireNonNull(directoryMatcher);
+    }
+
+    private final boolean ignores(final String name) {
+      Path path = Paths.get(name);
+      if (this.matcher.matches(path)) {
+        return true;
+      }
+      path = path.getParent();
+      while (path != null) {
+        if (this.matcher.matches(path) || this.directoryMatcher.matches(path)) {
+          return true;
+        }
+        path = path.getParent();
+      }
+      return false;
+    }
+
+    private static final Ignorer of(final Chart.Builder chartBuilder) {
+      assert chartBuilder != null;
+      ByteString helmIgnore = null;
+      for (final Any file : chartBuilder.getFilesList()) {
+        if (HELMIGNORE.equals(file.getTypeUrl())) {
+          helmIgnore = file.getValue();
+          break;
+        }
+      }
+      final Ignorer returnValue;
+      if (helmIgnore == null) {
+        returnValue = null;
+      } else {
+        // HelmIgnorePathMatcher tests directory patterns against the
+        // file system, which does not hold these paths, so they are
+        // separated out and applied to parent directories here.
+        final List<String> patterns = new ArrayList<>();
+        final List<String> directoryPatterns = new ArrayList<>();
+        for (String line : helmIgnore.toStringUtf8().split("\\r?\\n")) {
+          line = line.trim();
+          if (line.length() > 1 && line.endsWith("/")) {
+            directoryPatterns.add(line.substring(0, line.length() - 1));
+          } else {
+            patterns.add(line);
+          }
+        }
+        final HelmIgnorePathMatcher matcher = new HelmIgnorePathMatcher(patterns);
+        // The .helmignore file itself is never read by Tiller.
+        matcher.addPattern(HELMIGNORE);
+        returnValue = new Ignorer(matcher, new HelmIgnorePathMatcher(directoryPatterns));
+      }
+      return returnValue;
+    }
+
+  }
+
+  /**
+   * A description of the effects of {@linkplain
+   * ChartMinimizer#minimize(Chart.Builder) minimizing} a chart.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see ChartMinimizer#minimize(Chart.Builder)
+   */
+  @Experimental
+  public static final class Report {
+
+    private final long originalSize;
+
+    private final long minimizedSize;
+
+    private final List<String> removedPaths;
+
+    private final List<String> collapsedSubcharts;
+
+    private Report(final long originalSize,
+                   final long minimizedSize,
+                   final List<String> removedPaths,
+                   final List<String> collapsedSubcharts) {
+      super();
+      this.originalSize = originalSize;
+      this.minimizedSize = minimizedSize;
+      this.removedPaths = Collections.unmodifiableList(new ArrayList<>(removedPaths));
+      this.collapsedSubcharts = Collections.unmodifiableList(new ArrayList<>(collapsedSubcharts));
+    }
+
+    /**
+     * Returns the serialized size of the chart, in bytes, before it
+     * was minimized.
+     *
+     * @return the original size of the chart
+     */
+    public final long getOriginalSize() {
+      return this.originalSize;
+    }
+
+    /**
+     * Returns the serialized size of the chart, in bytes, after it
+     * was minimized.
+     *
+     * @return the minimized size of the chart
+     */
+    public final long getMinimizedSize() {
+      return this.minimizedSize;
+    }
+
+    /**
+     * Returns the number of bytes saved by minimizing the chart.
+     *
+     * @return the number of bytes saved
+     */
+    public final long getBytesSaved() {
+      return this.originalSize - this.minimizedSize;
+    }
+
+    /**
+     * Returns the number of bytes by which the minimized chart falls
+     * short of {@link Tiller#MAX_MESSAGE_SIZE}, which will be
+     * negative if the chart is too large to send at all.
+     *
+     * <p>The rest of the request is small but not accounted for.</p>
+     *
+     * @return the remaining room for the chart in a message
+     */
+    public final long getHeadroom() {
+      return Tiller.MAX_MESSAGE_SIZE - this.minimizedSize;
+    }
+
+    /**
+     * Returns the paths, relative to the root chart, of the templates
+     * and files that were removed.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null}, unmodifiable {@link List} of paths
+     * such as {@code charts/mysql/README.md}
+     */
+    public final List<String> getRemovedPaths() {
+      return this.removedPaths;
+    }
+
+    /**
+     * Returns the paths, relative to the root chart, of the subcharts
+     * that were removed because an identical sibling was retained.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null}, unmodifiable {@link List} of paths
+     * such as {@code charts/mysql}
+     */
+    public final List<String> getCollapsedSubcharts() {
+      return this.collapsedSubcharts;
+    }
+
+    /**
+     * Returns a {@link String} representation of this {@link
+     * Report}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link String}
+     */
+    @Override
+    public final String toString() {
+      return new StringBuilder()
+        .append(this.originalSize).append(" -> ").append(this.minimizedSize)
+        .append(" bytes (").append(this.getBytesSaved()).append(" saved, ")
+        .append(this.getHeadroom()).append(" below Tiller.MAX_MESSAGE_SIZE); ")
+        .append(this.removedPaths.size()).append(" paths removed, ")
+        .append(this.collapsedSubcharts.size()).append(" subcharts collapsed")
+        .toString();
+    }
+
+  }
+
+}
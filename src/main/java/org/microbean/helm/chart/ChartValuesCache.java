@@ -0,0 +1,232 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+
+import hapi.chart.ChartOuterClass.Chart;
+import hapi.chart.ChartOuterClass.ChartOrBuilder;
+import hapi.chart.ConfigOuterClass.Config;
+
+import org.yaml.snakeyaml.Yaml;
+
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+/**
+ * A cache of parsed chart values that lives for the duration of a
+ * single values-related operation on a chart hierarchy, such as
+ * {@link Requirements#apply(Chart.Builder,
+ * hapi.chart.ConfigOuterClass.ConfigOrBuilder)}.
+ *
+ * <p>A {@link ChartValuesCache} ensures that any given YAML
+ * document is parsed at most once, and that any values that are
+ * computed for a given {@link Chart.Builder} are carried around in
+ * {@link Map} form until they are {@linkplain #flush() flushed},
+ * at which point they are serialized to YAML exactly once.</p>
+ *
+ * <p>All {@link Map}s handed out by instances of this class are
+ * {@linkplain Values#copy(Map) deep copies} and may be freely
+ * modified by their recipients.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are <strong>not</strong> suitable for
+ * concurrent access by multiple threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see Configs
+ *
+ * @see Requirements
+ */
+final class ChartValuesCache {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * A {@link Map} of parsed YAML documents indexed by their textual
+   * representations.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * <p>Values stored in this {@link Map} are never handed out
+   * directly.</p>
+   */
+  private final Map<String, Map<String, Object>> parsedYaml;
+
+  /**
+   * A {@link Map} of values that have been computed for, but not yet
+   * {@linkplain #flush() written to}, particular {@link
+   * Chart.Builder} instances, indexed by those instances' identities.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #setValues(Chart.Builder, Map)
+   *
+   * @see #flush()
+   */
+  private final Map<Chart.Builder, Map<String, Object>> pendingValues;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ChartValuesCache}.
+   */
+  ChartValuesCache() {
+    super();
+    this.parsedYaml = new HashMap<>();
+    this.pendingValues = new IdentityHashMap<>();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns a {@link Map} representation of the supplied YAML
+   * document, parsing it only if it has not been parsed before by
+   * this {@link ChartValuesCache}.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param yaml the YAML document to parse; may be {@code null}
+   *
+   * @return a new, mutable {@link Map} representing the supplied
+   * YAML, or {@code null} if {@code yaml} is {@code null}, {@linkplain
+   * String#isEmpty() empty} or otherwise does not represent a
+   * {@link Map}
+   */
+  final Map<String, Object> load(final String yaml) {
+    Map<String, Object> returnValue = null;
+    if (yaml != null && !yaml.isEmpty()) {
+      Map<String, Object> parsedValues = this.parsedYaml.get(yaml);
+      if (parsedValues == null && !this.parsedYaml.containsKey(yaml)) {
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> temp = new Yaml(new SafeConstructor()).load(yaml);
+        parsedValues = temp;
+        this.parsedYaml.put(yaml, parsedValues);
+      }
+      returnValue = Values.copy(parsedValues);
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns {@code true} if values have been {@linkplain
+   * #setValues(Chart.Builder, Map) set} for the supplied {@link
+   * ChartOrBuilder} but not yet {@linkplain #flush() flushed}.
+   *
+   * @param chart the {@link ChartOrBuilder} to check; may be {@code
+   * null} in which case {@code false} will be returned
+   *
+   * @return {@code true} if this {@link ChartValuesCache} holds
+   * pending values for the supplied {@link ChartOrBuilder}; {@code
+   * false} otherwise
+   */
+  final boolean hasValues(final ChartOrBuilder chart) {
+    return chart != null && this.pendingValues.containsKey(chart);
+  }
+
+  /**
+   * Returns a copy of the values that were {@linkplain
+   * #setValues(Chart.Builder, Map) set} for the supplied {@link
+   * ChartOrBuilder}, or {@code null} if there are no such values.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param chart the {@link ChartOrBuilder} in question; may be
+   * {@code null} in which case {@code null} will be returned
+   *
+   * @return a new, mutable {@link Map}, or {@code null}
+   *
+   * @see #hasValues(ChartOuterClass.ChartOrBuilder)
+   */
+  final Map<String, Object> getValues(final ChartOrBuilder chart) {
+    final Map<String, Object> returnValue;
+    if (chart == null) {
+      returnValue = null;
+    } else {
+      returnValue = Values.copy(this.pendingValues.get(chart));
+    }
+    return returnValue;
+  }
+
+  /**
+   * Records the supplied {@link Map} as the values that should be
+   * written, upon the next invocation of the {@link #flush()} method,
+   * to the supplied {@link Chart.Builder}'s {@linkplain
+   * Chart.Builder#getValuesBuilder() values}.
+   *
+   * <p>Until then, the supplied values will be used in place of the
+   * {@link Chart.Builder}'s actual values by all {@link Configs}
+   * methods to which this {@link ChartValuesCache} is supplied.</p>
+   *
+   * @param chart the {@link Chart.Builder} in question; must not be
+   * {@code null}
+   *
+   * @param values the values to record; must not be {@code null};
+   * not copied, so must not be modified by the caller afterwards
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   */
+  final void setValues(final Chart.Builder chart, final Map<String, Object> values) {
+    Objects.requireNonNull(chart);
+    Objects.requireNonNull(values);
+    this.pendingValues.put(chart, values);
+  }
+
+  /**
+   * Serializes all {@linkplain #setValues(Chart.Builder, Map) pending
+   * values} to YAML, installs the results as the {@linkplain
+   * Config.Builder#setRaw(String) raw values} of the {@link
+   * Chart.Builder}s they belong to, and forgets them.
+   */
+  final void flush() {
+    if (!this.pendingValues.isEmpty()) {
+      final Yaml yaml = new Yaml();
+      final Collection<Entry<Chart.Builder, Map<String, Object>>> entrySet = this.pendingValues.entrySet();
+      assert entrySet != null;
+      for (final Entry<Chart.Builder, Map<String, Object>> entry : entrySet) {
+        assert entry != null;
+        final Chart.Builder chart = entry.getKey();
+        assert chart != null;
+        final Config.Builder configBuilder = chart.getValuesBuilder();
+        assert configBuilder != null;
+        configBuilder.setRaw(yaml.dump(entry.getValue()));
+      }
+      this.pendingValues.clear();
+    }
+  }
+
+}
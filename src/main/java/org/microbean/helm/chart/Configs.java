@@ -25,7 +25,7 @@ import hapi.chart.ChartOuterClass.ChartOrBuilder;
 import hapi.chart.ConfigOuterClass.Config;
 import hapi.chart.ConfigOuterClass.ConfigOrBuilder;
 import hapi.chart.ConfigOuterClass.ValueOrBuilder;
-import hapi.chart.MetadataOuterClass.Metadata;
+import hapi.chart.MetadataOuterClass.MetadataOrBuilder;
 
 import hapi.services.tiller.Tiller.InstallReleaseRequest; // for javadoc only
 
@@ -99,6 +99,28 @@ final class Configs {
   static final Map<String, Object> toDefaultValuesMap(final ChartOrBuilder chart) {
     return toValuesMap(chart, (ConfigOrBuilder)null);
   }
+
+  /**
+   * Given a {@link ChartOrBuilder}, flattens its
+   * {@linkplain ChartOrBuilder#getValues() default values} into
+   * a {@link Map}, consulting the supplied {@link ChartValuesCache}
+   * for already-parsed or pending values.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param chart the {@link ChartOrBuilder} whose {@linkplain
+   * ChartOrBuilder#getValues() values} will be taken into
+   * consideration; may be {@code null}
+   *
+   * @param cache a {@link ChartValuesCache}; may be {@code null}
+   *
+   * @return a {@link Map} of values; never {@code null}
+   *
+   * @see #toDefaultValuesMap(ChartOuterClass.ChartOrBuilder)
+   */
+  static final Map<String, Object> toDefaultValuesMap(final ChartOrBuilder chart, final ChartValuesCache cache) {
+    return toEffectiveValuesMap(chart, null, cache);
+  }
   
   /**
    * Given an optional set of overriding values in {@link
@@ -134,9 +156,42 @@ final class Configs {
     } else {
       configAsMap = toMap(config);
     }
-    final Map<String, Object> map = toValuesMap(chart, configAsMap);
+    return toEffectiveValuesMap(chart, configAsMap, null);
+  }
+
+  /**
+   * Given an optional set of overriding values in already-parsed
+   * {@link Map} form, and a {@link ChartOrBuilder} whose {@linkplain
+   * ChartOrBuilder#getValues() default values} are being overridden,
+   * flattens both into a {@link Map}, such that the overriding values
+   * are dominant and the {@link ChartOrBuilder}'s {@linkplain
+   * ChartOrBuilder#getValues() values} are recessive.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>This method behaves like the {@link
+   * #toValuesMap(ChartOuterClass.ChartOrBuilder,
+   * ConfigOuterClass.ConfigOrBuilder)} method, but no YAML needs to
+   * be parsed to read the overriding values, and the supplied {@link
+   * ChartValuesCache}, if any, is used so that no chart's default
+   * values are parsed more than once.</p>
+   *
+   * @param chart the {@link ChartOrBuilder} whose {@linkplain
+   * ChartOrBuilder#getValues() values} will be taken into
+   * consideration; may be {@code null}
+   *
+   * @param suppliedValues the overriding values; may be {@code null};
+   * <strong>will be modified in place</strong> and returned if
+   * non-{@code null}
+   *
+   * @param cache a {@link ChartValuesCache}; may be {@code null}
+   *
+   * @return a {@link Map} of values; never {@code null}
+   */
+  static final Map<String, Object> toEffectiveValuesMap(final ChartOrBuilder chart, final Map<String, Object> suppliedValues, final ChartValuesCache cache) {
+    final Map<String, Object> map = toValuesMap(chart, suppliedValues, cache);
     assert map != null;
-    final Map<String, Object> returnValue = coalesceDependencies(chart, map);
+    final Map<String, Object> returnValue = coalesceDependencies(chart, map, cache);
     return returnValue;
   }
 
@@ -168,6 +223,9 @@ final class Configs {
    * values that will be (possibly) modified and returned (if
    * non-{@code null})
    *
+   * @param cache a {@link ChartValuesCache} that, if non-{@code
+   * null}, will be consulted for pending or already-parsed values
+   *
    * @return {@code targetMap}, with possibly changed contents, if it
    * is non-{@code null}, or a new {@link Map}
    *
@@ -179,24 +237,32 @@ final class Configs {
    *
    * @see Yaml#loadAs(String, Class)
    */
-  private static final Map<String, Object> computeEffectiveValues(final ChartOrBuilder chart, Map<String, Object> targetMap) {
+  private static final Map<String, Object> computeEffectiveValues(final ChartOrBuilder chart, Map<String, Object> targetMap, final ChartValuesCache cache) {
     if (targetMap == null) {
       targetMap = new HashMap<>();
     }
     if (chart != null) {
-      final ConfigOrBuilder config = chart.getValues();
-      if (config != null) {
-        targetMap = computeEffectiveValues(config, targetMap);
+      if (cache != null && cache.hasValues(chart)) {
+        targetMap = Values.coalesceMaps(cache.getValues(chart), targetMap);
+      } else {
+        final ConfigOrBuilder config = chart.getValues();
+        if (config != null) {
+          targetMap = computeEffectiveValues(config, targetMap, cache);
+        }
       }
     }
     return targetMap;
   }
 
   static final Map<String, Object> toMap(final ConfigOrBuilder config) {
-    return computeEffectiveValues(config, null);
+    return computeEffectiveValues(config, null, null);
+  }
+
+  static final Map<String, Object> toMap(final ConfigOrBuilder config, final ChartValuesCache cache) {
+    return computeEffectiveValues(config, null, cache);
   }
   
-  private static final Map<String, Object> computeEffectiveValues(final ConfigOrBuilder config, Map<String, Object> targetMap) {
+  private static final Map<String, Object> computeEffectiveValues(final ConfigOrBuilder config, Map<String, Object> targetMap, final ChartValuesCache cache) {
     if (targetMap == null) {
       targetMap = new HashMap<>();
     }
@@ -226,10 +292,12 @@ final class Configs {
             }
           }
         }
-      } else {
+      } else if (cache == null) {
         @SuppressWarnings("unchecked")
         final Map<String, Object> temp = new Yaml(new SafeConstructor()).load(raw);
         sourceMap = temp;
+      } else {
+        sourceMap = cache.load(raw);
       }
       targetMap = Values.coalesceMaps(sourceMap, targetMap);
     }
@@ -241,46 +309,47 @@ final class Configs {
    * {@link Map} of typically user-supplied values with the
    * {@linkplain ChartOrBuilder#getValues() default values present in
    * the supplied <code>ChartOrBuilder</code>}, and then calls {@link
-   * #coalesceDependencies(ChartOuterClass.ChartOrBuilder, Map)} on
-   * the results.
+   * #coalesceDependencies(ChartOuterClass.ChartOrBuilder, Map,
+   * ChartValuesCache)} on the results.
    *
    * <p>This method first calls {@link
-   * #computeEffectiveValues(ChartOuterClass.ChartOrBuilder, Map)},
-   * producing a {@link Map} that combines user-specified and default
-   * values, and then passes the supplied {@code chart} and the values
-   * {@link Map} to the {@link
-   * #coalesceDependencies(ChartOuterClass.ChartOrBuilder, Map)}
-   * method and returns its result.
+   * #computeEffectiveValues(ChartOuterClass.ChartOrBuilder, Map,
+   * ChartValuesCache)}, producing a {@link Map} that combines
+   * user-specified and default values, and then passes the supplied
+   * {@code chart} and the values {@link Map} to the {@link
+   * #coalesceDependencies(ChartOuterClass.ChartOrBuilder, Map,
+   * ChartValuesCache)} method and returns its result.
    *
    * @param chart a {@link ChartOrBuilder}
    *
    * @param suppliedValues the {@link Map} that will ultimately be
    * modified and returned
    *
+   * @param cache a {@link ChartValuesCache} to consult; may be
+   * {@code null}
+   *
    * @return {@code suppliedValues}
    *
-   * @see #coalesceDependencies(ChartOuterClass.ChartOrBuilder, Map)
+   * @see #coalesceDependencies(ChartOuterClass.ChartOrBuilder, Map, ChartValuesCache)
    *
-   * @see #computeEffectiveValues(ChartOuterClass.ChartOrBuilder, Map)
+   * @see #computeEffectiveValues(ChartOuterClass.ChartOrBuilder, Map, ChartValuesCache)
    */
-  private static final Map<String, Object> toValuesMap(final ChartOrBuilder chart, Map<String, Object> suppliedValues) {
-    final Map<String, Object> effectiveValues = computeEffectiveValues(chart, suppliedValues);
+  private static final Map<String, Object> toValuesMap(final ChartOrBuilder chart, Map<String, Object> suppliedValues, final ChartValuesCache cache) {
+    final Map<String, Object> effectiveValues = computeEffectiveValues(chart, suppliedValues, cache);
     assert suppliedValues == null || effectiveValues == suppliedValues;
     assert effectiveValues != null;
-    final Map<String, Object> returnValue = coalesceDependencies(chart, effectiveValues);
+    final Map<String, Object> returnValue = coalesceDependencies(chart, effectiveValues, cache);
     assert returnValue == effectiveValues;
     return returnValue;
   }
 
-  private static final Map<String, Object> coalesceDependencies(final ChartOrBuilder chart) {
-    final Map<String, Object> effectiveValues = computeEffectiveValues(chart, new HashMap<>());
-    assert effectiveValues != null;
-    return coalesceDependencies(chart, effectiveValues);
-  }
-  
-  private static final Map<String, Object> coalesceDependencies(final ChartOrBuilder chart, Map<String, Object> returnValue) {
+  private static final Map<String, Object> coalesceDependencies(final ChartOrBuilder chart, Map<String, Object> returnValue, final ChartValuesCache cache) {
     if (chart != null) {
-      returnValue = coalesceDependencies(chart.getDependenciesList(), returnValue);
+      // Note that getDependenciesOrBuilderList(), unlike
+      // getDependenciesList(), does not force the building of
+      // subcharts when chart is a Chart.Builder, and preserves the
+      // identities that the supplied ChartValuesCache relies upon.
+      returnValue = coalesceDependencies(chart.getDependenciesOrBuilderList(), returnValue, cache);
       assert returnValue != null;
     }    
     return returnValue;
@@ -308,22 +377,25 @@ final class Configs {
    * as primary, or overriding; may be {@code null} in which case a
    * new {@link Map} will be used instead
    *
+   * @param cache a {@link ChartValuesCache} to consult; may be
+   * {@code null}
+   *
    * @return {@code returnValue}, containing whatever it contained
    * before together with the flattened default values from the
    * supplied subcharts; never {@code null}
    *
    * @see Values#coalesceGlobals(Map, Map)
    *
-   * @see #toValuesMap(ChartOuterClass.ChartOrBuilder, Map)
+   * @see #toValuesMap(ChartOuterClass.ChartOrBuilder, Map, ChartValuesCache)
    */
-  private static final Map<String, Object> coalesceDependencies(final Iterable<? extends ChartOrBuilder> subcharts, Map<String, Object> returnValue) {
+  private static final Map<String, Object> coalesceDependencies(final Iterable<? extends ChartOrBuilder> subcharts, Map<String, Object> returnValue, final ChartValuesCache cache) {
     if (returnValue == null) {
       returnValue = new HashMap<>();
     }
     if (subcharts != null) {
       for (final ChartOrBuilder subchart : subcharts) {
         if (subchart != null) {
-          final Metadata subchartMetadata = subchart.getMetadata();
+          final MetadataOrBuilder subchartMetadata = subchart.getMetadataOrBuilder();
           if (subchartMetadata != null) {
             final String subchartName = subchartMetadata.getName();
             if (subchartName != null) {
@@ -365,7 +437,7 @@ final class Configs {
               // anything in subchartValuesMap.  So this whole thing
               // flattens all the subchart default values and their
               // globals into one map.
-              final Map<String, Object> temp = toValuesMap(subchart, subchartValuesMap);
+              final Map<String, Object> temp = toValuesMap(subchart, subchartValuesMap, cache);
               assert temp == subchartValuesMap;
               
               returnValue.put(subchartName, temp);
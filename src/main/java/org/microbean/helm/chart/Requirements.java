@@ -31,17 +31,14 @@ import java.util.Objects;
 import java.util.regex.Pattern;
 
 import com.github.zafarkhaja.semver.Parser;
-import com.github.zafarkhaja.semver.Version;
 
 import com.github.zafarkhaja.semver.expr.Expression;
-import com.github.zafarkhaja.semver.expr.ExpressionParser;
 
 import com.google.protobuf.Any;
 import com.google.protobuf.ByteString;
 
 import hapi.chart.ChartOuterClass.Chart;
 import hapi.chart.ChartOuterClass.ChartOrBuilder;
-import hapi.chart.ConfigOuterClass.Config;
 import hapi.chart.ConfigOuterClass.ConfigOrBuilder;
 import hapi.chart.MetadataOuterClass.Metadata;
 import hapi.chart.MetadataOuterClass.MetadataOrBuilder;
@@ -183,7 +180,35 @@ public final class Requirements {
    * null}
    */
   static final Chart.Builder processImportValues(final Chart.Builder chartBuilder) {
+    return processImportValues(chartBuilder, new ChartValuesCache());
+  }
+
+  /**
+   * Applies rules around <a
+   * href="https://docs.helm.sh/developing_charts/#importing-child-values-via-requirements-yaml">importing
+   * subchart values into the parent chart's values</a>, using the
+   * supplied {@link ChartValuesCache} to avoid reparsing values.
+   *
+   * <p>The values computed for each affected chart are held in {@link
+   * Map} form by the supplied {@link ChartValuesCache} while the
+   * chart hierarchy is processed, and are {@linkplain
+   * ChartValuesCache#flush() serialized to YAML} exactly once, just
+   * before this method returns.</p>
+   *
+   * @param chartBuilder the {@link Chart.Builder} to work on; must
+   * not be {@code null}
+   *
+   * @param cache the {@link ChartValuesCache} to use; must not be
+   * {@code null}
+   *
+   * @return the supplied {@code chartBuilder}
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   */
+  private static final Chart.Builder processImportValues(final Chart.Builder chartBuilder, final ChartValuesCache cache) {
     Objects.requireNonNull(chartBuilder);
+    Objects.requireNonNull(cache);
     final List<? extends Chart.Builder> flattenedCharts = Charts.flatten(chartBuilder);
     if (flattenedCharts != null) {
       assert !flattenedCharts.isEmpty();
@@ -192,19 +217,21 @@ public final class Requirements {
       while (listIterator.hasPrevious()) {
         final Chart.Builder chart = listIterator.previous();
         assert chart != null;
-        processSingleChartImportValues(chart);
+        processSingleChartImportValues(chart, cache);
       }
     }
+    cache.flush();
     return chartBuilder;
   }
   
   // Ported from requirements.go processImportValues().
-  private static final Chart.Builder processSingleChartImportValues(final Chart.Builder chartBuilder) {
+  private static final Chart.Builder processSingleChartImportValues(final Chart.Builder chartBuilder, final ChartValuesCache cache) {
     Objects.requireNonNull(chartBuilder);
+    Objects.requireNonNull(cache);
 
     Chart.Builder returnValue = null;
 
-    final Map<String, Object> canonicalValues = Configs.toDefaultValuesMap(chartBuilder);
+    final Map<String, Object> canonicalValues = Configs.toDefaultValuesMap(chartBuilder, cache);
     
     Map<String, Object> combinedValues = new HashMap<>();
     final Requirements requirements = fromChartOrBuilder(chartBuilder);
@@ -280,11 +307,11 @@ public final class Requirements {
     }
     combinedValues = Values.coalesceMaps(canonicalValues, combinedValues);
     assert combinedValues != null;
-    final String yaml = new Yaml().dump(combinedValues);
-    assert yaml != null;
-    final Config.Builder configBuilder = chartBuilder.getValuesBuilder();
-    assert configBuilder != null;
-    configBuilder.setRaw(yaml);
+    // Rather than serializing combinedValues to YAML here, only to
+    // have our parent chart (if any) parse it again, hand it to the
+    // cache, which will serialize it once, after all charts have been
+    // processed.
+    cache.setValues(chartBuilder, combinedValues);
     returnValue = chartBuilder;
     assert returnValue != null;
     return returnValue;
@@ -389,6 +416,55 @@ public final class Requirements {
    */
   static final Chart.Builder apply(final Chart.Builder chartBuilder, final ConfigOrBuilder userSuppliedValues, final boolean topLevel) {
     Objects.requireNonNull(chartBuilder);
+    final ChartValuesCache cache = new ChartValuesCache();
+    final Map<String, Object> userSuppliedValuesMap;
+    if (userSuppliedValues == null) {
+      userSuppliedValuesMap = null;
+    } else {
+      userSuppliedValuesMap = Configs.toMap(userSuppliedValues, cache);
+    }
+    apply(chartBuilder, userSuppliedValuesMap, cache, topLevel);
+    final Chart.Builder returnValue;
+    if (topLevel) {
+      returnValue = processImportValues(chartBuilder, cache);
+    } else {
+      returnValue = chartBuilder;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Applies a <a
+   * href="https://docs.helm.sh/developing_charts/#alias-field-in-requirements-yaml">variety
+   * of rules concerning subchart aliasing and enablement</a> to the
+   * contents of the supplied {@code Chart.Builder}, recursively.
+   *
+   * <p>Values are carried through the recursion in already-parsed
+   * {@link Map} form; no YAML is produced by this method, and the
+   * supplied {@link ChartValuesCache} ensures that no chart's default
+   * values are parsed more than once.</p>
+   *
+   * @param chartBuilder the {@link Chart.Builder} whose subcharts may
+   * be affected; must not be {@code null}
+   *
+   * @param userSuppliedValues a {@link Map} representing overriding
+   * values; may be {@code null}; <strong>will be modified</strong> if
+   * non-{@code null}
+   *
+   * @param cache the {@link ChartValuesCache} in effect; must not be
+   * {@code null}
+   *
+   * @param topLevel {@code true} if this is a non-recursive call
+   *
+   * @exception NullPointerException if {@code chartBuilder} or {@code
+   * cache} is {@code null}
+   */
+  private static final void apply(final Chart.Builder chartBuilder,
+                                  final Map<String, Object> userSuppliedValues,
+                                  final ChartValuesCache cache,
+                                  final boolean topLevel) {
+    Objects.requireNonNull(chartBuilder);
+    Objects.requireNonNull(cache);
 
     final Requirements requirements = fromChartOrBuilder(chartBuilder);
     if (requirements != null && !requirements.isEmpty()) {
@@ -406,8 +482,11 @@ public final class Requirements {
               boolean dependencySelectsAtLeastOneSubchart = false;
               for (final Chart.Builder subchart : existingSubcharts) {
                 if (subchart != null) {
-                  dependencySelectsAtLeastOneSubchart = dependencySelectsAtLeastOneSubchart || dependency.selects(subchart);
-                  dependency.adjustName(subchart);
+                  // Only call selects() once per dependency/subchart
+                  // pair; adjustName() would otherwise call it again.
+                  final boolean selected = dependency.selects(subchart);
+                  dependencySelectsAtLeastOneSubchart = dependencySelectsAtLeastOneSubchart || selected;
+                  dependency.adjustName(subchart, selected);
                 }
               }
               if (topLevel && !dependencySelectsAtLeastOneSubchart) {
@@ -428,7 +507,7 @@ public final class Requirements {
 
           // Combine the supplied values with the chart's default
           // values in the form of a Map.
-          final Map<String, Object> chartValuesMap = Configs.toValuesMap(chartBuilder, userSuppliedValues);
+          final Map<String, Object> chartValuesMap = Configs.toEffectiveValuesMap(chartBuilder, userSuppliedValues, cache);
           assert chartValuesMap != null;
           
           // Now disable certain Dependencies.  This might be because
@@ -437,21 +516,6 @@ public final class Requirements {
           // them earlier because we didn't have values.
           requirements.applyEnablementRules(chartValuesMap);
 
-          // Turn the values into YAML, because YAML is the only format
-          // we have for setting the contents of a new Config.Builder object (see
-          // Config.Builder#setRaw(String)).
-          final String userSuppliedValuesYaml;
-          if (chartValuesMap.isEmpty()) {
-            userSuppliedValuesYaml = "";
-          } else {
-            userSuppliedValuesYaml = new Yaml().dump(chartValuesMap);
-          }
-          assert userSuppliedValuesYaml != null;
-
-          final Config.Builder configBuilder = Config.newBuilder();
-          assert configBuilder != null;  
-          configBuilder.setRaw(userSuppliedValuesYaml);
-          
           // Very carefully remove subcharts that have been disabled.
           // Note the recursive call contained below.
           ITERATION:
@@ -464,20 +528,17 @@ public final class Requirements {
               }
             }
             
-            // If we get here, this is an enabled subchart.
-            Requirements.apply(subchart, configBuilder, false /* not topLevel, i.e. this is recursive */); // <-- RECURSIVE CALL
+            // If we get here, this is an enabled subchart.  The
+            // recursive call will modify the values it is handed, so
+            // give it its own copy.  (This is equivalent to, but much
+            // cheaper than, marshalling chartValuesMap to YAML and
+            // having the recursive call parse it again.)
+            apply(subchart, Values.copy(chartValuesMap), cache, false /* not topLevel, i.e. this is recursive */); // <-- RECURSIVE CALL
           }
           
         }
       }
     }
-    final Chart.Builder returnValue;
-    if (topLevel) {
-      returnValue = processImportValues(chartBuilder);
-    } else {
-      returnValue = chartBuilder;
-    }
-    return returnValue;
   }
 
   
@@ -1027,14 +1088,16 @@ public final class Requirements {
         return false;
       }
       
-      final Version version = Version.valueOf(versionString);
-      assert version != null;
-      return version.satisfies(ExpressionParser.newInstance().parse(myVersionRange));
+      return Versions.satisfies(versionString, myVersionRange);
     }
 
     final boolean adjustName(final Chart.Builder subchart) {
+      return subchart != null && this.adjustName(subchart, this.selects(subchart));
+    }
+
+    private final boolean adjustName(final Chart.Builder subchart, final boolean selected) {
       boolean returnValue = false;
-      if (subchart != null && this.selects(subchart)) {
+      if (subchart != null && selected) {
         final String alias = this.getAlias();
         if (alias != null && !alias.isEmpty() && subchart.hasMetadata()) {
           final Metadata.Builder subchartMetadataBuilder = subchart.getMetadataBuilder();
@@ -582,7 +582,7 @@ public abstract class StreamOrientedChartLoader<T> extends AbstractChartLoader<T
     Config returnValue = null;
     final Config.Builder builder = chartBuilder.getValuesBuilder();
     assert builder != null;
-    final ByteString rawBytes = ByteString.readFrom(stream);
+    final ByteString rawBytes = ByteStringInputStream.toByteString(stream);
     assert rawBytes != null;
     builder.setRawBytes(rawBytes);
   }
@@ -671,7 +671,7 @@ public abstract class StreamOrientedChartLoader<T> extends AbstractChartLoader<T
     final Template.Builder builder = chartBuilder.addTemplatesBuilder();
     assert builder != null;
     builder.setName(name);
-    final ByteString data = ByteString.readFrom(stream);
+    final ByteString data = ByteStringInputStream.toByteString(stream);
     assert data != null;
     assert data.isValidUtf8();
     builder.setData(data);
@@ -713,7 +713,7 @@ public abstract class StreamOrientedChartLoader<T> extends AbstractChartLoader<T
     final Any.Builder builder = chartBuilder.addFilesBuilder();
     assert builder != null;
     builder.setTypeUrl(name);
-    final ByteString fileContents = ByteString.readFrom(stream);
+    final ByteString fileContents = ByteStringInputStream.toByteString(stream);
     assert fileContents != null;
     builder.setValue(fileContents);
   }
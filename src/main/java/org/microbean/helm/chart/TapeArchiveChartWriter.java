@@ -22,8 +22,6 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 
-import java.nio.charset.StandardCharsets;
-
 import java.util.Collection;
 import java.util.Objects;
 
@@ -101,11 +99,45 @@ public class TapeArchiveChartWriter extends AbstractArchiveChartWriter {
    */
   
 
+  /**
+   * Encodes the supplied {@code contents} as UTF-8 and {@linkplain
+   * #writeEntry(AbstractChartWriter.Context, String, ByteString)
+   * writes the resulting bytes}.
+   *
+   * @param context the {@link Context} describing the write operation
+   * in effect; must not be {@code null}
+   *
+   * @param path the path within a tape archive to write; interpreted
+   * as being relative to the current chart path; must not be {@code
+   * null} or {@linkplain String#isEmpty() empty}
+   *
+   * @param contents the contents to write; must not be {@code null}
+   *
+   * @exception IOException if a write error occurs
+   *
+   * @exception NullPointerException if {@code context}, {@code path}
+   * or {@code contents} is {@code null}
+   *
+   * @exception IllegalArgumentException if {@code path} {@linkplain
+   * String#isEmpty() is empty}
+   */
+  @Override
+  protected void writeEntry(final Context context, final String path, final String contents) throws IOException {
+    Objects.requireNonNull(context);
+    Objects.requireNonNull(path);
+    Objects.requireNonNull(contents);
+    this.writeEntry(context, path, ByteString.copyFromUtf8(contents));
+  }
+
   /**
    * Creates a new {@link TarHeader} and a {@link TarEntry} wrapping
    * it and writes it and the supplied {@code contents} to the
    * underlying {@link TarOutputStream}.
    *
+   * <p>The supplied {@code contents} are {@linkplain
+   * ByteString#writeTo(OutputStream) written directly}, without being
+   * copied or decoded.</p>
+   *
    * @param context the {@link Context} describing the write operation
    * in effect; must not be {@code null}
    *
@@ -124,7 +156,7 @@ public class TapeArchiveChartWriter extends AbstractArchiveChartWriter {
    * String#isEmpty() is empty}
    */
   @Override
-  protected void writeEntry(final Context context, final String path, final String contents) throws IOException {
+  protected void writeEntry(final Context context, final String path, final ByteString contents) throws IOException {
     Objects.requireNonNull(context);
     Objects.requireNonNull(path);
     Objects.requireNonNull(contents);
@@ -132,8 +164,7 @@ public class TapeArchiveChartWriter extends AbstractArchiveChartWriter {
       throw new IllegalArgumentException("path", new IllegalStateException("path.isEmpty()"));
     }
 
-    final byte[] contentsBytes = contents.getBytes(StandardCharsets.UTF_8);
-    final long size = contentsBytes.length;
+    final long size = contents.size();
     final TarHeader tarHeader =
       TarHeader.createHeader(new StringBuilder(context.get("path", String.class)).append(path).toString(),
                              size,
@@ -142,7 +173,7 @@ public class TapeArchiveChartWriter extends AbstractArchiveChartWriter {
                              0755);
     final TarEntry tarEntry = new TarEntry(tarHeader);
     this.outputStream.putNextEntry(tarEntry);
-    this.outputStream.write(contentsBytes);
+    contents.writeTo(this.outputStream);
     this.outputStream.flush();
   }
 
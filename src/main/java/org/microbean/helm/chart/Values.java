@@ -16,7 +16,11 @@
  */
 package org.microbean.helm.chart;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
@@ -187,4 +191,64 @@ final class Values {
   }
   
 
+  /**
+   * Returns a deep copy of the supplied {@link Map}, such as might
+   * have been produced by parsing a YAML document.
+   *
+   * <p>This method may return {@code null} if {@code map} is {@code
+   * null}.</p>
+   *
+   * <p>Nested {@link Map}s, {@link List}s and {@link Set}s are copied
+   * recursively; all other values are shared.  The result is
+   * therefore equivalent to, but much cheaper than, marshalling the
+   * supplied {@link Map} to YAML and reading it back in.</p>
+   *
+   * @param map the {@link Map} to copy; may be {@code null}
+   *
+   * @return a mutable deep copy of {@code map}, or {@code null}
+   */
+  static final Map<String, Object> copy(final Map<? extends String, ?> map) {
+    final Map<String, Object> returnValue;
+    if (map == null) {
+      returnValue = null;
+    } else {
+      returnValue = new HashMap<>();
+      final Set<? extends Entry<? extends String, ?>> entrySet = map.entrySet();
+      if (entrySet != null && !entrySet.isEmpty()) {
+        for (final Entry<? extends String, ?> entry : entrySet) {
+          if (entry != null) {
+            returnValue.put(entry.getKey(), copyValue(entry.getValue()));
+          }
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  private static final Object copyValue(final Object value) {
+    final Object returnValue;
+    if (value instanceof Map) {
+      @SuppressWarnings("unchecked")
+      final Map<? extends String, ?> map = (Map<? extends String, ?>)value;
+      returnValue = copy(map);
+    } else if (value instanceof List) {
+      final Collection<?> list = (Collection<?>)value;
+      final List<Object> newList = new ArrayList<>(list.size());
+      for (final Object element : list) {
+        newList.add(copyValue(element));
+      }
+      returnValue = newList;
+    } else if (value instanceof Set) {
+      final Collection<?> set = (Collection<?>)value;
+      final Set<Object> newSet = new LinkedHashSet<>();
+      for (final Object element : set) {
+        newSet.add(copyValue(element));
+      }
+      returnValue = newSet;
+    } else {
+      returnValue = value;
+    }
+    return returnValue;
+  }
+
 }
@@ -0,0 +1,275 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import com.github.zafarkhaja.semver.ParseException;
+import com.github.zafarkhaja.semver.Version;
+
+import com.github.zafarkhaja.semver.expr.Expression;
+import com.github.zafarkhaja.semver.expr.ExpressionParser;
+
+import org.microbean.development.annotation.Experimental;
+
+/**
+ * A utility class for parsing <a href="https://semver.org/">semantic
+ * versions</a> and semantic version range expressions, backed by
+ * bounded caches of parse results.
+ *
+ * <p>Helm chart versions are compared and matched against version
+ * ranges very frequently, for example when a chart repository's
+ * {@code index.yaml} is sorted, or when a chart's {@code
+ * requirements.yaml} is applied to its subcharts.  The same handful
+ * of {@link String}s tend to be parsed over and over again.  {@link
+ * Version} and {@link Expression} instances are immutable, so the
+ * results of parsing can be safely shared.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>This class is safe for concurrent use by multiple threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see Version
+ *
+ * @see ExpressionParser
+ */
+@Experimental
+public final class Versions {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The maximum number of entries each of this class' caches will
+   * hold ({@value}).
+   */
+  private static final int MAX_CACHE_SIZE = 1024;
+
+  /**
+   * A bounded cache of {@link Version}s indexed by the {@link
+   * String}s they were parsed from.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * <p>All access to this field must be synchronized on it.</p>
+   */
+  private static final Map<String, Version> versions = new Cache<>(MAX_CACHE_SIZE);
+
+  /**
+   * A bounded cache of {@link Expression}s indexed by the {@link
+   * String}s they were parsed from.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * <p>All access to this field must be synchronized on it.</p>
+   */
+  private static final Map<String, Expression> expressions = new Cache<>(MAX_CACHE_SIZE);
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link Versions}.
+   */
+  private Versions() {
+    super();
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns a {@link Version} parsed from the supplied {@link String},
+   * consulting a cache first.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param versionString the {@link String} to parse; must not be
+   * {@code null}
+   *
+   * @return a non-{@code null} {@link Version}
+   *
+   * @exception NullPointerException if {@code versionString} is
+   * {@code null}
+   *
+   * @exception IllegalArgumentException if {@code versionString}
+   * could not be parsed
+   *
+   * @exception ParseException if {@code versionString} could not be
+   * parsed
+   *
+   * @see Version#valueOf(String)
+   */
+  public static final Version parseVersion(final String versionString) {
+    Objects.requireNonNull(versionString);
+    Version returnValue;
+    synchronized (versions) {
+      returnValue = versions.get(versionString);
+    }
+    if (returnValue == null) {
+      // Parse outside of the lock; at worst two threads parse the
+      // same String concurrently and one result wins.
+      returnValue = Version.valueOf(versionString);
+      assert returnValue != null;
+      synchronized (versions) {
+        versions.put(versionString, returnValue);
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns a {@link Version} parsed from the supplied {@link String},
+   * consulting a cache first, or {@code null} if the supplied {@link
+   * String} is {@code null} or is not a valid semantic version.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param versionString the {@link String} to parse; may be {@code
+   * null}
+   *
+   * @return a {@link Version}, or {@code null}
+   *
+   * @see #parseVersion(String)
+   */
+  public static final Version parseVersionOrNull(final String versionString) {
+    Version returnValue = null;
+    if (versionString != null) {
+      try {
+        returnValue = parseVersion(versionString);
+      } catch (final IllegalArgumentException | ParseException badVersion) {
+        returnValue = null;
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns an {@link Expression} parsed from the supplied semantic
+   * version range {@link String}, consulting a cache first.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param rangeString the {@link String} to parse, e.g. {@code
+   * ~1.2.0} or {@code >=1.0.0 & <2.0.0}; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link Expression}
+   *
+   * @exception NullPointerException if {@code rangeString} is {@code
+   * null}
+   *
+   * @exception ParseException if {@code rangeString} could not be
+   * parsed
+   *
+   * @see ExpressionParser#parse(String)
+   */
+  public static final Expression parseRange(final String rangeString) {
+    Objects.requireNonNull(rangeString);
+    Expression returnValue;
+    synchronized (expressions) {
+      returnValue = expressions.get(rangeString);
+    }
+    if (returnValue == null) {
+      returnValue = ExpressionParser.newInstance().parse(rangeString);
+      assert returnValue != null;
+      synchronized (expressions) {
+        expressions.put(rangeString, returnValue);
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns {@code true} if the semantic version represented by the
+   * supplied {@code versionString} satisfies the semantic version
+   * range represented by the supplied {@code rangeString}.
+   *
+   * @param versionString the version to test; must not be {@code
+   * null}
+   *
+   * @param rangeString the range to test against; must not be {@code
+   * null}
+   *
+   * @return {@code true} if the version satisfies the range; {@code
+   * false} otherwise
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code versionString}
+   * could not be parsed
+   *
+   * @exception ParseException if either parameter could not be parsed
+   *
+   * @see #parseVersion(String)
+   *
+   * @see #parseRange(String)
+   */
+  public static final boolean satisfies(final String versionString, final String rangeString) {
+    return parseVersion(versionString).satisfies(parseRange(rangeString));
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A {@link LinkedHashMap} that evicts its least recently accessed
+   * entry once it grows beyond a fixed size.
+   *
+   * @param <K> the type of keys
+   *
+   * @param <V> the type of values
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Cache<K, V> extends LinkedHashMap<K, V> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int maxSize;
+
+    private Cache(final int maxSize) {
+      super(16, 0.75f, true /* access order */);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected final boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+      return this.size() > this.maxSize;
+    }
+
+  }
+
+}
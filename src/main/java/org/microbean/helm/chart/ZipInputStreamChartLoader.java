@@ -16,8 +16,6 @@
  */
 package org.microbean.helm.chart;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -118,19 +116,16 @@ public class ZipInputStreamChartLoader extends StreamOrientedChartLoader<ZipInpu
               if (this.currentEntry.isDirectory()) {
                 returnValue = new SimpleImmutableEntry<>(this.currentEntry.getName(), null);
               } else {
-                ByteArrayInputStream bais = null;
-                try (final ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-                  int bytesRead = 0;
-                  final byte bytes[] = new byte[4096];
-                  while((bytesRead = stream.read(bytes)) >= 0) {
-                    baos.write(bytes, 0, bytesRead);
-                  }
-                  baos.flush();
-                  bais = new ByteArrayInputStream(baos.toByteArray());
+                final InputStream entryStream;
+                try {
+                  // Read the entry exactly once into a buffer sized
+                  // from the zip entry, if known; the resulting stream
+                  // can be turned into a ByteString without copying.
+                  entryStream = ByteStringInputStream.readFrom(stream, this.currentEntry.getSize());
                 } catch (final IOException wrapMe) {
                   throw (NoSuchElementException)new NoSuchElementException(wrapMe.getMessage()).initCause(wrapMe);
                 }
-                returnValue = new SimpleImmutableEntry<>(this.currentEntry.getName(), bais);
+                returnValue = new SimpleImmutableEntry<>(this.currentEntry.getName(), entryStream);
               }
               try {
                 this.currentEntry = stream.getNextEntry();
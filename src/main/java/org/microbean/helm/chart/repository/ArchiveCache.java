@@ -0,0 +1,964 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.nio.file.attribute.BasicFileAttributes;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.microbean.development.annotation.Experimental;
+
+/**
+ * A manager of a directory of Helm chart archives, such as the one
+ * used by a {@link ChartRepository}, that {@linkplain #evict()
+ * evicts} archives according to an {@link ArchiveEvictionPolicy}.
+ *
+ * <p>Accesses to archives are {@linkplain #recordAccess(Path)
+ * recorded} cheaply in memory and in an append-only access journal
+ * stored in the directory itself, so that least-recently-used
+ * information survives restarts without requiring a scan of the
+ * directory on every lookup.  Accesses to a given archive are
+ * journaled at most once per minute.  The journal may be shared by
+ * several processes; it is only written while holding an exclusive
+ * {@link FileLock} on a sidecar lock file, and compacting it merges
+ * every process's records.</p>
+ *
+ * <p>Eviction runs in the background, periodically and whenever it
+ * is {@linkplain #requestEviction() requested}.  An archive that has
+ * been {@linkplain #pin(Path) pinned}, for example because it is
+ * being opened, is never evicted.  Eviction also removes temporary
+ * and lock files left behind by downloads that crashed or
+ * failed.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are safe for concurrent use by multiple
+ * threads.  The guarantee that pinned archives are never evicted
+ * holds only within a single JVM.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ArchiveEvictionPolicy
+ *
+ * @see ChartRepository#ChartRepository(String, java.net.URI, Path,
+ * Path, Path, boolean, java.net.Proxy, Duration, ArchiveCache)
+ */
+@Experimental
+public class ArchiveCache implements Closeable {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The name of the access journal file ({@value}) stored in the
+   * {@linkplain #getDirectory() managed directory}.
+   */
+  public static final String JOURNAL_FILENAME = ".access-journal";
+
+  /**
+   * The suffix ({@value}) appended to {@link #JOURNAL_FILENAME} to
+   * form the name of the file that is locked while the access journal
+   * is written.
+   */
+  private static final String LOCK_SUFFIX = ".lock";
+
+  /**
+   * A glob matching the names of the temporary and lock files that
+   * downloads into, and compactions of the journal in, the
+   * {@linkplain #getDirectory() managed directory} create.
+   */
+  private static final String LEFTOVER_GLOB = "{*.tgz.tmp,*.tgz.lock," + JOURNAL_FILENAME + "*.tmp}";
+
+  /**
+   * The age after which a temporary or lock file that is not in use
+   * is considered to have been left behind by a download that
+   * crashed or failed.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Duration leftoverAge = Duration.ofHours(1L);
+
+  /**
+   * Objects on which to synchronize while locking an access journal,
+   * indexed by its {@link Path}, so that {@link ArchiveCache}s in one
+   * JVM that share a directory never cause {@link
+   * OverlappingFileLockException}s.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final ConcurrentMap<Path, Object> journalMonitors = new ConcurrentHashMap<>();
+
+  /**
+   * The minimum time between two journaled accesses of the same
+   * archive.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Duration journalGranularity = Duration.ofMinutes(1L);
+
+  /**
+   * The default interval between periodic evictions.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Duration defaultEvictionInterval = Duration.ofMinutes(10L);
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link Logger} used by this {@link ArchiveCache}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Logger logger;
+
+  /**
+   * The directory whose archives are managed by this {@link
+   * ArchiveCache}.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #getDirectory()
+   */
+  private final Path directory;
+
+  /**
+   * The {@link Path} to the access journal.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Path journalPath;
+
+  /**
+   * The {@link Path} to the file that is locked while the access
+   * journal is written.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Path journalLockPath;
+
+  /**
+   * The object on which to synchronize before locking the {@link
+   * #journalLockPath}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Object journalMonitor;
+
+  /**
+   * The {@link ArchiveEvictionPolicy} that selects archives for
+   * eviction.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #getEvictionPolicy()
+   */
+  private final ArchiveEvictionPolicy evictionPolicy;
+
+  /**
+   * The {@link ScheduledExecutorService} on which evictions run.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ScheduledExecutorService executor;
+
+  /**
+   * Whether this {@link ArchiveCache} created the {@link #executor}
+   * and is therefore responsible for shutting it down.
+   */
+  private final boolean ownsExecutor;
+
+  /**
+   * Whether an eviction has been requested but has not yet started.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #requestEviction()
+   */
+  private final AtomicBoolean evictionRequested;
+
+  /**
+   * The last access times of archives, indexed by their file names.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private final Map<String, Instant> accessTimes;
+
+  /**
+   * The last access times of archives that have been journaled,
+   * indexed by their file names.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private final Map<String, Instant> journaledAccessTimes;
+
+  /**
+   * The number of outstanding {@linkplain #pin(Path) pins} of
+   * archives, indexed by their file names.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private final Map<String, Integer> pinCounts;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ArchiveCache} that runs evictions every ten
+   * minutes on a daemon thread of its own.
+   *
+   * @param directory the {@linkplain Path#isAbsolute() absolute}
+   * {@link Path} to an existing directory of Helm chart archives;
+   * must not be {@code null}
+   *
+   * @param evictionPolicy the {@link ArchiveEvictionPolicy} to use;
+   * must not be {@code null}
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code directory} is not
+   * absolute or is not a directory
+   *
+   * @exception IOException if the access journal could not be read
+   *
+   * @see #ArchiveCache(Path, ArchiveEvictionPolicy,
+   * ScheduledExecutorService, Duration)
+   */
+  public ArchiveCache(final Path directory, final ArchiveEvictionPolicy evictionPolicy) throws IOException {
+    this(directory, evictionPolicy, null, defaultEvictionInterval);
+  }
+
+  /**
+   * Creates a new {@link ArchiveCache}.
+   *
+   * @param directory the {@linkplain Path#isAbsolute() absolute}
+   * {@link Path} to an existing directory of Helm chart archives;
+   * must not be {@code null}
+   *
+   * @param evictionPolicy the {@link ArchiveEvictionPolicy} to use;
+   * must not be {@code null}
+   *
+   * @param executor the {@link ScheduledExecutorService} on which
+   * evictions will run; may be {@code null} in which case a new
+   * single-threaded {@link ScheduledExecutorService} using a daemon
+   * thread will be created and will be shut down when this {@link
+   * ArchiveCache} is {@linkplain #close() closed}
+   *
+   * @param evictionInterval the interval between periodic evictions;
+   * may be {@code null} in which case evictions will happen only when
+   * {@linkplain #requestEviction() requested}
+   *
+   * @exception NullPointerException if either {@code directory} or
+   * {@code evictionPolicy} is {@code null}
+   *
+   * @exception IllegalArgumentException if {@code directory} is not
+   * absolute or is not a directory, or if {@code evictionInterval}
+   * is not positive
+   *
+   * @exception IOException if the access journal could not be read
+   */
+  public ArchiveCache(final Path directory,
+                      final ArchiveEvictionPolicy evictionPolicy,
+                      final ScheduledExecutorService executor,
+                      final Duration evictionInterval) throws IOException {
+    super();
+    this.logger = Logger.getLogger(this.getClass().getName());
+    assert this.logger != null;
+    Objects.requireNonNull(directory);
+    if (!directory.isAbsolute()) {
+      throw new IllegalArgumentException("!directory.isAbsolute(): " + directory);
+    }
+    if (!Files.isDirectory(directory)) {
+      throw new IllegalArgumentException("!Files.isDirectory(directory): " + directory);
+    }
+    if (evictionInterval != null && (evictionInterval.isNegative() || evictionInterval.isZero())) {
+      throw new IllegalArgumentException("evictionInterval: " + evictionInterval);
+    }
+    this.directory = directory;
+    this.journalPath = directory.resolve(JOURNAL_FILENAME);
+    this.journalLockPath = directory.resolve(JOURNAL_FILENAME + LOCK_SUFFIX);
+    this.journalMonitor = journalMonitors.computeIfAbsent(this.journalPath, p -> new Object());
+    this.evictionPolicy = Objects.requireNonNull(evictionPolicy);
+    this.evictionRequested = new AtomicBoolean();
+    this.accessTimes = new HashMap<>();
+    this.journaledAccessTimes = new HashMap<>();
+    this.pinCounts = new HashMap<>();
+    this.replayJournal();
+    if (executor == null) {
+      this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+          final Thread thread = new Thread(r, "microbean-helm-archive-cache-eviction");
+          thread.setDaemon(true);
+          return thread;
+        });
+      this.ownsExecutor = true;
+    } else {
+      this.executor = executor;
+      this.ownsExecutor = false;
+    }
+    if (evictionInterval != null) {
+      final long millis = evictionInterval.toMillis();
+      this.executor.scheduleWithFixedDelay(this::evictQuietly, millis, millis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the {@linkplain Path#isAbsolute() absolute} {@link Path}
+   * to the directory whose archives are managed by this {@link
+   * ArchiveCache}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the managed directory; never {@code null}
+   */
+  public final Path getDirectory() {
+    return this.directory;
+  }
+
+  /**
+   * Returns the {@link ArchiveEvictionPolicy} used by this {@link
+   * ArchiveCache}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the {@link ArchiveEvictionPolicy}; never {@code null}
+   */
+  public final ArchiveEvictionPolicy getEvictionPolicy() {
+    return this.evictionPolicy;
+  }
+
+  /**
+   * Records that the archive identified by the supplied {@link Path}
+   * was just accessed.
+   *
+   * <p>This method is cheap: it updates an in-memory record and only
+   * occasionally appends a line to the access journal.</p>
+   *
+   * @param archive the {@link Path} to an archive in the {@linkplain
+   * #getDirectory() managed directory}; must not be {@code null}
+   *
+   * @exception NullPointerException if {@code archive} is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code archive} is not in
+   * the managed directory
+   */
+  public final void recordAccess(final Path archive) {
+    final String fileName = this.getFileName(archive);
+    final Instant now = Instant.now();
+    final boolean journal;
+    synchronized (this) {
+      this.accessTimes.put(fileName, now);
+      final Instant lastJournaled = this.journaledAccessTimes.get(fileName);
+      journal = lastJournaled == null || lastJournaled.plus(journalGranularity).isBefore(now);
+      if (journal) {
+        this.journaledAccessTimes.put(fileName, now);
+      }
+    }
+    if (journal) {
+      final String line = new StringBuilder().append(now.toEpochMilli()).append('\t').append(fileName).append('\n').toString();
+      try {
+        synchronized (this.journalMonitor) {
+          try (final FileChannel lockChannel = FileChannel.open(this.journalLockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+               final FileLock lock = lockChannel.lock()) {
+            assert lock != null;
+            Files.write(this.journalPath, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+          }
+        }
+      } catch (final IOException ioException) {
+        // The journal is only an optimization; the in-memory record
+        // and file modification times still work without it.
+        if (this.logger.isLoggable(Level.FINE)) {
+          this.logger.log(Level.FINE, ioException.getMessage(), ioException);
+        }
+      }
+    }
+  }
+
+  /**
+   * Pins the archive identified by the supplied {@link Path} so that
+   * it will not be evicted until the returned {@link Pin} is
+   * {@linkplain Pin#close() closed}, and {@linkplain
+   * #recordAccess(Path) records an access} of it.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>Pins may be nested; an archive remains pinned until all of
+   * its {@link Pin}s have been closed.</p>
+   *
+   * @param archive the {@link Path} to an archive in the {@linkplain
+   * #getDirectory() managed directory}; must not be {@code null}
+   *
+   * @return a new {@link Pin}; never {@code null}
+   *
+   * @exception NullPointerException if {@code archive} is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code archive} is not in
+   * the managed directory
+   */
+  public final Pin pin(final Path archive) {
+    final String fileName = this.getFileName(archive);
+    synchronized (this) {
+      final Integer pinCount = this.pinCounts.get(fileName);
+      this.pinCounts.put(fileName, pinCount == null ? 1 : pinCount + 1);
+    }
+    this.recordAccess(archive);
+    return new Pin(fileName);
+  }
+
+  /**
+   * Returns {@code true} if the archive with the supplied file name
+   * is currently {@linkplain #pin(Path) pinned}.
+   *
+   * @param fileName the file name of an archive; must not be {@code
+   * null}
+   *
+   * @return {@code true} if the archive is pinned; {@code false}
+   * otherwise
+   */
+  private final synchronized boolean isPinned(final String fileName) {
+    return this.pinCounts.containsKey(fileName);
+  }
+
+  /**
+   * Releases one {@linkplain #pin(Path) pin} of the archive with the
+   * supplied file name.
+   *
+   * @param fileName the file name of an archive; must not be {@code
+   * null}
+   */
+  private final synchronized void unpin(final String fileName) {
+    final Integer pinCount = this.pinCounts.get(fileName);
+    if (pinCount != null) {
+      if (pinCount.intValue() <= 1) {
+        this.pinCounts.remove(fileName);
+      } else {
+        this.pinCounts.put(fileName, pinCount - 1);
+      }
+    }
+  }
+
+  /**
+   * Schedules an {@linkplain #evict() eviction} to run in the
+   * background as soon as possible, unless one is already pending.
+   *
+   * <p>This method returns immediately.</p>
+   */
+  public final void requestEviction() {
+    if (this.evictionRequested.compareAndSet(false, true)) {
+      try {
+        this.executor.execute(this::evictQuietly);
+      } catch (final RuntimeException rejected) {
+        this.evictionRequested.set(false);
+        if (this.logger.isLoggable(Level.FINE)) {
+          this.logger.log(Level.FINE, rejected.getMessage(), rejected);
+        }
+      }
+    }
+  }
+
+  /**
+   * Invokes the {@link #evict()} method and logs, rather than
+   * throws, any {@link IOException} that results.
+   */
+  private final void evictQuietly() {
+    try {
+      this.evict();
+    } catch (final IOException | RuntimeException exception) {
+      if (this.logger.isLoggable(Level.WARNING)) {
+        this.logger.log(Level.WARNING, exception.getMessage(), exception);
+      }
+    }
+  }
+
+  /**
+   * Synchronously scans the {@linkplain #getDirectory() managed
+   * directory}, asks the {@linkplain #getEvictionPolicy() eviction
+   * policy} which archives to evict, deletes those of them that are
+   * not {@linkplain #pin(Path) pinned}, deletes leftover temporary
+   * and lock files, compacts the access journal, and returns the
+   * {@link Path}s of the archives that were deleted.
+   *
+   * <p>{@linkplain ArchiveCache.Entry#isPinned() Pinned} archives are
+   * described to the eviction policy, so that their sizes count
+   * towards any budget it enforces, but are never deleted.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>Most callers will want to use the {@link #requestEviction()}
+   * method instead.</p>
+   *
+   * @return a non-{@code null}, {@linkplain
+   * Collections#unmodifiableCollection(Collection) unmodifiable}
+   * {@link Collection} of the {@link Path}s that were deleted
+   *
+   * @exception IOException if the directory could not be scanned
+   */
+  public final Collection<Path> evict() throws IOException {
+    this.evictionRequested.set(false);
+    final List<Entry> entries = new ArrayList<>();
+    try (final DirectoryStream<Path> archives = Files.newDirectoryStream(this.directory, "*.tgz")) {
+      for (final Path archive : archives) {
+        final BasicFileAttributes attributes;
+        try {
+          attributes = Files.readAttributes(archive, BasicFileAttributes.class);
+        } catch (final NoSuchFileException deletedInTheMeantime) {
+          continue;
+        }
+        if (attributes.isRegularFile()) {
+          final String fileName = archive.getFileName().toString();
+          Instant lastAccessTime = attributes.lastModifiedTime().toInstant();
+          final boolean pinned;
+          synchronized (this) {
+            final Instant recordedAccessTime = this.accessTimes.get(fileName);
+            if (recordedAccessTime != null && recordedAccessTime.isAfter(lastAccessTime)) {
+              lastAccessTime = recordedAccessTime;
+            }
+            pinned = this.isPinned(fileName);
+          }
+          entries.add(new Entry(archive, attributes.size(), lastAccessTime, pinned));
+        }
+      }
+    }
+
+    final Collection<? extends Path> selections = this.evictionPolicy.selectForEviction(Collections.unmodifiableList(entries), Instant.now());
+    if (selections == null) {
+      throw new IllegalStateException("getEvictionPolicy().selectForEviction() == null");
+    }
+    final List<Path> returnValue = new ArrayList<>();
+    for (final Path archive : selections) {
+      if (archive != null) {
+        final String fileName = this.getFileName(archive);
+        synchronized (this) {
+          // pin() also synchronizes on this, so no pin can sneak in
+          // between the check and the deletion.
+          if (!this.isPinned(fileName) && Files.deleteIfExists(archive)) {
+            this.accessTimes.remove(fileName);
+            this.journaledAccessTimes.remove(fileName);
+            returnValue.add(archive);
+          }
+        }
+      }
+    }
+    this.deleteLeftovers();
+    this.compactJournal();
+    return Collections.unmodifiableList(returnValue);
+  }
+
+  /**
+   * Deletes temporary and lock files in the {@linkplain
+   * #getDirectory() managed directory} that have not been modified
+   * for an hour and that are not locked, and so were left behind by
+   * downloads or journal compactions that crashed or failed.
+   *
+   * @exception IOException if the directory could not be scanned
+   */
+  private final void deleteLeftovers() throws IOException {
+    final Instant oldestPermitted = Instant.now().minus(leftoverAge);
+    try (final DirectoryStream<Path> leftovers = Files.newDirectoryStream(this.directory, LEFTOVER_GLOB)) {
+      for (final Path leftover : leftovers) {
+        try {
+          if (Files.getLastModifiedTime(leftover).toInstant().isBefore(oldestPermitted)) {
+            if (leftover.getFileName().toString().endsWith(LOCK_SUFFIX)) {
+              // Only delete a lock file that nobody holds.
+              try (final FileChannel lockChannel = FileChannel.open(leftover, StandardOpenOption.WRITE);
+                   final FileLock lock = lockChannel.tryLock()) {
+                if (lock != null) {
+                  Files.deleteIfExists(leftover);
+                }
+              } catch (final OverlappingFileLockException heldInThisJvm) {
+                continue;
+              }
+            } else {
+              Files.deleteIfExists(leftover);
+            }
+          }
+        } catch (final NoSuchFileException deletedInTheMeantime) {
+          continue;
+        } catch (final IOException ioException) {
+          if (this.logger.isLoggable(Level.FINE)) {
+            this.logger.log(Level.FINE, ioException.getMessage(), ioException);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Populates the in-memory access records from the access journal,
+   * if it exists.
+   *
+   * @exception IOException if the journal could not be read
+   */
+  private final synchronized void replayJournal() throws IOException {
+    if (Files.isRegularFile(this.journalPath)) {
+      try (final BufferedReader reader = Files.newBufferedReader(this.journalPath, StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          final int tab = line.indexOf('\t');
+          if (tab > 0 && tab < line.length() - 1) {
+            final Instant accessTime;
+            try {
+              accessTime = Instant.ofEpochMilli(Long.parseLong(line.substring(0, tab)));
+            } catch (final NumberFormatException ignoreMe) {
+              // Possibly a torn write from a crashed process.
+              continue;
+            }
+            final String fileName = line.substring(tab + 1);
+            final Instant existing = this.accessTimes.get(fileName);
+            if (existing == null || accessTime.isAfter(existing)) {
+              this.accessTimes.put(fileName, accessTime);
+              this.journaledAccessTimes.put(fileName, accessTime);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Rewrites the access journal so that it contains exactly one line
+   * for each archive that still exists, merging the records of any
+   * other processes sharing it first.
+   *
+   * @exception IOException if the journal could not be read or
+   * written
+   */
+  private final void compactJournal() throws IOException {
+    synchronized (this.journalMonitor) {
+      try (final FileChannel lockChannel = FileChannel.open(this.journalLockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+           final FileLock lock = lockChannel.lock()) {
+        assert lock != null;
+        // Pick up what other processes have journaled since we last
+        // looked, so that rewriting the journal does not lose it.
+        this.replayJournal();
+        final Map<String, Instant> snapshot;
+        synchronized (this) {
+          final Iterator<String> iterator = this.accessTimes.keySet().iterator();
+          while (iterator.hasNext()) {
+            final String fileName = iterator.next();
+            if (!Files.exists(this.directory.resolve(fileName))) {
+              iterator.remove();
+              this.journaledAccessTimes.remove(fileName);
+            }
+          }
+          snapshot = new HashMap<>(this.accessTimes);
+          this.journaledAccessTimes.clear();
+          this.journaledAccessTimes.putAll(snapshot);
+        }
+        this.writeJournal(snapshot);
+      }
+    }
+  }
+
+  /**
+   * Atomically replaces the access journal with one containing the
+   * supplied access times.
+   *
+   * <p>The caller must hold the lock on the {@link
+   * #journalLockPath}.</p>
+   *
+   * @param snapshot the access times to write, indexed by file name;
+   * must not be {@code null}
+   *
+   * @exception IOException if the journal could not be written
+   */
+  private final void writeJournal(final Map<String, Instant> snapshot) throws IOException {
+    assert Thread.holdsLock(this.journalMonitor);
+    final Path temporaryPath = Files.createTempFile(this.directory, JOURNAL_FILENAME, ".tmp");
+    try {
+      try (final BufferedWriter writer = Files.newBufferedWriter(temporaryPath, StandardCharsets.UTF_8)) {
+        for (final Map.Entry<String, Instant> entry : snapshot.entrySet()) {
+          writer.write(Long.toString(entry.getValue().toEpochMilli()));
+          writer.write('\t');
+          writer.write(entry.getKey());
+          writer.write('\n');
+        }
+      }
+      Files.move(temporaryPath, this.journalPath, StandardCopyOption.REPLACE_EXISTING);
+    } catch (final IOException throwMe) {
+      try {
+        Files.deleteIfExists(temporaryPath);
+      } catch (final IOException suppressMe) {
+        throwMe.addSuppressed(suppressMe);
+      }
+      throw throwMe;
+    }
+  }
+
+  /**
+   * Returns the file name of the supplied {@link Path}, ensuring that
+   * it identifies a file directly inside the {@linkplain
+   * #getDirectory() managed directory}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param archive the {@link Path} in question; must not be {@code
+   * null}
+   *
+   * @return the file name; never {@code null}
+   *
+   * @exception NullPointerException if {@code archive} is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code archive} is not in
+   * the managed directory
+   */
+  private final String getFileName(final Path archive) {
+    Objects.requireNonNull(archive);
+    final Path fileName = archive.getFileName();
+    if (fileName == null || !this.directory.equals(archive.toAbsolutePath().getParent())) {
+      throw new IllegalArgumentException("archive: " + archive);
+    }
+    return fileName.toString();
+  }
+
+  /**
+   * Shuts down the {@link ScheduledExecutorService} used for
+   * evictions if this {@link ArchiveCache} created it.
+   *
+   * <p>Archives are not evicted by this method.</p>
+   */
+  @Override
+  public void close() {
+    if (this.ownsExecutor) {
+      this.executor.shutdownNow();
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A description of a Helm chart archive managed by an {@link
+   * ArchiveCache}, supplied to an {@link ArchiveEvictionPolicy}.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  @Experimental
+  public static final class Entry {
+
+    private final Path path;
+
+    private final long size;
+
+    private final Instant lastAccessTime;
+
+    private final boolean pinned;
+
+    /**
+     * Creates a new {@link Entry} describing an archive that is not
+     * {@linkplain #isPinned() pinned}.
+     *
+     * @param path the {@link Path} to the archive; must not be {@code
+     * null}
+     *
+     * @param size the size of the archive in bytes
+     *
+     * @param lastAccessTime the time the archive was last accessed;
+     * must not be {@code null}
+     *
+     * @exception NullPointerException if {@code path} or {@code
+     * lastAccessTime} is {@code null}
+     */
+    public Entry(final Path path, final long size, final Instant lastAccessTime) {
+      this(path, size, lastAccessTime, false);
+    }
+
+    /**
+     * Creates a new {@link Entry}.
+     *
+     * @param path the {@link Path} to the archive; must not be {@code
+     * null}
+     *
+     * @param size the size of the archive in bytes
+     *
+     * @param lastAccessTime the time the archive was last accessed;
+     * must not be {@code null}
+     *
+     * @param pinned whether the archive is {@linkplain
+     * ArchiveCache#pin(Path) pinned} and so cannot be evicted
+     *
+     * @exception NullPointerException if {@code path} or {@code
+     * lastAccessTime} is {@code null}
+     */
+    public Entry(final Path path, final long size, final Instant lastAccessTime, final boolean pinned) {
+      super();
+      this.path = Objects.requireNonNull(path);
+      this.size = size;
+      this.lastAccessTime = Objects.requireNonNull(lastAccessTime);
+      this.pinned = pinned;
+    }
+
+    /**
+     * Returns the {@link Path} to the archive.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return the {@link Path} to the archive; never {@code null}
+     */
+    public final Path getPath() {
+      return this.path;
+    }
+
+    /**
+     * Returns the size of the archive in bytes.
+     *
+     * @return the size of the archive in bytes
+     */
+    public final long getSize() {
+      return this.size;
+    }
+
+    /**
+     * Returns the time the archive was last accessed, as recorded by
+     * the {@link ArchiveCache} or, failing that, as indicated by its
+     * last modification time.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return the last access time; never {@code null}
+     */
+    public final Instant getLastAccessTime() {
+      return this.lastAccessTime;
+    }
+
+    /**
+     * Returns {@code true} if the archive is {@linkplain
+     * ArchiveCache#pin(Path) pinned}, in which case it will not be
+     * evicted even if it is selected, and its size will not be
+     * freed.
+     *
+     * @return {@code true} if the archive is pinned; {@code false}
+     * otherwise
+     */
+    public final boolean isPinned() {
+      return this.pinned;
+    }
+
+    @Override
+    public final String toString() {
+      return new StringBuilder(String.valueOf(this.path)).append(" (").append(this.size).append(" bytes; last accessed ").append(this.lastAccessTime).append(this.pinned ? "; pinned)" : ")").toString();
+    }
+
+  }
+
+  /**
+   * A handle representing a {@linkplain ArchiveCache#pin(Path) pin}
+   * of an archive; {@linkplain #close() closing} it releases the pin.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  public final class Pin implements AutoCloseable {
+
+    private final String fileName;
+
+    private final AtomicBoolean closed;
+
+    private Pin(final String fileName) {
+      super();
+      this.fileName = Objects.requireNonNull(fileName);
+      this.closed = new AtomicBoolean();
+    }
+
+    /**
+     * Releases this {@link Pin}.
+     *
+     * <p>Calling this method more than once has no further
+     * effect.</p>
+     */
+    @Override
+    public final void close() {
+      if (this.closed.compareAndSet(false, true)) {
+        unpin(this.fileName);
+      }
+    }
+
+  }
+
+}
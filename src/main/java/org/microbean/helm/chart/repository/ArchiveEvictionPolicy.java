@@ -0,0 +1,73 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.nio.file.Path;
+
+import java.time.Instant;
+
+import java.util.Collection;
+
+import org.microbean.development.annotation.Experimental;
+
+/**
+ * A policy that decides which Helm chart archives an {@link
+ * ArchiveCache} should evict.
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ArchiveCache
+ *
+ * @see BoundedArchiveEvictionPolicy
+ */
+@Experimental
+@FunctionalInterface
+public interface ArchiveEvictionPolicy {
+
+  /**
+   * Returns a {@link Collection} of {@link Path}s, drawn from the
+   * supplied {@link ArchiveCache.Entry} instances, identifying those
+   * archives that should be evicted.
+   *
+   * <p>Implementations of this method must not return {@code
+   * null}.</p>
+   *
+   * <p>Implementations of this method must not delete anything
+   * themselves.  The {@link ArchiveCache} will not evict any archive
+   * that is in use, whether or not it is selected by this method.
+   * Such archives are described by {@linkplain
+   * ArchiveCache.Entry#isPinned() pinned} entries; implementations
+   * that enforce a size budget should count their sizes but must not
+   * count on selecting them to free any space.</p>
+   *
+   * @param entries the {@link ArchiveCache.Entry} instances
+   * describing the archives currently in the cache; must not be
+   * {@code null}
+   *
+   * @param now the {@link Instant} to consider as the current time;
+   * must not be {@code null}
+   *
+   * @return a non-{@code null} {@link Collection} of {@link Path}s to
+   * evict
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   */
+  public Collection<? extends Path> selectForEviction(final Collection<? extends ArchiveCache.Entry> entries, final Instant now);
+
+}
@@ -0,0 +1,176 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.nio.file.Path;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+import org.microbean.development.annotation.Experimental;
+
+/**
+ * An {@link ArchiveEvictionPolicy} that evicts archives that have
+ * not been accessed within a maximum age, and then evicts the least
+ * recently used remaining archives until their total size fits
+ * within a byte budget.
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ArchiveCache
+ */
+@Experimental
+public class BoundedArchiveEvictionPolicy implements ArchiveEvictionPolicy {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The maximum number of bytes that all cached archives may occupy
+   * in total.
+   *
+   * <p>A value less than {@code 0} means there is no such limit.</p>
+   *
+   * @see #getMaxTotalBytes()
+   */
+  private final long maxTotalBytes;
+
+  /**
+   * The maximum time that may elapse after an archive was last
+   * accessed before it is evicted.
+   *
+   * <p>This field may be {@code null}, in which case archives are
+   * not evicted merely because of their age.</p>
+   *
+   * @see #getMaxAge()
+   */
+  private final Duration maxAge;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link BoundedArchiveEvictionPolicy}.
+   *
+   * @param maxTotalBytes the maximum number of bytes that all cached
+   * archives may occupy in total; a value less than {@code 0} means
+   * there is no such limit
+   *
+   * @param maxAge the maximum time that may elapse after an archive
+   * was last accessed before it is evicted; may be {@code null} in
+   * which case archives will not be evicted merely because of their
+   * age
+   *
+   * @exception IllegalArgumentException if {@code maxAge} is
+   * {@linkplain Duration#isNegative() negative}
+   */
+  public BoundedArchiveEvictionPolicy(final long maxTotalBytes, final Duration maxAge) {
+    super();
+    if (maxAge != null && maxAge.isNegative()) {
+      throw new IllegalArgumentException("maxAge.isNegative(): " + maxAge);
+    }
+    this.maxTotalBytes = maxTotalBytes;
+    this.maxAge = maxAge;
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the maximum number of bytes that all cached archives may
+   * occupy in total, or a value less than {@code 0} if there is no
+   * such limit.
+   *
+   * @return the maximum number of bytes that all cached archives may
+   * occupy in total
+   */
+  public final long getMaxTotalBytes() {
+    return this.maxTotalBytes;
+  }
+
+  /**
+   * Returns the maximum time that may elapse after an archive was
+   * last accessed before it is evicted, or {@code null} if archives
+   * are not evicted merely because of their age.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return the maximum age of an archive, or {@code null}
+   */
+  public final Duration getMaxAge() {
+    return this.maxAge;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This implementation first selects all archives whose
+   * {@linkplain ArchiveCache.Entry#getLastAccessTime() last access
+   * time} is older than the {@linkplain #getMaxAge() maximum age},
+   * and then, in least-recently-used order, as many of the remaining
+   * archives as are needed to bring their total size within the
+   * {@linkplain #getMaxTotalBytes() byte budget}.  {@linkplain
+   * ArchiveCache.Entry#isPinned() Pinned} archives count towards the
+   * budget but are never selected, since evicting them would not
+   * free their space.</p>
+   */
+  @Override
+  public Collection<? extends Path> selectForEviction(final Collection<? extends ArchiveCache.Entry> entries, final Instant now) {
+    Objects.requireNonNull(entries);
+    Objects.requireNonNull(now);
+    final List<Path> returnValue = new ArrayList<>();
+    if (!entries.isEmpty()) {
+      final List<ArchiveCache.Entry> sortedEntries = new ArrayList<>(entries);
+      sortedEntries.sort(Comparator.comparing(ArchiveCache.Entry::getLastAccessTime));
+      final Instant oldestPermitted = this.maxAge == null ? null : now.minus(this.maxAge);
+      long totalBytes = 0L;
+      for (final ArchiveCache.Entry entry : sortedEntries) {
+        totalBytes += entry.getSize();
+      }
+      for (final ArchiveCache.Entry entry : sortedEntries) {
+        // sortedEntries is in least-recently-used order.
+        if (entry.isPinned()) {
+          continue;
+        } else if ((oldestPermitted != null && entry.getLastAccessTime().isBefore(oldestPermitted)) ||
+                   (this.maxTotalBytes >= 0L && totalBytes > this.maxTotalBytes)) {
+          returnValue.add(entry.getPath());
+          totalBytes -= entry.getSize();
+        } else {
+          break;
+        }
+      }
+    }
+    return returnValue;
+  }
+
+}
@@ -0,0 +1,590 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedSet;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import java.util.zip.GZIPInputStream;
+
+import org.kamranzafar.jtar.TarEntry;
+import org.kamranzafar.jtar.TarInputStream;
+
+import org.microbean.helm.chart.Requirements;
+import org.microbean.helm.chart.Versions;
+
+import org.microbean.helm.chart.resolver.ChartResolverException;
+
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * A one-shot helper that downloads a set of Helm charts, and all of
+ * the charts they transitively require, into the archive caches of
+ * the {@link ChartRepository} instances managed by a {@link
+ * ChartRepositoryRepository}, with bounded parallelism.
+ *
+ * <p>As each archive arrives, its {@code requirements.yaml} is read
+ * and any dependency that is not already vendored in its {@code
+ * charts} directory, and that refers to a known chart repository, is
+ * scheduled in turn.  Each distinct request, and each distinct
+ * resolved chart version, is processed only once.  Downloads of the
+ * same archive that are in flight elsewhere in the JVM are shared by
+ * {@link ChartRepository#getCachedChartPath(String, String,
+ * java.nio.file.CopyOption...)}.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are safe for concurrent use by multiple
+ * threads, but are intended to be {@linkplain #prefetch(Collection)
+ * used} only once.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ChartRepositoryRepository#prefetch(Collection, Executor, int)
+ */
+final class ChartPrefetcher {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final ChartRepositoryRepository chartRepositoryRepository;
+
+  private final Executor executor;
+
+  private final int parallelism;
+
+  /**
+   * The {@link Runnable}s waiting for a free slot.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private final Queue<Runnable> queue;
+
+  /**
+   * The number of {@link Runnable}s currently executing.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private int running;
+
+  /**
+   * Keys identifying requests that have already been scheduled.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private final Set<String> requested;
+
+  /**
+   * The archives that have been cached so far, indexed by the
+   * {@linkplain ChartRepositoryRepository.ChartCoordinates
+   * coordinates}, with exact versions, of the charts they contain.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private final Map<ChartRepositoryRepository.ChartCoordinates, Path> results;
+
+  /**
+   * Problems encountered so far.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private final List<Exception> problems;
+
+  /**
+   * A {@link CompletableFuture} that is completed when there is no
+   * more work to do.
+   */
+  private final CompletableFuture<Void> done;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ChartPrefetcher}.
+   *
+   * @param chartRepositoryRepository the {@link
+   * ChartRepositoryRepository} whose {@link ChartRepository}
+   * instances will be used; must not be {@code null}
+   *
+   * @param executor the {@link Executor} that will perform downloads;
+   * must not be {@code null}
+   *
+   * @param parallelism the maximum number of downloads to run at the
+   * same time; must be greater than {@code 0}
+   *
+   * @exception NullPointerException if {@code
+   * chartRepositoryRepository} or {@code executor} is {@code null}
+   *
+   * @exception IllegalArgumentException if {@code parallelism} is
+   * less than {@code 1}
+   */
+  ChartPrefetcher(final ChartRepositoryRepository chartRepositoryRepository, final Executor executor, final int parallelism) {
+    super();
+    this.chartRepositoryRepository = Objects.requireNonNull(chartRepositoryRepository);
+    this.executor = Objects.requireNonNull(executor);
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism < 1: " + parallelism);
+    }
+    this.parallelism = parallelism;
+    this.queue = new ArrayDeque<>();
+    this.requested = new HashSet<>();
+    this.results = new LinkedHashMap<>();
+    this.problems = new ArrayList<>();
+    this.done = new CompletableFuture<>();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Caches the archives of the charts identified by the supplied
+   * {@link ChartRepositoryRepository.ChartCoordinates} and of all
+   * the charts they transitively require, blocking until all of them
+   * have been cached or have failed.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param coordinates the charts to cache; must not be {@code null}
+   *
+   * @return a non-{@code null}, {@linkplain
+   * Collections#unmodifiableMap(Map) unmodifiable} {@link Map} of
+   * cached archives indexed by coordinates bearing exact versions
+   *
+   * @exception NullPointerException if {@code coordinates} is {@code
+   * null}
+   *
+   * @exception ChartResolverException if any chart could not be
+   * cached; other problems, if any, are {@linkplain
+   * Throwable#getSuppressed() suppressed} by it
+   */
+  final Map<ChartRepositoryRepository.ChartCoordinates, Path> prefetch(final Collection<? extends ChartRepositoryRepository.ChartCoordinates> coordinates) throws ChartResolverException {
+    Objects.requireNonNull(coordinates);
+    synchronized (this) {
+      for (final ChartRepositoryRepository.ChartCoordinates c : coordinates) {
+        if (c != null) {
+          this.schedule(c, true);
+        }
+      }
+    }
+    this.pump();
+    try {
+      this.done.get();
+    } catch (final InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      throw new ChartResolverException(interruptedException.getMessage(), interruptedException);
+    } catch (final ExecutionException executionException) {
+      throw new ChartResolverException(executionException.getMessage(), executionException.getCause());
+    }
+    synchronized (this) {
+      if (!this.problems.isEmpty()) {
+        final Exception first = this.problems.get(0);
+        final ChartResolverException throwMe;
+        if (first instanceof ChartResolverException) {
+          throwMe = (ChartResolverException)first;
+        } else {
+          throwMe = new ChartResolverException(first.getMessage(), first);
+        }
+        for (int i = 1; i < this.problems.size(); i++) {
+          throwMe.addSuppressed(this.problems.get(i));
+        }
+        throw throwMe;
+      }
+      return Collections.unmodifiableMap(new LinkedHashMap<>(this.results));
+    }
+  }
+
+  /**
+   * Queues a request for the chart identified by the supplied {@link
+   * ChartRepositoryRepository.ChartCoordinates}, unless an identical
+   * request has already been queued.
+   *
+   * <p>This method must be called while synchronized on {@code
+   * this}.</p>
+   *
+   * @param coordinates the chart to cache; must not be {@code null}
+   *
+   * @param required whether failure to find the chart is a problem
+   * (as opposed to a transitive dependency that simply cannot be
+   * satisfied from a known chart repository)
+   */
+  private final void schedule(final ChartRepositoryRepository.ChartCoordinates coordinates, final boolean required) {
+    assert Thread.holdsLock(this);
+    if (this.requested.add(coordinates.toString())) {
+      this.queue.add(() -> this.fetch(coordinates, required));
+    }
+  }
+
+  /**
+   * Hands queued {@link Runnable}s to the {@link Executor} while
+   * there are free slots, and completes the {@link #done} {@link
+   * CompletableFuture} when there is nothing left to do.
+   */
+  private final void pump() {
+    final List<Runnable> toRun = new ArrayList<>();
+    final boolean finished;
+    synchronized (this) {
+      while (this.running < this.parallelism && !this.queue.isEmpty()) {
+        final Runnable task = this.queue.remove();
+        this.running++;
+        toRun.add(() -> {
+            try {
+              task.run();
+            } catch (final RuntimeException runtimeException) {
+              synchronized (ChartPrefetcher.this) {
+                this.problems.add(runtimeException);
+              }
+            } finally {
+              synchronized (ChartPrefetcher.this) {
+                this.running--;
+              }
+              this.pump();
+            }
+          });
+      }
+      finished = this.running == 0 && this.queue.isEmpty();
+    }
+    if (finished) {
+      this.done.complete(null);
+    } else {
+      for (final Runnable r : toRun) {
+        try {
+          this.executor.execute(r);
+        } catch (final RejectedExecutionException rejectedExecutionException) {
+          synchronized (this) {
+            this.problems.add(rejectedExecutionException);
+            this.running--;
+          }
+        }
+      }
+      if (!toRun.isEmpty()) {
+        // Rejections may have left us with nothing running.
+        synchronized (this) {
+          if (this.running == 0 && this.queue.isEmpty()) {
+            this.done.complete(null);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Resolves the supplied {@link
+   * ChartRepositoryRepository.ChartCoordinates} to an exact chart
+   * version, caches its archive, and schedules requests for the
+   * charts it requires.
+   *
+   * @param coordinates the chart to cache; must not be {@code null}
+   *
+   * @param required whether failure to find the chart is a problem
+   */
+  private final void fetch(final ChartRepositoryRepository.ChartCoordinates coordinates, final boolean required) {
+    assert coordinates != null;
+    try {
+      final ChartRepository chartRepository = this.chartRepositoryRepository.getChartRepository(coordinates.getRepositoryName());
+      if (chartRepository == null) {
+        if (required) {
+          throw new ChartResolverException("No such chart repository: " + coordinates.getRepositoryName());
+        }
+        return;
+      }
+      final String version = resolveVersion(chartRepository.getIndex(), coordinates.getChartName(), coordinates.getVersion());
+      if (version == null) {
+        throw new ChartResolverException("No chart found for " + coordinates);
+      }
+      final ChartRepositoryRepository.ChartCoordinates exactCoordinates =
+        new ChartRepositoryRepository.ChartCoordinates(coordinates.getRepositoryName(), coordinates.getChartName(), version);
+      synchronized (this) {
+        if (!this.requested.add(exactCoordinates.toString()) && !exactCoordinates.toString().equals(coordinates.toString())) {
+          // Some other range already resolved to this exact version.
+          return;
+        }
+      }
+      final Path archive = chartRepository.getCachedChartPath(coordinates.getChartName(), version);
+      if (archive == null || !Files.isRegularFile(archive)) {
+        throw new ChartResolverException("No chart archive found for " + exactCoordinates);
+      }
+      final Collection<? extends ChartRepositoryRepository.ChartCoordinates> dependencies = this.getUnvendoredDependencies(archive);
+      synchronized (this) {
+        this.results.put(exactCoordinates, archive);
+        for (final ChartRepositoryRepository.ChartCoordinates dependency : dependencies) {
+          this.schedule(dependency, false);
+        }
+      }
+    } catch (final ChartResolverException | IOException | URISyntaxException exception) {
+      synchronized (this) {
+        this.problems.add(exception);
+      }
+    }
+  }
+
+  /**
+   * Reads the {@code requirements.yaml} file, if any, of the Helm
+   * chart stored in the supplied archive, and returns coordinates for
+   * those of its dependencies that are not vendored in the archive's
+   * {@code charts} directory and that refer to a chart repository
+   * known to the {@link ChartRepositoryRepository}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param archive the {@link Path} to a gzipped tape archive
+   * containing a Helm chart; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link Collection} of coordinates
+   *
+   * @exception IOException if the archive could not be read
+   */
+  private final Collection<? extends ChartRepositoryRepository.ChartCoordinates> getUnvendoredDependencies(final Path archive) throws IOException {
+    Objects.requireNonNull(archive);
+    String requirementsYaml = null;
+    final Set<String> vendoredNames = new HashSet<>();
+    try (final TarInputStream stream = new TarInputStream(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(archive))))) {
+      TarEntry entry;
+      while ((entry = stream.getNextEntry()) != null) {
+        final String name = entry.getName();
+        if (name != null) {
+          final String[] parts = name.split("/");
+          if (parts.length == 2 && "requirements.yaml".equals(parts[1])) {
+            requirementsYaml = read(stream);
+          } else if (parts.length >= 3 && "charts".equals(parts[1]) && !parts[2].isEmpty()) {
+            // Either charts/foo/... or charts/foo-1.2.3.tgz
+            final String vendoredName = getVendoredChartName(parts[2], parts.length > 3 || entry.isDirectory());
+            if (vendoredName != null) {
+              vendoredNames.add(vendoredName);
+            }
+          }
+        }
+      }
+    }
+    final Collection<ChartRepositoryRepository.ChartCoordinates> returnValue = new ArrayList<>();
+    if (requirementsYaml != null && !requirementsYaml.isEmpty()) {
+      final Requirements requirements = new Yaml().loadAs(requirementsYaml, Requirements.class);
+      if (requirements != null && !requirements.isEmpty()) {
+        for (final Requirements.Dependency dependency : requirements.getDependencies()) {
+          if (dependency != null && dependency.getName() != null && !vendoredNames.contains(dependency.getName())) {
+            final String repositoryName = this.getRepositoryName(dependency.getRepository());
+            if (repositoryName != null) {
+              returnValue.add(new ChartRepositoryRepository.ChartCoordinates(repositoryName, dependency.getName(), dependency.getVersion()));
+            }
+          }
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the {@linkplain ChartRepository#getName() name} of the
+   * {@link ChartRepository} identified by the supplied {@code
+   * requirements.yaml} {@code repository} value, or {@code null} if
+   * there is no such {@link ChartRepository}.
+   *
+   * <p>Following Helm, a value of the form {@code @name} or {@code
+   * alias:name} names a chart repository directly; any other value
+   * is compared with the {@linkplain ChartRepository#getUri() URIs}
+   * of the known chart repositories.</p>
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param repository the value in question; may be {@code null}
+   *
+   * @return a chart repository name, or {@code null}
+   */
+  private final String getRepositoryName(final String repository) {
+    String returnValue = null;
+    if (repository != null && !repository.isEmpty()) {
+      if (repository.startsWith("@")) {
+        returnValue = repository.substring(1);
+      } else if (repository.startsWith("alias:")) {
+        returnValue = repository.substring("alias:".length());
+      } else {
+        final String normalizedRepository = stripTrailingSlash(repository);
+        for (final ChartRepository chartRepository : this.chartRepositoryRepository.getChartRepositories()) {
+          if (chartRepository != null) {
+            final URI uri = chartRepository.getUri();
+            if (uri != null && normalizedRepository.equals(stripTrailingSlash(uri.toString()))) {
+              returnValue = chartRepository.getName();
+              break;
+            }
+          }
+        }
+      }
+    }
+    return returnValue;
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns the exact version of the newest chart named {@code
+   * chartName} in the supplied {@link ChartRepository.Index} that
+   * satisfies the supplied {@code versionRange}, or {@code null} if
+   * there is no such chart.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param index the {@link ChartRepository.Index} to search; must
+   * not be {@code null}
+   *
+   * @param chartName the chart name; must not be {@code null}
+   *
+   * @param versionRange an exact version or a semantic version range;
+   * may be {@code null} in which case "latest" semantics are implied
+   *
+   * @return an exact version, or {@code null}
+   */
+  static final String resolveVersion(final ChartRepository.Index index, final String chartName, final String versionRange) {
+    Objects.requireNonNull(index);
+    Objects.requireNonNull(chartName);
+    String returnValue = null;
+    final ChartRepository.Index.Entry exactEntry = index.getEntry(chartName, versionRange);
+    if (exactEntry != null) {
+      returnValue = exactEntry.getVersion();
+    } else if (versionRange != null) {
+      final SortedSet<ChartRepository.Index.Entry> entries = index.getEntries().get(chartName);
+      if (entries != null) {
+        // entries is sorted newest first
+        for (final ChartRepository.Index.Entry entry : entries) {
+          final String version = entry.getVersion();
+          if (version != null && satisfies(version, versionRange)) {
+            returnValue = version;
+            break;
+          }
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  private static final boolean satisfies(final String version, final String versionRange) {
+    boolean returnValue;
+    try {
+      returnValue = Versions.satisfies(version, versionRange);
+    } catch (final RuntimeException unparseable) {
+      returnValue = false;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the name of the chart vendored as the supplied entry of a
+   * chart's {@code charts} directory, or {@code null} if the entry
+   * does not hold a chart.
+   *
+   * <p>A directory entry's name is the chart's name.  An archive
+   * entry is named, following Helm, {@code
+   * <em>name</em>-<em>version</em>.tgz}; since both chart names and
+   * semantic versions may contain hyphens, the chart name ends at the
+   * first hyphen that is followed by a valid version.  So {@code
+   * foo-bar-1.0.0.tgz} vendors {@code foo-bar}, not {@code foo}, and
+   * {@code foo-1.0.0-rc.1.tgz} vendors {@code foo}.</p>
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param fileName the name of the entry directly inside the {@code
+   * charts} directory; must not be {@code null}
+   *
+   * @param directory whether the entry is a directory
+   *
+   * @return the vendored chart's name, or {@code null}
+   */
+  static final String getVendoredChartName(final String fileName, final boolean directory) {
+    Objects.requireNonNull(fileName);
+    String returnValue = null;
+    if (directory) {
+      returnValue = fileName;
+    } else if (fileName.endsWith(".tgz")) {
+      final String nameAndVersion = fileName.substring(0, fileName.length() - ".tgz".length());
+      int hyphen = nameAndVersion.indexOf('-');
+      while (hyphen > 0) {
+        if (Versions.parseVersionOrNull(nameAndVersion.substring(hyphen + 1)) != null) {
+          returnValue = nameAndVersion.substring(0, hyphen);
+          break;
+        }
+        hyphen = nameAndVersion.indexOf('-', hyphen + 1);
+      }
+    }
+    return returnValue;
+  }
+
+  private static final String stripTrailingSlash(final String s) {
+    final String returnValue;
+    if (s.endsWith("/")) {
+      returnValue = s.substring(0, s.length() - 1);
+    } else {
+      returnValue = s;
+    }
+    return returnValue;
+  }
+
+  private static final String read(final InputStream stream) throws IOException {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    final byte[] bytes = new byte[4096];
+    int bytesRead;
+    while ((bytesRead = stream.read(bytes, 0, bytes.length)) != -1) {
+      buffer.write(bytes, 0, bytesRead);
+    }
+    return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+}
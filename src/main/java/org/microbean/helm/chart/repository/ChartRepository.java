@@ -17,35 +17,48 @@
 package org.microbean.helm.chart.repository;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.IOException;
+import java.io.OutputStream;
 
+import java.net.HttpURLConnection;
 import java.net.Proxy;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
 
-import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException; // for javadoc only
 
 import java.nio.file.CopyOption;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.LinkOption; // for javadoc only
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
 import java.nio.file.attribute.FileAttribute; // for javadoc only
+import java.nio.file.attribute.FileTime;
 
+import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
+import java.time.Duration;
+import java.time.Instant;
+
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Properties;
 import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.SortedSet;
@@ -53,15 +66,20 @@ import java.util.SortedMap;
 import java.util.TreeSet;
 import java.util.TreeMap;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import java.util.function.Predicate;
+
 import java.util.zip.GZIPInputStream;
 
 import javax.xml.bind.DatatypeConverter;
 
-import com.github.zafarkhaja.semver.ParseException;
 import com.github.zafarkhaja.semver.Version;
 
 import hapi.chart.ChartOuterClass.Chart;
-import hapi.chart.MetadataOuterClass.Metadata;
 import hapi.chart.MetadataOuterClass.MetadataOrBuilder;
 
 import org.kamranzafar.jtar.TarInputStream;
@@ -69,23 +87,15 @@ import org.kamranzafar.jtar.TarInputStream;
 import org.microbean.development.annotation.Experimental;
 import org.microbean.development.annotation.Issue;
 
-import org.microbean.helm.chart.Metadatas;
-import org.microbean.helm.chart.StringResolver;
 import org.microbean.helm.chart.TapeArchiveChartLoader;
+import org.microbean.helm.chart.Versions;
 
 import org.microbean.helm.chart.resolver.AbstractChartResolver;
 import org.microbean.helm.chart.resolver.ChartResolverException;
 
-import org.yaml.snakeyaml.DumperOptions;
-import org.yaml.snakeyaml.Yaml;
-
-import org.yaml.snakeyaml.constructor.SafeConstructor;
-
 import org.yaml.snakeyaml.nodes.NodeId;
 import org.yaml.snakeyaml.nodes.Tag;
 
-import org.yaml.snakeyaml.representer.Representer;
-
 import org.yaml.snakeyaml.resolver.Resolver;
 
 /**
@@ -117,6 +127,67 @@ public class ChartRepository extends AbstractChartResolver {
    * <p>This field is never {@code null}.</p>
    */
   private static final HelmHome helmHome = new HelmHome();
+
+  /**
+   * The key under which an HTTP {@code ETag} response header value is
+   * stored in a validators file.
+   *
+   * @see #getValidatorsPath(Path)
+   */
+  private static final String ETAG = "ETag";
+
+  /**
+   * The key under which an HTTP {@code Last-Modified} response header
+   * value is stored in a validators file.
+   *
+   * @see #getValidatorsPath(Path)
+   */
+  private static final String LAST_MODIFIED = "Last-Modified";
+
+  /**
+   * A {@link ClassValue} recording whether a given subclass of {@link
+   * ChartRepository} overrides the {@link #openStream(URL)} method,
+   * in which case its {@code index.yaml} file is downloaded through
+   * that method as in earlier releases.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #openIndexStream(URL, Properties)
+   */
+  private static final ClassValue<Boolean> overridesOpenStream = new ClassValue<Boolean>() {
+      @Override
+      protected final Boolean computeValue(final Class<?> c) {
+        Boolean returnValue = Boolean.FALSE;
+        for (Class<?> k = c; k != null && !ChartRepository.class.equals(k); k = k.getSuperclass()) {
+          try {
+            k.getDeclaredMethod("openStream", URL.class);
+            returnValue = Boolean.TRUE;
+            break;
+          } catch (final NoSuchMethodException ignoreMe) {
+            // Not declared here; keep looking.
+          }
+        }
+        return returnValue;
+      }
+    };
+
+  /**
+   * A {@link ConcurrentMap} of {@link CompletableFuture}s representing
+   * chart archive downloads that are currently in progress, indexed
+   * by the {@link Path} of the archive being downloaded.  Each {@link
+   * CompletableFuture} completes with {@link Boolean#TRUE} if the
+   * download it represents verified the archive against its digest.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * <p>This field is static so that all {@link ChartRepository}
+   * instances in a given JVM that share an archive cache directory
+   * also share in-progress downloads.  (Doing so also prevents {@link
+   * OverlappingFileLockException}s from being thrown.)</p>
+   *
+   * @see #getCachedChartPath(String, String, CopyOption...)
+   */
+  private static final ConcurrentMap<Path, CompletableFuture<Boolean>> chartDownloadsInFlight = new ConcurrentHashMap<>();
   
 
   /*
@@ -162,6 +233,25 @@ public class ChartRepository extends AbstractChartResolver {
    */
   private transient Index index;
 
+  /**
+   * A number that is incremented every time the {@link #index} field
+   * is refreshed from the chart repository.
+   *
+   * <p>All access to this field must be synchronized on the {@link
+   * #indexLock} field.</p>
+   *
+   * @see #getIndex(boolean, CopyOption...)
+   */
+  private transient long indexGeneration;
+
+  /**
+   * An {@link Object} that guards access to the {@link #index},
+   * {@link #indexValidator} and {@link #indexGeneration} fields.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Object indexLock;
+
   /**
    * An {@linkplain Path#isAbsolute() absolute} {@link Path}
    * representing a directory that the value of the {@link
@@ -204,6 +294,42 @@ public class ChartRepository extends AbstractChartResolver {
    */
   private final Proxy proxy;
 
+  /**
+   * The maximum age of the {@linkplain #getCachedIndexPath() cached
+   * copy} of the chart repository's <a
+   * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
+   * index.yaml}</a> file before it is {@linkplain
+   * #isCachedIndexExpired() considered to have expired}.
+   *
+   * <p>This field may be {@code null}, in which case the cached copy
+   * never expires merely because of its age.</p>
+   *
+   * @see #getIndexMaxAge()
+   */
+  private final Duration indexMaxAge;
+
+  /**
+   * The validator (an HTTP {@code ETag} or {@code Last-Modified}
+   * header value) that was in effect when the {@link #index} field
+   * was most recently set, or {@code null}.
+   *
+   * <p>This field may be {@code null}.</p>
+   *
+   * @see #getIndex(boolean, CopyOption...)
+   */
+  private transient String indexValidator;
+
+  /**
+   * The {@link ArchiveCache} that manages the {@linkplain
+   * #archiveCacheDirectory archive cache directory}.
+   *
+   * <p>This field may be {@code null}, in which case archives are
+   * never evicted.</p>
+   *
+   * @see #getArchiveCache()
+   */
+  private final ArchiveCache archiveCache;
+
 
   /*
    * Constructors.
@@ -603,11 +729,181 @@ public class ChartRepository extends AbstractChartResolver {
    * URI#isAbsolute() not absolute}, or if there is no existing "Helm
    * home" directory and/or it could not be reified
    *
+   * @see #ChartRepository(String, URI, Path, Path, Path, boolean,
+   * Proxy, Duration)
+   *
+   * @see #getName()
+   *
+   * @see #getUri()
+   *
+   * @see #getCachedIndexPath()
+   */
+  public ChartRepository(final String name,
+                         final URI uri,
+                         final Path archiveCacheDirectory,
+                         final Path indexCacheDirectory,
+                         final Path cachedIndexPath,
+                         final boolean reifyHelmHomeIfNecessary,
+                         final Proxy proxy) {
+    this(name, uri, archiveCacheDirectory, indexCacheDirectory, cachedIndexPath, reifyHelmHomeIfNecessary, proxy, null);
+  }
+
+  /**
+   * Creates a new {@link ChartRepository}.
+   *
+   * @param name the name of this {@link ChartRepository}; must not be
+   * {@code null}
+   *
+   * @param uri the {@link URI} to the root of this {@link
+   * ChartRepository}; must not be {@code null}
+   *
+   * @param archiveCacheDirectory an {@linkplain Path#isAbsolute()
+   * absolute} {@link Path} representing a directory where Helm chart
+   * archives may be stored; if {@code null} then a {@link Path}
+   * beginning with the absolute directory represented by the value of
+   * the {@code helm.home} system property, or the value of the {@code
+   * HELM_HOME} environment variable, appended with {@code
+   * cache/archive} will be used instead
+   *
+   * @param indexCacheDirectory an {@linkplain Path#isAbsolute()
+   * absolute} {@link Path} representing a directory that the supplied
+   * {@code cachedIndexPath} parameter value will be considered to be
+   * relative to; will be ignored and hence may be {@code null} if the
+   * supplied {@code cachedIndexPath} parameter value {@linkplain
+   * Path#isAbsolute()}
+   *
+   * @param cachedIndexPath a {@link Path} naming the file that will
+   * store a copy of the chart repository's {@code index.yaml} file;
+   * if {@code null} then a {@link Path} relative to the absolute
+   * directory represented by the value of the {@code helm.home}
+   * system property, or the value of the {@code HELM_HOME}
+   * environment variable, and bearing a name consisting of the
+   * supplied {@code name} suffixed with {@code -index.yaml} will be
+   * used instead
+   *
+   * @param reifyHelmHomeIfNecessary if {@code true} and, for whatever
+   * reason, the local Helm home directory structure needs to be
+   * partially or entirely created, then this constructor will attempt
+   * to reify it
+   *
+   * @param proxy a {@link Proxy} representing a proxy server used to
+   * establish a connection to the chart repository represented by
+   * this {@link ChartRepository}; may be {@code null} in which case
+   * {@link Proxy#NO_PROXY} will be used instead
+   *
+   * @param indexMaxAge the maximum age of the {@linkplain
+   * #getCachedIndexPath() cached copy} of the chart repository's
+   * {@code index.yaml} file before it is {@linkplain
+   * #isCachedIndexExpired() considered to have expired}; may be
+   * {@code null} in which case the cached copy will never expire
+   * merely because of its age
+   *
+   * @exception NullPointerException if either {@code name} or {@code
+   * uri} is {@code null}
+   *
+   * @exception IllegalArgumentException if {@code uri} is {@linkplain
+   * URI#isAbsolute() not absolute}, or if there is no existing "Helm
+   * home" directory and/or it could not be reified, or if {@code
+   * indexMaxAge} is {@linkplain Duration#isNegative() negative}
+   *
+   * @see #ChartRepository(String, URI, Path, Path, Path, boolean,
+   * Proxy, Duration, ArchiveCache)
+   *
+   * @see #getName()
+   *
+   * @see #getUri()
+   *
+   * @see #getCachedIndexPath()
+   *
+   * @see #getIndexMaxAge()
+   */
+  public ChartRepository(final String name,
+                         final URI uri,
+                         final Path archiveCacheDirectory,
+                         final Path indexCacheDirectory,
+                         final Path cachedIndexPath,
+                         final boolean reifyHelmHomeIfNecessary,
+                         final Proxy proxy,
+                         final Duration indexMaxAge) {
+    this(name, uri, archiveCacheDirectory, indexCacheDirectory, cachedIndexPath, reifyHelmHomeIfNecessary, proxy, indexMaxAge, null);
+  }
+
+  /**
+   * Creates a new {@link ChartRepository}.
+   *
+   * @param name the name of this {@link ChartRepository}; must not be
+   * {@code null}
+   *
+   * @param uri the {@link URI} to the root of this {@link
+   * ChartRepository}; must not be {@code null}
+   *
+   * @param archiveCacheDirectory an {@linkplain Path#isAbsolute()
+   * absolute} {@link Path} representing a directory where Helm chart
+   * archives may be stored; if {@code null} then a {@link Path}
+   * beginning with the absolute directory represented by the value of
+   * the {@code helm.home} system property, or the value of the {@code
+   * HELM_HOME} environment variable, appended with {@code
+   * cache/archive} will be used instead
+   *
+   * @param indexCacheDirectory an {@linkplain Path#isAbsolute()
+   * absolute} {@link Path} representing a directory that the supplied
+   * {@code cachedIndexPath} parameter value will be considered to be
+   * relative to; will be ignored and hence may be {@code null} if the
+   * supplied {@code cachedIndexPath} parameter value {@linkplain
+   * Path#isAbsolute()}
+   *
+   * @param cachedIndexPath a {@link Path} naming the file that will
+   * store a copy of the chart repository's {@code index.yaml} file;
+   * if {@code null} then a {@link Path} relative to the absolute
+   * directory represented by the value of the {@code helm.home}
+   * system property, or the value of the {@code HELM_HOME}
+   * environment variable, and bearing a name consisting of the
+   * supplied {@code name} suffixed with {@code -index.yaml} will be
+   * used instead
+   *
+   * @param reifyHelmHomeIfNecessary if {@code true} and, for whatever
+   * reason, the local Helm home directory structure needs to be
+   * partially or entirely created, then this constructor will attempt
+   * to reify it
+   *
+   * @param proxy a {@link Proxy} representing a proxy server used to
+   * establish a connection to the chart repository represented by
+   * this {@link ChartRepository}; may be {@code null} in which case
+   * {@link Proxy#NO_PROXY} will be used instead
+   *
+   * @param indexMaxAge the maximum age of the {@linkplain
+   * #getCachedIndexPath() cached copy} of the chart repository's
+   * {@code index.yaml} file before it is {@linkplain
+   * #isCachedIndexExpired() considered to have expired}; may be
+   * {@code null} in which case the cached copy will never expire
+   * merely because of its age
+   *
+   * @param archiveCache an {@link ArchiveCache} that will be told
+   * about accesses to archives in the archive cache directory and
+   * that will evict them as it sees fit; may be {@code null} in which
+   * case archives will never be evicted; if non-{@code null}, its
+   * {@linkplain ArchiveCache#getDirectory() directory} must be the
+   * archive cache directory
+   *
+   * @exception NullPointerException if either {@code name} or {@code
+   * uri} is {@code null}
+   *
+   * @exception IllegalArgumentException if {@code uri} is {@linkplain
+   * URI#isAbsolute() not absolute}, or if there is no existing "Helm
+   * home" directory and/or it could not be reified, or if {@code
+   * indexMaxAge} is {@linkplain Duration#isNegative() negative}, or
+   * if {@code archiveCache} does not manage the archive cache
+   * directory
+   *
    * @see #getName()
    *
    * @see #getUri()
    *
    * @see #getCachedIndexPath()
+   *
+   * @see #getIndexMaxAge()
+   *
+   * @see #getArchiveCache()
    */
   public ChartRepository(final String name,
                          final URI uri,
@@ -615,7 +911,9 @@ public class ChartRepository extends AbstractChartResolver {
                          Path indexCacheDirectory,
                          Path cachedIndexPath,
                          final boolean reifyHelmHomeIfNecessary,
-                         final Proxy proxy) {
+                         final Proxy proxy,
+                         final Duration indexMaxAge,
+                         final ArchiveCache archiveCache) {
     super();
     Objects.requireNonNull(name);
     Objects.requireNonNull(uri);    
@@ -694,6 +992,15 @@ public class ChartRepository extends AbstractChartResolver {
     this.name = name;
     this.uri = uri;
     this.proxy = proxy == null ? Proxy.NO_PROXY : proxy;
+    if (indexMaxAge != null && indexMaxAge.isNegative()) {
+      throw new IllegalArgumentException("indexMaxAge.isNegative(): " + indexMaxAge);
+    }
+    this.indexMaxAge = indexMaxAge;
+    if (archiveCache != null && !this.archiveCacheDirectory.equals(archiveCache.getDirectory())) {
+      throw new IllegalArgumentException("!this.archiveCacheDirectory.equals(archiveCache.getDirectory()): " + archiveCache.getDirectory());
+    }
+    this.archiveCache = archiveCache;
+    this.indexLock = new Object();
   }
 
 
@@ -748,6 +1055,38 @@ public class ChartRepository extends AbstractChartResolver {
     return this.cachedIndexPath;
   }
 
+  /**
+   * Returns the maximum age of the {@linkplain #getCachedIndexPath()
+   * cached copy} of the chart repository's <a
+   * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
+   * index.yaml}</a> file before it is {@linkplain
+   * #isCachedIndexExpired() considered to have expired}, or {@code
+   * null} if the cached copy never expires merely because of its age.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return the maximum age of the cached {@code index.yaml} file, or
+   * {@code null}
+   *
+   * @see #isCachedIndexExpired()
+   */
+  public final Duration getIndexMaxAge() {
+    return this.indexMaxAge;
+  }
+
+  /**
+   * Returns the {@link ArchiveCache} that manages this {@link
+   * ChartRepository}'s archive cache directory, or {@code null} if
+   * archives are never evicted.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return the {@link ArchiveCache}, or {@code null}
+   */
+  public final ArchiveCache getArchiveCache() {
+    return this.archiveCache;
+  }
+
   /**
    * Returns the {@link Index} for this {@link ChartRepository}.
    *
@@ -850,6 +1189,14 @@ public class ChartRepository extends AbstractChartResolver {
    * index.yaml}</a> file {@linkplain #isCachedIndexExpired() has
    * expired}, then one is {@linkplain #downloadIndex() downloaded}
    * first.</p>
+   *
+   * <p>If the chart repository indicates that its {@code index.yaml}
+   * file has not changed since it was last downloaded, then the
+   * {@link Index} that is already stored in an instance variable, if
+   * any, is returned without reparsing.</p>
+   *
+   * <p>This method is safe for concurrent use by multiple
+   * threads.</p>
    * 
    * @param forceDownload if {@code true} then no caching will happen
    *
@@ -875,16 +1222,61 @@ public class ChartRepository extends AbstractChartResolver {
    */
   @Issue(id = "156", uri = "https://github.com/microbean/microbean-helm/issues/156")
   public final Index getIndex(final boolean forceDownload, final CopyOption... copyOptions) throws IOException, URISyntaxException {
-    if (forceDownload || this.index == null) {
-      final Path cachedIndexPath = this.getCachedIndexPath();
-      assert cachedIndexPath != null;
-      if (forceDownload || this.isCachedIndexExpired()) {
-        this.downloadIndexTo(cachedIndexPath, copyOptions);
+    synchronized (this.indexLock) {
+      if (forceDownload || this.index == null || (this.getIndexMaxAge() != null && this.isCachedIndexExpired())) {
+        final Path cachedIndexPath = this.getCachedIndexPath();
+        assert cachedIndexPath != null;
+        if (forceDownload || this.isCachedIndexExpired()) {
+          this.downloadIndexTo(cachedIndexPath, copyOptions);
+          this.indexGeneration++;
+        }
+        final String validator = getValidator(readValidators(cachedIndexPath));
+        if (this.index == null || validator == null || !validator.equals(this.indexValidator)) {
+          this.index = Index.loadFrom(cachedIndexPath);
+          this.indexValidator = validator;
+        }
+        assert this.index != null;
       }
-      this.index = Index.loadFrom(cachedIndexPath);
-      assert this.index != null;
+      return this.index;
+    }
+  }
+
+  /**
+   * Returns the {@link Index} for this {@link ChartRepository},
+   * {@linkplain #getIndex(boolean, CopyOption...) forcing a
+   * download} first only if no other thread has done so since the
+   * supplied {@code indexGeneration} was observed.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>This allows many threads that each need a fresh {@link Index}
+   * at roughly the same time to share a single download.</p>
+   *
+   * @param indexGeneration the value of the {@link #indexGeneration}
+   * field as observed by the caller before it determined that it
+   * needed a fresh {@link Index}
+   *
+   * @param copyOptions any {@link CopyOption} instances that will be
+   * passed to any {@link Files#move(Path, Path, CopyOption...)}
+   * invocation that may be necessary; may be {@code null}
+   *
+   * @return the {@link Index}; never {@code null}
+   *
+   * @exception IOException if there was a problem either parsing an
+   * <a
+   * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
+   * index.yaml}</a> file or downloading it
+   *
+   * @exception URISyntaxException if one of the URIs in the <a
+   * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
+   * index.yaml}</a> file is invalid
+   *
+   * @see #getIndex(boolean, CopyOption...)
+   */
+  private final Index refreshIndex(final long indexGeneration, final CopyOption... copyOptions) throws IOException, URISyntaxException {
+    synchronized (this.indexLock) {
+      return this.getIndex(this.index == null || this.indexGeneration == indexGeneration, copyOptions);
     }
-    return this.index;
   }
 
   /**
@@ -893,10 +1285,14 @@ public class ChartRepository extends AbstractChartResolver {
    * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
    * index.yaml}</a> file is to be considered stale.
    *
-   * <p>The default implementation of this method returns the negation
-   * of the return value of an invocation of the {@link
-   * Files#isRegularFile(Path, LinkOption...)} method on the return value of the
-   * {@link #getCachedIndexPath()} method.</p>
+   * <p>The default implementation of this method returns {@code
+   * true} if an invocation of the {@link Files#isRegularFile(Path,
+   * LinkOption...)} method on the return value of the {@link
+   * #getCachedIndexPath()} method returns {@code false}, or if the
+   * {@linkplain #getIndexMaxAge() maximum index age} is non-{@code
+   * null} and the {@linkplain Files#getLastModifiedTime(Path,
+   * LinkOption...) last modified time} of that file is older than
+   * it.</p>
    *
    * @return {@code true} if the {@linkplain #getCachedIndexPath()
    * cached copy} of the <a
@@ -908,10 +1304,23 @@ public class ChartRepository extends AbstractChartResolver {
   public boolean isCachedIndexExpired() {
     final Path cachedIndexPath = this.getCachedIndexPath();
     assert cachedIndexPath != null;
-    return !Files.isRegularFile(cachedIndexPath);
-  }
-
-  /**
+    boolean returnValue = !Files.isRegularFile(cachedIndexPath);
+    if (!returnValue) {
+      final Duration indexMaxAge = this.getIndexMaxAge();
+      if (indexMaxAge != null) {
+        try {
+          final Instant lastModified = Files.getLastModifiedTime(cachedIndexPath).toInstant();
+          assert lastModified != null;
+          returnValue = lastModified.plus(indexMaxAge).isBefore(Instant.now());
+        } catch (final IOException ioException) {
+          returnValue = true;
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
    * Clears the {@link Index} stored internally by this {@link
    * ChartRepository}, paving the way for a fresh copy to be installed
    * by the {@link #getIndex(boolean)} method, and returns the old
@@ -923,9 +1332,12 @@ public class ChartRepository extends AbstractChartResolver {
    * @return the {@link Index}, or {@code null}
    */
   public final Index clearIndex() {
-    final Index returnValue = this.index;
-    this.index = null;
-    return returnValue;
+    synchronized (this.indexLock) {
+      final Index returnValue = this.index;
+      this.index = null;
+      this.indexValidator = null;
+      return returnValue;
+    }
   }
 
   /**
@@ -1025,6 +1437,17 @@ public class ChartRepository extends AbstractChartResolver {
    * file} first, and then renames it, replacing any existing file
    * with that name.</p>
    *
+   * <p>If the chart repository is served over HTTP and validators
+   * ({@code ETag} and/or {@code Last-Modified} response header values)
+   * were recorded alongside an existing file at the supplied {@link
+   * Path} when it was downloaded, then the request is made
+   * conditional.  If the chart repository responds with {@code 304
+   * Not Modified}, then nothing is transferred, the existing file's
+   * {@linkplain Files#setLastModifiedTime(Path, FileTime) last
+   * modified time} is updated, and its {@link Path} is returned.  The
+   * request itself is made by the {@link #openIndexStream(URL,
+   * Properties)} method.</p>
+   *
    * @param path the {@link Path} to download the <a
    * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
    * index.yaml}</a> file to; may be {@code null} in which case the
@@ -1060,23 +1483,44 @@ public class ChartRepository extends AbstractChartResolver {
       assert path != null;
       assert path.isAbsolute();
     }
-    final Path temporaryPath = Files.createTempFile(new StringBuilder(this.getName()).append("-index-").toString(), ".yaml");
-    assert temporaryPath != null;
-    try (final BufferedInputStream stream = new BufferedInputStream(this.openStream(indexUrl))) {
-      Files.copy(stream, temporaryPath, StandardCopyOption.REPLACE_EXISTING);
-    } catch (final IOException throwMe) {
-      try {
-        Files.deleteIfExists(temporaryPath);
-      } catch (final IOException suppressMe) {
-        throwMe.addSuppressed(suppressMe);
-      }
-      throw throwMe;
-    }
+    final Path validatorsPath = getValidatorsPath(path);
+    assert validatorsPath != null;
+    final Properties validators = Files.isRegularFile(path) ? readValidators(path) : new Properties();
+    assert validators != null;
+    final InputStream indexStream = this.openIndexStream(indexUrl, validators);
     final Path returnValue;
-    if (copyOptions == null || copyOptions.length <= 0) {
-      returnValue = Files.move(temporaryPath, path);
+    if (indexStream == null) {
+      if (!Files.isRegularFile(path)) {
+        throw new IOException("openIndexStream(" + indexUrl + ", " + validators + ") == null");
+      }
+      // Restart the clock for isCachedIndexExpired().
+      Files.setLastModifiedTime(path, FileTime.from(Instant.now()));
+      returnValue = path;
     } else {
-      returnValue = Files.move(temporaryPath, path, copyOptions);
+      final Path temporaryPath = Files.createTempFile(new StringBuilder(this.getName()).append("-index-").toString(), ".yaml");
+      assert temporaryPath != null;
+      try (final BufferedInputStream stream = new BufferedInputStream(indexStream)) {
+        Files.copy(stream, temporaryPath, StandardCopyOption.REPLACE_EXISTING);
+      } catch (final IOException throwMe) {
+        try {
+          Files.deleteIfExists(temporaryPath);
+        } catch (final IOException suppressMe) {
+          throwMe.addSuppressed(suppressMe);
+        }
+        throw throwMe;
+      }
+      if (copyOptions == null || copyOptions.length <= 0) {
+        returnValue = Files.move(temporaryPath, path);
+      } else {
+        returnValue = Files.move(temporaryPath, path, copyOptions);
+      }
+      if (validators.isEmpty()) {
+        Files.deleteIfExists(validatorsPath);
+      } else {
+        try (final OutputStream stream = new BufferedOutputStream(Files.newOutputStream(validatorsPath))) {
+          validators.store(stream, indexUrl.toString());
+        }
+      }
     }
     return returnValue;
   }
@@ -1151,6 +1595,13 @@ public class ChartRepository extends AbstractChartResolver {
    *
    * <p>This method may return {@code null}.</p>
    *
+   * <p>This method is safe for concurrent use by multiple threads.
+   * Concurrent requests for the same missing archive, whether they
+   * originate in this JVM or in other processes sharing the same
+   * archive cache directory, result in only one download.  Within a
+   * JVM, concurrent requests for missing archives share a single
+   * refresh of the {@linkplain #getIndex() index}.</p>
+   *
    * @param chartName the name of the chart whose local {@link Path}
    * should be returned; must not be {@code null}
    *
@@ -1171,10 +1622,76 @@ public class ChartRepository extends AbstractChartResolver {
    *
    * @exception NullPointerException if {@code chartName} is {@code
    * null}
+   *
+   * @see #getCachedChartPath(String, String, boolean, CopyOption...)
    */
   @Issue(id = "156", uri = "https://github.com/microbean/microbean-helm/issues/156")
   public final Path getCachedChartPath(final String chartName, String chartVersion, final CopyOption... copyOptions) throws IOException, URISyntaxException {
+    return this.getCachedChartPath(chartName, chartVersion, false, copyOptions);
+  }
+
+  /**
+   * Given a Helm chart name and its version, returns the local {@link
+   * Path}, representing a local copy of the Helm chart as downloaded
+   * from the chart repository represented by this {@link
+   * ChartRepository}, downloading the archive if necessary.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * <p>This method is safe for concurrent use by multiple threads.
+   * Concurrent requests for the same missing archive, whether they
+   * originate in this JVM or in other processes sharing the same
+   * archive cache directory, result in only one download.  Within a
+   * JVM, concurrent requests for missing archives share a single
+   * refresh of the {@linkplain #getIndex() index}.</p>
+   *
+   * <p>If {@code verifyDigest} is {@code true}, and the {@linkplain
+   * Index.Entry#getDigest() index entry} for the chart has a digest,
+   * then the SHA-256 digest of the archive is computed as it is
+   * downloaded, and an {@link IOException} is thrown, without the
+   * archive ever having been moved into place, if it does not match.
+   * An archive that is already present is not verified again.  If
+   * another thread is already downloading the same archive without
+   * verifying it, then once that download completes the archive is
+   * verified before this method returns, and, if it does not match,
+   * it is deleted and an {@link IOException} is thrown.  The same is
+   * true if another process downloaded the archive while this method
+   * was waiting for its lock file.</p>
+   *
+   * @param chartName the name of the chart whose local {@link Path}
+   * should be returned; must not be {@code null}
+   *
+   * @param chartVersion the version of the chart to select; may be
+   * {@code null} in which case "latest" semantics are implied
+   *
+   * @param verifyDigest whether a downloaded archive should be
+   * verified against the digest recorded for it in the chart
+   * repository's index
+   *
+   * @param copyOptions any {@link CopyOption} instances that will be
+   * passed to any {@link Files#move(Path, Path, CopyOption...)}
+   * invocations that may be necessary; may be {@code null}
+   *
+   * @return the {@link Path} to the chart archive, or {@code null}
+   *
+   * @exception IOException if there was a problem downloading, or
+   * if {@code verifyDigest} is {@code true} and the downloaded archive
+   * did not match its digest
+   *
+   * @exception URISyntaxException if this {@link ChartRepository}'s
+   * {@linkplain #getIndex() associated <code>Index</code>} could not
+   * be parsed
+   *
+   * @exception NullPointerException if {@code chartName} is {@code
+   * null}
+   */
+  @Issue(id = "156", uri = "https://github.com/microbean/microbean-helm/issues/156")
+  public final Path getCachedChartPath(final String chartName, String chartVersion, final boolean verifyDigest, final CopyOption... copyOptions) throws IOException, URISyntaxException {
     Objects.requireNonNull(chartName);
+    final long indexGeneration;
+    synchronized (this.indexLock) {
+      indexGeneration = this.indexGeneration;
+    }
     Path returnValue = null;
     if (chartVersion == null) {
       final Index index = this.getIndex(false);
@@ -1186,12 +1703,147 @@ public class ChartRepository extends AbstractChartResolver {
     }
     if (chartVersion != null) {
       assert this.archiveCacheDirectory != null;
-      final StringBuilder chartKey = new StringBuilder(chartName).append("-").append(chartVersion);
-      final String chartFilename = new StringBuilder(chartKey).append(".tgz").toString();
-      final Path cachedChartPath = this.archiveCacheDirectory.resolve(chartFilename);
+      final String chartKey = new StringBuilder(chartName).append("-").append(chartVersion).toString();
+      final Path cachedChartPath = this.archiveCacheDirectory.resolve(new StringBuilder(chartKey).append(".tgz").toString());
       assert cachedChartPath != null;
+      final ArchiveCache archiveCache = this.getArchiveCache();
+      if (Files.isRegularFile(cachedChartPath)) {
+        if (archiveCache != null) {
+          archiveCache.recordAccess(cachedChartPath);
+        }
+      } else {
+        final CompletableFuture<Boolean> download = new CompletableFuture<>();
+        final CompletableFuture<Boolean> downloadInFlight = chartDownloadsInFlight.putIfAbsent(cachedChartPath, download);
+        if (downloadInFlight == null) {
+          // We're the thread that gets to do the work; everyone else
+          // asking for this chart will wait for us.
+          try {
+            boolean verified = this.downloadChart(chartName, chartVersion, chartKey, cachedChartPath, indexGeneration, verifyDigest, copyOptions);
+            if (verifyDigest && !verified && Files.isRegularFile(cachedChartPath)) {
+              // Another process downloaded the archive while we
+              // waited for the lock, and may not have checked it.
+              this.verifyDigest(chartName, chartVersion, cachedChartPath);
+              verified = true;
+            }
+            if (archiveCache != null && Files.isRegularFile(cachedChartPath)) {
+              archiveCache.recordAccess(cachedChartPath);
+              // The cache just grew.
+              archiveCache.requestEviction();
+            }
+            download.complete(Boolean.valueOf(verified));
+          } catch (final IOException | URISyntaxException | RuntimeException | Error throwable) {
+            download.completeExceptionally(throwable);
+            throw throwable;
+          } finally {
+            chartDownloadsInFlight.remove(cachedChartPath, download);
+          }
+        } else {
+          final Boolean verified;
+          try {
+            verified = downloadInFlight.get();
+          } catch (final InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            final InterruptedIOException throwMe = new InterruptedIOException(interruptedException.getMessage());
+            throwMe.initCause(interruptedException);
+            throw throwMe;
+          } catch (final ExecutionException executionException) {
+            final Throwable cause = executionException.getCause();
+            if (cause instanceof IOException) {
+              throw new IOException(cause.getMessage(), cause);
+            } else if (cause instanceof URISyntaxException) {
+              final URISyntaxException throwMe = new URISyntaxException(((URISyntaxException)cause).getInput(), ((URISyntaxException)cause).getReason(), ((URISyntaxException)cause).getIndex());
+              throwMe.initCause(cause);
+              throw throwMe;
+            } else if (cause instanceof RuntimeException) {
+              throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+              throw (Error)cause;
+            } else {
+              throw new IOException(cause == null ? null : cause.getMessage(), cause);
+            }
+          }
+          if (verifyDigest && !Boolean.TRUE.equals(verified) && Files.isRegularFile(cachedChartPath)) {
+            // The download we joined did not check the archive, but
+            // our caller asked for it to be checked.
+            this.verifyDigest(chartName, chartVersion, cachedChartPath);
+          }
+        }
+      }
+      returnValue = cachedChartPath;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Downloads the Helm chart archive identified by the supplied
+   * {@code chartName} and {@code chartVersion} to the supplied {@code
+   * cachedChartPath}, while holding an exclusive {@link FileLock} on
+   * a sidecar lock file so that other processes sharing the same
+   * archive cache directory do not download it at the same time.
+   *
+   * <p>If, once the lock has been acquired, the archive turns out to
+   * have been downloaded already (by another process), then nothing
+   * is downloaded.  Once the archive is in place, the sidecar lock
+   * file is deleted.</p>
+   *
+   * <p>The archive is streamed to a temporary file using a buffer of
+   * fixed size.  If {@code verifyDigest} is {@code true} and the
+   * relevant {@link Index.Entry} has a {@linkplain
+   * Index.Entry#getDigest() digest}, the archive's SHA-256 digest is
+   * computed along the way and compared with it before the temporary
+   * file is moved into place.</p>
+   *
+   * @param chartName the name of the chart; must not be {@code null}
+   *
+   * @param chartVersion the version of the chart; must not be {@code
+   * null}
+   *
+   * @param chartKey a {@link String} combining {@code chartName} and
+   * {@code chartVersion}; must not be {@code null}
+   *
+   * @param cachedChartPath the {@link Path} to which the archive
+   * should be downloaded; must not be {@code null}
+   *
+   * @param indexGeneration the {@linkplain #refreshIndex(long,
+   * CopyOption...) index generation} observed by the caller
+   *
+   * @param verifyDigest whether the downloaded archive should be
+   * verified against the digest recorded for it in the index
+   *
+   * @param copyOptions any {@link CopyOption} instances that will be
+   * passed to any {@link Files#move(Path, Path, CopyOption...)}
+   * invocations that may be necessary; may be {@code null}
+   *
+   * @return {@code true} if this method downloaded the archive and
+   * verified it against a digest; {@code false} otherwise
+   *
+   * @exception IOException if there was a problem downloading, or if
+   * the downloaded archive did not match its digest
+   *
+   * @exception URISyntaxException if this {@link ChartRepository}'s
+   * {@linkplain #getIndex() associated <code>Index</code>} could not
+   * be parsed
+   */
+  private final boolean downloadChart(final String chartName,
+                                   final String chartVersion,
+                                   final String chartKey,
+                                   final Path cachedChartPath,
+                                   final long indexGeneration,
+                                   final boolean verifyDigest,
+                                   final CopyOption... copyOptions)
+    throws IOException, URISyntaxException {
+    Objects.requireNonNull(chartName);
+    Objects.requireNonNull(chartVersion);
+    Objects.requireNonNull(chartKey);
+    Objects.requireNonNull(cachedChartPath);
+    boolean returnValue = false;
+    final Path lockPath = cachedChartPath.resolveSibling(new StringBuilder(cachedChartPath.getFileName().toString()).append(".lock").toString());
+    assert lockPath != null;
+    try (final FileChannel lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+         final FileLock lock = lockChannel.lock()) {
+      assert lock != null;
       if (!Files.isRegularFile(cachedChartPath)) {
-        final Index index = this.getIndex(true);
+        final Index index = this.refreshIndex(indexGeneration, copyOptions);
         assert index != null;
         final Index.Entry entry = index.getEntry(chartName, chartVersion);
         if (entry != null) {
@@ -1210,10 +1862,29 @@ public class ChartRepository extends AbstractChartResolver {
             
             final URL chartUrl = chartUri.toURL();
             assert chartUrl != null;
-            final Path temporaryPath = Files.createTempFile(chartKey.append("-").toString(), ".tgz");
+            // Download into the archive cache directory itself so
+            // that the final move is a rename and other processes
+            // never see a partially written archive.
+            final String expectedDigest = verifyDigest ? entry.getDigest() : null;
+            final MessageDigest messageDigest;
+            if (expectedDigest == null || expectedDigest.isEmpty()) {
+              messageDigest = null;
+            } else {
+              messageDigest = Index.Entry.newMessageDigest();
+            }
+            final Path temporaryPath = Files.createTempFile(cachedChartPath.getParent(), new StringBuilder(chartKey).append("-").toString(), ".tgz.tmp");
             assert temporaryPath != null;
-            try (final InputStream stream = new BufferedInputStream(this.openStream(chartUrl))) {
+            try (final InputStream stream = messageDigest == null ? new BufferedInputStream(this.openStream(chartUrl)) : new DigestInputStream(new BufferedInputStream(this.openStream(chartUrl)), messageDigest)) {
+              // Files#copy(InputStream, Path, CopyOption...) uses a
+              // buffer of fixed size, so memory use does not depend
+              // on the size of the archive.
               Files.copy(stream, temporaryPath, StandardCopyOption.REPLACE_EXISTING);
+              if (messageDigest != null) {
+                final String actualDigest = DatatypeConverter.printHexBinary(messageDigest.digest());
+                if (!expectedDigest.equalsIgnoreCase(actualDigest)) {
+                  throw new IOException("Digest mismatch for " + chartUrl + "; expected: " + expectedDigest + "; actual: " + actualDigest);
+                }
+              }
             } catch (final IOException throwMe) {
               try {
                 Files.deleteIfExists(temporaryPath);
@@ -1222,15 +1893,188 @@ public class ChartRepository extends AbstractChartResolver {
               }
               throw throwMe;
             }
-            if (copyOptions == null || copyOptions.length <= 0) {
-              Files.move(temporaryPath, cachedChartPath);
-            } else {
-              Files.move(temporaryPath, cachedChartPath, copyOptions);
+            try {
+              if (copyOptions == null || copyOptions.length <= 0) {
+                Files.move(temporaryPath, cachedChartPath);
+              } else {
+                Files.move(temporaryPath, cachedChartPath, copyOptions);
+              }
+              returnValue = messageDigest != null;
+            } catch (final FileAlreadyExistsException someoneElseDownloadedIt) {
+              // Someone who did not honor the lock put the archive in
+              // place first; use theirs.
+              Files.deleteIfExists(temporaryPath);
+            } catch (final IOException throwMe) {
+              try {
+                Files.deleteIfExists(temporaryPath);
+              } catch (final IOException suppressMe) {
+                throwMe.addSuppressed(suppressMe);
+              }
+              throw throwMe;
             }
           }
         }
       }
-      returnValue = cachedChartPath;
+      if (Files.isRegularFile(cachedChartPath)) {
+        // The lock file is no longer needed.  Anyone already waiting
+        // on it will find the archive once they acquire it, and
+        // anyone arriving later will find the archive before they
+        // look for a lock file.  Lock files left behind by failed
+        // downloads are deleted by ArchiveCache#evict().
+        try {
+          Files.deleteIfExists(lockPath);
+        } catch (final IOException ignoreMe) {
+          // Some platforms will not delete an open file; leave it
+          // for ArchiveCache#evict().
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Verifies the chart archive already present at the supplied {@code
+   * cachedChartPath} against the {@linkplain Index.Entry#getDigest()
+   * digest} recorded for it in the {@linkplain #getIndex() index},
+   * deleting it and throwing an {@link IOException} if it does not
+   * match.
+   *
+   * <p>If the index has no entry, or no digest, for the chart, then
+   * nothing happens.</p>
+   *
+   * @param chartName the name of the chart; must not be {@code null}
+   *
+   * @param chartVersion the version of the chart; must not be {@code
+   * null}
+   *
+   * @param cachedChartPath the {@link Path} of the archive to verify;
+   * must not be {@code null}
+   *
+   * @exception IOException if the archive could not be read, or if
+   * it did not match its digest
+   *
+   * @exception URISyntaxException if this {@link ChartRepository}'s
+   * {@linkplain #getIndex() associated <code>Index</code>} could not
+   * be parsed
+   */
+  private final void verifyDigest(final String chartName, final String chartVersion, final Path cachedChartPath) throws IOException, URISyntaxException {
+    Objects.requireNonNull(chartName);
+    Objects.requireNonNull(chartVersion);
+    Objects.requireNonNull(cachedChartPath);
+    final Index index = this.getIndex(false);
+    assert index != null;
+    final Index.Entry entry = index.getEntry(chartName, chartVersion);
+    if (entry != null) {
+      final String expectedDigest = entry.getDigest();
+      if (expectedDigest != null && !expectedDigest.isEmpty()) {
+        final String actualDigest;
+        try (final InputStream stream = new BufferedInputStream(Files.newInputStream(cachedChartPath))) {
+          actualDigest = Index.Entry.getDigest(stream);
+        }
+        if (!expectedDigest.equalsIgnoreCase(actualDigest)) {
+          final IOException throwMe = new IOException("Digest mismatch for " + cachedChartPath + "; expected: " + expectedDigest + "; actual: " + actualDigest);
+          try {
+            Files.deleteIfExists(cachedChartPath);
+          } catch (final IOException suppressMe) {
+            throwMe.addSuppressed(suppressMe);
+          }
+          throw throwMe;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns an {@link InputStream} from which the chart repository's
+   * <a
+   * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
+   * index.yaml}</a> file may be read, or {@code null} if the chart
+   * repository indicates that the file has not changed since the
+   * supplied validators were recorded.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * <p>On entry, the supplied {@link Properties} holds whatever HTTP
+   * validators were recorded when the existing copy of the file was
+   * downloaded, and may be empty.  If this method returns a non-{@code
+   * null} {@link InputStream}, it must first replace the contents of
+   * the supplied {@link Properties} with the validators, if any, of
+   * the new copy; these are recorded alongside it by the {@link
+   * #downloadIndexTo(Path, CopyOption...)} method.</p>
+   *
+   * <p>If the {@link #openStream(URL)} method has been overridden,
+   * then the default implementation of this method clears the
+   * supplied {@link Properties} and returns the result of invoking
+   * it, so the file is downloaded unconditionally through it as in
+   * earlier releases.  Otherwise the default implementation
+   * {@linkplain #openConnection(URL) opens a connection} and, if it
+   * is an {@link HttpURLConnection}, sends any recorded validators
+   * as {@code If-None-Match} and {@code If-Modified-Since} request
+   * headers.</p>
+   *
+   * @param indexUrl the {@link URL} of the <a
+   * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
+   * index.yaml}</a> file; must not be {@code null}
+   *
+   * @param validators a mutable {@link Properties} holding HTTP
+   * validators as described above; must not be {@code null}
+   *
+   * @return an {@link InputStream}, or {@code null} if the file has
+   * not been modified
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   *
+   * @exception IOException if an error occurs while connecting to the
+   * supplied {@link URL}
+   *
+   * @see #downloadIndexTo(Path, CopyOption...)
+   */
+  @Issue(id = "156", uri = "https://github.com/microbean/microbean-helm/issues/156")
+  protected InputStream openIndexStream(final URL indexUrl, final Properties validators) throws IOException {
+    Objects.requireNonNull(indexUrl);
+    Objects.requireNonNull(validators);
+    final InputStream returnValue;
+    if (overridesOpenStream.get(this.getClass())) {
+      validators.clear();
+      returnValue = this.openStream(indexUrl);
+      if (returnValue == null) {
+        throw new IOException("openStream(" + indexUrl + ") == null");
+      }
+    } else {
+      final URLConnection urlConnection = this.openConnection(indexUrl);
+      if (urlConnection == null) {
+        throw new IOException("openConnection(" + indexUrl + ") == null");
+      }
+      if (urlConnection instanceof HttpURLConnection) {
+        final HttpURLConnection httpUrlConnection = (HttpURLConnection)urlConnection;
+        final String eTag = validators.getProperty(ETAG);
+        if (eTag != null) {
+          httpUrlConnection.setRequestProperty("If-None-Match", eTag);
+        }
+        final String lastModified = validators.getProperty(LAST_MODIFIED);
+        if (lastModified != null) {
+          httpUrlConnection.setRequestProperty("If-Modified-Since", lastModified);
+        }
+        if ((eTag != null || lastModified != null) && httpUrlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+          httpUrlConnection.disconnect();
+          returnValue = null;
+        } else {
+          returnValue = httpUrlConnection.getInputStream();
+          validators.clear();
+          final String newETag = httpUrlConnection.getHeaderField("ETag");
+          if (newETag != null && !newETag.isEmpty()) {
+            validators.setProperty(ETAG, newETag);
+          }
+          final String newLastModified = httpUrlConnection.getHeaderField("Last-Modified");
+          if (newLastModified != null && !newLastModified.isEmpty()) {
+            validators.setProperty(LAST_MODIFIED, newLastModified);
+          }
+        }
+      } else {
+        validators.clear();
+        returnValue = urlConnection.getInputStream();
+      }
     }
     return returnValue;
   }
@@ -1256,12 +2100,43 @@ public class ChartRepository extends AbstractChartResolver {
    */
   protected InputStream openStream(final URL url) throws IOException {
     InputStream returnValue = null;
+    final URLConnection urlConnection = this.openConnection(url);
+    if (urlConnection != null) {
+      returnValue = urlConnection.getInputStream();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns a new, unconnected {@link URLConnection} corresponding
+   * to the supplied {@link URL}, configured with this {@link
+   * ChartRepository}'s {@link Proxy} and a {@code User-Agent} request
+   * header.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * <p>Overrides of this method are permitted to return {@code
+   * null}.</p>
+   *
+   * @param url the {@link URL} whose affiliated {@link URLConnection}
+   * should be returned; may be {@code null} in which case {@code
+   * null} will be returned
+   *
+   * @return a {@link URLConnection} appropriate for the supplied
+   * {@link URL}, or {@code null}
+   *
+   * @exception IOException if an error occurs while creating the
+   * {@link URLConnection}
+   *
+   * @see #openStream(URL)
+   */
+  protected URLConnection openConnection(final URL url) throws IOException {
+    URLConnection returnValue = null;
     if (url != null) {
       assert this.proxy != null;
-      final URLConnection urlConnection = url.openConnection(this.proxy);
-      assert urlConnection != null;
-      urlConnection.setRequestProperty("User-Agent", "microbean-helm");
-      returnValue = urlConnection.getInputStream();
+      returnValue = url.openConnection(this.proxy);
+      assert returnValue != null;
+      returnValue.setRequestProperty("User-Agent", "microbean-helm");
     }
     return returnValue;
   }
@@ -1273,6 +2148,10 @@ public class ChartRepository extends AbstractChartResolver {
    * #getCachedChartPath(String, String)} method with the supplied
    * arguments and uses a {@link TapeArchiveChartLoader} to load the
    * resulting archive into a {@link Chart.Builder} object.</p>
+   *
+   * <p>If there is an {@linkplain #getArchiveCache() archive cache},
+   * the archive is {@linkplain ArchiveCache#pin(Path) pinned} while it
+   * is being loaded so that it cannot be evicted.</p>
    */
   @Override
   public Chart.Builder resolve(final String chartName, String chartVersion) throws ChartResolverException {
@@ -1284,7 +2163,49 @@ public class ChartRepository extends AbstractChartResolver {
     } catch (final IOException | URISyntaxException exception) {
       throw new ChartResolverException(exception.getMessage(), exception);
     }
-    if (cachedChartPath != null && Files.isRegularFile(cachedChartPath)) {
+    if (cachedChartPath != null) {
+      final ArchiveCache archiveCache = this.getArchiveCache();
+      if (archiveCache == null) {
+        returnValue = load(cachedChartPath);
+      } else {
+        try (final ArchiveCache.Pin pin = archiveCache.pin(cachedChartPath)) {
+          if (!Files.isRegularFile(cachedChartPath)) {
+            // It was evicted between our looking it up and our
+            // pinning it; now that it's pinned, fetch it again.
+            try {
+              cachedChartPath = this.getCachedChartPath(chartName, chartVersion);
+            } catch (final IOException | URISyntaxException exception) {
+              throw new ChartResolverException(exception.getMessage(), exception);
+            }
+          }
+          if (cachedChartPath != null) {
+            returnValue = load(cachedChartPath);
+          }
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Loads the Helm chart archive at the supplied {@link Path} into a
+   * {@link Chart.Builder}, if it exists.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param cachedChartPath the {@link Path} to a gzipped tape archive;
+   * must not be {@code null}
+   *
+   * @return a {@link Chart.Builder}, or {@code null} if {@code
+   * cachedChartPath} does not denote a regular file
+   *
+   * @exception ChartResolverException if there was a problem loading
+   * the archive
+   */
+  private static final Chart.Builder load(final Path cachedChartPath) throws ChartResolverException {
+    Objects.requireNonNull(cachedChartPath);
+    Chart.Builder returnValue = null;
+    if (Files.isRegularFile(cachedChartPath)) {
       try (final TapeArchiveChartLoader loader = new TapeArchiveChartLoader()) {
         returnValue = loader.load(new TarInputStream(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(cachedChartPath)))));
       } catch (final IOException exception) {
@@ -1294,6 +2215,86 @@ public class ChartRepository extends AbstractChartResolver {
     return returnValue;
   }
 
+  /**
+   * Returns a {@link Path} identifying the file that stores HTTP
+   * validators for the {@code index.yaml} file represented by the
+   * supplied {@link Path}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param indexPath the {@link Path} to an {@code index.yaml} file;
+   * must not be {@code null}
+   *
+   * @return a {@link Path} that is a sibling of the supplied {@link
+   * Path}; never {@code null}
+   *
+   * @exception NullPointerException if {@code indexPath} is {@code
+   * null}
+   */
+  private static final Path getValidatorsPath(final Path indexPath) {
+    Objects.requireNonNull(indexPath);
+    return indexPath.resolveSibling(new StringBuilder(indexPath.getFileName().toString()).append(".validators").toString());
+  }
+
+  /**
+   * Returns a {@link Properties} containing the HTTP validators that
+   * were recorded when the {@code index.yaml} file represented by the
+   * supplied {@link Path} was downloaded.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>If no validators were recorded, or if they could not be read,
+   * an empty {@link Properties} is returned.</p>
+   *
+   * @param indexPath the {@link Path} to an {@code index.yaml} file;
+   * must not be {@code null}
+   *
+   * @return a non-{@code null} {@link Properties}
+   *
+   * @exception NullPointerException if {@code indexPath} is {@code
+   * null}
+   */
+  private static final Properties readValidators(final Path indexPath) {
+    final Path validatorsPath = getValidatorsPath(indexPath);
+    assert validatorsPath != null;
+    final Properties returnValue = new Properties();
+    if (Files.isRegularFile(validatorsPath)) {
+      try (final InputStream stream = new BufferedInputStream(Files.newInputStream(validatorsPath))) {
+        returnValue.load(stream);
+      } catch (final IOException | IllegalArgumentException ignoreMe) {
+        // Treat unreadable validators as absent; the worst that can
+        // happen is an unconditional download.
+        returnValue.clear();
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns a single {@link String} that changes whenever the
+   * contents of the resource described by the supplied validators
+   * change, or {@code null} if there is no such {@link String}.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param validators a {@link Properties} as returned by the {@link
+   * #readValidators(Path)} method; may be {@code null}
+   *
+   * @return a {@link String} combining the supplied validators, or
+   * {@code null}
+   */
+  private static final String getValidator(final Properties validators) {
+    String returnValue = null;
+    if (validators != null && !validators.isEmpty()) {
+      final String eTag = validators.getProperty(ETAG);
+      final String lastModified = validators.getProperty(LAST_MODIFIED);
+      if (eTag != null || lastModified != null) {
+        returnValue = new StringBuilder(String.valueOf(eTag)).append(" ").append(String.valueOf(lastModified)).toString();
+      }
+    }
+    return returnValue;
+  }
+
   /**
    * Returns a {@link Path} representing "Helm home": the root
    * directory for various Helm-related metadata as specified by
@@ -1519,13 +2520,47 @@ public class ChartRepository extends AbstractChartResolver {
      *
      * @exception NullPointerException if {@code path} is {@code null}
      *
-     * @see #loadFrom(InputStream)
+     * @see #loadFrom(Path, Predicate)
      */
     public static final Index loadFrom(final Path path) throws IOException, URISyntaxException {
+      return loadFrom(path, null);
+    }
+
+    /**
+     * Creates a new {@link Index} whose contents are sourced from the
+     * YAML file located at the supplied {@link Path}, containing only
+     * those entries whose chart names are accepted by the supplied
+     * {@link Predicate}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @param path the {@link Path} to a YAML file whose contents are
+     * those of a <a
+     * href="https://docs.helm.sh/developing_charts/#the-index-file">Helm
+     * chart repository index</a>; must not be {@code null}
+     *
+     * @param chartNameFilter a {@link Predicate} that accepts the
+     * names of charts whose entries should be included in the
+     * returned {@link Index}; may be {@code null} in which case all
+     * entries will be included
+     *
+     * @return a new {@link Index}; never {@code null}
+     *
+     * @exception IOException if there was a problem reading the file
+     *
+     * @exception URISyntaxException if one of the URIs in the file
+     * was invalid
+     *
+     * @exception NullPointerException if {@code path} is {@code null}
+     *
+     * @see #loadFrom(InputStream, Predicate)
+     */
+    @Experimental
+    public static final Index loadFrom(final Path path, final Predicate<? super String> chartNameFilter) throws IOException, URISyntaxException {
       Objects.requireNonNull(path);
       final Index returnValue;
       try (final BufferedInputStream stream = new BufferedInputStream(Files.newInputStream(path))) {
-        returnValue = loadFrom(stream);
+        returnValue = loadFrom(stream, chartNameFilter);
       }
       return returnValue;
     }
@@ -1552,60 +2587,54 @@ public class ChartRepository extends AbstractChartResolver {
      * was invalid
      *
      * @exception NullPointerException if {@code path} is {@code null}
+     *
+     * @see #loadFrom(InputStream, Predicate)
      */
     public static final Index loadFrom(final InputStream stream) throws IOException, URISyntaxException {
+      return loadFrom(stream, null);
+    }
+
+    /**
+     * Creates a new {@link Index} whose contents are sourced from the
+     * <a
+     * href="https://docs.helm.sh/developing_charts/#the-index-file">Helm
+     * chart repository index</a> YAML contents represented by the
+     * supplied {@link InputStream}, containing only those entries
+     * whose chart names are accepted by the supplied {@link
+     * Predicate}.
+     *
+     * <p>The YAML is processed as a stream of events, so only one
+     * chart version's worth of YAML is held in memory at any given
+     * time, and entries for charts whose names are not accepted by
+     * the supplied {@link Predicate} are never materialized.</p>
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @param stream the {@link InputStream} to a YAML file whose contents are
+     * those of a <a
+     * href="https://docs.helm.sh/developing_charts/#the-index-file">Helm
+     * chart repository index</a>; must not be {@code null}; will not
+     * be closed
+     *
+     * @param chartNameFilter a {@link Predicate} that accepts the
+     * names of charts whose entries should be included in the
+     * returned {@link Index}; may be {@code null} in which case all
+     * entries will be included
+     *
+     * @return a new {@link Index}; never {@code null}
+     *
+     * @exception IOException if there was a problem reading the file
+     *
+     * @exception URISyntaxException if one of the URIs in the file
+     * was invalid
+     *
+     * @exception NullPointerException if {@code stream} is {@code
+     * null}
+     */
+    @Experimental
+    public static final Index loadFrom(final InputStream stream, final Predicate<? super String> chartNameFilter) throws IOException, URISyntaxException {
       Objects.requireNonNull(stream);
-      final Index returnValue;
-      @Issue(id = "131", uri = "https://github.com/microbean/microbean-helm/issues/131")
-      final Map<?, ?> yamlMap = new Yaml(new SafeConstructor(), new Representer(), new DumperOptions(), new StringResolver()).load(stream);
-      if (yamlMap == null || yamlMap.isEmpty()) {
-        returnValue = new Index(null);
-      } else {
-        final SortedMap<String, SortedSet<Index.Entry>> sortedEntryMap = new TreeMap<>();
-        @SuppressWarnings("unchecked")
-        final Map<? extends String, ? extends Collection<? extends Map<?, ?>>> entriesMap = (Map<? extends String, ? extends Collection<? extends Map<?, ?>>>)yamlMap.get("entries");
-        if (entriesMap != null && !entriesMap.isEmpty()) {
-          final Collection<? extends Map.Entry<? extends String, ? extends Collection<? extends Map<?, ?>>>> entries = entriesMap.entrySet();
-          if (entries != null && !entries.isEmpty()) {
-            for (final Map.Entry<? extends String, ? extends Collection<? extends Map<?, ?>>> mapEntry : entries) {
-              if (mapEntry != null) {
-                final String entryName = mapEntry.getKey();
-                if (entryName != null) {
-                  final Collection<? extends Map<?, ?>> entryContents = mapEntry.getValue();
-                  if (entryContents != null && !entryContents.isEmpty()) {
-                    for (final Map<?, ?> entryMap : entryContents) {
-                      if (entryMap != null && !entryMap.isEmpty()) {
-                        final Metadata.Builder metadataBuilder = Metadata.newBuilder();
-                        assert metadataBuilder != null;
-                        Metadatas.populateMetadataBuilder(metadataBuilder, entryMap);
-                        @SuppressWarnings("unchecked")
-                        final Collection<? extends String> uriStrings = (Collection<? extends String>)entryMap.get("urls");
-                        Set<URI> uris = new LinkedHashSet<>();
-                        if (uriStrings != null && !uriStrings.isEmpty()) {
-                          for (final String uriString : uriStrings) {
-                            if (uriString != null && !uriString.isEmpty()) {
-                              uris.add(new URI(uriString));
-                            }
-                          }
-                        }
-                        final String digest = (String)entryMap.get("digest");
-                        SortedSet<Index.Entry> entryObjects = sortedEntryMap.get(entryName);
-                        if (entryObjects == null) {
-                          entryObjects = new TreeSet<>(Collections.reverseOrder());
-                          sortedEntryMap.put(entryName, entryObjects);
-                        }
-                        entryObjects.add(new Index.Entry(metadataBuilder, uris, digest));
-                      }
-                    }
-                  }
-                }
-              }
-            }
-          }      
-        }
-        returnValue = new Index(sortedEntryMap);
-      }
-      return returnValue;
+      return new Index(new IndexParser(stream, chartNameFilter).parse());
     }
 
     /**
@@ -1692,6 +2721,18 @@ public class ChartRepository extends AbstractChartResolver {
       private final Set<URI> uris;
 
       private final String digest;
+
+      /**
+       * The {@link Version} parsed from the {@linkplain #getVersion()
+       * version} of this {@link Entry} at construction time, so that
+       * {@linkplain #compareTo(ChartRepository.Index.Entry)
+       * comparisons} need not parse it again.
+       *
+       * <p>This field may be {@code null} if this {@link Entry} has
+       * no version or its version is not a valid semantic
+       * version.</p>
+       */
+      private final Version semanticVersion;
       
 
       /*
@@ -1745,6 +2786,7 @@ public class ChartRepository extends AbstractChartResolver {
           this.uris = new LinkedHashSet<>(uris);
         }
         this.digest = digest;
+        this.semanticVersion = Versions.parseVersionOrNull(metadata.getVersion());
       }
 
 
@@ -1808,18 +2850,9 @@ public class ChartRepository extends AbstractChartResolver {
         } else if (herVersionString == null) {
           return 1;
         } else {
-          Version myVersion = null;
-          try {
-            myVersion = Version.valueOf(myVersionString);
-          } catch (final IllegalArgumentException | ParseException badVersion) {
-            myVersion = null;
-          }
-          Version herVersion = null;
-          try {
-            herVersion = Version.valueOf(herVersionString);
-          } catch (final IllegalArgumentException | ParseException badVersion) {
-            herVersion = null;
-          }
+          // Versions were parsed, once, at construction time.
+          final Version myVersion = this.semanticVersion;
+          final Version herVersion = her.semanticVersion;
           if (myVersion == null) {
             if (herVersion != null) {
               return -1;
@@ -2065,67 +3098,31 @@ public class ChartRepository extends AbstractChartResolver {
       @Experimental
       public static final String getDigest(final InputStream inputStream) throws IOException {
         Objects.requireNonNull(inputStream);
-        MessageDigest md = null;
-        try {
-          md = MessageDigest.getInstance("SHA-256");
-        } catch (final NoSuchAlgorithmException noSuchAlgorithmException) {
-          // SHA-256 is guaranteed to exist.
-          throw new InternalError(noSuchAlgorithmException);
-        }
+        final MessageDigest md = newMessageDigest();
         assert md != null;
-        final ByteBuffer buffer = toByteBuffer(inputStream);
-        assert buffer != null;
-        md.update(buffer);
+        final byte[] buffer = new byte[8192];
+        int bytesRead;
+        while ((bytesRead = inputStream.read(buffer, 0, buffer.length)) != -1) {
+          md.update(buffer, 0, bytesRead);
+        }
         return DatatypeConverter.printHexBinary(md.digest());
       }
 
       /**
-       * Returns a {@link ByteBuffer} representing the supplied {@link
-       * InputStream}.
-       *
-       * <p>This method never returns {@code null}.</p>
-       *
-       * @param stream the {@link InputStream} to represent; may be
-       * {@code null}
-       *
-       * @return a non-{@code null} {@link ByteBuffer}
-       *
-       * @exception IOException if an input or output error occurs
-       */
-      private static final ByteBuffer toByteBuffer(final InputStream stream) throws IOException {
-        return ByteBuffer.wrap(read(stream));
-      }
-
-      /**
-       * Fully reads the supplied {@link InputStream} into a {@code
-       * byte} array and returns it.
+       * Returns a new SHA-256 {@link MessageDigest}.
        *
        * <p>This method never returns {@code null}.</p>
        *
-       * @param stream the {@link InputStream} to read; may be {@code
+       * @return a new SHA-256 {@link MessageDigest}; never {@code
        * null}
-       *
-       * @return a non-{@code null} {@code byte} array containing the
-       * readable contents of the supplied {@link InputStream}
-       *
-       * @exception IOException if an input or output error occurs
        */
-      private static final byte[] read(final InputStream stream) throws IOException {
-        byte[] returnValue = null;
-        if (stream == null) {
-          returnValue = new byte[0];
-        } else {
-          try (final ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
-            int bytesRead;
-            final byte[] byteArray = new byte[4096];
-            while ((bytesRead = stream.read(byteArray, 0, byteArray.length)) != -1) {
-              buffer.write(byteArray, 0, bytesRead);
-            }
-            buffer.flush();
-            returnValue = buffer.toByteArray();
-          }
+      static final MessageDigest newMessageDigest() {
+        try {
+          return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException noSuchAlgorithmException) {
+          // SHA-256 is guaranteed to exist.
+          throw new InternalError(noSuchAlgorithmException);
         }
-        return returnValue;
       }
   
       
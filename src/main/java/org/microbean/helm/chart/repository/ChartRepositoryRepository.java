@@ -37,6 +37,10 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import java.util.regex.Pattern;
 
 import hapi.chart.ChartOuterClass.Chart;
@@ -254,6 +258,116 @@ public class ChartRepositoryRepository extends AbstractChartResolver {
     return returnValue;
   }
 
+  /**
+   * Downloads and caches the archives of the Helm charts identified
+   * by the supplied {@link ChartCoordinates}, together with those of
+   * all the charts they transitively require, running at most {@code
+   * parallelism} downloads at once, and blocks until all of them have
+   * been cached.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>This implementation creates a new {@link ExecutorService}
+   * with {@code parallelism} daemon threads and {@linkplain
+   * ExecutorService#shutdown() shuts it down} before returning.</p>
+   *
+   * @param coordinates the charts to cache; must not be {@code null}
+   *
+   * @param parallelism the maximum number of downloads to run at the
+   * same time; must be greater than {@code 0}
+   *
+   * @return a non-{@code null}, immutable {@link Map} of the {@link
+   * Path}s of the cached archives, indexed by {@link
+   * ChartCoordinates} bearing exact versions
+   *
+   * @exception NullPointerException if {@code coordinates} is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code parallelism} is
+   * less than {@code 1}
+   *
+   * @exception ChartResolverException if any of the charts
+   * identified by the supplied {@link ChartCoordinates} or any of the
+   * charts they require from a known chart repository could not be
+   * cached; any further problems are {@linkplain
+   * Throwable#getSuppressed() suppressed} by it
+   *
+   * @see #prefetch(Collection, Executor, int)
+   */
+  @Experimental
+  public Map<ChartCoordinates, Path> prefetch(final Collection<? extends ChartCoordinates> coordinates, final int parallelism) throws ChartResolverException {
+    Objects.requireNonNull(coordinates);
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism < 1: " + parallelism);
+    }
+    final ExecutorService executorService = Executors.newFixedThreadPool(parallelism, r -> {
+        final Thread thread = new Thread(r, "ChartRepositoryRepository prefetch");
+        thread.setDaemon(true);
+        return thread;
+      });
+    try {
+      return this.prefetch(coordinates, executorService, parallelism);
+    } finally {
+      executorService.shutdown();
+    }
+  }
+
+  /**
+   * Downloads and caches the archives of the Helm charts identified
+   * by the supplied {@link ChartCoordinates}, together with those of
+   * all the charts they transitively require, running at most {@code
+   * parallelism} downloads at once on the supplied {@link Executor},
+   * and blocks until all of them have been cached.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>Downloads start as soon as a slot is free, and the {@code
+   * requirements.yaml} file in each archive is read as soon as that
+   * archive arrives, so the time taken by this method tends towards
+   * that of the slowest chain of dependent downloads rather than the
+   * sum of all of them.  Dependencies that are already present in an
+   * archive's {@code charts} directory are not fetched.  Dependencies
+   * whose {@code repository} does not name, either as {@code @name},
+   * {@code alias:name} or by URI, a {@link ChartRepository} managed by
+   * this {@link ChartRepositoryRepository} are ignored.</p>
+   *
+   * <p>Each distinct chart version is downloaded at most once, even if
+   * several coordinates or version ranges resolve to it, and
+   * concurrent downloads of the same archive from other callers are
+   * shared.</p>
+   *
+   * @param coordinates the charts to cache; must not be {@code null}
+   *
+   * @param executor the {@link Executor} that will perform the
+   * downloads; must not be {@code null}
+   *
+   * @param parallelism the maximum number of downloads to run at the
+   * same time; must be greater than {@code 0}
+   *
+   * @return a non-{@code null}, immutable {@link Map} of the {@link
+   * Path}s of the cached archives, indexed by {@link
+   * ChartCoordinates} bearing exact versions
+   *
+   * @exception NullPointerException if {@code coordinates} or {@code
+   * executor} is {@code null}
+   *
+   * @exception IllegalArgumentException if {@code parallelism} is
+   * less than {@code 1}
+   *
+   * @exception ChartResolverException if any of the charts
+   * identified by the supplied {@link ChartCoordinates} or any of the
+   * charts they require from a known chart repository could not be
+   * cached; any further problems are {@linkplain
+   * Throwable#getSuppressed() suppressed} by it
+   *
+   * @see ChartRepository#getCachedChartPath(String, String,
+   * java.nio.file.CopyOption...)
+   */
+  @Experimental
+  public Map<ChartCoordinates, Path> prefetch(final Collection<? extends ChartCoordinates> coordinates, final Executor executor, final int parallelism) throws ChartResolverException {
+    return new ChartPrefetcher(this, executor, parallelism).prefetch(coordinates);
+  }
+
 
   /*
    * Static methods.
@@ -674,5 +788,156 @@ public class ChartRepositoryRepository extends AbstractChartResolver {
     public ChartRepository createChartRepository(final String name, final URI uri, final Path archiveCacheDirectory, final Path indexCacheDirectory, final Path cachedIndexPath);
     
   }
+
+  /**
+   * An immutable identifier of a Helm chart consisting of a
+   * {@linkplain ChartRepository#getName() chart repository name}, a
+   * chart name and a version, which may be an exact version, a
+   * semantic version range or {@code null}.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see ChartRepositoryRepository#prefetch(Collection, Executor,
+   * int)
+   */
+  @Experimental
+  public static final class ChartCoordinates {
+
+
+    /*
+     * Instance fields.
+     */
+
+
+    private final String repositoryName;
+
+    private final String chartName;
+
+    private final String version;
+
+
+    /*
+     * Constructors.
+     */
+
+
+    /**
+     * Creates a new {@link ChartCoordinates}.
+     *
+     * @param repositoryName the {@linkplain ChartRepository#getName()
+     * name of the chart repository} hosting the chart; must not be
+     * {@code null}
+     *
+     * @param chartName the name of the chart; must not be {@code
+     * null}
+     *
+     * @param version an exact version or a semantic version range;
+     * may be {@code null} in which case "latest" semantics are implied
+     *
+     * @exception NullPointerException if {@code repositoryName} or
+     * {@code chartName} is {@code null}
+     */
+    public ChartCoordinates(final String repositoryName, final String chartName, final String version) {
+      super();
+      this.repositoryName = Objects.requireNonNull(repositoryName);
+      this.chartName = Objects.requireNonNull(chartName);
+      this.version = version;
+    }
+
+
+    /*
+     * Instance methods.
+     */
+
+
+    /**
+     * Returns the {@linkplain ChartRepository#getName() name of the
+     * chart repository} hosting the chart.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return the non-{@code null} chart repository name
+     */
+    public final String getRepositoryName() {
+      return this.repositoryName;
+    }
+
+    /**
+     * Returns the name of the chart.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return the non-{@code null} chart name
+     */
+    public final String getChartName() {
+      return this.chartName;
+    }
+
+    /**
+     * Returns the version of the chart, which may be an exact version
+     * or a semantic version range, or {@code null} if "latest"
+     * semantics are implied.
+     *
+     * <p>This method may return {@code null}.</p>
+     *
+     * @return the version, or {@code null}
+     */
+    public final String getVersion() {
+      return this.version;
+    }
+
+    /**
+     * Returns a hashcode for this {@link ChartCoordinates}.
+     *
+     * @return a hashcode for this {@link ChartCoordinates}
+     */
+    @Override
+    public final int hashCode() {
+      return Objects.hash(this.repositoryName, this.chartName, this.version);
+    }
+
+    /**
+     * Returns {@code true} if the supplied {@link Object} is equal to
+     * this {@link ChartCoordinates}.
+     *
+     * @param other the {@link Object} to test; may be {@code null}
+     *
+     * @return {@code true} if the supplied {@link Object} is equal to
+     * this {@link ChartCoordinates}; {@code false} otherwise
+     */
+    @Override
+    public final boolean equals(final Object other) {
+      if (other == this) {
+        return true;
+      } else if (other instanceof ChartCoordinates) {
+        final ChartCoordinates her = (ChartCoordinates)other;
+        return
+          Objects.equals(this.repositoryName, her.repositoryName) &&
+          Objects.equals(this.chartName, her.chartName) &&
+          Objects.equals(this.version, her.version);
+      } else {
+        return false;
+      }
+    }
+
+    /**
+     * Returns a non-{@code null} {@link String} representation of
+     * this {@link ChartCoordinates} of the form {@code
+     * repositoryName/chartName@version}.
+     *
+     * @return a non-{@code null} {@link String} representation of
+     * this {@link ChartCoordinates}
+     */
+    @Override
+    public final String toString() {
+      final StringBuilder sb = new StringBuilder(this.repositoryName).append("/").append(this.chartName);
+      if (this.version != null) {
+        sb.append("@").append(this.version);
+      }
+      return sb.toString();
+    }
+
+  }
  
 }
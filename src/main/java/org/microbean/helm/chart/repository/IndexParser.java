@@ -0,0 +1,387 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.io.InputStream;
+import java.io.IOException;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import java.util.function.Predicate;
+
+import hapi.chart.MetadataOuterClass.Metadata;
+
+import org.microbean.development.annotation.Issue;
+
+import org.microbean.helm.chart.Metadatas;
+
+import org.yaml.snakeyaml.error.YAMLException;
+
+import org.yaml.snakeyaml.events.AliasEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.NodeEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
+
+import org.yaml.snakeyaml.nodes.Tag;
+
+import org.yaml.snakeyaml.parser.Parser;
+import org.yaml.snakeyaml.parser.ParserImpl;
+
+import org.yaml.snakeyaml.reader.StreamReader;
+import org.yaml.snakeyaml.reader.UnicodeReader;
+
+/**
+ * A streaming parser of <a
+ * href="https://docs.helm.sh/developing_charts/#the-index-file">Helm
+ * chart repository index</a> YAML documents that builds {@link
+ * ChartRepository.Index.Entry} instances as it reads them.
+ *
+ * <p>Rather than building a complete YAML object graph of a
+ * (possibly very large) {@code index.yaml} file in memory, this class
+ * processes the YAML <em>event</em> stream directly.  Only one chart
+ * version's worth of YAML is materialized at any given time, and
+ * chart versions whose names are not accepted by a caller-supplied
+ * {@link Predicate} are skipped without being materialized at
+ * all.</p>
+ *
+ * <p>In keeping with the behavior of {@link
+ * org.microbean.helm.chart.StringResolver}, all non-empty implicit
+ * scalars are treated as {@link String}s.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are <strong>not</strong> suitable for
+ * concurrent access by multiple threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ChartRepository.Index#loadFrom(InputStream, Predicate)
+ */
+@Issue(id = "131", uri = "https://github.com/microbean/microbean-helm/issues/131")
+final class IndexParser {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link Parser} producing YAML {@link Event}s.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Parser parser;
+
+  /**
+   * A {@link Predicate} that accepts the names of charts whose
+   * entries should be materialized.
+   *
+   * <p>This field may be {@code null}, in which case all entries
+   * will be materialized.</p>
+   */
+  private final Predicate<? super String> chartNameFilter;
+
+  /**
+   * A {@link Map} of materialized YAML nodes indexed by their
+   * anchors, used to resolve aliases.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Map<String, Object> anchors;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link IndexParser}.
+   *
+   * @param stream the {@link InputStream} from which YAML will be
+   * read; must not be {@code null}; will not be closed
+   *
+   * @param chartNameFilter a {@link Predicate} that accepts the names
+   * of charts whose entries should be materialized; may be {@code
+   * null} in which case all entries will be materialized
+   *
+   * @exception NullPointerException if {@code stream} is {@code
+   * null}
+   */
+  IndexParser(final InputStream stream, final Predicate<? super String> chartNameFilter) {
+    super();
+    Objects.requireNonNull(stream);
+    this.parser = new ParserImpl(new StreamReader(new UnicodeReader(stream)));
+    this.chartNameFilter = chartNameFilter;
+    this.anchors = new HashMap<>();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Parses the first YAML document in the stream supplied at
+   * construction time and returns a mutable {@link SortedMap} of
+   * {@link SortedSet}s of {@link ChartRepository.Index.Entry}
+   * instances indexed by the names of the charts they describe.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>This method should be invoked at most once.</p>
+   *
+   * @return a non-{@code null}, mutable {@link SortedMap}
+   *
+   * @exception IOException if there was a problem reading the YAML
+   * document
+   *
+   * @exception URISyntaxException if one of the URIs in the YAML
+   * document was invalid
+   */
+  final SortedMap<String, SortedSet<ChartRepository.Index.Entry>> parse() throws IOException, URISyntaxException {
+    final SortedMap<String, SortedSet<ChartRepository.Index.Entry>> returnValue = new TreeMap<>();
+    try {
+      this.expect(Event.ID.StreamStart);
+      if (this.parser.checkEvent(Event.ID.DocumentStart)) {
+        this.parser.getEvent();
+        if (this.parser.checkEvent(Event.ID.MappingStart)) {
+          this.parser.getEvent();
+          while (!this.parser.checkEvent(Event.ID.MappingEnd)) {
+            final Object key = this.materialize();
+            if ("entries".equals(key) && this.parser.checkEvent(Event.ID.MappingStart)) {
+              this.parseEntries(returnValue);
+            } else {
+              this.skip();
+            }
+          }
+        }
+        // Anything else at the top level (an empty document, say) has
+        // no entries; we don't care about the rest of the stream.
+      }
+    } catch (final YAMLException yamlException) {
+      throw new IOException(yamlException.getMessage(), yamlException);
+    }
+    return returnValue;
+  }
+
+  /**
+   * Parses the value of the top-level {@code entries} key, which is a
+   * mapping of chart names to sequences of chart versions, adding
+   * {@link ChartRepository.Index.Entry} instances to the supplied
+   * {@link Map} as they are encountered.
+   *
+   * @param sortedEntryMap the {@link Map} to populate; must not be
+   * {@code null}
+   *
+   * @exception URISyntaxException if one of the URIs in the YAML
+   * document was invalid
+   */
+  private final void parseEntries(final Map<String, SortedSet<ChartRepository.Index.Entry>> sortedEntryMap) throws URISyntaxException {
+    assert sortedEntryMap != null;
+    this.expect(Event.ID.MappingStart);
+    while (!this.parser.checkEvent(Event.ID.MappingEnd)) {
+      final Object entryName = this.materialize();
+      if (entryName instanceof String
+          && (this.chartNameFilter == null || this.chartNameFilter.test((String)entryName))
+          && this.parser.checkEvent(Event.ID.SequenceStart)) {
+        this.parser.getEvent();
+        while (!this.parser.checkEvent(Event.ID.SequenceEnd)) {
+          final Object entryMap = this.materialize();
+          if (entryMap instanceof Map && !((Map<?, ?>)entryMap).isEmpty()) {
+            SortedSet<ChartRepository.Index.Entry> entryObjects = sortedEntryMap.get(entryName);
+            if (entryObjects == null) {
+              entryObjects = new TreeSet<>(Collections.reverseOrder());
+              sortedEntryMap.put((String)entryName, entryObjects);
+            }
+            entryObjects.add(toEntry((Map<?, ?>)entryMap));
+          }
+          // Each chart version is independent of the others, so
+          // there's no need to hold on to its anchors.
+          this.anchors.clear();
+        }
+        this.parser.getEvent(); // SequenceEnd
+      } else {
+        this.skip();
+      }
+    }
+    this.parser.getEvent(); // MappingEnd
+  }
+
+  /**
+   * Consumes all the events that make up the next YAML node without
+   * building anything from them.
+   */
+  private final void skip() {
+    int depth = 0;
+    do {
+      final Event event = this.parser.getEvent();
+      if (event.is(Event.ID.MappingStart) || event.is(Event.ID.SequenceStart)) {
+        ++depth;
+      } else if (event.is(Event.ID.MappingEnd) || event.is(Event.ID.SequenceEnd)) {
+        --depth;
+      }
+    } while (depth > 0);
+  }
+
+  /**
+   * Consumes all the events that make up the next YAML node and
+   * returns a {@link Map}, {@link List}, {@link String} or {@code
+   * null} representing it.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return a {@link Map}, {@link List}, {@link String} or {@code
+   * null}
+   */
+  private final Object materialize() {
+    final Object returnValue;
+    final Event event = this.parser.getEvent();
+    if (event.is(Event.ID.Alias)) {
+      returnValue = this.anchors.get(((AliasEvent)event).getAnchor());
+    } else {
+      if (event.is(Event.ID.Scalar)) {
+        returnValue = toScalar((ScalarEvent)event);
+      } else if (event.is(Event.ID.SequenceStart)) {
+        final List<Object> list = new ArrayList<>();
+        while (!this.parser.checkEvent(Event.ID.SequenceEnd)) {
+          list.add(this.materialize());
+        }
+        this.parser.getEvent();
+        returnValue = list;
+      } else if (event.is(Event.ID.MappingStart)) {
+        final Map<Object, Object> map = new LinkedHashMap<>();
+        while (!this.parser.checkEvent(Event.ID.MappingEnd)) {
+          final Object key = this.materialize();
+          map.put(key, this.materialize());
+        }
+        this.parser.getEvent();
+        returnValue = map;
+      } else {
+        throw new YAMLException("Unexpected event: " + event);
+      }
+      final String anchor = ((NodeEvent)event).getAnchor();
+      if (anchor != null) {
+        this.anchors.put(anchor, returnValue);
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Consumes the next event, ensuring that it has the supplied
+   * {@link Event.ID}.
+   *
+   * @param id the {@link Event.ID} expected; must not be {@code
+   * null}
+   *
+   * @exception YAMLException if the next event is not of the
+   * expected kind
+   */
+  private final void expect(final Event.ID id) {
+    final Event event = this.parser.getEvent();
+    if (event == null || !event.is(id)) {
+      throw new YAMLException("Expected " + id + "; got " + event);
+    }
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns the value of the supplied {@link ScalarEvent}, honoring
+   * the same rules as {@link org.microbean.helm.chart.StringResolver}:
+   * empty implicit scalars and scalars explicitly tagged as {@link
+   * Tag#NULL} are {@code null}, and everything else is a {@link
+   * String}.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param event the {@link ScalarEvent} in question; must not be
+   * {@code null}
+   *
+   * @return a {@link String}, or {@code null}
+   */
+  private static final String toScalar(final ScalarEvent event) {
+    final String returnValue;
+    final String value = event.getValue();
+    if (Tag.NULL.getValue().equals(event.getTag())) {
+      returnValue = null;
+    } else if ((value == null || value.isEmpty()) && event.getImplicit().canOmitTagInPlainScalar()) {
+      returnValue = null;
+    } else {
+      returnValue = value;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Creates a new {@link ChartRepository.Index.Entry} from the
+   * supplied YAML {@link Map} representing one version of a chart.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param entryMap the {@link Map} in question; must not be {@code
+   * null}
+   *
+   * @return a new {@link ChartRepository.Index.Entry}
+   *
+   * @exception URISyntaxException if one of the URIs in the supplied
+   * {@link Map} was invalid
+   */
+  static final ChartRepository.Index.Entry toEntry(final Map<?, ?> entryMap) throws URISyntaxException {
+    Objects.requireNonNull(entryMap);
+    final Metadata.Builder metadataBuilder = Metadata.newBuilder();
+    assert metadataBuilder != null;
+    Metadatas.populateMetadataBuilder(metadataBuilder, entryMap);
+    @SuppressWarnings("unchecked")
+    final Collection<? extends String> uriStrings = (Collection<? extends String>)entryMap.get("urls");
+    final Set<URI> uris = new LinkedHashSet<>();
+    if (uriStrings != null && !uriStrings.isEmpty()) {
+      for (final String uriString : uriStrings) {
+        if (uriString != null && !uriString.isEmpty()) {
+          uris.add(new URI(uriString));
+        }
+      }
+    }
+    final String digest = (String)entryMap.get("digest");
+    return new ChartRepository.Index.Entry(metadataBuilder, uris, digest);
+  }
+
+}
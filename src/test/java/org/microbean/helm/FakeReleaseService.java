@@ -0,0 +1,880 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.io.Closeable;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.google.protobuf.Timestamp;
+
+import hapi.chart.ChartOuterClass.Chart;
+import hapi.chart.TemplateOuterClass.Template;
+
+import hapi.release.InfoOuterClass.Info;
+import hapi.release.ReleaseOuterClass.Release;
+import hapi.release.StatusOuterClass.Status;
+import hapi.release.TestRunOuterClass.TestRun;
+
+import hapi.services.tiller.ReleaseServiceGrpc.ReleaseServiceImplBase;
+import hapi.services.tiller.Tiller.GetHistoryRequest;
+import hapi.services.tiller.Tiller.GetHistoryResponse;
+import hapi.services.tiller.Tiller.GetReleaseContentRequest;
+import hapi.services.tiller.Tiller.GetReleaseContentResponse;
+import hapi.services.tiller.Tiller.GetReleaseStatusRequest;
+import hapi.services.tiller.Tiller.GetReleaseStatusResponse;
+import hapi.services.tiller.Tiller.GetVersionRequest;
+import hapi.services.tiller.Tiller.GetVersionResponse;
+import hapi.services.tiller.Tiller.InstallReleaseRequest;
+import hapi.services.tiller.Tiller.InstallReleaseResponse;
+import hapi.services.tiller.Tiller.ListReleasesRequest;
+import hapi.services.tiller.Tiller.ListReleasesResponse;
+import hapi.services.tiller.Tiller.ListSort;
+import hapi.services.tiller.Tiller.RollbackReleaseRequest;
+import hapi.services.tiller.Tiller.RollbackReleaseResponse;
+import hapi.services.tiller.Tiller.TestReleaseRequest;
+import hapi.services.tiller.Tiller.TestReleaseResponse;
+import hapi.services.tiller.Tiller.UninstallReleaseRequest;
+import hapi.services.tiller.Tiller.UninstallReleaseResponse;
+import hapi.services.tiller.Tiller.UpdateReleaseRequest;
+import hapi.services.tiller.Tiller.UpdateReleaseResponse;
+
+import hapi.version.VersionOuterClass.Version;
+
+import io.grpc.StatusException;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * An in-memory stand-in for Tiller's {@code ReleaseService}, suitable
+ * for serving over gRPC's in-process transport so that {@link
+ * ReleaseManager} and friends can be tested and benchmarked without
+ * a Kubernetes cluster.
+ *
+ * <p>Releases are kept, revision by revision, in memory.  Templates
+ * are not rendered: a release's manifest is its chart's templates
+ * concatenated in the way Tiller concatenates rendered ones.  Every
+ * call can be {@linkplain #setLatency(Duration) delayed} and can be
+ * made to {@linkplain #failNextCalls(int, io.grpc.Status) fail}
+ * {@linkplain #setFailureRate(double, io.grpc.Status) at random}.</p>
+ *
+ * <p>Release tests are not run.  Testing a release instead streams
+ * one {@linkplain TestRun.Status#SUCCESS successful} {@link
+ * TestReleaseResponse} per {@linkplain #setReleaseTestCount(int)
+ * test}, each after the {@linkplain #setLatency(Duration) latency},
+ * and the stream can be made to {@linkplain
+ * #failNextReleaseTestAfter(int, io.grpc.Status) fail part way
+ * through}.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ */
+public class FakeReleaseService extends ReleaseServiceImplBase implements Closeable {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The number of releases a {@link ListReleasesRequest} with no
+   * limit returns, as in Tiller.
+   */
+  public static final long DEFAULT_LIST_LIMIT = 512L;
+
+  /**
+   * The version this {@link FakeReleaseService} reports.
+   */
+  public static final String VERSION = "v2.12.3";
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The revisions of each release, oldest first, indexed by release
+   * name.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private final Map<String, List<Release>> releases;
+
+  /**
+   * The {@link ScheduledExecutorService} that delivers responses
+   * when there is {@linkplain #setLatency(Duration) latency}.
+   */
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * How long each call takes.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private Duration latency;
+
+  /**
+   * The probability with which any given call fails with the {@link
+   * #failureStatus}.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private double failureRate;
+
+  /**
+   * The number of calls that will fail, regardless of the {@link
+   * #failureRate}, with the {@link #failureStatus}.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private int failuresRemaining;
+
+  /**
+   * The {@link io.grpc.Status} with which injected failures fail.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private io.grpc.Status failureStatus;
+
+  /**
+   * The number of revisions kept per release, or {@code 0} if all
+   * are kept.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private int maximumHistory;
+
+  /**
+   * The number of calls this {@link FakeReleaseService} has
+   * received.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private long callCount;
+
+  /**
+   * The number of releases installed without a name, used to
+   * generate one.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private long generatedNames;
+
+  /**
+   * The number of {@link TestReleaseResponse}s a release test
+   * streams.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private int releaseTestCount;
+
+  /**
+   * The number of {@link TestReleaseResponse}s after which the next
+   * release test fails with the {@link #releaseTestFailureStatus}, or
+   * {@code -1} if it does not fail.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private int releaseTestFailureAfter;
+
+  /**
+   * The {@link io.grpc.Status} with which the next release test
+   * fails part way through.
+   *
+   * <p>All access to this field must be synchronized on {@code
+   * this}.</p>
+   */
+  private io.grpc.Status releaseTestFailureStatus;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link FakeReleaseService} with no releases, no
+   * latency and no failures.
+   */
+  public FakeReleaseService() {
+    super();
+    this.releases = new TreeMap<>();
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("fake-tiller", true));
+    this.latency = Duration.ZERO;
+    this.failureStatus = io.grpc.Status.UNAVAILABLE;
+    this.releaseTestCount = 1;
+    this.releaseTestFailureAfter = -1;
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Sets how long every subsequent call takes before it is answered.
+   *
+   * @param latency the latency; must not be {@code null} or negative
+   *
+   * @exception NullPointerException if {@code latency} is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code latency} is
+   * negative
+   */
+  public final synchronized void setLatency(final Duration latency) {
+    Objects.requireNonNull(latency);
+    if (latency.isNegative()) {
+      throw new IllegalArgumentException("latency.isNegative(): " + latency);
+    }
+    this.latency = latency;
+  }
+
+  /**
+   * Causes subsequent calls to fail at random with the supplied
+   * {@link io.grpc.Status}.
+   *
+   * @param failureRate the probability, from {@code 0.0} to {@code
+   * 1.0}, with which a call fails
+   *
+   * @param failureStatus the {@link io.grpc.Status} with which calls
+   * fail; must not be {@code null} or {@linkplain
+   * io.grpc.Status#isOk() OK}
+   *
+   * @exception NullPointerException if {@code failureStatus} is
+   * {@code null}
+   *
+   * @exception IllegalArgumentException if either parameter is
+   * invalid
+   */
+  public final synchronized void setFailureRate(final double failureRate, final io.grpc.Status failureStatus) {
+    if (failureRate < 0.0 || failureRate > 1.0 || Double.isNaN(failureRate)) {
+      throw new IllegalArgumentException("failureRate: " + failureRate);
+    }
+    this.setFailureStatus(failureStatus);
+    this.failureRate = failureRate;
+  }
+
+  /**
+   * Causes the next {@code count} calls to fail with the supplied
+   * {@link io.grpc.Status}.
+   *
+   * @param count the number of calls that will fail; must not be
+   * negative
+   *
+   * @param failureStatus the {@link io.grpc.Status} with which calls
+   * fail; must not be {@code null} or {@linkplain
+   * io.grpc.Status#isOk() OK}
+   *
+   * @exception NullPointerException if {@code failureStatus} is
+   * {@code null}
+   *
+   * @exception IllegalArgumentException if either parameter is
+   * invalid
+   */
+  public final synchronized void failNextCalls(final int count, final io.grpc.Status failureStatus) {
+    if (count < 0) {
+      throw new IllegalArgumentException("count < 0: " + count);
+    }
+    this.setFailureStatus(failureStatus);
+    this.failuresRemaining = count;
+  }
+
+  private final void setFailureStatus(final io.grpc.Status failureStatus) {
+    assert Thread.holdsLock(this);
+    Objects.requireNonNull(failureStatus);
+    if (failureStatus.isOk()) {
+      throw new IllegalArgumentException("failureStatus.isOk(): " + failureStatus);
+    }
+    this.failureStatus = failureStatus;
+  }
+
+  /**
+   * Sets the number of revisions kept per release, as Tiller's
+   * {@code --history-max} flag does.
+   *
+   * @param maximumHistory the number of revisions to keep, or {@code
+   * 0} to keep them all; must not be negative
+   *
+   * @exception IllegalArgumentException if {@code maximumHistory} is
+   * negative
+   */
+  public final synchronized void setMaximumHistory(final int maximumHistory) {
+    if (maximumHistory < 0) {
+      throw new IllegalArgumentException("maximumHistory < 0: " + maximumHistory);
+    }
+    this.maximumHistory = maximumHistory;
+  }
+
+  /**
+   * Sets the number of {@link TestReleaseResponse}s each subsequent
+   * release test streams.
+   *
+   * @param releaseTestCount the number of responses; must not be
+   * negative
+   *
+   * @exception IllegalArgumentException if {@code releaseTestCount}
+   * is negative
+   */
+  public final synchronized void setReleaseTestCount(final int releaseTestCount) {
+    if (releaseTestCount < 0) {
+      throw new IllegalArgumentException("releaseTestCount < 0: " + releaseTestCount);
+    }
+    this.releaseTestCount = releaseTestCount;
+  }
+
+  /**
+   * Causes the next release test to fail with the supplied {@link
+   * io.grpc.Status} once it has streamed {@code messages} {@link
+   * TestReleaseResponse}s.
+   *
+   * @param messages the number of responses streamed before the
+   * failure; must not be negative
+   *
+   * @param failureStatus the {@link io.grpc.Status} with which the
+   * release test fails; must not be {@code null} or {@linkplain
+   * io.grpc.Status#isOk() OK}
+   *
+   * @exception NullPointerException if {@code failureStatus} is
+   * {@code null}
+   *
+   * @exception IllegalArgumentException if either parameter is
+   * invalid
+   */
+  public final synchronized void failNextReleaseTestAfter(final int messages, final io.grpc.Status failureStatus) {
+    if (messages < 0) {
+      throw new IllegalArgumentException("messages < 0: " + messages);
+    }
+    Objects.requireNonNull(failureStatus);
+    if (failureStatus.isOk()) {
+      throw new IllegalArgumentException("failureStatus.isOk(): " + failureStatus);
+    }
+    this.releaseTestFailureAfter = messages;
+    this.releaseTestFailureStatus = failureStatus;
+  }
+
+  /**
+   * Returns the number of calls this {@link FakeReleaseService} has
+   * received, including those that failed.
+   *
+   * @return the number of calls received
+   */
+  public final synchronized long getCallCount() {
+    return this.callCount;
+  }
+
+  /**
+   * Removes every release.
+   */
+  public final synchronized void clear() {
+    this.releases.clear();
+  }
+
+  /**
+   * Shuts down the {@link ScheduledExecutorService} that delivers
+   * delayed responses; calls still waiting out their latency fail
+   * with {@link io.grpc.Status#UNAVAILABLE}.
+   */
+  @Override
+  public void close() {
+    this.scheduler.shutdownNow();
+  }
+
+  @Override
+  public void installRelease(final InstallReleaseRequest request, final StreamObserver<InstallReleaseResponse> responseObserver) {
+    this.call(responseObserver, () -> InstallReleaseResponse.newBuilder().setRelease(this.install(request)).build());
+  }
+
+  private final synchronized Release install(final InstallReleaseRequest request) throws StatusException {
+    String name = request.getName();
+    if (name.isEmpty()) {
+      do {
+        name = "fake-" + ++this.generatedNames;
+      } while (this.releases.containsKey(name));
+    }
+    final Release latest = this.latest(name);
+    if (latest != null && !(request.getReuseName() && latest.getInfo().getStatus().getCode().equals(Status.Code.DELETED))) {
+      throw io.grpc.Status.ALREADY_EXISTS.withDescription("a release named " + name + " already exists.").asException();
+    }
+    final Timestamp now = now();
+    final Release release = Release.newBuilder()
+      .setName(name)
+      .setNamespace(request.getNamespace().isEmpty() ? "default" : request.getNamespace())
+      .setVersion(latest == null ? 1 : latest.getVersion() + 1)
+      .setChart(request.getChart())
+      .setConfig(request.getValues())
+      .setManifest(manifest(request.getChart()))
+      .setInfo(info(Status.Code.DEPLOYED, now, now, request.getDescription().isEmpty() ? "Install complete" : request.getDescription()))
+      .build();
+    if (!request.getDryRun()) {
+      this.store(release);
+    }
+    return release;
+  }
+
+  @Override
+  public void updateRelease(final UpdateReleaseRequest request, final StreamObserver<UpdateReleaseResponse> responseObserver) {
+    this.call(responseObserver, () -> UpdateReleaseResponse.newBuilder().setRelease(this.update(request)).build());
+  }
+
+  private final synchronized Release update(final UpdateReleaseRequest request) throws StatusException {
+    final Release latest = this.existing(request.getName());
+    final Release release = Release.newBuilder()
+      .setName(latest.getName())
+      .setNamespace(latest.getNamespace())
+      .setVersion(latest.getVersion() + 1)
+      .setChart(request.getChart())
+      .setConfig(request.getReuseValues() ? latest.getConfig() : request.getValues())
+      .setManifest(manifest(request.getChart()))
+      .setInfo(info(Status.Code.DEPLOYED, latest.getInfo().getFirstDeployed(), now(), request.getDescription().isEmpty() ? "Upgrade complete" : request.getDescription()))
+      .build();
+    if (!request.getDryRun()) {
+      this.store(release);
+    }
+    return release;
+  }
+
+  @Override
+  public void rollbackRelease(final RollbackReleaseRequest request, final StreamObserver<RollbackReleaseResponse> responseObserver) {
+    this.call(responseObserver, () -> RollbackReleaseResponse.newBuilder().setRelease(this.rollback(request)).build());
+  }
+
+  private final synchronized Release rollback(final RollbackReleaseRequest request) throws StatusException {
+    final Release latest = this.existing(request.getName());
+    final int targetVersion = request.getVersion() == 0 ? latest.getVersion() - 1 : request.getVersion();
+    if (targetVersion < 1) {
+      throw io.grpc.Status.UNKNOWN.withDescription("release: \"" + request.getName() + "\" has no revision to roll back to").asException();
+    }
+    final Release target = this.revision(request.getName(), targetVersion);
+    final Release release = Release.newBuilder(target)
+      .setVersion(latest.getVersion() + 1)
+      .setInfo(info(Status.Code.DEPLOYED, latest.getInfo().getFirstDeployed(), now(), request.getDescription().isEmpty() ? "Rollback to " + targetVersion : request.getDescription()))
+      .build();
+    if (!request.getDryRun()) {
+      this.store(release);
+    }
+    return release;
+  }
+
+  @Override
+  public void uninstallRelease(final UninstallReleaseRequest request, final StreamObserver<UninstallReleaseResponse> responseObserver) {
+    this.call(responseObserver, () -> UninstallReleaseResponse.newBuilder().setRelease(this.uninstall(request)).build());
+  }
+
+  private final synchronized Release uninstall(final UninstallReleaseRequest request) throws StatusException {
+    final Release latest = this.existing(request.getName());
+    if (latest.getInfo().getStatus().getCode().equals(Status.Code.DELETED) && !request.getPurge()) {
+      throw io.grpc.Status.UNKNOWN.withDescription(request.getName() + ": object is already deleted").asException();
+    }
+    final Release release = Release.newBuilder(latest)
+      .setInfo(Info.newBuilder(latest.getInfo())
+               .setStatus(Status.newBuilder().setCode(Status.Code.DELETED))
+               .setDeleted(now())
+               .setDescription(request.getDescription().isEmpty() ? "Deletion complete" : request.getDescription()))
+      .build();
+    if (request.getPurge()) {
+      this.releases.remove(request.getName());
+    } else {
+      final List<Release> revisions = this.releases.get(request.getName());
+      revisions.set(revisions.size() - 1, release);
+    }
+    return release;
+  }
+
+  @Override
+  public void getReleaseStatus(final GetReleaseStatusRequest request, final StreamObserver<GetReleaseStatusResponse> responseObserver) {
+    this.call(responseObserver, () -> {
+        final Release release = this.revision(request.getName(), request.getVersion());
+        return GetReleaseStatusResponse.newBuilder()
+          .setName(release.getName())
+          .setNamespace(release.getNamespace())
+          .setInfo(release.getInfo())
+          .build();
+      });
+  }
+
+  @Override
+  public void getReleaseContent(final GetReleaseContentRequest request, final StreamObserver<GetReleaseContentResponse> responseObserver) {
+    this.call(responseObserver, () -> GetReleaseContentResponse.newBuilder().setRelease(this.revision(request.getName(), request.getVersion())).build());
+  }
+
+  @Override
+  public void getHistory(final GetHistoryRequest request, final StreamObserver<GetHistoryResponse> responseObserver) {
+    this.call(responseObserver, () -> {
+        final GetHistoryResponse.Builder builder = GetHistoryResponse.newBuilder();
+        synchronized (this) {
+          final List<Release> revisions = this.releases.get(request.getName());
+          if (revisions == null) {
+            throw notFound(request.getName());
+          }
+          // Newest first, as Tiller returns them.
+          for (int i = revisions.size() - 1; i >= 0 && (request.getMax() <= 0 || builder.getReleasesCount() < request.getMax()); i--) {
+            builder.addReleases(revisions.get(i));
+          }
+        }
+        return builder.build();
+      });
+  }
+
+  @Override
+  public void listReleases(final ListReleasesRequest request, final StreamObserver<ListReleasesResponse> responseObserver) {
+    this.call(responseObserver, () -> this.list(request));
+  }
+
+  private final synchronized ListReleasesResponse list(final ListReleasesRequest request) throws StatusException {
+    final Pattern filter;
+    try {
+      filter = request.getFilter().isEmpty() ? null : Pattern.compile(request.getFilter());
+    } catch (final PatternSyntaxException patternSyntaxException) {
+      throw io.grpc.Status.INVALID_ARGUMENT.withDescription(patternSyntaxException.getMessage()).withCause(patternSyntaxException).asException();
+    }
+    final List<Status.Code> statusCodes =
+      request.getStatusCodesCount() == 0 ? Collections.singletonList(Status.Code.DEPLOYED) : request.getStatusCodesList();
+    final List<Release> matches = new ArrayList<>();
+    for (final List<Release> revisions : this.releases.values()) {
+      final Release release = revisions.get(revisions.size() - 1);
+      if ((request.getNamespace().isEmpty() || request.getNamespace().equals(release.getNamespace())) &&
+          statusCodes.contains(release.getInfo().getStatus().getCode()) &&
+          (filter == null || filter.matcher(release.getName()).find())) {
+        matches.add(release);
+      }
+    }
+    // Releases are kept sorted by name; sorting by LAST_RELEASED is
+    // not supported.
+    if (request.getSortOrder().equals(ListSort.SortOrder.DESC)) {
+      Collections.reverse(matches);
+    }
+    // Page the way Tiller does: start at the release named by offset,
+    // and name the first release of the next page in next.
+    int start = 0;
+    if (!request.getOffset().isEmpty()) {
+      while (start < matches.size() && !matches.get(start).getName().equals(request.getOffset())) {
+        start++;
+      }
+      if (start == matches.size()) {
+        throw io.grpc.Status.UNKNOWN.withDescription("offset " + request.getOffset() + " not found").asException();
+      }
+    }
+    final long limit = request.getLimit() <= 0L ? DEFAULT_LIST_LIMIT : request.getLimit();
+    int end = matches.size();
+    String next = "";
+    if (start + limit < end) {
+      end = start + (int)limit;
+      next = matches.get(end).getName();
+    }
+    return ListReleasesResponse.newBuilder()
+      .setCount(end - start)
+      .setNext(next)
+      .setTotal(matches.size())
+      .addAllReleases(matches.subList(start, end))
+      .build();
+  }
+
+  @Override
+  public void getVersion(final GetVersionRequest request, final StreamObserver<GetVersionResponse> responseObserver) {
+    this.call(responseObserver, () -> GetVersionResponse.newBuilder().setVersion(Version.newBuilder().setSemVer(VERSION).setGitTreeState("clean")).build());
+  }
+
+  @Override
+  public void runReleaseTest(final TestReleaseRequest request, final StreamObserver<TestReleaseResponse> responseObserver) {
+    final io.grpc.Status failure;
+    final Duration latency;
+    final int testCount;
+    final int failureAfter;
+    final io.grpc.Status streamFailure;
+    synchronized (this) {
+      this.callCount++;
+      failure = this.nextFailure();
+      latency = this.latency;
+      testCount = this.releaseTestCount;
+      failureAfter = this.releaseTestFailureAfter;
+      streamFailure = this.releaseTestFailureStatus;
+      this.releaseTestFailureAfter = -1;
+    }
+    if (failure == null) {
+      try {
+        synchronized (this) {
+          this.existing(request.getName());
+        }
+      } catch (final StatusException statusException) {
+        responseObserver.onError(statusException);
+        return;
+      }
+      this.streamReleaseTest(responseObserver, request.getName(), 0, testCount, failureAfter, streamFailure, latency);
+    } else {
+      this.schedule(latency, () -> responseObserver.onError(failure.asRuntimeException()), responseObserver);
+    }
+  }
+
+  /**
+   * Streams the {@code index}th and subsequent {@link
+   * TestReleaseResponse}s of a release test, each after the supplied
+   * {@code latency}, stopping early if the call is cancelled.
+   */
+  private final void streamReleaseTest(final StreamObserver<TestReleaseResponse> responseObserver,
+                                       final String name,
+                                       final int index,
+                                       final int testCount,
+                                       final int failureAfter,
+                                       final io.grpc.Status failureStatus,
+                                       final Duration latency) {
+    this.schedule(latency, () -> {
+        if (responseObserver instanceof ServerCallStreamObserver && ((ServerCallStreamObserver<?>)responseObserver).isCancelled()) {
+          return;
+        }
+        if (index == failureAfter) {
+          responseObserver.onError(failureStatus.asRuntimeException());
+        } else if (index >= testCount) {
+          responseObserver.onCompleted();
+        } else {
+          responseObserver.onNext(TestReleaseResponse.newBuilder()
+                                  .setMsg("PASSED: " + name + "-test-" + index)
+                                  .setStatus(TestRun.Status.SUCCESS)
+                                  .build());
+          this.streamReleaseTest(responseObserver, name, index + 1, testCount, failureAfter, failureStatus, latency);
+        }
+      }, responseObserver);
+  }
+
+  /**
+   * Counts a call, decides whether it fails, and, after any
+   * {@linkplain #setLatency(Duration) latency}, performs the supplied
+   * {@link Operation} and answers the supplied {@link StreamObserver}
+   * with its result.
+   *
+   * @param responseObserver the {@link StreamObserver} to answer;
+   * must not be {@code null}
+   *
+   * @param operation the {@link Operation} producing the response;
+   * must not be {@code null}
+   */
+  private final <T> void call(final StreamObserver<T> responseObserver, final Operation<? extends T> operation) {
+    final io.grpc.Status failure;
+    final Duration latency;
+    synchronized (this) {
+      this.callCount++;
+      failure = this.nextFailure();
+      latency = this.latency;
+    }
+    final Runnable task = () -> {
+      if (failure != null) {
+        responseObserver.onError(failure.asRuntimeException());
+        return;
+      }
+      final T response;
+      try {
+        response = operation.perform();
+      } catch (final StatusException statusException) {
+        responseObserver.onError(statusException);
+        return;
+      }
+      responseObserver.onNext(response);
+      responseObserver.onCompleted();
+    };
+    this.schedule(latency, task, responseObserver);
+  }
+
+  /**
+   * Returns the {@link io.grpc.Status} with which the call being
+   * counted should fail, or {@code null} if it should not.
+   */
+  private final io.grpc.Status nextFailure() {
+    assert Thread.holdsLock(this);
+    final io.grpc.Status returnValue;
+    if (this.failuresRemaining > 0) {
+      this.failuresRemaining--;
+      returnValue = this.failureStatus;
+    } else if (this.failureRate > 0.0 && ThreadLocalRandom.current().nextDouble() < this.failureRate) {
+      returnValue = this.failureStatus;
+    } else {
+      returnValue = null;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Runs the supplied {@code task} after the supplied {@code
+   * latency}, or right away if it is zero, failing the supplied
+   * {@link StreamObserver} if this {@link FakeReleaseService} has
+   * been {@linkplain #close() closed}.
+   */
+  private final void schedule(final Duration latency, final Runnable task, final StreamObserver<?> responseObserver) {
+    if (latency.isZero()) {
+      task.run();
+    } else {
+      try {
+        this.scheduler.schedule(task, latency.toNanos(), TimeUnit.NANOSECONDS);
+      } catch (final RejectedExecutionException rejectedExecutionException) {
+        responseObserver.onError(io.grpc.Status.UNAVAILABLE.withCause(rejectedExecutionException).asRuntimeException());
+      }
+    }
+  }
+
+  private final Release latest(final String name) {
+    assert Thread.holdsLock(this);
+    final List<Release> revisions = this.releases.get(name);
+    return revisions == null ? null : revisions.get(revisions.size() - 1);
+  }
+
+  private final Release existing(final String name) throws StatusException {
+    assert Thread.holdsLock(this);
+    final Release returnValue = this.latest(name);
+    if (returnValue == null) {
+      throw notFound(name);
+    }
+    return returnValue;
+  }
+
+  private final synchronized Release revision(final String name, final int version) throws StatusException {
+    final Release latest = this.existing(name);
+    if (version == 0) {
+      return latest;
+    }
+    for (final Release release : this.releases.get(name)) {
+      if (release.getVersion() == version) {
+        return release;
+      }
+    }
+    throw io.grpc.Status.UNKNOWN.withDescription("release: \"" + name + "\" version " + version + " not found").asException();
+  }
+
+  private final void store(final Release release) {
+    assert Thread.holdsLock(this);
+    final List<Release> revisions = this.releases.computeIfAbsent(release.getName(), name -> new ArrayList<>());
+    if (!revisions.isEmpty()) {
+      final int last = revisions.size() - 1;
+      final Release previous = revisions.get(last);
+      if (previous.getInfo().getStatus().getCode().equals(Status.Code.DEPLOYED)) {
+        revisions.set(last, Release.newBuilder(previous)
+                      .setInfo(Info.newBuilder(previous.getInfo()).setStatus(Status.newBuilder().setCode(Status.Code.SUPERSEDED)))
+                      .build());
+      }
+    }
+    revisions.add(release);
+    if (this.maximumHistory > 0) {
+      while (revisions.size() > this.maximumHistory) {
+        revisions.remove(0);
+      }
+    }
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  private static final StatusException notFound(final String name) {
+    return io.grpc.Status.NOT_FOUND.withDescription("release: \"" + name + "\" not found").asException();
+  }
+
+  private static final Timestamp now() {
+    final Instant now = Instant.now();
+    return Timestamp.newBuilder().setSeconds(now.getEpochSecond()).setNanos(now.getNano()).build();
+  }
+
+  private static final Info info(final Status.Code code, final Timestamp firstDeployed, final Timestamp lastDeployed, final String description) {
+    return Info.newBuilder()
+      .setStatus(Status.newBuilder().setCode(code))
+      .setFirstDeployed(firstDeployed)
+      .setLastDeployed(lastDeployed)
+      .setDescription(description)
+      .build();
+  }
+
+  /**
+   * Returns a manifest made of the supplied {@link Chart}'s templates,
+   * and those of its subcharts, each preceded by the {@code Source}
+   * comment Tiller writes; partials, whose names begin with {@code
+   * _}, are skipped.
+   *
+   * @param chart the {@link Chart}; must not be {@code null}
+   *
+   * @return a non-{@code null} manifest
+   */
+  private static final String manifest(final Chart chart) {
+    final StringBuilder sb = new StringBuilder();
+    manifest(chart.getMetadata().getName(), chart, sb);
+    return sb.toString();
+  }
+
+  private static final void manifest(final String path, final Chart chart, final StringBuilder sb) {
+    for (final Template template : chart.getTemplatesList()) {
+      final String name = template.getName();
+      final int slash = name.lastIndexOf('/');
+      if (!name.substring(slash + 1).startsWith("_")) {
+        sb.append("---\n# Source: ").append(path).append('/').append(name).append('\n');
+        sb.append(template.getData().toStringUtf8()).append('\n');
+      }
+    }
+    for (final Chart subchart : chart.getDependenciesList()) {
+      manifest(path + "/charts/" + subchart.getMetadata().getName(), subchart, sb);
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The work a call does once its latency has elapsed.
+   *
+   * @param <T> the type of the response
+   */
+  @FunctionalInterface
+  private static interface Operation<T> {
+
+    T perform() throws StatusException;
+
+  }
+
+}
@@ -0,0 +1,266 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.io.IOException;
+
+import java.time.Duration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import java.util.function.BooleanSupplier;
+
+import com.google.protobuf.ByteString;
+
+import hapi.chart.ChartOuterClass.Chart;
+import hapi.chart.TemplateOuterClass.Template;
+
+import hapi.services.tiller.Tiller.InstallReleaseRequest;
+import hapi.services.tiller.Tiller.TestReleaseRequest;
+import hapi.services.tiller.Tiller.TestReleaseResponse;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.StatusRuntimeException;
+
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestAsyncReleaseManager {
+
+  private FakeReleaseService service;
+
+  private Server server;
+
+  private ManagedChannel channel;
+
+  private AsyncReleaseManager releaseManager;
+
+  public TestAsyncReleaseManager() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws ExecutionException, InterruptedException, IOException {
+    this.service = new FakeReleaseService();
+    final String name = UUID.randomUUID().toString();
+    this.server = InProcessServerBuilder.forName(name).addService(this.service).build().start();
+    this.channel = InProcessChannelBuilder.forName(name).build();
+    this.releaseManager = new AsyncReleaseManager(new ReleaseManager(new Tiller(this.channel)));
+    final Chart.Builder chartBuilder = Chart.newBuilder();
+    chartBuilder.getMetadataBuilder().setName("streamed").setVersion("1.0.0");
+    chartBuilder.addTemplates(Template.newBuilder().setName("templates/configmap.yaml").setData(ByteString.copyFromUtf8("kind: ConfigMap\n")));
+    this.releaseManager.install(InstallReleaseRequest.newBuilder().setName("release-a"), chartBuilder).get();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (this.channel != null) {
+      this.channel.shutdownNow();
+      this.channel.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+    if (this.server != null) {
+      this.server.shutdownNow();
+      this.server.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+    if (this.service != null) {
+      this.service.close();
+    }
+  }
+
+  private final RecordingSubscriber test() {
+    final RecordingSubscriber subscriber = new RecordingSubscriber();
+    this.releaseManager.test(TestReleaseRequest.newBuilder().setName("release-a").build()).subscribe(subscriber);
+    return subscriber;
+  }
+
+  private static final void await(final BooleanSupplier condition) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+    while (!condition.getAsBoolean()) {
+      if (System.nanoTime() > deadline) {
+        fail();
+      }
+      Thread.sleep(10L);
+    }
+  }
+
+  @Test
+  public void testDeliveryFollowsDemand() throws InterruptedException {
+    this.service.setReleaseTestCount(10);
+    final RecordingSubscriber subscriber = this.test();
+    // Every response is already buffered, but none is delivered
+    // until it is requested.
+    Thread.sleep(200L);
+    assertEquals(0, subscriber.size());
+
+    subscriber.request(1L);
+    await(() -> subscriber.size() == 1);
+    subscriber.request(4L);
+    await(() -> subscriber.size() == 5);
+    Thread.sleep(200L);
+    assertEquals(5, subscriber.size());
+    assertFalse(subscriber.isTerminated());
+
+    subscriber.request(Long.MAX_VALUE);
+    await(subscriber::isTerminated);
+    assertEquals(10, subscriber.size());
+    assertTrue(subscriber.isComplete());
+    assertEquals("PASSED: release-a-test-9", subscriber.get(9).getMsg());
+  }
+
+  @Test
+  public void testCancel() throws InterruptedException {
+    this.service.setReleaseTestCount(10);
+    this.service.setLatency(Duration.ofMillis(50L));
+    final RecordingSubscriber subscriber = this.test();
+    subscriber.request(2L);
+    await(() -> subscriber.size() == 2);
+    subscriber.cancel();
+    subscriber.request(Long.MAX_VALUE);
+    Thread.sleep(500L);
+    assertEquals(2, subscriber.size());
+    assertFalse(subscriber.isTerminated());
+  }
+
+  @Test
+  public void testErrorAfterPartialDelivery() throws InterruptedException {
+    this.service.setReleaseTestCount(10);
+    this.service.failNextReleaseTestAfter(3, io.grpc.Status.UNAVAILABLE);
+    final RecordingSubscriber subscriber = this.test();
+    subscriber.request(1L);
+    await(() -> subscriber.size() == 1);
+    // The error waits behind the responses not yet requested.
+    Thread.sleep(200L);
+    assertFalse(subscriber.isTerminated());
+
+    subscriber.request(5L);
+    await(subscriber::isTerminated);
+    assertEquals(3, subscriber.size());
+    assertFalse(subscriber.isComplete());
+    assertTrue(subscriber.getError() instanceof StatusRuntimeException);
+    assertEquals(io.grpc.Status.Code.UNAVAILABLE, ((StatusRuntimeException)subscriber.getError()).getStatus().getCode());
+  }
+
+  @Test
+  public void testNonPositiveRequest() throws InterruptedException {
+    final RecordingSubscriber subscriber = this.test();
+    subscriber.request(0L);
+    await(subscriber::isTerminated);
+    assertTrue(subscriber.getError() instanceof IllegalArgumentException);
+    assertEquals(0, subscriber.size());
+  }
+
+  /**
+   * An {@link AsyncReleaseManager.Subscriber} that records what it
+   * receives and requests nothing on its own.
+   */
+  private static final class RecordingSubscriber implements AsyncReleaseManager.Subscriber<TestReleaseResponse> {
+
+    private AsyncReleaseManager.Subscription subscription;
+
+    private final List<TestReleaseResponse> items;
+
+    private boolean complete;
+
+    private Throwable error;
+
+    private int terminalSignals;
+
+    private RecordingSubscriber() {
+      super();
+      this.items = new ArrayList<>();
+    }
+
+    @Override
+    public final synchronized void onSubscribe(final AsyncReleaseManager.Subscription subscription) {
+      assertNull(this.subscription);
+      this.subscription = subscription;
+    }
+
+    @Override
+    public final synchronized void onNext(final TestReleaseResponse item) {
+      assertEquals(0, this.terminalSignals);
+      this.items.add(item);
+    }
+
+    @Override
+    public final synchronized void onError(final Throwable throwable) {
+      this.terminalSignals++;
+      this.error = throwable;
+    }
+
+    @Override
+    public final synchronized void onComplete() {
+      this.terminalSignals++;
+      this.complete = true;
+    }
+
+    private final void request(final long n) {
+      final AsyncReleaseManager.Subscription subscription;
+      synchronized (this) {
+        subscription = this.subscription;
+      }
+      subscription.request(n);
+    }
+
+    private final void cancel() {
+      final AsyncReleaseManager.Subscription subscription;
+      synchronized (this) {
+        subscription = this.subscription;
+      }
+      subscription.cancel();
+    }
+
+    private final synchronized int size() {
+      return this.items.size();
+    }
+
+    private final synchronized TestReleaseResponse get(final int index) {
+      return this.items.get(index);
+    }
+
+    private final synchronized boolean isTerminated() {
+      assertTrue(this.terminalSignals <= 1);
+      return this.terminalSignals > 0;
+    }
+
+    private final synchronized boolean isComplete() {
+      return this.complete;
+    }
+
+    private final synchronized Throwable getError() {
+      return this.error;
+    }
+
+  }
+
+}
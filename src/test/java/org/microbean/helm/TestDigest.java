@@ -36,6 +36,8 @@ import javax.xml.bind.DatatypeConverter;
 
 import org.junit.Test;
 
+import org.microbean.helm.chart.repository.ChartRepository;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -74,6 +76,22 @@ public class TestDigest {
     assertEquals(expectedDigest, DatatypeConverter.printHexBinary(md.digest()));
   }
 
+  @Test
+  public void testStreamingDigest() throws IOException {
+    final URL redisChart = Thread.currentThread().getContextClassLoader().getResource("redis-0.5.1/redis-0.5.1.tgz");
+    assertNotNull(redisChart);
+    final URL digest = Thread.currentThread().getContextClassLoader().getResource("redis-0.5.1/digest");
+    assertNotNull(digest);
+    String expectedDigest = null;
+    try (final BufferedReader reader = new BufferedReader(new InputStreamReader(digest.openStream(), StandardCharsets.UTF_8))) {
+      expectedDigest = reader.readLine();
+      assertNotNull(expectedDigest);
+    }
+    try (final InputStream stream = new BufferedInputStream(redisChart.openStream())) {
+      assertTrue(expectedDigest.equalsIgnoreCase(ChartRepository.Index.Entry.getDigest(stream)));
+    }
+  }
+
   private static final ByteBuffer readByteBuffer(final InputStream stream) throws IOException {
     return ByteBuffer.wrap(read(stream));
   }
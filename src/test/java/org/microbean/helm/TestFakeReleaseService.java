@@ -0,0 +1,182 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.io.IOException;
+
+import java.time.Duration;
+
+import java.util.List;
+import java.util.UUID;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.protobuf.ByteString;
+
+import hapi.chart.ChartOuterClass.Chart;
+import hapi.chart.TemplateOuterClass.Template;
+
+import hapi.release.ReleaseOuterClass.Release;
+import hapi.release.StatusOuterClass.Status;
+
+import hapi.services.tiller.Tiller.GetHistoryRequest;
+import hapi.services.tiller.Tiller.GetReleaseContentRequest;
+import hapi.services.tiller.Tiller.GetReleaseStatusRequest;
+import hapi.services.tiller.Tiller.InstallReleaseRequest;
+import hapi.services.tiller.Tiller.ListReleasesRequest;
+import hapi.services.tiller.Tiller.UninstallReleaseRequest;
+import hapi.services.tiller.Tiller.UpdateReleaseRequest;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.StatusRuntimeException;
+
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestFakeReleaseService {
+
+  private FakeReleaseService service;
+
+  private Server server;
+
+  private ManagedChannel channel;
+
+  private ReleaseManager releaseManager;
+
+  public TestFakeReleaseService() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    this.service = new FakeReleaseService();
+    final String name = UUID.randomUUID().toString();
+    this.server = InProcessServerBuilder.forName(name).addService(this.service).build().start();
+    this.channel = InProcessChannelBuilder.forName(name).build();
+    this.releaseManager = new ReleaseManager(new Tiller(this.channel));
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (this.channel != null) {
+      this.channel.shutdownNow();
+      this.channel.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+    if (this.server != null) {
+      this.server.shutdownNow();
+      this.server.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+    if (this.service != null) {
+      this.service.close();
+    }
+  }
+
+  private static final Chart.Builder chart(final String version) {
+    final Chart.Builder returnValue = Chart.newBuilder();
+    returnValue.getMetadataBuilder().setName("fake").setVersion(version);
+    returnValue.addTemplates(Template.newBuilder().setName("templates/configmap.yaml").setData(ByteString.copyFromUtf8("kind: ConfigMap\n")));
+    return returnValue;
+  }
+
+  private final Release install(final String name) throws ExecutionException, InterruptedException, IOException {
+    return this.releaseManager.install(InstallReleaseRequest.newBuilder().setName(name), chart("1.0.0")).get().getRelease();
+  }
+
+  @Test
+  public void testLifecycle() throws ExecutionException, InterruptedException, IOException {
+    final Release installed = this.install("release-a");
+    assertEquals(1, installed.getVersion());
+    assertEquals("default", installed.getNamespace());
+    assertEquals(Status.Code.DEPLOYED, installed.getInfo().getStatus().getCode());
+    assertTrue(installed.getManifest().contains("# Source: fake/templates/configmap.yaml"));
+
+    final Release updated = this.releaseManager.update(UpdateReleaseRequest.newBuilder().setName("release-a"), chart("1.1.0")).get().getRelease();
+    assertEquals(2, updated.getVersion());
+
+    final Release content = this.releaseManager.getContent(GetReleaseContentRequest.newBuilder().setName("release-a").build()).get().getRelease();
+    assertEquals(updated, content);
+
+    final List<Release> history = this.releaseManager.getHistory(GetHistoryRequest.newBuilder().setName("release-a").setMax(10).build()).get().getReleasesList();
+    assertEquals(2, history.size());
+    assertEquals(Status.Code.SUPERSEDED, history.get(1).getInfo().getStatus().getCode());
+
+    this.releaseManager.uninstall(UninstallReleaseRequest.newBuilder().setName("release-a").build()).get();
+    assertEquals(Status.Code.DELETED,
+                 this.releaseManager.getStatus(GetReleaseStatusRequest.newBuilder().setName("release-a").build()).get().getInfo().getStatus().getCode());
+
+    try {
+      this.install("release-a");
+      fail();
+    } catch (final ExecutionException expected) {
+      assertEquals(io.grpc.Status.Code.ALREADY_EXISTS, ((StatusRuntimeException)expected.getCause()).getStatus().getCode());
+    }
+  }
+
+  @Test
+  public void testListPages() throws ExecutionException, InterruptedException, IOException {
+    for (int i = 0; i < 7; i++) {
+      this.install(String.format("release-%02d", i));
+    }
+    this.releaseManager.uninstall(UninstallReleaseRequest.newBuilder().setName("release-03").build()).get();
+    final List<String> names;
+    try (final Stream<Release> stream = this.releaseManager.stream(ListReleasesRequest.getDefaultInstance(), 2, 1)) {
+      names = stream.map(Release::getName).collect(Collectors.toList());
+    }
+    // Only deployed releases are listed by default.
+    assertEquals(6, names.size());
+    assertEquals("release-00", names.get(0));
+    assertEquals("release-04", names.get(3));
+  }
+
+  @Test
+  public void testFailureInjection() throws ExecutionException, InterruptedException, IOException {
+    this.install("release-a");
+    this.service.failNextCalls(1, io.grpc.Status.UNAVAILABLE);
+    final GetReleaseContentRequest request = GetReleaseContentRequest.newBuilder().setName("release-a").build();
+    try {
+      this.releaseManager.getContent(request).get();
+      fail();
+    } catch (final ExecutionException expected) {
+      assertEquals(io.grpc.Status.Code.UNAVAILABLE, ((StatusRuntimeException)expected.getCause()).getStatus().getCode());
+    }
+    assertEquals("release-a", this.releaseManager.getContent(request).get().getRelease().getName());
+    assertEquals(3L, this.service.getCallCount());
+  }
+
+  @Test
+  public void testLatency() throws ExecutionException, InterruptedException, IOException {
+    this.install("release-a");
+    this.service.setLatency(Duration.ofMillis(100L));
+    final long start = System.nanoTime();
+    this.releaseManager.getStatus(GetReleaseStatusRequest.newBuilder().setName("release-a").build()).get();
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100L));
+  }
+
+}
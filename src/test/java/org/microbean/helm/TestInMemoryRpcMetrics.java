@@ -0,0 +1,143 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.io.IOException;
+
+import java.util.UUID;
+
+import java.util.concurrent.TimeUnit;
+
+import hapi.services.tiller.ReleaseServiceGrpc;
+import hapi.services.tiller.ReleaseServiceGrpc.ReleaseServiceImplBase;
+import hapi.services.tiller.Tiller.GetReleaseStatusRequest;
+import hapi.services.tiller.Tiller.GetReleaseStatusResponse;
+import hapi.services.tiller.Tiller.GetVersionRequest;
+import hapi.services.tiller.Tiller.GetVersionResponse;
+
+import hapi.version.VersionOuterClass.Version;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+
+import io.grpc.stub.StreamObserver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestInMemoryRpcMetrics {
+
+  public TestInMemoryRpcMetrics() {
+    super();
+  }
+
+  @Test
+  public void testBuckets() {
+    assertEquals(0, InMemoryRpcMetrics.bucketIndex(0L));
+    for (long value = 1L; value < 100000L; value++) {
+      final int previous = InMemoryRpcMetrics.bucketIndex(value - 1L);
+      final int index = InMemoryRpcMetrics.bucketIndex(value);
+      assertTrue(index >= previous);
+      if (index != previous) {
+        assertEquals(value, InMemoryRpcMetrics.bucketUpperBound(previous));
+      }
+      assertTrue(value < InMemoryRpcMetrics.bucketUpperBound(index));
+    }
+    assertEquals(Long.MAX_VALUE, InMemoryRpcMetrics.bucketUpperBound(InMemoryRpcMetrics.bucketIndex(Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void testPercentiles() {
+    final InMemoryRpcMetrics metrics = new InMemoryRpcMetrics();
+    for (int i = 1; i <= 100; i++) {
+      metrics.callStarted("m");
+      metrics.callCompleted("m", "OK", TimeUnit.MILLISECONDS.toNanos(i), 10L, 20L);
+    }
+    metrics.callStarted("m");
+    final InMemoryRpcMetrics.Snapshot snapshot = metrics.getSnapshot().get("m");
+    assertEquals(101L, snapshot.getCallsStarted());
+    assertEquals(1L, snapshot.getCallsInFlight());
+    assertEquals(100L, snapshot.getCallsCompleted());
+    assertEquals(Long.valueOf(100L), snapshot.getStatusCodes().get("OK"));
+    assertEquals(1000L, snapshot.getRequestBytes());
+    assertEquals(2000L, snapshot.getResponseBytes());
+    final long p50 = snapshot.getLatencyPercentile(0.5).toNanos();
+    assertTrue(p50 >= TimeUnit.MILLISECONDS.toNanos(50L));
+    assertTrue(p50 <= TimeUnit.MILLISECONDS.toNanos(50L) * 5L / 4L);
+    final long p99 = snapshot.getLatencyPercentile(0.99).toNanos();
+    assertTrue(p99 >= TimeUnit.MILLISECONDS.toNanos(99L));
+    assertTrue(p99 <= TimeUnit.MILLISECONDS.toNanos(99L) * 5L / 4L);
+  }
+
+  @Test
+  public void testTillerStubsAreMeasured() throws IOException, InterruptedException {
+    final String name = UUID.randomUUID().toString();
+    final Server server = InProcessServerBuilder.forName(name)
+      .addService(new ReleaseServiceImplBase() {
+          @Override
+          public final void getVersion(final GetVersionRequest request, final StreamObserver<GetVersionResponse> responseObserver) {
+            responseObserver.onNext(GetVersionResponse.newBuilder().setVersion(Version.newBuilder().setSemVer(Tiller.VERSION)).build());
+            responseObserver.onCompleted();
+          }
+
+          @Override
+          public final void getReleaseStatus(final GetReleaseStatusRequest request, final StreamObserver<GetReleaseStatusResponse> responseObserver) {
+            responseObserver.onError(Status.NOT_FOUND.asRuntimeException());
+          }
+        })
+      .build()
+      .start();
+    final ManagedChannel channel = InProcessChannelBuilder.forName(name).build();
+    final InMemoryRpcMetrics metrics = new InMemoryRpcMetrics();
+    try (final Tiller tiller = new Tiller(channel) {
+        @Override
+        public final RpcMetrics getRpcMetrics() {
+          return metrics;
+        }
+      }) {
+      assertEquals(Tiller.VERSION, tiller.getReleaseServiceBlockingStub().getVersion(GetVersionRequest.getDefaultInstance()).getVersion().getSemVer());
+      try {
+        tiller.getReleaseServiceBlockingStub().getReleaseStatus(GetReleaseStatusRequest.newBuilder().setName("missing").build());
+        fail();
+      } catch (final StatusRuntimeException expected) {
+
+      }
+    } finally {
+      server.shutdownNow();
+      server.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+
+    final InMemoryRpcMetrics.Snapshot version = metrics.getSnapshot().get(ReleaseServiceGrpc.getGetVersionMethod().getFullMethodName());
+    assertEquals(1L, version.getCallsCompleted());
+    assertEquals(0L, version.getCallsInFlight());
+    assertEquals(Long.valueOf(1L), version.getStatusCodes().get("OK"));
+    assertTrue(version.getResponseBytes() > 0L);
+
+    final InMemoryRpcMetrics.Snapshot status = metrics.getSnapshot().get(ReleaseServiceGrpc.getGetReleaseStatusMethod().getFullMethodName());
+    assertEquals(Long.valueOf(1L), status.getStatusCodes().get("NOT_FOUND"));
+    assertTrue(status.getRequestBytes() > 0L);
+  }
+
+}
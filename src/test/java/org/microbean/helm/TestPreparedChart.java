@@ -0,0 +1,76 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import com.google.protobuf.ByteString;
+
+import hapi.chart.ChartOuterClass.Chart;
+import hapi.chart.ConfigOuterClass.Config;
+import hapi.chart.MetadataOuterClass.Metadata;
+import hapi.chart.TemplateOuterClass.Template;
+
+import hapi.services.tiller.Tiller.InstallReleaseRequest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+public class TestPreparedChart {
+
+  private PreparedChart preparedChart;
+
+  public TestPreparedChart() {
+    super();
+  }
+
+  @Before
+  public void setUp() {
+    final Chart.Builder chartBuilder = Chart.newBuilder();
+    chartBuilder.setMetadata(Metadata.newBuilder().setName("test").setVersion("0.1.0"));
+    chartBuilder.addTemplates(Template.newBuilder().setName("templates/configmap.yaml").setData(ByteString.copyFromUtf8("kind: ConfigMap\n")));
+    chartBuilder.setValues(Config.newBuilder().setRaw("a: b\n"));
+    this.preparedChart = new PreparedChart(chartBuilder);
+  }
+
+  @Test
+  public void testVariantsAreMemoizedByValues() {
+    final Config values = Config.newBuilder().setRaw("a: c\n").build();
+    assertSame(this.preparedChart.getVariant(values), this.preparedChart.getVariant(values.toBuilder()));
+    assertEquals(PreparedChart.digest(values), PreparedChart.digest(values.toBuilder()));
+    assertNotEquals(PreparedChart.digest(values), PreparedChart.digest(null));
+  }
+
+  @Test
+  public void testSplicedPayloadParsesAsFullRequest() throws Exception {
+    final InstallReleaseRequest.Builder requestBuilder = InstallReleaseRequest.newBuilder();
+    requestBuilder.setName("test-release");
+    requestBuilder.setNamespace("test-namespace");
+    requestBuilder.setValues(Config.newBuilder().setRaw("a: c\n"));
+    final InstallReleaseRequest head = requestBuilder.build();
+
+    final PreparedChart.Payload<InstallReleaseRequest> payload =
+      this.preparedChart.getVariant(head.getValues()).splice(head, InstallReleaseRequest.CHART_FIELD_NUMBER);
+    final InstallReleaseRequest parsed = InstallReleaseRequest.parseFrom(payload.toByteString());
+
+    final InstallReleaseRequest expected = head.toBuilder().setChart(this.preparedChart.getAppliedChart(head.getValues())).build();
+    assertEquals(expected, parsed);
+  }
+
+}
@@ -0,0 +1,194 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.io.IOException;
+
+import java.time.Duration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.UUID;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hapi.services.tiller.ReleaseServiceGrpc.ReleaseServiceImplBase;
+import hapi.services.tiller.Tiller.GetReleaseStatusRequest;
+import hapi.services.tiller.Tiller.GetReleaseStatusResponse;
+
+import io.fabric8.kubernetes.client.LocalPortForward;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import static org.mockito.Mockito.mock;
+
+public class TestReadPolicy {
+
+  private AtomicInteger calls;
+
+  private CountDownLatch cancellations;
+
+  private Server server;
+
+  private String serverName;
+
+  private ManagedChannel channel;
+
+  public TestReadPolicy() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    this.calls = new AtomicInteger();
+    this.cancellations = new CountDownLatch(1);
+    this.serverName = UUID.randomUUID().toString();
+    this.server = InProcessServerBuilder.forName(this.serverName)
+      .addService(new ReleaseServiceImplBase() {
+          @Override
+          public final void getReleaseStatus(final GetReleaseStatusRequest request, final StreamObserver<GetReleaseStatusResponse> responseObserver) {
+            final int call = calls.incrementAndGet();
+            if ("stalled".equals(request.getName()) || call == 1) {
+              // Simulate a stalled port forward: never answer.
+              ((ServerCallStreamObserver<GetReleaseStatusResponse>)responseObserver).setOnCancelHandler(cancellations::countDown);
+            } else {
+              responseObserver.onNext(GetReleaseStatusResponse.newBuilder().setName(request.getName()).build());
+              responseObserver.onCompleted();
+            }
+          }
+        })
+      .build()
+      .start();
+    this.channel = InProcessChannelBuilder.forName(this.serverName).build();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (this.channel != null) {
+      this.channel.shutdownNow();
+      this.channel.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+    if (this.server != null) {
+      this.server.shutdownNow();
+      this.server.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+  }
+
+  private static final GetReleaseStatusRequest request(final String name) {
+    return GetReleaseStatusRequest.newBuilder().setName(name).build();
+  }
+
+  @Test
+  public void testDeadline() throws InterruptedException, IOException {
+    final ReleaseManager releaseManager = new ReleaseManager(new Tiller(this.channel), null, new ReadPolicy(Duration.ofMillis(100L)));
+    try {
+      releaseManager.getStatus(request("stalled")).get();
+      fail();
+    } catch (final ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof StatusRuntimeException);
+      assertEquals(Status.Code.DEADLINE_EXCEEDED, ((StatusRuntimeException)expected.getCause()).getStatus().getCode());
+    }
+  }
+
+  @Test
+  public void testHedging() throws ExecutionException, InterruptedException, IOException {
+    final ReadPolicy readPolicy = new ReadPolicy(Duration.ofSeconds(10L), Duration.ofSeconds(10L), Duration.ofSeconds(10L), Duration.ofMillis(50L), 0.1);
+    final ReleaseManager releaseManager = new ReleaseManager(new Tiller(this.channel, true), null, readPolicy);
+    assertEquals("a", releaseManager.getStatus(request("a")).get().getName());
+    assertEquals(2, this.calls.get());
+    // The losing attempt is cancelled.
+    assertTrue(this.cancellations.await(10L, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testNoHedgingOverASingleForward() throws InterruptedException, IOException {
+    final ReadPolicy readPolicy = new ReadPolicy(Duration.ofMillis(500L), Duration.ofMillis(500L), Duration.ofMillis(500L), Duration.ofMillis(50L), 0.1);
+    // A hedge would go down the same port forward as the stalled
+    // first call.
+    final Tiller tiller = new Tiller(mock(LocalPortForward.class), portForward -> InProcessChannelBuilder.forName(this.serverName).build());
+    try {
+      final ReleaseManager releaseManager = new ReleaseManager(tiller, null, readPolicy);
+      try {
+        releaseManager.getStatus(request("a")).get();
+        fail();
+      } catch (final ExecutionException expected) {
+        assertEquals(Status.Code.DEADLINE_EXCEEDED, ((StatusRuntimeException)expected.getCause()).getStatus().getCode());
+      }
+      assertEquals(1, this.calls.get());
+    } finally {
+      tiller.close();
+    }
+  }
+
+  @Test
+  public void testNoHedgingOverAnUndeclaredChannel() throws InterruptedException, IOException {
+    final ReadPolicy readPolicy = new ReadPolicy(Duration.ofMillis(500L), Duration.ofMillis(500L), Duration.ofMillis(500L), Duration.ofMillis(50L), 0.1);
+    // Nothing says this channel reaches more than one Tiller pod.
+    final ReleaseManager releaseManager = new ReleaseManager(new Tiller(this.channel), null, readPolicy);
+    try {
+      releaseManager.getStatus(request("a")).get();
+      fail();
+    } catch (final ExecutionException expected) {
+      assertEquals(Status.Code.DEADLINE_EXCEEDED, ((StatusRuntimeException)expected.getCause()).getStatus().getCode());
+    }
+    assertEquals(1, this.calls.get());
+  }
+
+  @Test
+  public void testHedgingIsBudgeted() throws InterruptedException, IOException {
+    final ReadPolicy readPolicy = new ReadPolicy(Duration.ofMillis(500L), Duration.ofMillis(500L), Duration.ofMillis(500L), Duration.ofMillis(10L), 0.01);
+    final ReleaseManager releaseManager = new ReleaseManager(new Tiller(this.channel, true), null, readPolicy);
+    final Collection<Future<GetReleaseStatusResponse>> futures = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      futures.add(releaseManager.getStatus(request("stalled")));
+    }
+    for (final Future<GetReleaseStatusResponse> future : futures) {
+      try {
+        future.get();
+        fail();
+      } catch (final ExecutionException expected) {
+
+      }
+    }
+    // 50 calls, plus at most the initial allowance of 10 hedges and
+    // the 0.5 of a hedge the calls themselves earned.
+    assertTrue(String.valueOf(this.calls.get()), this.calls.get() <= 60);
+  }
+
+}
@@ -0,0 +1,177 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.time.Duration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import io.grpc.stub.StreamObserver;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestReleaseCache {
+
+  private ReleaseCache cache;
+
+  private Object scope;
+
+  private List<StreamObserver<String>> calls;
+
+  public TestReleaseCache() {
+    super();
+  }
+
+  @Before
+  public void setUp() {
+    this.cache = new ReleaseCache(Duration.ofHours(1L), 2);
+    this.calls = new ArrayList<>();
+    this.scope = new Object();
+  }
+
+  private final CompletableFuture<String> get(final String releaseName, final String request) {
+    return this.get(this.scope, releaseName, request);
+  }
+
+  private final CompletableFuture<String> get(final Object scope, final String releaseName, final String request) {
+    return this.cache.get(scope, releaseName, request, this.calls::add);
+  }
+
+  @Test
+  public void testConcurrentIdenticalRequestsCollapse() throws ExecutionException, InterruptedException {
+    final CompletableFuture<String> first = this.get("a", "status a");
+    final CompletableFuture<String> second = this.get("a", "status a");
+    assertEquals(1, this.calls.size());
+    this.calls.get(0).onNext("deployed");
+    this.calls.get(0).onCompleted();
+    assertEquals("deployed", first.get());
+    assertEquals("deployed", second.get());
+    assertEquals("deployed", this.get("a", "status a").get());
+    assertEquals(1, this.calls.size());
+  }
+
+  @Test
+  public void testCancellationIsNotShared() throws ExecutionException, InterruptedException {
+    final CompletableFuture<String> first = this.get("a", "status a");
+    final CompletableFuture<String> second = this.get("a", "status a");
+    first.cancel(true);
+    this.calls.get(0).onNext("deployed");
+    assertEquals("deployed", second.get());
+  }
+
+  @Test
+  public void testFailuresAreNotCached() throws InterruptedException {
+    final CompletableFuture<String> first = this.get("a", "status a");
+    this.calls.get(0).onError(new IllegalStateException());
+    try {
+      first.get();
+      fail();
+    } catch (final ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof IllegalStateException);
+    }
+    assertEquals(0, this.cache.size());
+    this.get("a", "status a");
+    assertEquals(2, this.calls.size());
+  }
+
+  @Test
+  public void testInvalidate() {
+    this.get("a", "status a");
+    this.get("a", "history a");
+    this.get("b", "status b");
+    this.calls.forEach(call -> call.onNext("x"));
+    this.cache.invalidate("a");
+    assertEquals(1, this.cache.size());
+    this.get("b", "status b");
+    assertEquals(3, this.calls.size());
+    this.get("a", "status a");
+    assertEquals(4, this.calls.size());
+  }
+
+  @Test
+  public void testScopesAreSeparate() throws ExecutionException, InterruptedException {
+    // Two Tillers, say in different clusters, each with a release
+    // named "a".
+    final Object otherScope = new Object();
+    final CompletableFuture<String> first = this.get("a", "status a");
+    final CompletableFuture<String> second = this.get(otherScope, "a", "status a");
+    assertEquals(2, this.calls.size());
+    this.calls.get(0).onNext("deployed");
+    this.calls.get(1).onNext("failed");
+    assertEquals("deployed", first.get());
+    assertEquals("failed", second.get());
+
+    // Changing the release through one Tiller leaves the other's
+    // responses alone.
+    this.cache.invalidate(otherScope, "a");
+    assertEquals(1, this.cache.size());
+    assertEquals("deployed", this.get("a", "status a").get());
+    assertEquals(2, this.calls.size());
+
+    // Explicit invalidation covers every scope.
+    this.get(otherScope, "a", "status a");
+    this.calls.get(2).onNext("failed");
+    this.cache.invalidate("a");
+    assertEquals(0, this.cache.size());
+  }
+
+  @Test
+  public void testSizeBound() {
+    this.get("a", "status a");
+    this.get("b", "status b");
+    this.get("a", "status a");
+    this.get("c", "status c");
+    assertEquals(2, this.cache.size());
+    this.get("a", "status a");
+    assertEquals(3, this.calls.size());
+    this.get("b", "status b");
+    assertEquals(4, this.calls.size());
+  }
+
+  @Test
+  public void testExpiry() {
+    this.cache = new ReleaseCache(Duration.ofNanos(1L), 2);
+    this.get("a", "status a");
+    this.calls.get(0).onNext("deployed");
+    final long start = System.nanoTime();
+    while (System.nanoTime() - start < 1000L) {
+      // spin
+    }
+    this.get("a", "status a");
+    assertEquals(2, this.calls.size());
+  }
+
+  @Test
+  public void testPendingRequestsDoNotExpire() {
+    this.cache = new ReleaseCache(Duration.ofNanos(1L), 2);
+    final CompletableFuture<String> first = this.get("a", "status a");
+    this.get("a", "status a");
+    assertEquals(1, this.calls.size());
+    assertFalse(first.isDone());
+  }
+
+}
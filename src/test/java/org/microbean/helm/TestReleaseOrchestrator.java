@@ -0,0 +1,254 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.io.IOException;
+
+import java.time.Duration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.ByteString;
+
+import hapi.chart.ChartOuterClass.Chart;
+import hapi.chart.TemplateOuterClass.Template;
+
+import hapi.services.tiller.Tiller.InstallReleaseRequest;
+
+import io.grpc.ForwardingServerCall.SimpleForwardingServerCall;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.microbean.helm.ReleaseOrchestrator.ReleaseSpec;
+import org.microbean.helm.ReleaseOrchestrator.Result;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestReleaseOrchestrator {
+
+  private FakeReleaseService service;
+
+  private Server server;
+
+  private ManagedChannel channel;
+
+  private ReleaseManager releaseManager;
+
+  private AtomicInteger callsInFlight;
+
+  private AtomicInteger maximumCallsInFlight;
+
+  public TestReleaseOrchestrator() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    this.service = new FakeReleaseService();
+    this.callsInFlight = new AtomicInteger();
+    this.maximumCallsInFlight = new AtomicInteger();
+    final ServerInterceptor concurrencyTracker = new ServerInterceptor() {
+        @Override
+        public final <Q, S> ServerCall.Listener<Q> interceptCall(final ServerCall<Q, S> call, final Metadata headers, final ServerCallHandler<Q, S> next) {
+          final int inFlight = callsInFlight.incrementAndGet();
+          maximumCallsInFlight.accumulateAndGet(inFlight, Math::max);
+          return next.startCall(new SimpleForwardingServerCall<Q, S>(call) {
+              @Override
+              public final void close(final Status status, final Metadata trailers) {
+                callsInFlight.decrementAndGet();
+                super.close(status, trailers);
+              }
+            }, headers);
+        }
+      };
+    final String name = UUID.randomUUID().toString();
+    this.server = InProcessServerBuilder.forName(name).addService(ServerInterceptors.intercept(this.service, concurrencyTracker)).build().start();
+    this.channel = InProcessChannelBuilder.forName(name).build();
+    this.releaseManager = new ReleaseManager(new Tiller(this.channel));
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (this.channel != null) {
+      this.channel.shutdownNow();
+      this.channel.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+    if (this.server != null) {
+      this.server.shutdownNow();
+      this.server.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+    if (this.service != null) {
+      this.service.close();
+    }
+  }
+
+  private static final Chart.Builder chart() {
+    final Chart.Builder returnValue = Chart.newBuilder();
+    returnValue.getMetadataBuilder().setName("orchestrated").setVersion("1.0.0");
+    returnValue.addTemplates(Template.newBuilder().setName("templates/configmap.yaml").setData(ByteString.copyFromUtf8("kind: ConfigMap\n")));
+    return returnValue;
+  }
+
+  private static final ReleaseSpec install(final String name, final String... after) {
+    return ReleaseSpec.install(name, InstallReleaseRequest.newBuilder().setName(name), chart(), Arrays.asList(after));
+  }
+
+  private final Map<String, Result> run(final int maxConcurrency, final List<ReleaseSpec> specs) throws ExecutionException, InterruptedException, TimeoutException {
+    return new ReleaseOrchestrator(this.releaseManager, maxConcurrency).run(specs).get(30L, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testEmpty() throws ExecutionException, InterruptedException, TimeoutException {
+    assertTrue(this.run(1, Collections.emptyList()).isEmpty());
+  }
+
+  @Test
+  public void testDuplicate() {
+    try {
+      new ReleaseOrchestrator(this.releaseManager, 1).run(Arrays.asList(install("a"), install("a")));
+      fail();
+    } catch (final IllegalArgumentException expected) {
+
+    }
+  }
+
+  @Test
+  public void testUnknownPredecessor() {
+    try {
+      new ReleaseOrchestrator(this.releaseManager, 1).run(Arrays.asList(install("a"), install("b", "c")));
+      fail();
+    } catch (final IllegalArgumentException expected) {
+
+    }
+  }
+
+  @Test
+  public void testCycle() {
+    try {
+      new ReleaseOrchestrator(this.releaseManager, 1).run(Arrays.asList(install("a"), install("b", "a", "d"), install("c", "b"), install("d", "c")));
+      fail();
+    } catch (final IllegalArgumentException expected) {
+      assertTrue(expected.getMessage().contains("cycle"));
+    }
+    assertEquals(0L, this.service.getCallCount());
+  }
+
+  @Test
+  public void testOrderAndConcurrencyCap() throws ExecutionException, InterruptedException, TimeoutException {
+    this.service.setLatency(Duration.ofMillis(100L));
+    final List<ReleaseSpec> specs = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      specs.add(install("independent-" + i));
+    }
+    specs.add(install("dependent", "independent-0", "independent-5"));
+    final Map<String, Result> results = this.run(2, specs);
+    assertEquals(7, results.size());
+    for (final Result result : results.values()) {
+      assertEquals(Result.Status.SUCCEEDED, result.getStatus());
+      assertNotNull(result.getRelease());
+    }
+    assertEquals(2, this.maximumCallsInFlight.get());
+    final Result dependent = results.get("dependent");
+    assertTrue(!dependent.getStartTime().isBefore(results.get("independent-0").getEndTime()));
+    assertTrue(!dependent.getStartTime().isBefore(results.get("independent-5").getEndTime()));
+  }
+
+  @Test
+  public void testFailureSkipsOnlyTransitiveDependents() throws ExecutionException, InterruptedException, IOException, TimeoutException {
+    // Tiller refuses to install a release whose name is taken.
+    this.releaseManager.install(InstallReleaseRequest.newBuilder().setName("taken"), chart()).get();
+    final Map<String, Result> results =
+      this.run(4, Arrays.asList(install("taken"),
+                                install("child", "taken"),
+                                install("grandchild", "child"),
+                                install("independent"),
+                                install("independent-child", "independent")));
+    assertEquals(Result.Status.FAILED, results.get("taken").getStatus());
+    assertNotNull(results.get("taken").getFailure());
+    assertEquals(Result.Status.SKIPPED, results.get("child").getStatus());
+    assertEquals("taken", results.get("child").getSkippedBecauseOf());
+    assertEquals(Result.Status.SKIPPED, results.get("grandchild").getStatus());
+    assertEquals("taken", results.get("grandchild").getSkippedBecauseOf());
+    assertEquals(Result.Status.SUCCEEDED, results.get("independent").getStatus());
+    assertEquals(Result.Status.SUCCEEDED, results.get("independent-child").getStatus());
+  }
+
+  @Test
+  public void testSpecsSharingOneChartBuilder() throws ExecutionException, InterruptedException, TimeoutException {
+    // Preparing a chart strips files its templates never read, so
+    // each run must work on its own copy of the shared builder.
+    final Chart.Builder chartBuilder = chart().addFiles(Any.newBuilder().setTypeUrl("files/unused.txt").setValue(ByteString.copyFromUtf8("unused")));
+    final Chart snapshot = chartBuilder.build();
+    final List<ReleaseSpec> specs = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      specs.add(ReleaseSpec.install("shared-" + i, InstallReleaseRequest.newBuilder().setName("shared-" + i), chartBuilder, null));
+    }
+    this.service.setLatency(Duration.ofMillis(50L));
+    final Map<String, Result> results = this.run(8, specs);
+    assertEquals(8, results.size());
+    for (final Result result : results.values()) {
+      assertEquals(Result.Status.SUCCEEDED, result.getStatus());
+    }
+    assertEquals(snapshot, chartBuilder.build());
+  }
+
+  @Test
+  public void testManySynchronousFailuresDoNotExhaustTheStack() throws ExecutionException, InterruptedException, TimeoutException {
+    // Invalid release names are rejected before any call is made, so
+    // every operation completes synchronously.
+    final List<ReleaseSpec> specs = new ArrayList<>();
+    for (int i = 0; i < 20000; i++) {
+      specs.add(install("INVALID-" + i));
+    }
+    final Map<String, Result> results = this.run(1, specs);
+    assertEquals(20000, results.size());
+    for (final Result result : results.values()) {
+      assertEquals(Result.Status.FAILED, result.getStatus());
+      assertTrue(result.getFailure() instanceof IllegalArgumentException);
+    }
+    assertEquals(0L, this.service.getCallCount());
+  }
+
+}
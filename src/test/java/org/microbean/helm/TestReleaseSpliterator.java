@@ -0,0 +1,164 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import hapi.release.ReleaseOuterClass.Release;
+
+import hapi.services.tiller.ReleaseServiceGrpc;
+import hapi.services.tiller.ReleaseServiceGrpc.ReleaseServiceImplBase;
+import hapi.services.tiller.Tiller.ListReleasesRequest;
+import hapi.services.tiller.Tiller.ListReleasesResponse;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+
+import io.grpc.stub.StreamObserver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestReleaseSpliterator {
+
+  private static final int RELEASE_COUNT = 1000;
+
+  private Server server;
+
+  private ManagedChannel channel;
+
+  private AtomicInteger requests;
+
+  public TestReleaseSpliterator() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    final List<Release> releases = new ArrayList<>();
+    for (int i = 0; i < RELEASE_COUNT; i++) {
+      releases.add(Release.newBuilder().setName(String.format("release-%04d", i)).build());
+    }
+    this.requests = new AtomicInteger();
+    final String name = UUID.randomUUID().toString();
+    this.server = InProcessServerBuilder.forName(name)
+      .addService(new ReleaseServiceImplBase() {
+          @Override
+          public final void listReleases(final ListReleasesRequest request, final StreamObserver<ListReleasesResponse> responseObserver) {
+            requests.incrementAndGet();
+            // Page the way Tiller does: start at the release named by
+            // offset, and name the first release of the next page in
+            // next.
+            int start = 0;
+            if (!request.getOffset().isEmpty()) {
+              while (start < releases.size() && !releases.get(start).getName().equals(request.getOffset())) {
+                start++;
+              }
+            }
+            int end = releases.size();
+            String next = "";
+            if (request.getLimit() > 0L && start + request.getLimit() < end) {
+              end = start + (int)request.getLimit();
+              next = releases.get(end).getName();
+            }
+            // Split each page across two messages, as Tiller does
+            // for large pages.
+            final int middle = (start + end) / 2;
+            responseObserver.onNext(ListReleasesResponse.newBuilder().addAllReleases(releases.subList(start, middle)).setNext(next).setTotal(releases.size()).build());
+            responseObserver.onNext(ListReleasesResponse.newBuilder().addAllReleases(releases.subList(middle, end)).setNext(next).setTotal(releases.size()).build());
+            responseObserver.onCompleted();
+          }
+        })
+      .build()
+      .start();
+    this.channel = InProcessChannelBuilder.forName(name).build();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (this.channel != null) {
+      this.channel.shutdownNow();
+      this.channel.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+    if (this.server != null) {
+      this.server.shutdownNow();
+      this.server.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+  }
+
+  private final Stream<Release> stream(final ListReleasesRequest request, final int pageSize, final int maximumPrefetchedPages) {
+    final ReleaseSpliterator spliterator =
+      new ReleaseSpliterator(ReleaseServiceGrpc.newStub(this.channel), request, pageSize, maximumPrefetchedPages);
+    return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+  }
+
+  @Test
+  public void testAllPagesAreStreamedInOrder() {
+    final List<String> names;
+    try (final Stream<Release> stream = this.stream(ListReleasesRequest.getDefaultInstance(), 64, 2)) {
+      names = stream.map(Release::getName).collect(Collectors.toList());
+    }
+    assertEquals(RELEASE_COUNT, names.size());
+    for (int i = 0; i < RELEASE_COUNT; i++) {
+      assertEquals(String.format("release-%04d", i), names.get(i));
+    }
+    assertEquals((RELEASE_COUNT + 63) / 64, this.requests.get());
+  }
+
+  @Test
+  public void testOffsetAndLimitAreHonored() {
+    final ListReleasesRequest request = ListReleasesRequest.newBuilder().setOffset("release-0990").setLimit(3L).build();
+    final List<String> names;
+    try (final Stream<Release> stream = this.stream(request, 0, 1)) {
+      names = stream.map(Release::getName).collect(Collectors.toList());
+    }
+    assertEquals(10, names.size());
+    assertEquals("release-0990", names.get(0));
+    assertEquals("release-0999", names.get(9));
+    assertEquals(4, this.requests.get());
+  }
+
+  @Test
+  public void testShortCircuitingStopsFetching() {
+    try (final Stream<Release> stream = this.stream(ListReleasesRequest.getDefaultInstance(), 10, 1)) {
+      assertEquals(5L, stream.limit(5L).count());
+    }
+    // The first page, and at most one page prefetched behind it plus
+    // the one in flight.
+    assertTrue(this.requests.get() <= 3);
+  }
+
+}
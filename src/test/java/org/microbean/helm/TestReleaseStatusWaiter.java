@@ -0,0 +1,225 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.io.IOException;
+
+import java.time.Duration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.UUID;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.util.regex.Pattern;
+
+import hapi.release.InfoOuterClass.Info;
+import hapi.release.ReleaseOuterClass.Release;
+import hapi.release.StatusOuterClass.Status;
+
+import hapi.services.tiller.ReleaseServiceGrpc.ReleaseServiceImplBase;
+import hapi.services.tiller.Tiller.ListReleasesRequest;
+import hapi.services.tiller.Tiller.ListReleasesResponse;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+
+import io.grpc.stub.StreamObserver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestReleaseStatusWaiter {
+
+  private Map<String, Release> releases;
+
+  private AtomicInteger requests;
+
+  private AtomicBoolean stalled;
+
+  private Server server;
+
+  private ManagedChannel channel;
+
+  private ReleaseStatusWaiter waiter;
+
+  public TestReleaseStatusWaiter() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    this.releases = new ConcurrentHashMap<>();
+    this.requests = new AtomicInteger();
+    this.stalled = new AtomicBoolean();
+    final String name = UUID.randomUUID().toString();
+    this.server = InProcessServerBuilder.forName(name)
+      .addService(new ReleaseServiceImplBase() {
+          @Override
+          public final void listReleases(final ListReleasesRequest request, final StreamObserver<ListReleasesResponse> responseObserver) {
+            requests.incrementAndGet();
+            if (stalled.get()) {
+              // Simulate a stalled port forward: never answer.
+              return;
+            }
+            final Pattern filter = Pattern.compile(request.getFilter());
+            final ListReleasesResponse.Builder response = ListReleasesResponse.newBuilder();
+            for (final Release release : releases.values()) {
+              if (filter.matcher(release.getName()).find() &&
+                  request.getStatusCodesList().contains(release.getInfo().getStatus().getCode())) {
+                response.addReleases(release);
+              }
+            }
+            responseObserver.onNext(response.build());
+            responseObserver.onCompleted();
+          }
+        })
+      .build()
+      .start();
+    this.channel = InProcessChannelBuilder.forName(name).build();
+    this.waiter = new ReleaseStatusWaiter(new ReleaseManager(new Tiller(this.channel)),
+                                          EnumSet.of(Status.Code.DEPLOYED),
+                                          EnumSet.of(Status.Code.FAILED),
+                                          Duration.ofMillis(10L),
+                                          Duration.ofMillis(50L));
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (this.waiter != null) {
+      this.waiter.close();
+    }
+    if (this.channel != null) {
+      this.channel.shutdownNow();
+      this.channel.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+    if (this.server != null) {
+      this.server.shutdownNow();
+      this.server.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+  }
+
+  private final void setStatus(final String name, final int version, final Status.Code code) {
+    // Every revision is kept, as Tiller keeps them.
+    this.releases.put(name + "." + version, Release.newBuilder()
+                      .setName(name)
+                      .setVersion(version)
+                      .setInfo(Info.newBuilder().setStatus(Status.newBuilder().setCode(code)))
+                      .build());
+  }
+
+  @Test
+  public void testManyReleasesShareRounds() throws ExecutionException, InterruptedException {
+    final Collection<String> names = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      final String name = "release-" + i;
+      names.add(name);
+      this.setStatus(name, 1, Status.Code.PENDING_INSTALL);
+    }
+    final Map<String, CompletableFuture<Release>> futures = this.waiter.awaitAll(names, Duration.ofSeconds(30L));
+    Thread.sleep(100L);
+    for (final String name : names) {
+      assertFalse(futures.get(name).isDone());
+      this.setStatus(name, 1, Status.Code.DEPLOYED);
+    }
+    for (final String name : names) {
+      assertEquals(name, futures.get(name).get().getName());
+    }
+    // One request per round, not one per release per round.
+    assertTrue(String.valueOf(this.requests.get()), this.requests.get() < names.size());
+  }
+
+  @Test
+  public void testOlderRevisionsDoNotSatisfyAWait() throws ExecutionException, InterruptedException {
+    this.setStatus("a", 1, Status.Code.DEPLOYED);
+    final CompletableFuture<Release> future = this.waiter.await("a", 2, Duration.ofSeconds(30L));
+    Thread.sleep(100L);
+    assertFalse(future.isDone());
+    this.setStatus("a", 2, Status.Code.DEPLOYED);
+    assertEquals(2, future.get().getVersion());
+  }
+
+  @Test
+  public void testFailure() throws InterruptedException {
+    this.setStatus("a", 1, Status.Code.FAILED);
+    try {
+      this.waiter.await("a", Duration.ofSeconds(30L)).get();
+      fail();
+    } catch (final ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof ReleaseFailedException);
+      assertEquals("a", ((ReleaseFailedException)expected.getCause()).getRelease().getName());
+    }
+  }
+
+  @Test
+  public void testOlderFailedRevisionIsNotAFailure() throws InterruptedException {
+    // The latest revision is deleted, which is neither a target nor a
+    // failure status; the older failed revision must not be
+    // mistaken for it.
+    this.setStatus("a", 1, Status.Code.FAILED);
+    this.setStatus("a", 2, Status.Code.DELETED);
+    try {
+      this.waiter.await("a", Duration.ofMillis(200L)).get();
+      fail();
+    } catch (final ExecutionException expected) {
+      assertTrue(String.valueOf(expected.getCause()), expected.getCause() instanceof TimeoutException);
+    }
+  }
+
+  @Test
+  public void testTimeoutWhileTillerIsStalled() throws InterruptedException, TimeoutException {
+    this.stalled.set(true);
+    this.setStatus("a", 1, Status.Code.PENDING_INSTALL);
+    try {
+      this.waiter.await("a", Duration.ofMillis(100L)).get(10L, TimeUnit.SECONDS);
+      fail();
+    } catch (final ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof TimeoutException);
+    }
+  }
+
+  @Test
+  public void testTimeout() throws InterruptedException {
+    this.setStatus("a", 1, Status.Code.PENDING_UPGRADE);
+    try {
+      this.waiter.await("a", Duration.ofMillis(100L)).get();
+      fail();
+    } catch (final ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof TimeoutException);
+    }
+  }
+
+}
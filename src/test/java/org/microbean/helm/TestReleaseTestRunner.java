@@ -0,0 +1,259 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.io.IOException;
+
+import java.time.Duration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.UUID;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hapi.release.TestRunOuterClass.TestRun;
+
+import hapi.services.tiller.ReleaseServiceGrpc.ReleaseServiceImplBase;
+import hapi.services.tiller.Tiller.TestReleaseRequest;
+import hapi.services.tiller.Tiller.TestReleaseResponse;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.Status;
+
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+
+import io.grpc.stub.StreamObserver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestReleaseTestRunner {
+
+  private static final long TEST_MILLIS = 200L;
+
+  private AtomicInteger running;
+
+  private AtomicInteger maximumRunning;
+
+  private ScheduledExecutorService scheduler;
+
+  private Server server;
+
+  private ManagedChannel channel;
+
+  public TestReleaseTestRunner() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    this.running = new AtomicInteger();
+    this.maximumRunning = new AtomicInteger();
+    this.scheduler = Executors.newScheduledThreadPool(4);
+    final String name = UUID.randomUUID().toString();
+    this.server = InProcessServerBuilder.forName(name)
+      .addService(new ReleaseServiceImplBase() {
+          @Override
+          public final void runReleaseTest(final TestReleaseRequest request, final StreamObserver<TestReleaseResponse> responseObserver) {
+            final int now = running.incrementAndGet();
+            maximumRunning.accumulateAndGet(now, Math::max);
+            final String releaseName = request.getName();
+            responseObserver.onNext(TestReleaseResponse.newBuilder().setMsg("RUNNING: " + releaseName).setStatus(TestRun.Status.RUNNING).build());
+            scheduler.schedule(() -> {
+                running.decrementAndGet();
+                if (releaseName.startsWith("broken")) {
+                  responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+                } else {
+                  final boolean failed = releaseName.startsWith("failing");
+                  responseObserver.onNext(TestReleaseResponse.newBuilder()
+                                          .setMsg((failed ? "FAILED: " : "PASSED: ") + releaseName)
+                                          .setStatus(failed ? TestRun.Status.FAILURE : TestRun.Status.SUCCESS)
+                                          .build());
+                  responseObserver.onCompleted();
+                }
+              }, TEST_MILLIS, TimeUnit.MILLISECONDS);
+          }
+        })
+      .build()
+      .start();
+    this.channel = InProcessChannelBuilder.forName(name).build();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (this.channel != null) {
+      this.channel.shutdownNow();
+      this.channel.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+    if (this.server != null) {
+      this.server.shutdownNow();
+      this.server.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+    if (this.scheduler != null) {
+      this.scheduler.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testRun() throws ExecutionException, InterruptedException {
+    final Collection<TestReleaseRequest> requests = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      requests.add(TestReleaseRequest.newBuilder().setName("release-" + i).build());
+    }
+    requests.add(TestReleaseRequest.newBuilder().setName("failing-0").build());
+    requests.add(TestReleaseRequest.newBuilder().setName("broken-0").build());
+    final AtomicInteger responses = new AtomicInteger();
+
+    final ReleaseTestRunner runner = new ReleaseTestRunner(new ReleaseManager(new Tiller(this.channel)), 5);
+    final ReleaseTestRunner.Summary summary = runner.run(requests, (name, response) -> responses.incrementAndGet()).get();
+
+    assertTrue(String.valueOf(this.maximumRunning.get()), this.maximumRunning.get() <= 5);
+    assertEquals(22, summary.getResults().size());
+    assertEquals("release-0", summary.getResults().keySet().iterator().next());
+    assertFalse(summary.isPassed());
+    assertEquals(2, summary.getFailures().size());
+    assertEquals(43, responses.get());
+
+    final ReleaseTestRunner.Result passed = summary.getResults().get("release-0");
+    assertTrue(passed.isPassed());
+    assertEquals(2, passed.getResponses().size());
+    assertTrue(passed.getDuration().compareTo(Duration.ofMillis(TEST_MILLIS)) >= 0);
+
+    final ReleaseTestRunner.Result failed = summary.getResults().get("failing-0");
+    assertFalse(failed.isPassed());
+    assertEquals(1, failed.getFailureCount());
+
+    final ReleaseTestRunner.Result broken = summary.getResults().get("broken-0");
+    assertFalse(broken.isPassed());
+    assertNotNull(broken.getError());
+
+    // 22 releases, 5 at a time, is 5 rounds, not 22.
+    assertTrue(summary.getDuration().toString(), summary.getDuration().compareTo(Duration.ofMillis(TEST_MILLIS * 12L)) < 0);
+  }
+
+  @Test
+  public void testManySynchronousFailuresDoNotExhaustTheStack() throws ExecutionException, InterruptedException {
+    // Every call fails before start() returns, so every test finishes
+    // while the next one is being started.
+    final Collection<TestReleaseRequest> requests = new ArrayList<>();
+    for (int i = 0; i < 20000; i++) {
+      requests.add(TestReleaseRequest.newBuilder().setName("release-" + i).build());
+    }
+    final ReleaseTestRunner runner = new ReleaseTestRunner(new ReleaseManager(new Tiller(new FailingChannel())), 1);
+    final ReleaseTestRunner.Summary summary = runner.run(requests, null).get();
+    assertEquals(20000, summary.getResults().size());
+    assertEquals(20000, summary.getFailures().size());
+    for (final ReleaseTestRunner.Result result : summary.getResults().values()) {
+      assertNotNull(result.getError());
+    }
+  }
+
+  /**
+   * A {@link ManagedChannel} whose calls fail with {@link
+   * Status#UNAVAILABLE} as soon as they are started, on the thread
+   * that starts them.
+   */
+  private static final class FailingChannel extends ManagedChannel {
+
+    private volatile boolean shutdown;
+
+    private FailingChannel() {
+      super();
+    }
+
+    @Override
+    public final <Q, S> ClientCall<Q, S> newCall(final MethodDescriptor<Q, S> method, final CallOptions callOptions) {
+      return new ClientCall<Q, S>() {
+        @Override
+        public final void start(final ClientCall.Listener<S> listener, final Metadata headers) {
+          listener.onClose(Status.UNAVAILABLE, new Metadata());
+        }
+
+        @Override
+        public final void request(final int count) {
+
+        }
+
+        @Override
+        public final void cancel(final String message, final Throwable cause) {
+
+        }
+
+        @Override
+        public final void halfClose() {
+
+        }
+
+        @Override
+        public final void sendMessage(final Q message) {
+
+        }
+      };
+    }
+
+    @Override
+    public final String authority() {
+      return "failing";
+    }
+
+    @Override
+    public final ManagedChannel shutdown() {
+      this.shutdown = true;
+      return this;
+    }
+
+    @Override
+    public final ManagedChannel shutdownNow() {
+      return this.shutdown();
+    }
+
+    @Override
+    public final boolean isShutdown() {
+      return this.shutdown;
+    }
+
+    @Override
+    public final boolean isTerminated() {
+      return this.shutdown;
+    }
+
+    @Override
+    public final boolean awaitTermination(final long timeout, final TimeUnit unit) {
+      return this.shutdown;
+    }
+
+  }
+
+}
@@ -0,0 +1,63 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestTillerChannelOptions {
+
+  public TestTillerChannelOptions() {
+    super();
+  }
+
+  @Test
+  public void testDefaults() {
+    final TillerChannelOptions options = TillerChannelOptions.DEFAULT;
+    assertEquals(Duration.ofSeconds(5L), options.getIdleTimeout());
+    assertEquals(Duration.ofSeconds(30L), options.getKeepAliveTime());
+    assertEquals(Tiller.MAX_MESSAGE_SIZE, options.getMaxInboundMessageSize());
+    assertEquals(0, options.getMaxOutboundMessageSize());
+    assertEquals(0, options.getFlowControlWindow());
+    assertNull(options.getCompressorName());
+    assertNull(options.getExecutor());
+    assertFalse(options.isDirectExecutor());
+  }
+
+  @Test
+  public void testToBuilder() {
+    final TillerChannelOptions options = TillerChannelOptions.builder().compression("gzip", 1024).directExecutor().build();
+    final TillerChannelOptions copy = options.toBuilder().flowControlWindow(1 << 20).build();
+    assertEquals("gzip", copy.getCompressorName());
+    assertEquals(1024, copy.getCompressionThreshold());
+    assertTrue(copy.isDirectExecutor());
+    assertEquals(1 << 20, copy.getFlowControlWindow());
+    assertEquals(0, options.getFlowControlWindow());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeFlowControlWindow() {
+    TillerChannelOptions.builder().flowControlWindow(-1);
+  }
+
+}
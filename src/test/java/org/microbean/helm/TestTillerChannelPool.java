@@ -0,0 +1,268 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.io.IOException;
+
+import java.time.Duration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.util.function.BooleanSupplier;
+
+import hapi.services.tiller.ReleaseServiceGrpc;
+import hapi.services.tiller.Tiller.GetVersionRequest;
+import hapi.services.tiller.Tiller.GetVersionResponse;
+
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.api.model.PodListBuilder;
+
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.LocalPortForward;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+
+import io.fabric8.kubernetes.client.dsl.FilterWatchListDeletable;
+import io.fabric8.kubernetes.client.dsl.MixedOperation;
+import io.fabric8.kubernetes.client.dsl.NonNamespaceOperation;
+import io.fabric8.kubernetes.client.dsl.PodResource;
+
+import io.grpc.Server;
+import io.grpc.StatusRuntimeException;
+
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TestTillerChannelPool {
+
+  private FakeReleaseService service;
+
+  private Server server;
+
+  private String serverName;
+
+  private KubernetesClient client;
+
+  private List<Pod> pods;
+
+  private Map<String, LocalPortForward> portForwards;
+
+  private Watcher<Pod> watcher;
+
+  private AtomicInteger watches;
+
+  private AtomicInteger listFailures;
+
+  private TillerChannelPool pool;
+
+  public TestTillerChannelPool() {
+    super();
+  }
+
+  @Before
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public void setUp() throws IOException {
+    this.service = new FakeReleaseService();
+    this.serverName = UUID.randomUUID().toString();
+    this.server = InProcessServerBuilder.forName(this.serverName).addService(this.service).build().start();
+
+    this.pods = new ArrayList<>();
+    this.portForwards = new HashMap<>();
+    this.watches = new AtomicInteger();
+    this.listFailures = new AtomicInteger();
+    this.client = mock(KubernetesClient.class);
+    final MixedOperation pods = mock(MixedOperation.class);
+    final NonNamespaceOperation namespacedPods = mock(NonNamespaceOperation.class);
+    final FilterWatchListDeletable labeledPods = mock(FilterWatchListDeletable.class);
+    when(this.client.pods()).thenReturn(pods);
+    when(pods.inNamespace(anyString())).thenReturn(namespacedPods);
+    when(namespacedPods.withLabels(anyMap())).thenReturn(labeledPods);
+    when(labeledPods.list()).thenAnswer(invocation -> {
+        if (this.listFailures.getAndUpdate(failures -> Math.max(0, failures - 1)) > 0) {
+          throw new KubernetesClientException("unreachable");
+        }
+        return new PodListBuilder().withItems(new ArrayList<>(this.pods)).build();
+      });
+    when(labeledPods.watch(any(Watcher.class))).thenAnswer(invocation -> {
+        this.watches.incrementAndGet();
+        this.watcher = invocation.getArgument(0);
+        return mock(Watch.class);
+      });
+    for (final String podName : new String[] { "tiller-a", "tiller-b", "tiller-c" }) {
+      final PodResource pod = mock(PodResource.class);
+      final LocalPortForward portForward = mock(LocalPortForward.class);
+      this.portForwards.put(podName, portForward);
+      when(pod.portForward(anyInt())).thenReturn(portForward);
+      when(namespacedPods.withName(eq(podName))).thenReturn(pod);
+    }
+    final PodResource brokenPod = mock(PodResource.class);
+    when(brokenPod.portForward(anyInt())).thenThrow(new KubernetesClientException("broken"));
+    when(namespacedPods.withName(eq("tiller-broken"))).thenReturn(brokenPod);
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (this.pool != null) {
+      this.pool.shutdownNow();
+    }
+    if (this.server != null) {
+      this.server.shutdownNow();
+      this.server.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+    if (this.service != null) {
+      this.service.close();
+    }
+  }
+
+  private final TillerChannelPool newPool() {
+    return new TillerChannelPool(this.client, null, -1, null, portForward -> InProcessChannelBuilder.forName(this.serverName).build(), null);
+  }
+
+  private static final Pod pod(final String name, final boolean ready) {
+    return new PodBuilder()
+      .withNewMetadata().withName(name).endMetadata()
+      .withNewStatus().addNewCondition().withType("Ready").withStatus(ready ? "True" : "False").endCondition().endStatus()
+      .build();
+  }
+
+  private static final void await(final BooleanSupplier condition) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+    while (!condition.getAsBoolean()) {
+      if (System.nanoTime() > deadline) {
+        fail();
+      }
+      Thread.sleep(10L);
+    }
+  }
+
+  @Test
+  public void testMembersFollowPodEvents() throws InterruptedException {
+    this.pods.add(pod("tiller-a", true));
+    this.pods.add(pod("tiller-b", true));
+    this.pool = this.newPool();
+    await(() -> this.pool.size() == 2);
+
+    this.watcher.eventReceived(Watcher.Action.DELETED, pod("tiller-a", true));
+    assertEquals(1, this.pool.size());
+    assertFalse(this.pool.getPodNames().contains("tiller-a"));
+    // The retired pod's forward is closed without waiting for
+    // another pod event.
+    verify(this.portForwards.get("tiller-a"), timeout(5000L)).close();
+
+    this.watcher.eventReceived(Watcher.Action.ADDED, pod("tiller-c", true));
+    await(() -> this.pool.getPodNames().contains("tiller-c"));
+
+    this.watcher.eventReceived(Watcher.Action.MODIFIED, pod("tiller-c", false));
+    assertEquals(1, this.pool.size());
+    verify(this.portForwards.get("tiller-c"), timeout(5000L)).close();
+    verify(this.portForwards.get("tiller-b"), never()).close();
+  }
+
+  @Test
+  public void testRetiredForwardOutlivesCallsInFlight() throws ExecutionException, InterruptedException {
+    this.pods.add(pod("tiller-a", true));
+    this.pool = this.newPool();
+    this.service.setLatency(Duration.ofMillis(500L));
+    final Future<GetVersionResponse> response = ReleaseServiceGrpc.newFutureStub(this.pool).getVersion(GetVersionRequest.getDefaultInstance());
+
+    this.watcher.eventReceived(Watcher.Action.DELETED, pod("tiller-a", true));
+    verify(this.portForwards.get("tiller-a"), after(200L).never()).close();
+    assertEquals(FakeReleaseService.VERSION, response.get().getVersion().getSemVer());
+    verify(this.portForwards.get("tiller-a"), timeout(5000L)).close();
+  }
+
+  @Test
+  public void testShutdownClosesEveryForward() throws InterruptedException {
+    this.pods.add(pod("tiller-a", true));
+    this.pods.add(pod("tiller-b", true));
+    this.pool = this.newPool();
+    await(() -> this.pool.size() == 2);
+
+    this.pool.shutdown();
+    assertTrue(this.pool.awaitTermination(10L, TimeUnit.SECONDS));
+    verify(this.portForwards.get("tiller-a")).close();
+    verify(this.portForwards.get("tiller-b")).close();
+    try {
+      ReleaseServiceGrpc.newBlockingStub(this.pool).getVersion(GetVersionRequest.getDefaultInstance());
+      fail();
+    } catch (final StatusRuntimeException expected) {
+      assertEquals(io.grpc.Status.Code.UNAVAILABLE, expected.getStatus().getCode());
+    }
+  }
+
+  @Test
+  public void testFailedWatchRestartIsRetried() throws InterruptedException {
+    this.pods.add(pod("tiller-a", true));
+    this.pool = this.newPool();
+    assertEquals(1, this.watches.get());
+
+    // Kubernetes is briefly unreachable when the watch ends, so the
+    // pool cannot restart it right away and must do so on its own.
+    this.listFailures.set(1);
+    this.watcher.onClose(new KubernetesClientException("gone"));
+    assertEquals(1, this.watches.get());
+    this.pods.add(pod("tiller-b", true));
+    await(() -> this.watches.get() == 2);
+    await(() -> this.pool.size() == 2);
+  }
+
+  @Test
+  public void testNoReachableTillerPods() {
+    this.pods.add(pod("tiller-a", false));
+    this.pods.add(pod("tiller-broken", true));
+    try {
+      this.pool = this.newPool();
+      fail();
+    } catch (final TillerException expected) {
+      assertTrue(expected.getCause() instanceof KubernetesClientException);
+    }
+  }
+
+}
@@ -0,0 +1,227 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.io.IOException;
+
+import java.net.URL;
+
+import java.time.Duration;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import java.util.concurrent.TimeUnit;
+
+import hapi.services.tiller.Tiller.GetVersionRequest;
+
+import io.fabric8.kubernetes.api.model.PodListBuilder;
+
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.LocalPortForward;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+
+import io.fabric8.kubernetes.client.dsl.FilterWatchListDeletable;
+import io.fabric8.kubernetes.client.dsl.MixedOperation;
+import io.fabric8.kubernetes.client.dsl.NonNamespaceOperation;
+import io.fabric8.kubernetes.client.dsl.PodResource;
+
+import io.grpc.Server;
+
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TestTillerConnectionManager {
+
+  private FakeReleaseService service;
+
+  private Server server;
+
+  private String serverName;
+
+  private Map<KubernetesClient, PodResource<?, ?>> podResources;
+
+  private Map<KubernetesClient, LocalPortForward> portForwards;
+
+  private TillerConnectionManager manager;
+
+  public TestTillerConnectionManager() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    this.service = new FakeReleaseService();
+    this.serverName = UUID.randomUUID().toString();
+    this.server = InProcessServerBuilder.forName(this.serverName).addService(this.service).build().start();
+    this.podResources = new HashMap<>();
+    this.portForwards = new HashMap<>();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (this.manager != null) {
+      this.manager.close();
+    }
+    if (this.server != null) {
+      this.server.shutdownNow();
+      this.server.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+    if (this.service != null) {
+      this.service.close();
+    }
+  }
+
+  private final TillerConnectionManager newManager(final Duration linger) {
+    return new TillerConnectionManager(portForward -> InProcessChannelBuilder.forName(this.serverName).build(), linger, null);
+  }
+
+  /**
+   * Returns a mocked {@link KubernetesClient} for a cluster with one
+   * ready Tiller pod; every such client reports the same master URL.
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private final KubernetesClient newClient() throws IOException {
+    final KubernetesClient client = mock(KubernetesClient.class);
+    when(client.getMasterUrl()).thenReturn(new URL("https://kubernetes.example.com/"));
+    final MixedOperation pods = mock(MixedOperation.class);
+    final NonNamespaceOperation namespacedPods = mock(NonNamespaceOperation.class);
+    final FilterWatchListDeletable labeledPods = mock(FilterWatchListDeletable.class);
+    final PodResource pod = mock(PodResource.class);
+    final LocalPortForward portForward = mock(LocalPortForward.class);
+    when(client.pods()).thenReturn(pods);
+    when(pods.inNamespace(anyString())).thenReturn(namespacedPods);
+    when(namespacedPods.withLabels(anyMap())).thenReturn(labeledPods);
+    when(namespacedPods.withName(anyString())).thenReturn(pod);
+    when(labeledPods.list()).thenReturn(new PodListBuilder()
+                                        .addNewItem()
+                                        .withNewMetadata().withName("tiller-a").endMetadata()
+                                        .withNewStatus().addNewCondition().withType("Ready").withStatus("True").endCondition().endStatus()
+                                        .endItem()
+                                        .build());
+    when(labeledPods.watch(any(Watcher.class))).thenReturn(mock(Watch.class));
+    when(pod.portForward(anyInt())).thenReturn(portForward);
+    this.podResources.put(client, pod);
+    this.portForwards.put(client, portForward);
+    return client;
+  }
+
+  private static final String version(final Tiller tiller) {
+    return tiller.getReleaseServiceBlockingStub().getVersion(GetVersionRequest.getDefaultInstance()).getVersion().getSemVer();
+  }
+
+  @Test
+  public void testLeasesShareOneConnection() throws IOException {
+    this.manager = this.newManager(Duration.ofMillis(200L));
+    final KubernetesClient client = this.newClient();
+    final Tiller first = this.manager.acquire(client);
+    final Tiller second = this.manager.acquire(client);
+    assertEquals(1, this.manager.size());
+    verify(this.podResources.get(client), times(1)).portForward(anyInt());
+    assertEquals(FakeReleaseService.VERSION, version(second));
+
+    // Closing a lease twice releases it once.
+    first.close();
+    first.close();
+    assertEquals(1, this.manager.size());
+    assertEquals(FakeReleaseService.VERSION, version(second));
+
+    second.close();
+    // The connection lingers, and is then closed along with its port
+    // forward.
+    assertEquals(1, this.manager.size());
+    verify(this.portForwards.get(client), timeout(5000L)).close();
+    assertEquals(0, this.manager.size());
+  }
+
+  @Test
+  public void testReacquisitionWhileLingeringReusesConnection() throws IOException {
+    this.manager = this.newManager(Duration.ofSeconds(10L));
+    final KubernetesClient client = this.newClient();
+    this.manager.acquire(client).close();
+    final Tiller tiller = this.manager.acquire(client);
+    assertEquals(1, this.manager.size());
+    verify(this.podResources.get(client), times(1)).portForward(anyInt());
+    verify(this.portForwards.get(client), never()).close();
+    tiller.close();
+  }
+
+  @Test
+  public void testNoLingerClosesImmediately() throws IOException {
+    this.manager = this.newManager(null);
+    final KubernetesClient client = this.newClient();
+    this.manager.acquire(client).close();
+    assertEquals(0, this.manager.size());
+    verify(this.portForwards.get(client), timeout(5000L)).close();
+  }
+
+  @Test
+  public void testDifferentClientsDoNotShare() throws IOException {
+    this.manager = this.newManager(null);
+    final KubernetesClient firstClient = this.newClient();
+    final KubernetesClient secondClient = this.newClient();
+    final Tiller first = this.manager.acquire(firstClient);
+    final Tiller second = this.manager.acquire(secondClient);
+    assertEquals(2, this.manager.size());
+    verify(this.podResources.get(firstClient)).portForward(anyInt());
+    verify(this.podResources.get(secondClient)).portForward(anyInt());
+
+    // Releasing one client's connection leaves the other's alone.
+    first.close();
+    verify(this.portForwards.get(firstClient), timeout(5000L)).close();
+    assertEquals(FakeReleaseService.VERSION, version(second));
+    verify(this.portForwards.get(secondClient), never()).close();
+    second.close();
+  }
+
+  @Test
+  public void testClose() throws IOException {
+    this.manager = this.newManager(Duration.ofSeconds(10L));
+    final KubernetesClient client = this.newClient();
+    this.manager.acquire(client);
+    this.manager.close();
+    assertEquals(0, this.manager.size());
+    verify(this.portForwards.get(client), timeout(5000L)).close();
+    try {
+      this.manager.acquire(client);
+      fail();
+    } catch (final IllegalStateException expected) {
+
+    }
+  }
+
+}
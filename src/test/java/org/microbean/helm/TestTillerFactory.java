@@ -0,0 +1,252 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm;
+
+import java.io.IOException;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import java.time.Duration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import hapi.services.tiller.Tiller.GetVersionRequest;
+
+import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import io.fabric8.kubernetes.client.LocalPortForward;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.StatusRuntimeException;
+
+import io.grpc.netty.NettyServerBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TestTillerFactory {
+
+  private FakeReleaseService service;
+
+  private Server server;
+
+  private List<DefaultKubernetesClient> clients;
+
+  private AtomicInteger creations;
+
+  private TillerFactory factory;
+
+  public TestTillerFactory() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    this.service = new FakeReleaseService();
+    this.server = NettyServerBuilder.forAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)).addService(this.service).build().start();
+    this.clients = new CopyOnWriteArrayList<>();
+    this.creations = new AtomicInteger();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (this.factory != null) {
+      this.factory.close();
+    }
+    if (this.server != null) {
+      this.server.shutdownNow();
+      this.server.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+    if (this.service != null) {
+      this.service.close();
+    }
+  }
+
+  /**
+   * Returns a new {@link TillerFactory} whose clusters all "forward"
+   * to the local {@link FakeReleaseService}, each after a short
+   * delay.
+   */
+  private final TillerFactory newFactory(final Duration idleTimeout) {
+    final int port = this.server.getPort();
+    return new TillerFactory(context -> {
+        final DefaultKubernetesClient client = mock(DefaultKubernetesClient.class);
+        this.clients.add(client);
+        return client;
+      }, null, idleTimeout) {
+      @Override
+      final Tiller createTiller(final DefaultKubernetesClient client, final Function<? super LocalPortForward, ? extends ManagedChannel> channelBuilder) throws IOException {
+        creations.incrementAndGet();
+        try {
+          Thread.sleep(100L);
+        } catch (final InterruptedException interruptedException) {
+          Thread.currentThread().interrupt();
+          throw new IOException(interruptedException.getMessage(), interruptedException);
+        }
+        final LocalPortForward portForward = mock(LocalPortForward.class);
+        when(portForward.getLocalAddress()).thenReturn(InetAddress.getLoopbackAddress());
+        when(portForward.getLocalPort()).thenReturn(port);
+        return new Tiller(portForward, channelBuilder);
+      }
+    };
+  }
+
+  private static final String version(final Tiller tiller) {
+    return tiller.getReleaseServiceBlockingStub().getVersion(GetVersionRequest.getDefaultInstance()).getVersion().getSemVer();
+  }
+
+  private static final void await(final BooleanSupplier condition) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+    while (!condition.getAsBoolean()) {
+      if (System.nanoTime() > deadline) {
+        fail();
+      }
+      Thread.sleep(10L);
+    }
+  }
+
+  @Test
+  public void testConcurrentRequestsForOneContextShareOneCluster() throws ExecutionException, InterruptedException {
+    this.factory = this.newFactory(null);
+    final int threadCount = 16;
+    final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try {
+      final CountDownLatch start = new CountDownLatch(1);
+      final List<Future<ReleaseManager>> futures = new ArrayList<>();
+      for (int i = 0; i < threadCount; i++) {
+        futures.add(executor.submit(() -> {
+              start.await();
+              return this.factory.getReleaseManager("a");
+            }));
+      }
+      start.countDown();
+      final ReleaseManager releaseManager = futures.get(0).get();
+      for (final Future<ReleaseManager> future : futures) {
+        assertSame(releaseManager, future.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1, this.creations.get());
+    assertEquals(1, this.clients.size());
+  }
+
+  @Test
+  public void testIdleClusterIsClosedAndRecreated() throws IOException, InterruptedException {
+    this.factory = this.newFactory(Duration.ofMillis(200L));
+    final Tiller tiller = this.factory.getTiller("a");
+    assertEquals(FakeReleaseService.VERSION, version(tiller));
+    await(() -> this.factory.getMetrics().isEmpty());
+    verify(this.clients.get(0)).close();
+
+    final Tiller recreated = this.factory.getTiller("a");
+    assertNotSame(tiller, recreated);
+    assertEquals(FakeReleaseService.VERSION, version(recreated));
+    assertEquals(2, this.creations.get());
+  }
+
+  @Test
+  public void testLeasedClusterIsNotClosed() throws IOException, InterruptedException {
+    this.factory = this.newFactory(Duration.ofMillis(200L));
+    final TillerFactory.Lease lease = this.factory.acquire("a");
+    assertEquals("a", lease.getContext());
+    Thread.sleep(800L);
+    assertTrue(this.factory.getMetrics().containsKey("a"));
+    verify(this.clients.get(0), never()).close();
+    assertEquals(FakeReleaseService.VERSION, version(lease.getTiller()));
+    assertSame(this.factory.getReleaseManager("a"), lease.getReleaseManager());
+
+    // Closing a lease twice releases it once.
+    lease.close();
+    lease.close();
+    verify(this.clients.get(0), timeout(5000L)).close();
+    assertTrue(this.factory.getMetrics().isEmpty());
+  }
+
+  @Test
+  public void testMetrics() throws IOException {
+    this.factory = this.newFactory(null);
+    final Tiller tiller = this.factory.getTiller("a");
+    assertEquals(FakeReleaseService.VERSION, version(tiller));
+    assertEquals(FakeReleaseService.VERSION, version(tiller));
+    this.service.failNextCalls(1, io.grpc.Status.UNAVAILABLE);
+    try {
+      version(tiller);
+      fail();
+    } catch (final StatusRuntimeException expected) {
+
+    }
+    this.factory.getTiller(null);
+
+    final Map<String, TillerFactory.ClusterMetrics> metrics = this.factory.getMetrics();
+    assertEquals(2, metrics.size());
+    final TillerFactory.ClusterMetrics a = metrics.get("a");
+    assertEquals("a", a.getContext());
+    assertEquals(3L, a.getCallsStarted());
+    assertEquals(1L, a.getCallsFailed());
+    assertEquals(0, a.getCallsInFlight());
+    final TillerFactory.ClusterMetrics current = metrics.get("");
+    assertEquals(0L, current.getCallsStarted());
+  }
+
+  @Test
+  public void testCloseReleasesSharedResourcesLast() throws IOException {
+    this.factory = this.newFactory(null);
+    final Tiller tiller = this.factory.getTiller("a");
+    assertEquals(FakeReleaseService.VERSION, version(tiller));
+    this.factory.close();
+    verify(this.clients.get(0)).close();
+    assertTrue(((ExecutorService)this.factory.getChannelOptions().getExecutor()).isShutdown());
+    assertTrue(this.factory.getChannelOptions().getEventLoopGroup().isShuttingDown());
+    try {
+      this.factory.getTiller("a");
+      fail();
+    } catch (final IllegalStateException expected) {
+
+    }
+  }
+
+}
@@ -0,0 +1,80 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.google.protobuf.ByteString;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestByteStringInputStream {
+
+  public TestByteStringInputStream() {
+    super();
+  }
+
+  @Test
+  public void testReadFrom() throws IOException {
+    for (final int size : new int[] { 0, 1, 4095, 4096, 4097, 100000 }) {
+      final byte[] bytes = new byte[size];
+      new Random(size).nextBytes(bytes);
+      for (final long sizeHint : new long[] { -1L, 0L, size / 2, size, 2L * size }) {
+        final ByteStringInputStream stream = ByteStringInputStream.readFrom(new ByteArrayInputStream(bytes), sizeHint);
+        assertEquals(size, stream.available());
+        final ByteString byteString = ByteStringInputStream.toByteString(stream);
+        assertArrayEquals(bytes, byteString.toByteArray());
+        assertEquals(0, stream.available());
+      }
+    }
+  }
+
+  @Test
+  public void testLargeSizeHint() throws IOException {
+    // Larger than the initial buffer, with an accurate hint.
+    final byte[] bytes = new byte[3 * 1024 * 1024 + 1];
+    new Random(bytes.length).nextBytes(bytes);
+    ByteStringInputStream stream = ByteStringInputStream.readFrom(new ByteArrayInputStream(bytes), bytes.length);
+    assertArrayEquals(bytes, ByteStringInputStream.toByteString(stream).toByteArray());
+
+    // A hint claiming gigabytes for a handful of bytes allocates no
+    // more than the initial buffer.
+    final byte[] smallBytes = "Hello, world".getBytes("UTF-8");
+    stream = ByteStringInputStream.readFrom(new ByteArrayInputStream(smallBytes), Long.MAX_VALUE);
+    assertEquals(smallBytes.length, stream.available());
+    assertArrayEquals(smallBytes, ByteStringInputStream.toByteString(stream).toByteArray());
+  }
+
+  @Test
+  public void testToByteStringAfterPartialRead() throws IOException {
+    final byte[] bytes = "Hello, world".getBytes("UTF-8");
+    final ByteStringInputStream stream = ByteStringInputStream.readFrom(new ByteArrayInputStream(bytes), bytes.length);
+    assertEquals('H', stream.read());
+    final ByteString byteString = ByteStringInputStream.toByteString(stream);
+    assertArrayEquals(Arrays.copyOfRange(bytes, 1, bytes.length), byteString.toByteArray());
+    assertTrue(byteString.isValidUtf8());
+  }
+
+}
@@ -0,0 +1,136 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.google.protobuf.ByteString;
+
+import hapi.chart.ChartOuterClass.Chart;
+import hapi.chart.TemplateOuterClass.Template;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestChartMinimizer {
+
+  public TestChartMinimizer() {
+    super();
+  }
+
+  private static final Chart.Builder chart(final String name) {
+    final Chart.Builder returnValue = Chart.newBuilder();
+    returnValue.getMetadataBuilder().setName(name).setVersion("1.0.0");
+    return returnValue;
+  }
+
+  private static final void addTemplate(final Chart.Builder chart, final String name, final String data) {
+    chart.addTemplates(Template.newBuilder().setName(name).setData(ByteString.copyFromUtf8(data)));
+  }
+
+  private static final void addFile(final Chart.Builder chart, final String name, final String data) {
+    chart.addFilesBuilder().setTypeUrl(name).setValue(ByteString.copyFromUtf8(data));
+  }
+
+  private static final Set<String> fileNames(final Chart.Builder chart) {
+    final Set<String> returnValue = new HashSet<>();
+    chart.getFilesList().forEach(file -> returnValue.add(file.getTypeUrl()));
+    return returnValue;
+  }
+
+  @Test
+  public void testHelmIgnoreAndUnreadFiles() {
+    final Chart.Builder chart = chart("parent");
+    addTemplate(chart, "templates/configmap.yaml", "data:\n  config: {{ .Files.Get \"files/config.ini\" | quote }}\n");
+    addTemplate(chart, "templates/ci/test.yaml", "kind: Pod\n");
+    addFile(chart, ".helmignore", "# Comment\n*.bak\nci/\n");
+    addFile(chart, "files/config.ini", "a=b\n");
+    addFile(chart, "files/config.ini.bak", "a=c\n");
+    addFile(chart, "README.md", "# Parent\n");
+    addFile(chart, "requirements.yaml", "dependencies: []\n");
+
+    final ChartMinimizer.Report report = new ChartMinimizer().minimize(chart);
+
+    assertEquals(1, chart.getTemplatesCount());
+    assertEquals("templates/configmap.yaml", chart.getTemplates(0).getName());
+    final Set<String> expected = new HashSet<>();
+    expected.add("files/config.ini");
+    expected.add("requirements.yaml");
+    assertEquals(expected, fileNames(chart));
+    assertTrue(report.getRemovedPaths().contains("templates/ci/test.yaml"));
+    assertTrue(report.getRemovedPaths().contains("README.md"));
+    assertEquals(report.getOriginalSize() - chart.build().getSerializedSize(), report.getBytesSaved());
+    assertTrue(report.getBytesSaved() > 0L);
+  }
+
+  @Test
+  public void testDynamicFileAccessKeepsFiles() {
+    final Chart.Builder chart = chart("parent");
+    addTemplate(chart, "templates/configmap.yaml", "data:\n{{ (.Files.Glob \"files/*\").AsConfig | indent 2 }}\n");
+    addFile(chart, "files/a.txt", "a");
+    addFile(chart, "README.md", "# Parent\n");
+    new ChartMinimizer().minimize(chart);
+    assertEquals(2, chart.getFilesCount());
+  }
+
+  @Test
+  public void testTplKeepsFiles() {
+    // The values rendered by tpl, here or in the release's own
+    // values, may read any file.
+    final Chart.Builder chart = chart("parent");
+    chart.getValuesBuilder().setRaw("banner: '{{ .Files.Get \"files/banner.txt\" }}'\n");
+    addTemplate(chart, "templates/configmap.yaml", "data:\n  banner: {{ tpl .Values.banner . | quote }}\n");
+    addFile(chart, "files/banner.txt", "Hello");
+    addFile(chart, "README.md", "# Parent\n");
+    new ChartMinimizer().minimize(chart);
+    assertEquals(2, chart.getFilesCount());
+  }
+
+  @Test
+  public void testIdenticalSubchartsCollapse() {
+    final Chart.Builder chart = chart("parent");
+    for (int i = 0; i < 2; i++) {
+      final Chart.Builder subchart = chart("common");
+      addTemplate(subchart, "templates/_helpers.tpl", "{{- define \"common.name\" -}}common{{- end -}}\n");
+      // Only the copies' READMEs differ, and they are removed first.
+      addFile(subchart, "README.md", "# Copy " + i + "\n");
+      chart.addDependencies(subchart);
+    }
+    final Chart.Builder other = chart("other");
+    addTemplate(other, "templates/_helpers.tpl", "{{- define \"other.name\" -}}other{{- end -}}\n");
+    chart.addDependencies(other);
+    final long originalSize = chart.build().getSerializedSize();
+
+    final ChartMinimizer.Report report = new ChartMinimizer().minimize(chart);
+
+    // Sizes are computed from the builders without building them, and
+    // must agree with the built charts.
+    assertEquals(originalSize, report.getOriginalSize());
+    assertEquals(chart.build().getSerializedSize(), report.getMinimizedSize());
+
+    assertEquals(2, chart.getDependenciesCount());
+    assertEquals("common", chart.getDependencies(0).getMetadata().getName());
+    assertEquals("other", chart.getDependencies(1).getMetadata().getName());
+    assertEquals(1, report.getCollapsedSubcharts().size());
+    assertEquals("charts/common", report.getCollapsedSubcharts().get(0));
+    assertTrue(report.getRemovedPaths().contains("charts/common/README.md"));
+  }
+
+}
@@ -17,6 +17,8 @@
 package org.microbean.helm.chart;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 import java.net.URI;
@@ -28,6 +30,9 @@ import java.nio.file.Paths;
 
 import java.util.zip.GZIPOutputStream;
 
+import com.google.protobuf.Any;
+import com.google.protobuf.ByteString;
+
 import hapi.chart.ChartOuterClass.ChartOrBuilder;
 import hapi.chart.ChartOuterClass.Chart;
 
@@ -36,6 +41,10 @@ import org.junit.Test;
 import org.junit.Before;
 import org.junit.After;
 
+import org.kamranzafar.jtar.TarEntry;
+import org.kamranzafar.jtar.TarInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
@@ -80,4 +89,36 @@ public class TestTapeArchiveChartWriter {
     Files.delete(chartPath);    
   }
 
+  @Test
+  public void testWriteBinaryFile() throws IOException {
+    final byte[] bytes = new byte[256];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte)i; // not valid UTF-8
+    }
+    final Chart.Builder builder = Chart.newBuilder();
+    builder.getMetadataBuilder().setName("binary");
+    builder.addFiles(Any.newBuilder().setTypeUrl("files/image.bin").setValue(ByteString.copyFrom(bytes)));
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (final TapeArchiveChartWriter writer = new TapeArchiveChartWriter(baos)) {
+      writer.write(builder);
+    }
+    byte[] contents = null;
+    try (final TarInputStream stream = new TarInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+      TarEntry entry;
+      while ((entry = stream.getNextEntry()) != null) {
+        if ("binary/files/image.bin".equals(entry.getName())) {
+          final ByteArrayOutputStream entryContents = new ByteArrayOutputStream();
+          final byte[] buffer = new byte[4096];
+          int bytesRead;
+          while ((bytesRead = stream.read(buffer)) >= 0) {
+            entryContents.write(buffer, 0, bytesRead);
+          }
+          contents = entryContents.toByteArray();
+        }
+      }
+    }
+    assertNotNull(contents);
+    assertArrayEquals(bytes, contents);
+  }
+
 }
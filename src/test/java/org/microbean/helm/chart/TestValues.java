@@ -16,13 +16,17 @@
  */
 package org.microbean.helm.chart;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
@@ -91,4 +95,30 @@ public class TestValues {
     assertNotNull(Values.coalesceMaps(null, null));
   }
   
+  @Test
+  public void testCopyIsDeep() {
+    assertNull(Values.copy(null));
+    
+    final Map<String, Object> nested = new HashMap<>();
+    nested.put("key", "value");
+    final List<Object> list = new ArrayList<>();
+    list.add(nested);
+    final Map<String, Object> original = new HashMap<>();
+    original.put("nested", nested);
+    original.put("list", list);
+    original.put("scalar", Integer.valueOf(42));
+
+    final Map<String, Object> copy = Values.copy(original);
+    assertNotNull(copy);
+    assertNotSame(original, copy);
+    assertEquals(original, copy);
+    assertNotSame(nested, copy.get("nested"));
+    assertNotSame(list, copy.get("list"));
+
+    @SuppressWarnings("unchecked")
+    final Map<String, Object> copiedNested = (Map<String, Object>)copy.get("nested");
+    copiedNested.put("key", "changed");
+    assertEquals("value", nested.get("key"));
+  }
+  
 }
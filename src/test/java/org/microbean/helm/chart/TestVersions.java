@@ -0,0 +1,62 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart;
+
+import com.github.zafarkhaja.semver.ParseException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestVersions {
+
+  public TestVersions() {
+    super();
+  }
+
+  @Test
+  public void testParseVersionIsCached() {
+    assertSame(Versions.parseVersion("1.2.3"), Versions.parseVersion("1.2.3"));
+  }
+
+  @Test
+  public void testParseRangeIsCached() {
+    assertSame(Versions.parseRange("~1.2.0"), Versions.parseRange("~1.2.0"));
+  }
+
+  @Test
+  public void testParseVersionOrNull() {
+    assertNull(Versions.parseVersionOrNull(null));
+    assertNull(Versions.parseVersionOrNull("not a version"));
+  }
+
+  @Test(expected = ParseException.class)
+  public void testParseVersionRejectsGarbage() {
+    Versions.parseVersion("1.2.3.4.5");
+  }
+
+  @Test
+  public void testSatisfies() {
+    assertTrue(Versions.satisfies("1.2.5", "~1.2.0"));
+    assertFalse(Versions.satisfies("1.3.0", "~1.2.0"));
+    assertTrue(Versions.satisfies("0.1.0", "0.1.0"));
+  }
+  
+}
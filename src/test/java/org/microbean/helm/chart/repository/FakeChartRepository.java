@@ -0,0 +1,198 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.CopyOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link ChartRepository} at {@code https://charts.example.com/}
+ * that serves chart archives from memory, caches into a single
+ * directory, and counts its downloads, each of which takes a tenth of
+ * a second.
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ */
+final class FakeChartRepository extends ChartRepository {
+
+  /**
+   * The contents of this repository's {@code index.yaml} file.
+   */
+  private final String index;
+
+  /**
+   * Chart archives by file name, such as {@code app-1.0.0.tgz}.
+   */
+  private final Map<String, byte[]> archives;
+
+  /**
+   * The number of times each archive has been downloaded, by file
+   * name.
+   */
+  private final ConcurrentMap<String, AtomicInteger> downloads;
+
+  private final AtomicInteger downloadsInFlight;
+
+  private final AtomicInteger maximumDownloadsInFlight;
+
+  /**
+   * Creates a new {@link FakeChartRepository}.
+   *
+   * @param name the name of the repository; must not be {@code null}
+   *
+   * @param directory the directory into which the index and archives
+   * are cached; must not be {@code null}
+   *
+   * @param archives chart archives by file name, which must be of the
+   * form <code><em>name</em>-<em>version</em>.tgz</code>; must not
+   * be {@code null}
+   *
+   * @param digests the digests to list in the index for some or all
+   * of the archives, by file name, in place of their real ones; may
+   * be {@code null}
+   *
+   * @exception URISyntaxException never
+   */
+  FakeChartRepository(final String name,
+                      final Path directory,
+                      final Map<? extends String, ? extends byte[]> archives,
+                      final Map<? extends String, ? extends String> digests)
+    throws URISyntaxException {
+    super(name, new URI("https://charts.example.com/"), directory, directory, directory.resolve(name + "-index.yaml"), false, null, null);
+    this.archives = Collections.unmodifiableMap(new LinkedHashMap<>(archives));
+    this.index = newIndex(this.archives, digests);
+    this.downloads = new ConcurrentHashMap<>();
+    this.downloadsInFlight = new AtomicInteger();
+    this.maximumDownloadsInFlight = new AtomicInteger();
+  }
+
+  /**
+   * Returns the number of times the archive with the supplied file
+   * name has been downloaded.
+   */
+  final int getDownloadCount(final String fileName) {
+    final AtomicInteger count = this.downloads.get(fileName);
+    return count == null ? 0 : count.get();
+  }
+
+  /**
+   * Returns the largest number of archive downloads that have been
+   * in progress at once.
+   */
+  final int getMaximumDownloadsInFlight() {
+    return this.maximumDownloadsInFlight.get();
+  }
+
+  @Override
+  public final Path downloadIndexTo(final Path path, final CopyOption... copyOptions) throws IOException {
+    return Files.write(path, this.index.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Override
+  protected final InputStream openStream(final URL url) throws IOException {
+    final String path = url.getPath();
+    final String fileName = path.substring(path.lastIndexOf('/') + 1);
+    this.downloads.computeIfAbsent(fileName, f -> new AtomicInteger()).incrementAndGet();
+    this.maximumDownloadsInFlight.accumulateAndGet(this.downloadsInFlight.incrementAndGet(), Math::max);
+    try {
+      Thread.sleep(100L);
+    } catch (final InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      final InterruptedIOException throwMe = new InterruptedIOException(interruptedException.getMessage());
+      throwMe.initCause(interruptedException);
+      throw throwMe;
+    } finally {
+      this.downloadsInFlight.decrementAndGet();
+    }
+    final byte[] archive = this.archives.get(fileName);
+    if (archive == null) {
+      throw new IOException("Not found: " + url);
+    }
+    return new ByteArrayInputStream(archive);
+  }
+
+  /**
+   * Returns the contents of an {@code index.yaml} file listing the
+   * supplied chart archives.
+   *
+   * @param archives chart archives by file name, which must be of the
+   * form <code><em>name</em>-<em>version</em>.tgz</code>; must not
+   * be {@code null}
+   *
+   * @param digests the digests to list for some or all of the
+   * archives, by file name, in place of their real ones; may be
+   * {@code null}
+   *
+   * @return the contents of an {@code index.yaml} file; never {@code
+   * null}
+   */
+  static final String newIndex(final Map<? extends String, ? extends byte[]> archives,
+                               final Map<? extends String, ? extends String> digests) {
+    final Map<String, StringBuilder> entries = new LinkedHashMap<>();
+    for (final Map.Entry<? extends String, ? extends byte[]> archive : archives.entrySet()) {
+      final String fileName = archive.getKey();
+      final String nameAndVersion = fileName.substring(0, fileName.length() - ".tgz".length());
+      final int hyphen = nameAndVersion.lastIndexOf('-');
+      final String name = nameAndVersion.substring(0, hyphen);
+      final String version = nameAndVersion.substring(hyphen + 1);
+      String digest = digests == null ? null : digests.get(fileName);
+      if (digest == null) {
+        try {
+          digest = ChartRepository.Index.Entry.getDigest(new ByteArrayInputStream(archive.getValue()));
+        } catch (final IOException impossible) {
+          throw new IllegalStateException(impossible.getMessage(), impossible);
+        }
+      }
+      entries.computeIfAbsent(name, n -> new StringBuilder())
+        .append("  - apiVersion: v1\n")
+        .append("    created: 2019-01-01T00:00:00Z\n")
+        .append("    digest: ").append(digest).append("\n")
+        .append("    name: ").append(name).append("\n")
+        .append("    urls:\n")
+        .append("    - https://charts.example.com/").append(fileName).append("\n")
+        .append("    version: ").append(version).append("\n");
+    }
+    final StringBuilder returnValue = new StringBuilder("apiVersion: v1\nentries:\n");
+    for (final Map.Entry<String, StringBuilder> entry : entries.entrySet()) {
+      returnValue.append("  ").append(entry.getKey()).append(":\n").append(entry.getValue());
+    }
+    return returnValue.toString();
+  }
+
+}
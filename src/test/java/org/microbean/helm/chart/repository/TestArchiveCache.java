@@ -0,0 +1,166 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.io.IOException;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.nio.file.attribute.FileTime;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestArchiveCache {
+
+  private Path directory;
+
+  public TestArchiveCache() {
+    super();
+  }
+
+  @Before
+  public void createDirectory() throws IOException {
+    this.directory = Files.createTempDirectory("TestArchiveCache").toAbsolutePath();
+  }
+
+  @After
+  public void deleteDirectory() throws IOException {
+    if (this.directory != null) {
+      try (final DirectoryStream<Path> paths = Files.newDirectoryStream(this.directory)) {
+        for (final Path path : paths) {
+          Files.delete(path);
+        }
+      }
+      Files.delete(this.directory);
+    }
+  }
+
+  private final Path createArchive(final String name, final int size, final Instant lastModified) throws IOException {
+    final Path archive = Files.write(this.directory.resolve(name), new byte[size]);
+    Files.setLastModifiedTime(archive, FileTime.from(lastModified));
+    return archive;
+  }
+
+  @Test
+  public void testBoundedArchiveEvictionPolicy() {
+    final Instant now = Instant.now();
+    final ArchiveCache.Entry old = new ArchiveCache.Entry(this.directory.resolve("old-0.1.0.tgz"), 10L, now.minus(Duration.ofDays(30L)));
+    final ArchiveCache.Entry middle = new ArchiveCache.Entry(this.directory.resolve("middle-0.1.0.tgz"), 10L, now.minus(Duration.ofHours(2L)));
+    final ArchiveCache.Entry recent = new ArchiveCache.Entry(this.directory.resolve("recent-0.1.0.tgz"), 10L, now);
+    final Collection<ArchiveCache.Entry> entries = Arrays.asList(recent, old, middle);
+
+    Collection<? extends Path> evictions = new BoundedArchiveEvictionPolicy(-1L, Duration.ofDays(1L)).selectForEviction(entries, now);
+    assertEquals(Arrays.asList(old.getPath()), evictions);
+
+    evictions = new BoundedArchiveEvictionPolicy(15L, null).selectForEviction(entries, now);
+    assertEquals(Arrays.asList(old.getPath(), middle.getPath()), evictions);
+
+    evictions = new BoundedArchiveEvictionPolicy(-1L, null).selectForEviction(entries, now);
+    assertTrue(evictions.isEmpty());
+  }
+
+  @Test
+  public void testPinnedBytesAreNotCountedAsFreed() {
+    final Instant now = Instant.now();
+    final ArchiveCache.Entry pinned = new ArchiveCache.Entry(this.directory.resolve("pinned-0.1.0.tgz"), 10L, now.minus(Duration.ofDays(30L)), true);
+    final ArchiveCache.Entry middle = new ArchiveCache.Entry(this.directory.resolve("middle-0.1.0.tgz"), 10L, now.minus(Duration.ofHours(2L)));
+    final ArchiveCache.Entry recent = new ArchiveCache.Entry(this.directory.resolve("recent-0.1.0.tgz"), 10L, now);
+    final Collection<ArchiveCache.Entry> entries = Arrays.asList(recent, pinned, middle);
+
+    // The pinned archive's ten bytes stay put, so both of the others
+    // have to go to get within fifteen.
+    final Collection<? extends Path> evictions = new BoundedArchiveEvictionPolicy(15L, Duration.ofDays(1L)).selectForEviction(entries, now);
+    assertEquals(Arrays.asList(middle.getPath(), recent.getPath()), evictions);
+  }
+
+  @Test
+  public void testPinnedArchiveSurvivesEviction() throws IOException {
+    final Instant longAgo = Instant.now().minus(Duration.ofDays(30L));
+    final Path pinned = this.createArchive("pinned-0.1.0.tgz", 10, longAgo);
+    final Path unpinned = this.createArchive("unpinned-0.1.0.tgz", 10, longAgo);
+    try (final ArchiveCache cache = new ArchiveCache(this.directory, new BoundedArchiveEvictionPolicy(0L, null), null, null)) {
+      try (final ArchiveCache.Pin pin = cache.pin(pinned)) {
+        assertEquals(Arrays.asList(unpinned), cache.evict());
+        assertTrue(Files.exists(pinned));
+      }
+      assertEquals(Arrays.asList(pinned), cache.evict());
+      assertFalse(Files.exists(pinned));
+    }
+  }
+
+  @Test
+  public void testAccessJournalSurvivesRestart() throws IOException {
+    final Instant longAgo = Instant.now().minus(Duration.ofDays(30L));
+    final Path accessed = this.createArchive("accessed-0.1.0.tgz", 10, longAgo);
+    final Path ignored = this.createArchive("ignored-0.1.0.tgz", 10, longAgo);
+    final ArchiveEvictionPolicy policy = new BoundedArchiveEvictionPolicy(-1L, Duration.ofDays(1L));
+    try (final ArchiveCache cache = new ArchiveCache(this.directory, policy, null, null)) {
+      cache.recordAccess(accessed);
+    }
+    try (final ArchiveCache cache = new ArchiveCache(this.directory, policy, null, null)) {
+      assertEquals(Arrays.asList(ignored), cache.evict());
+      assertTrue(Files.exists(accessed));
+    }
+  }
+
+  @Test
+  public void testCompactionKeepsOtherCachesAccesses() throws IOException {
+    final Instant longAgo = Instant.now().minus(Duration.ofDays(30L));
+    final Path accessed = this.createArchive("accessed-0.1.0.tgz", 10, longAgo);
+    final Path ignored = this.createArchive("ignored-0.1.0.tgz", 10, longAgo);
+    try (final ArchiveCache compacting = new ArchiveCache(this.directory, new BoundedArchiveEvictionPolicy(-1L, null), null, null);
+         final ArchiveCache accessing = new ArchiveCache(this.directory, new BoundedArchiveEvictionPolicy(-1L, null), null, null)) {
+      // The compacting cache has never heard of this access, but must
+      // not drop it from the journal.
+      accessing.recordAccess(accessed);
+      assertTrue(compacting.evict().isEmpty());
+    }
+    try (final ArchiveCache cache = new ArchiveCache(this.directory, new BoundedArchiveEvictionPolicy(-1L, Duration.ofDays(1L)), null, null)) {
+      assertEquals(Arrays.asList(ignored), cache.evict());
+      assertTrue(Files.exists(accessed));
+    }
+  }
+
+  @Test
+  public void testLeftoversAreDeleted() throws IOException {
+    final Instant longAgo = Instant.now().minus(Duration.ofDays(1L));
+    final Path staleTemporary = this.createArchive("crashed-0.1.0.tgz.tmp", 10, longAgo);
+    final Path staleLock = this.createArchive("crashed-0.1.0.tgz.lock", 0, longAgo);
+    final Path freshTemporary = this.createArchive("downloading-0.1.0.tgz.tmp", 10, Instant.now());
+    try (final ArchiveCache cache = new ArchiveCache(this.directory, new BoundedArchiveEvictionPolicy(-1L, null), null, null)) {
+      assertTrue(cache.evict().isEmpty());
+    }
+    assertFalse(Files.exists(staleTemporary));
+    assertFalse(Files.exists(staleLock));
+    assertTrue(Files.exists(freshTemporary));
+  }
+  
+}
@@ -0,0 +1,218 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2019 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.net.URISyntaxException;
+
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import java.util.stream.Stream;
+
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.kamranzafar.jtar.TarEntry;
+import org.kamranzafar.jtar.TarHeader;
+import org.kamranzafar.jtar.TarOutputStream;
+
+import org.microbean.helm.chart.resolver.ChartResolverException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestChartPrefetcher {
+
+  private Path directory;
+
+  /**
+   * Chart archives by file name, as served by the repository.
+   */
+  private Map<String, byte[]> archives;
+
+  /**
+   * The repository most recently created by {@link
+   * #newChartRepositoryRepository()}.
+   */
+  private FakeChartRepository chartRepository;
+
+  public TestChartPrefetcher() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    this.directory = Files.createTempDirectory("TestChartPrefetcher");
+    this.archives = new LinkedHashMap<>();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (this.directory != null) {
+      try (final Stream<Path> paths = Files.walk(this.directory)) {
+        paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+      }
+    }
+  }
+
+  @Test
+  public void testResolveVersion() throws IOException {
+    final Path indexPath = Paths.get(Thread.currentThread().getContextClassLoader().getResource("TestChartRepository/stable-index.yaml").getPath());
+    final ChartRepository.Index index = ChartRepository.Index.loadFrom(indexPath, "wordpress"::equals);
+    assertEquals("0.6.12", ChartPrefetcher.resolveVersion(index, "wordpress", null));
+    assertEquals("0.5.1", ChartPrefetcher.resolveVersion(index, "wordpress", "0.5.1"));
+    assertEquals("0.5.2", ChartPrefetcher.resolveVersion(index, "wordpress", "~0.5.0"));
+    assertEquals("0.4.3", ChartPrefetcher.resolveVersion(index, "wordpress", ">=0.4.0 & <0.5.0"));
+    assertNull(ChartPrefetcher.resolveVersion(index, "wordpress", ">=1.0.0"));
+    assertNull(ChartPrefetcher.resolveVersion(index, "mysql", null));
+  }
+
+  @Test
+  public void testChartCoordinates() {
+    final ChartRepositoryRepository.ChartCoordinates a = new ChartRepositoryRepository.ChartCoordinates("stable", "redis", "1.0.0");
+    final ChartRepositoryRepository.ChartCoordinates b = new ChartRepositoryRepository.ChartCoordinates("stable", "redis", "1.0.0");
+    assertEquals(a, b);
+    assertEquals(a.hashCode(), b.hashCode());
+    assertEquals("stable/redis@1.0.0", a.toString());
+    assertEquals("stable/redis", new ChartRepositoryRepository.ChartCoordinates("stable", "redis", null).toString());
+  }
+
+  @Test
+  public void testGetVendoredChartName() {
+    assertEquals("foo", ChartPrefetcher.getVendoredChartName("foo-1.0.0.tgz", false));
+    assertEquals("foo-bar", ChartPrefetcher.getVendoredChartName("foo-bar-1.0.0.tgz", false));
+    assertEquals("foo", ChartPrefetcher.getVendoredChartName("foo-1.0.0-rc.1.tgz", false));
+    assertEquals("foo-2fa", ChartPrefetcher.getVendoredChartName("foo-2fa-1.0.0.tgz", false));
+    assertEquals("foo-bar", ChartPrefetcher.getVendoredChartName("foo-bar", true));
+    assertNull(ChartPrefetcher.getVendoredChartName("foo.tgz", false));
+    assertNull(ChartPrefetcher.getVendoredChartName("README.md", false));
+  }
+
+  @Test
+  public void testParallelismIsBounded() throws ChartResolverException, IOException, URISyntaxException {
+    final Set<ChartRepositoryRepository.ChartCoordinates> coordinates = new HashSet<>();
+    for (int i = 0; i < 8; i++) {
+      this.addChart("independent-" + i, "1.0.0", null);
+      coordinates.add(new ChartRepositoryRepository.ChartCoordinates("stable", "independent-" + i, null));
+    }
+    // The executor has threads to spare; the bound must come from
+    // the prefetcher itself.
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      final Map<ChartRepositoryRepository.ChartCoordinates, Path> results = this.newChartRepositoryRepository().prefetch(coordinates, executor, 2);
+      assertEquals(8, results.size());
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(2, this.chartRepository.getMaximumDownloadsInFlight());
+  }
+
+  @Test
+  public void testSharedRequirementsAreFetchedOnce() throws ChartResolverException, IOException, URISyntaxException {
+    this.addChart("app", "1.0.0", null, dependency("left", "1.0.0"), dependency("right", "1.0.0"));
+    // Two different ranges that resolve to the same version.
+    this.addChart("left", "1.0.0", null, dependency("shared", "^1.0.0"));
+    this.addChart("right", "1.0.0", null, dependency("shared", "~1.0.0"));
+    this.addChart("shared", "1.0.0", null);
+    this.addChart("shared", "0.9.0", null);
+    final Map<ChartRepositoryRepository.ChartCoordinates, Path> results =
+      this.newChartRepositoryRepository().prefetch(Collections.singleton(new ChartRepositoryRepository.ChartCoordinates("stable", "app", "1.0.0")), 4);
+    assertEquals(new HashSet<>(Arrays.asList(coordinates("app", "1.0.0"), coordinates("left", "1.0.0"), coordinates("right", "1.0.0"), coordinates("shared", "1.0.0"))),
+                 results.keySet());
+    for (final String fileName : Arrays.asList("app-1.0.0.tgz", "left-1.0.0.tgz", "right-1.0.0.tgz", "shared-1.0.0.tgz")) {
+      assertEquals(fileName, 1, this.chartRepository.getDownloadCount(fileName));
+    }
+    assertEquals(0, this.chartRepository.getDownloadCount("shared-0.9.0.tgz"));
+  }
+
+  @Test
+  public void testVendoredRequirementsAreNotFetched() throws ChartResolverException, IOException, URISyntaxException {
+    // charts/foo-bar-1.0.0.tgz vendors foo-bar, not foo.
+    this.addChart("app", "1.0.0", "foo-bar-1.0.0.tgz", dependency("foo", "1.0.0"), dependency("foo-bar", "1.0.0"));
+    this.addChart("foo", "1.0.0", null);
+    this.addChart("foo-bar", "1.0.0", null);
+    final Map<ChartRepositoryRepository.ChartCoordinates, Path> results =
+      this.newChartRepositoryRepository().prefetch(Collections.singleton(new ChartRepositoryRepository.ChartCoordinates("stable", "app", "1.0.0")), 1);
+    assertEquals(new HashSet<>(Arrays.asList(coordinates("app", "1.0.0"), coordinates("foo", "1.0.0"))), results.keySet());
+    assertEquals(0, this.chartRepository.getDownloadCount("foo-bar-1.0.0.tgz"));
+  }
+
+  private static final ChartRepositoryRepository.ChartCoordinates coordinates(final String chartName, final String version) {
+    return new ChartRepositoryRepository.ChartCoordinates("stable", chartName, version);
+  }
+
+  private static final String dependency(final String name, final String version) {
+    return "- name: " + name + "\n  version: \"" + version + "\"\n  repository: \"@stable\"\n";
+  }
+
+  /**
+   * Adds a chart archive, optionally vendoring an empty archive under
+   * {@code charts/} and requiring the supplied dependencies, to the
+   * repository.
+   */
+  private final void addChart(final String name, final String version, final String vendoredFileName, final String... dependencies) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (final TarOutputStream stream = new TarOutputStream(new GZIPOutputStream(bytes))) {
+      put(stream, name + "/Chart.yaml", "apiVersion: v1\nname: " + name + "\nversion: " + version + "\n");
+      if (dependencies.length > 0) {
+        put(stream, name + "/requirements.yaml", "dependencies:\n" + String.join("", dependencies));
+      }
+      if (vendoredFileName != null) {
+        put(stream, name + "/charts/" + vendoredFileName, "");
+      }
+    }
+    this.archives.put(name + "-" + version + ".tgz", bytes.toByteArray());
+  }
+
+  private static final void put(final TarOutputStream stream, final String name, final String contents) throws IOException {
+    final byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+    stream.putNextEntry(new TarEntry(TarHeader.createHeader(name, bytes.length, System.currentTimeMillis() / 1000L, false, 0644)));
+    stream.write(bytes);
+  }
+
+  /**
+   * Returns a {@link ChartRepositoryRepository} holding one {@link
+   * ChartRepository}, {@code stable}, that serves the charts {@linkplain
+   * #addChart(String, String, String, String...) added} so far; each
+   * download takes a tenth of a second.
+   */
+  private final ChartRepositoryRepository newChartRepositoryRepository() throws URISyntaxException {
+    this.chartRepository = new FakeChartRepository("stable", this.directory, this.archives, null);
+    return new ChartRepositoryRepository(Collections.singleton(this.chartRepository));
+  }
+
+}
@@ -16,21 +16,67 @@
  */
 package org.microbean.helm.chart.repository;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URL;
 
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import java.nio.file.attribute.FileTime;
+
+import java.time.Duration;
+import java.time.Instant;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.SortedSet;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.util.stream.Stream;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpServer;
+
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TestChartRepository {
 
@@ -58,6 +104,42 @@ public class TestChartRepository {
     assertEquals("0.6.12", mostRecentWordpress.getVersion());
   }
 
+  @Test
+  public void testLoadIndexWithChartNameFilter() throws IOException, URISyntaxException {
+    final Path indexPath = Paths.get(Thread.currentThread().getContextClassLoader().getResource("TestChartRepository/stable-index.yaml").getPath());
+    assertNotNull(indexPath);
+    final ChartRepository.Index index = ChartRepository.Index.loadFrom(indexPath, name -> "wordpress".equals(name) || "redis".equals(name));
+    assertNotNull(index);
+    final Map<String, SortedSet<ChartRepository.Index.Entry>> entries = index.getEntries();
+    assertNotNull(entries);
+    assertEquals(2, entries.size());
+    final SortedSet<ChartRepository.Index.Entry> wordpressEntries = entries.get("wordpress");
+    assertNotNull(wordpressEntries);
+    assertEquals(25, wordpressEntries.size());
+    assertEquals("0.6.12", wordpressEntries.first().getVersion());
+    assertNotNull(entries.get("redis"));
+    assertNull(entries.get("mysql"));
+  }
+
+  @Test
+  public void testIndexMaxAge() throws IOException, URISyntaxException {
+    final Path indexPath = Paths.get(Thread.currentThread().getContextClassLoader().getResource("TestChartRepository/stable-index.yaml").getPath());
+    assertNotNull(indexPath);
+    final Path directory = Files.createTempDirectory("TestChartRepository");
+    try {
+      final Path cachedIndexPath = Files.copy(indexPath, directory.resolve("stable-index.yaml"));
+      final ChartRepository chartRepository =
+        new ChartRepository("stable", new URI("https://kubernetes-charts.storage.googleapis.com/"), directory, directory, cachedIndexPath, false, null, Duration.ofMinutes(5L));
+      assertEquals(Duration.ofMinutes(5L), chartRepository.getIndexMaxAge());
+      assertFalse(chartRepository.isCachedIndexExpired());
+      Files.setLastModifiedTime(cachedIndexPath, FileTime.from(Instant.now().minus(Duration.ofHours(1L))));
+      assertTrue(chartRepository.isCachedIndexExpired());
+      Files.delete(cachedIndexPath);
+    } finally {
+      Files.delete(directory);
+    }
+  }
+
   @Test
   public void testIssue172() throws IOException, URISyntaxException {
     final Path indexPath = Paths.get(Thread.currentThread().getContextClassLoader().getResource("TestChartRepository/stable-index-172.yaml").getPath());
@@ -77,5 +159,246 @@ public class TestChartRepository {
     assertEquals("wordpress", mostRecentWordpress.getName());
     assertEquals("1.0.10", mostRecentWordpress.getVersion());
   }
-  
+
+  @Test
+  public void testConditionalIndexDownload() throws IOException, URISyntaxException {
+    final byte[] index = FakeChartRepository.newIndex(Collections.singletonMap("fake-1.0.0.tgz", new byte[0]), Collections.singletonMap("fake-1.0.0.tgz", "sha256")).getBytes(StandardCharsets.UTF_8);
+    final String eTag = "\"v1\"";
+    final String lastModified = "Tue, 01 Jan 2019 00:00:00 GMT";
+    final List<Headers> requests = Collections.synchronizedList(new ArrayList<>());
+    final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/index.yaml", exchange -> {
+        requests.add(exchange.getRequestHeaders());
+        exchange.getResponseHeaders().set("ETag", eTag);
+        exchange.getResponseHeaders().set("Last-Modified", lastModified);
+        if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+          exchange.sendResponseHeaders(304, -1L);
+        } else {
+          exchange.sendResponseHeaders(200, index.length);
+          try (final OutputStream body = exchange.getResponseBody()) {
+            body.write(index);
+          }
+        }
+        exchange.close();
+      });
+    server.start();
+    final Path directory = Files.createTempDirectory("TestChartRepository");
+    try {
+      final Path cachedIndexPath = directory.resolve("local-index.yaml");
+      final URI uri = new URI("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/");
+      final ChartRepository chartRepository = new ChartRepository("local", uri, directory, directory, cachedIndexPath, false, Proxy.NO_PROXY, null);
+
+      // The first download is unconditional and records the
+      // validators alongside the index.
+      final ChartRepository.Index first = chartRepository.getIndex(true);
+      assertNotNull(first.getEntry("fake", "1.0.0"));
+      assertEquals(1, requests.size());
+      assertNull(requests.get(0).getFirst("If-None-Match"));
+      assertNull(requests.get(0).getFirst("If-Modified-Since"));
+      final Path validatorsPath = directory.resolve("local-index.yaml.validators");
+      assertTrue(Files.isRegularFile(validatorsPath));
+      final Properties validators = new Properties();
+      try (final InputStream stream = Files.newInputStream(validatorsPath)) {
+        validators.load(stream);
+      }
+      assertEquals(eTag, validators.getProperty("ETag"));
+      assertEquals(lastModified, validators.getProperty("Last-Modified"));
+
+      // The second download sends them back, and the 304 keeps the
+      // cached index, restarts its clock, and skips the reparse.
+      final FileTime anHourAgo = FileTime.from(Instant.now().minus(Duration.ofHours(1L)));
+      Files.setLastModifiedTime(cachedIndexPath, anHourAgo);
+      final ChartRepository.Index second = chartRepository.getIndex(true);
+      assertEquals(2, requests.size());
+      assertEquals(eTag, requests.get(1).getFirst("If-None-Match"));
+      assertEquals(lastModified, requests.get(1).getFirst("If-Modified-Since"));
+      assertArrayEquals(index, Files.readAllBytes(cachedIndexPath));
+      assertTrue(Files.getLastModifiedTime(cachedIndexPath).compareTo(anHourAgo) > 0);
+      assertSame(first, second);
+    } finally {
+      server.stop(0);
+      delete(directory);
+    }
+  }
+
+  @Test
+  public void testIndexDownloadGoesThroughOverriddenOpenStream() throws IOException, URISyntaxException {
+    final byte[] index = FakeChartRepository.newIndex(Collections.singletonMap("fake-1.0.0.tgz", new byte[0]), Collections.singletonMap("fake-1.0.0.tgz", "sha256")).getBytes(StandardCharsets.UTF_8);
+    final AtomicInteger opens = new AtomicInteger();
+    final Path directory = Files.createTempDirectory("TestChartRepository");
+    try {
+      final ChartRepository chartRepository = new ChartRepository("fake", new URI("https://charts.example.com/"), directory, directory, directory.resolve("fake-index.yaml"), false, Proxy.NO_PROXY, null) {
+          @Override
+          protected final InputStream openStream(final URL url) throws IOException {
+            assertEquals("https://charts.example.com/index.yaml", url.toString());
+            opens.incrementAndGet();
+            return new ByteArrayInputStream(index);
+          }
+        };
+      assertNotNull(chartRepository.getIndex(true).getEntry("fake", "1.0.0"));
+      assertEquals(1, opens.get());
+      assertFalse(Files.exists(directory.resolve("fake-index.yaml.validators")));
+    } finally {
+      delete(directory);
+    }
+  }
+
+  @Test
+  public void testVerifiedDownload() throws IOException, URISyntaxException {
+    final byte[] archive = "archive".getBytes(StandardCharsets.UTF_8);
+    final Path directory = Files.createTempDirectory("TestChartRepository");
+    try {
+      final ChartRepository chartRepository = new FakeChartRepository("fake", directory, Collections.singletonMap("fake-1.0.0.tgz", archive), null);
+      final Path cachedChartPath = chartRepository.getCachedChartPath("fake", "1.0.0", true);
+      assertEquals(directory.resolve("fake-1.0.0.tgz"), cachedChartPath);
+      assertTrue(Files.isRegularFile(cachedChartPath));
+      assertLeftoversDeleted(directory);
+    } finally {
+      delete(directory);
+    }
+  }
+
+  @Test
+  public void testDigestMismatchRejectsArchive() throws IOException, URISyntaxException {
+    final byte[] archive = "archive".getBytes(StandardCharsets.UTF_8);
+    final Path directory = Files.createTempDirectory("TestChartRepository");
+    try {
+      final String wrongDigest = ChartRepository.Index.Entry.getDigest(new ByteArrayInputStream("tampered".getBytes(StandardCharsets.UTF_8)));
+      final ChartRepository chartRepository = new FakeChartRepository("fake", directory, Collections.singletonMap("fake-1.0.0.tgz", archive), Collections.singletonMap("fake-1.0.0.tgz", wrongDigest));
+      try {
+        chartRepository.getCachedChartPath("fake", "1.0.0", true);
+        fail();
+      } catch (final IOException expected) {
+        assertTrue(expected.getMessage().startsWith("Digest mismatch"));
+      }
+      // Neither the archive nor its temporary file is left behind.
+      // The lock file is, until the next successful download or until
+      // ArchiveCache#evict() sweeps it up.
+      try (final Stream<Path> children = Files.list(directory)) {
+        assertFalse(children.map(child -> child.getFileName().toString()).anyMatch(name -> name.equals("fake-1.0.0.tgz") || name.endsWith(".tgz.tmp")));
+      }
+
+      // Without verification the same archive is accepted.
+      assertTrue(Files.isRegularFile(chartRepository.getCachedChartPath("fake", "1.0.0", false)));
+      assertLeftoversDeleted(directory);
+    } finally {
+      delete(directory);
+    }
+  }
+
+  @Test
+  public void testConcurrentResolvesDownloadOnce() throws ExecutionException, InterruptedException, IOException, URISyntaxException {
+    final byte[] archive = "archive".getBytes(StandardCharsets.UTF_8);
+    final Path directory = Files.createTempDirectory("TestChartRepository");
+    final int threadCount = 16;
+    final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try {
+      final FakeChartRepository chartRepository = new FakeChartRepository("fake", directory, Collections.singletonMap("fake-1.0.0.tgz", archive), null);
+      final List<Future<Path>> futures = resolveConcurrently(executor, threadCount, chartRepository);
+      for (final Future<Path> future : futures) {
+        assertEquals(directory.resolve("fake-1.0.0.tgz"), future.get());
+      }
+      assertEquals(1, chartRepository.getDownloadCount("fake-1.0.0.tgz"));
+      assertArrayEquals(archive, Files.readAllBytes(directory.resolve("fake-1.0.0.tgz")));
+      assertLeftoversDeleted(directory);
+    } finally {
+      executor.shutdownNow();
+      delete(directory);
+    }
+  }
+
+  @Test
+  public void testResolveWaitsForAnotherProcess() throws ExecutionException, InterruptedException, IOException, URISyntaxException {
+    final byte[] archive = "archive".getBytes(StandardCharsets.UTF_8);
+    final Path directory = Files.createTempDirectory("TestChartRepository");
+    final int threadCount = 4;
+    final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    Process otherProcess = null;
+    try {
+      final FakeChartRepository chartRepository = new FakeChartRepository("fake", directory, Collections.singletonMap("fake-1.0.0.tgz", archive), null);
+      final Path cachedChartPath = directory.resolve("fake-1.0.0.tgz");
+      // Another JVM locks the archive's lock file, as though it were
+      // downloading the archive, and then puts the archive in place.
+      otherProcess = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                                        "-cp",
+                                        System.getProperty("java.class.path"),
+                                        Downloader.class.getName(),
+                                        cachedChartPath.toString(),
+                                        new String(archive, StandardCharsets.UTF_8))
+        .redirectErrorStream(true)
+        .start();
+      try (final BufferedReader reader = new BufferedReader(new InputStreamReader(otherProcess.getInputStream(), StandardCharsets.UTF_8))) {
+        assertEquals(Downloader.LOCKED, reader.readLine());
+        final List<Future<Path>> futures = resolveConcurrently(executor, threadCount, chartRepository);
+        for (final Future<Path> future : futures) {
+          assertEquals(cachedChartPath, future.get());
+        }
+      }
+      assertTrue(otherProcess.waitFor(10L, TimeUnit.SECONDS));
+      assertEquals(0, otherProcess.exitValue());
+      assertEquals(0, chartRepository.getDownloadCount("fake-1.0.0.tgz"));
+      assertArrayEquals(archive, Files.readAllBytes(cachedChartPath));
+      assertLeftoversDeleted(directory);
+    } finally {
+      if (otherProcess != null) {
+        otherProcess.destroyForcibly();
+      }
+      executor.shutdownNow();
+      delete(directory);
+    }
+  }
+
+  private static final List<Future<Path>> resolveConcurrently(final ExecutorService executor, final int threadCount, final ChartRepository chartRepository) {
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Future<Path>> futures = new ArrayList<>();
+    for (int i = 0; i < threadCount; i++) {
+      futures.add(executor.submit(() -> {
+            start.await();
+            return chartRepository.getCachedChartPath("fake", "1.0.0", true);
+          }));
+    }
+    start.countDown();
+    return futures;
+  }
+
+  private static final void assertLeftoversDeleted(final Path directory) throws IOException {
+    try (final Stream<Path> children = Files.list(directory)) {
+      assertFalse(children.map(child -> child.getFileName().toString()).anyMatch(name -> name.endsWith(".tgz.tmp") || name.endsWith(".tgz.lock")));
+    }
+  }
+
+  private static final void delete(final Path directory) throws IOException {
+    try (final Stream<Path> paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  /**
+   * Run in a separate JVM, locks the lock file of the archive named
+   * by the first argument in the same way that {@link
+   * ChartRepository} does, reports that it has done so, and after
+   * half a second writes the second argument to the archive.
+   */
+  public static final class Downloader {
+
+    static final String LOCKED = "locked";
+
+    private Downloader() {
+      super();
+    }
+
+    public static final void main(final String[] args) throws InterruptedException, IOException {
+      final Path archive = Paths.get(args[0]);
+      final Path lockPath = archive.resolveSibling(archive.getFileName() + ".lock");
+      try (final FileChannel lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+           final FileLock lock = lockChannel.lock()) {
+        System.out.println(LOCKED);
+        System.out.flush();
+        Thread.sleep(500L);
+        Files.write(archive, args[1].getBytes(StandardCharsets.UTF_8));
+      }
+    }
+
+  }
+
 }